@@ -0,0 +1,171 @@
+package com.opencorporates.record_linkage.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import com.opencorporates.record_linkage.mapper.LinkageTextDocValuesField;
+
+/**
+ * A synthetic corpus of company names, indexed in memory with term vectors and with
+ * the doc values of linkage_text fields, like the fields the plugin scores.
+ *
+ * Names are made of one to four words followed by a legal form. Words are drawn
+ * from a vocabulary of the given size, with a skewed distribution so that some
+ * words are much more frequent than others, as in real company names.
+ */
+public class CompanyNameCorpus implements Closeable {
+
+	public static final String FIELD = "name";
+	public static final int POSITION_INCREMENT_GAP = 100;
+
+	private static final String[] SYLLABLES = {
+			"an", "bel", "cor", "da", "el", "for", "gre", "ha", "in", "jo",
+			"ka", "lum", "mi", "nor", "o", "pa", "qui", "ro", "sen", "tech" };
+	private static final String[] LEGAL_FORMS = { "ltd", "limited", "llc", "inc", "corp", "gmbh", "sa", "plc" };
+
+	private final int vocabularySize;
+	private final Random random;
+	private final ByteBuffersDirectory directory = new ByteBuffersDirectory();
+	private final List<List<String>> documents = new ArrayList<>();
+	private final DirectoryReader reader;
+
+	/**
+	 * Generates and indexes a corpus.
+	 *
+	 * @param documentCount
+	 *     the number of documents to index
+	 * @param vocabularySize
+	 *     the number of distinct words names are made of
+	 * @param valuesPerDocument
+	 *     the number of names of each document
+	 * @param seed
+	 *     the seed of the generator, so that runs are comparable
+	 */
+	public CompanyNameCorpus(int documentCount, int vocabularySize, int valuesPerDocument, long seed) throws IOException {
+		this.vocabularySize = vocabularySize;
+		this.random = new Random(seed);
+
+		FieldType fieldType = new FieldType(TextField.TYPE_NOT_STORED);
+		fieldType.setStoreTermVectors(true);
+		fieldType.setStoreTermVectorPositions(true);
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer()))) {
+			for (int i = 0; i < documentCount; i++) {
+				Document document = new Document();
+				List<String> values = new ArrayList<>(valuesPerDocument);
+				LinkageTextDocValuesField docValues = new LinkageTextDocValuesField(FIELD);
+				for (int v = 0; v < valuesPerDocument; v++) {
+					String name = randomName();
+					values.add(name);
+					document.add(new Field(FIELD, name, fieldType));
+					List<BytesRef> tokens = new ArrayList<>();
+					for (String token : tokens(name)) {
+						tokens.add(new BytesRef(token));
+					}
+					docValues.add(tokens);
+				}
+				document.add(docValues);
+				documents.add(values);
+				writer.addDocument(document);
+			}
+			// a single segment, so that benchmarks only depend on the corpus
+			writer.forceMerge(1);
+		}
+		reader = DirectoryReader.open(directory);
+	}
+
+	/**
+	 * @return an analyzer splitting names on whitespace, leaving a gap between values
+	 */
+	public static Analyzer analyzer() {
+		return new Analyzer() {
+			@Override
+			protected TokenStreamComponents createComponents(String fieldName) {
+				return new TokenStreamComponents(new WhitespaceTokenizer());
+			}
+
+			@Override
+			public int getPositionIncrementGap(String fieldName) {
+				return POSITION_INCREMENT_GAP;
+			}
+		};
+	}
+
+	/**
+	 * @return a new random name, drawn from the same distribution as the indexed ones
+	 */
+	public String randomName() {
+		int words = 1 + random.nextInt(4);
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			// skewed towards the first words of the vocabulary
+			int index = (int) (vocabularySize * Math.pow(random.nextDouble(), 3));
+			name.append(word(index)).append(' ');
+		}
+		return name.append(LEGAL_FORMS[random.nextInt(LEGAL_FORMS.length)]).toString();
+	}
+
+	/**
+	 * @return the tokens of a name
+	 */
+	public static List<String> tokens(String name) {
+		return Arrays.asList(name.split(" "));
+	}
+
+	private static String word(int index) {
+		StringBuilder word = new StringBuilder();
+		do {
+			word.append(SYLLABLES[index % SYLLABLES.length]);
+			index /= SYLLABLES.length;
+		} while (index > 0);
+		return word.toString();
+	}
+
+	/**
+	 * @return the names of each document, by document id
+	 */
+	public List<List<String>> documents() {
+		return documents;
+	}
+
+	/**
+	 * @return the single segment of the index
+	 */
+	public LeafReader leaf() {
+		return leafContext().reader();
+	}
+
+	/**
+	 * @return the context of the single segment of the index, as scripts are given it
+	 */
+	public LeafReaderContext leafContext() {
+		return reader.leaves().get(0);
+	}
+
+	public int numDocs() {
+		return reader.numDocs();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+		directory.close();
+	}
+}
@@ -0,0 +1,97 @@
+package com.opencorporates.record_linkage.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.Term;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+
+/**
+ * Measures {@link StringSimilarity#compute(String, List, Map, List, Map, int)} on its own,
+ * on pairs of names drawn from the corpus, with frequencies looked up beforehand.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimilarityBenchmark {
+
+	private static final int PAIRS = 1024;
+
+	@Param({ "tfidf", "exact_tfidf", "levenshtein" })
+	public String similarity;
+
+	@Param({ "1000", "100000" })
+	public int vocabularySize;
+
+	private StringSimilarity sim;
+	private final List<Pair> pairs = new ArrayList<>(PAIRS);
+	private int numDocs;
+	private int next = 0;
+
+	private static class Pair {
+		String query;
+		List<String> queryTokens;
+		Map<String, Long> queryFreqs;
+		List<String> fieldTokens;
+		Map<String, Long> fieldFreqs;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		sim = RecordLinkageScorer.registeredSimilarities.get(similarity).withParameters(new HashMap<>());
+		try (CompanyNameCorpus corpus = new CompanyNameCorpus(10000, vocabularySize, 1, 42)) {
+			numDocs = corpus.numDocs();
+			for (int i = 0; i < PAIRS; i++) {
+				Pair pair = new Pair();
+				pair.query = corpus.randomName();
+				pair.queryTokens = CompanyNameCorpus.tokens(pair.query);
+				pair.queryFreqs = frequencies(corpus, pair.queryTokens);
+				pair.fieldTokens = CompanyNameCorpus.tokens(corpus.documents().get(i).get(0));
+				pair.fieldFreqs = frequencies(corpus, pair.fieldTokens);
+				pairs.add(pair);
+			}
+		}
+	}
+
+	private static Map<String, Long> frequencies(CompanyNameCorpus corpus, List<String> tokens) throws IOException {
+		Map<String, Long> freqs = new HashMap<>();
+		for (String token : tokens) {
+			freqs.put(token, (long) corpus.leaf().docFreq(new Term(CompanyNameCorpus.FIELD, token)));
+		}
+		return freqs;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pairs.clear();
+	}
+
+	@Benchmark
+	public double compute() {
+		Pair pair = pairs.get(next);
+		next = (next + 1) % PAIRS;
+		return sim.compute(pair.query, pair.queryTokens, pair.queryFreqs, pair.fieldTokens, pair.fieldFreqs, numDocs);
+	}
+}
@@ -0,0 +1,105 @@
+package com.opencorporates.record_linkage.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Terms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+import com.opencorporates.record_linkage.scoring.SimilarityScript;
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+
+/**
+ * Measures the steps of scoring a document with a {@link SimilarityScript}: decoding its term vector,
+ * looking up the frequencies of its tokens, and the whole {@link SimilarityScript#execute()}.
+ *
+ * Documents are scored in turn, in increasing order, as they would be during a search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimilarityScriptBenchmark {
+
+	private static final int DOCUMENTS = 20000;
+
+	@Param({ "tfidf", "levenshtein" })
+	public String similarity;
+
+	@Param({ "1000", "100000" })
+	public int vocabularySize;
+
+	@Param({ "1", "4" })
+	public int valuesPerDocument;
+
+	private CompanyNameCorpus corpus;
+	private LeafReader leaf;
+	private SimilarityScript script;
+	private final List<List<String>> documentTokens = new ArrayList<>();
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		corpus = new CompanyNameCorpus(DOCUMENTS, vocabularySize, valuesPerDocument, 42);
+		leaf = corpus.leaf();
+		String query = corpus.randomName();
+		StringSimilarity sim = RecordLinkageScorer.registeredSimilarities.get(similarity).withParameters(new HashMap<>());
+		script = new SimilarityScript(leaf, CompanyNameCorpus.FIELD, query, CompanyNameCorpus.tokens(query),
+				CompanyNameCorpus.POSITION_INCREMENT_GAP, corpus.numDocs(), sim);
+		for (List<String> values : corpus.documents()) {
+			List<String> tokens = new ArrayList<>();
+			for (String value : values) {
+				tokens.addAll(CompanyNameCorpus.tokens(value));
+			}
+			documentTokens.add(tokens);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		corpus.close();
+	}
+
+	private int nextDoc() {
+		int doc = next;
+		next = (next + 1) % DOCUMENTS;
+		return doc;
+	}
+
+	@Benchmark
+	public double execute() {
+		script.setDocument(nextDoc());
+		return script.execute();
+	}
+
+	@Benchmark
+	public List<List<String>> getFieldTokensFromTermVector() throws IOException {
+		Terms terms = leaf.getTermVectors(nextDoc()).terms(CompanyNameCorpus.FIELD);
+		return script.getFieldTokensFromTermVector(terms.iterator());
+	}
+
+	@Benchmark
+	public Map<String, Long> getFrequencies() {
+		return script.getFrequencies(documentTokens.get(nextDoc()));
+	}
+}
@@ -0,0 +1,136 @@
+package com.opencorporates.record_linkage.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.compress.CompressedXContent;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.IndexAnalyzers;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.similarity.SimilarityService;
+import org.elasticsearch.indices.IndicesModule;
+import org.elasticsearch.search.lookup.SearchLookup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opencorporates.record_linkage.RecordLinkagePlugin;
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+import com.opencorporates.record_linkage.scoring.SimilarityScript;
+import com.opencorporates.record_linkage.scoring.SimilarityScriptFactory;
+
+/**
+ * Measures the scripts as Elasticsearch creates them, through
+ * {@link SimilarityScriptFactory#similarityScript(LeafReaderContext)}: values are read from
+ * the doc values of a linkage_text field, frequencies are looked up via the node caches
+ * of the plugin with their default settings, and the query tokens are resolved over the shard.
+ *
+ * Documents are scored in turn, in increasing order, as they would be during a search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimilarityScriptFactoryBenchmark {
+
+	private static final int DOCUMENTS = 20000;
+
+	@Param({ "tfidf", "soft_tfidf", "levenshtein" })
+	public String similarity;
+
+	@Param({ "1000", "100000" })
+	public int vocabularySize;
+
+	@Param({ "1", "4" })
+	public int valuesPerDocument;
+
+	@Param({ "max", "avg" })
+	public String valueMode;
+
+	private CompanyNameCorpus corpus;
+	private SimilarityScriptFactory factory;
+	private SimilarityScript script;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		corpus = new CompanyNameCorpus(DOCUMENTS, vocabularySize, valuesPerDocument, 42);
+		RecordLinkagePlugin plugin = new RecordLinkagePlugin();
+		RecordLinkageScorer scorer = (RecordLinkageScorer) plugin.getScriptEngine(Settings.EMPTY, Collections.emptyList());
+		Map<String, Object> params = new HashMap<>();
+		params.put("query", corpus.randomName());
+		params.put("field", CompanyNameCorpus.FIELD);
+		params.put("value_mode", valueMode);
+		factory = scorer.newFactory(similarity, params, lookup(plugin));
+		script = factory.similarityScript(corpus.leafContext());
+	}
+
+	/**
+	 * A lookup over an index mapping the field as linkage_text (with doc values, by default),
+	 * analyzed like the corpus.
+	 */
+	private static SearchLookup lookup(RecordLinkagePlugin plugin) throws IOException {
+		Settings settings = Settings.builder()
+				.put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT)
+				.put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+				.put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+				.build();
+		IndexSettings indexSettings = new IndexSettings(IndexMetaData.builder("companies").settings(settings).build(), Settings.EMPTY);
+		IndexAnalyzers indexAnalyzers = new IndexAnalyzers(
+				Collections.singletonMap("default", new NamedAnalyzer("default", AnalyzerScope.INDEX, CompanyNameCorpus.analyzer())),
+				Collections.emptyMap(), Collections.emptyMap());
+		MapperService mapperService = new MapperService(indexSettings, indexAnalyzers, NamedXContentRegistry.EMPTY,
+				new SimilarityService(indexSettings, null, Collections.emptyMap()),
+				new IndicesModule(Collections.singletonList(plugin)).getMapperRegistry(), () -> null);
+		String mapping = "{\"properties\": {\"" + CompanyNameCorpus.FIELD + "\": {\"type\": \"linkage_text\"}}}";
+		mapperService.merge(MapperService.SINGLE_MAPPING_NAME, new CompressedXContent(mapping), MapperService.MergeReason.MAPPING_UPDATE);
+		return new SearchLookup(mapperService, fieldType -> null, null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		corpus.close();
+	}
+
+	private int nextDoc() {
+		int doc = next;
+		next = (next + 1) % DOCUMENTS;
+		return doc;
+	}
+
+	@Benchmark
+	public double execute() {
+		script.setDocument(nextDoc());
+		return script.execute();
+	}
+
+	/**
+	 * The cost of creating the script of a segment, once the statistics of the shard are resolved.
+	 */
+	@Benchmark
+	public SimilarityScript similarityScript() throws IOException {
+		return factory.similarityScript(corpus.leafContext());
+	}
+}
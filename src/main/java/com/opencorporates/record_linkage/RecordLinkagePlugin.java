@@ -1,24 +1,197 @@
 package com.opencorporates.record_linkage;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.indices.analysis.AnalysisModule.AnalysisProvider;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.AnalysisPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
+import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.ScriptPlugin;
+import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
+import com.opencorporates.record_linkage.dedup.DedupAction;
+import com.opencorporates.record_linkage.dedup.DedupShardTask;
+import com.opencorporates.record_linkage.dedup.RestRecordLinkageDedupAction;
+import com.opencorporates.record_linkage.dedup.TransportDedupAction;
+import com.opencorporates.record_linkage.ingest.FrequencySnapshots;
+import com.opencorporates.record_linkage.ingest.TFIDFNormsProcessor;
+import com.opencorporates.record_linkage.lsh.MinHashBandsTokenFilterFactory;
+import com.opencorporates.record_linkage.mapper.LinkageTextFieldMapper;
+import com.opencorporates.record_linkage.query.MinHashQueryBuilder;
+import com.opencorporates.record_linkage.query.RecordLinkageQueryBuilder;
+import com.opencorporates.record_linkage.rescore.RecordLinkageRescorerBuilder;
+import com.opencorporates.record_linkage.rest.RestRecordLinkageBulkAction;
+import com.opencorporates.record_linkage.scoring.DocFreqCache;
+import com.opencorporates.record_linkage.scoring.QueryTokenCache;
 import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+import com.opencorporates.record_linkage.scoring.ScoringStats;
+import com.opencorporates.record_linkage.stats.RecordLinkageStatsAction;
+import com.opencorporates.record_linkage.stats.RestRecordLinkageStatsAction;
+import com.opencorporates.record_linkage.stats.TransportRecordLinkageStatsAction;
 
 /**
  * A plugin which adds scoring metrics useful for record linkage
  * scenarios. These scoring metrics can either be used to refine 
  * the scores of search results or be included as an additional field.
  */
-public class RecordLinkagePlugin extends Plugin implements ScriptPlugin {
+public class RecordLinkagePlugin extends Plugin implements ScriptPlugin, MapperPlugin, SearchPlugin, ActionPlugin, AnalysisPlugin,
+		IngestPlugin {
+	
+	private RecordLinkageScorer scorer = new RecordLinkageScorer();
+	// frequency snapshots shared by ingest processors and scripts, created with the ingest service
+	private FrequencySnapshots frequencySnapshots = null;
 	
     @Override
     public ScriptEngine getScriptEngine(Settings settings, Collection<ScriptContext<?>> contexts) {
-    	return new RecordLinkageScorer();
+    	scorer = new RecordLinkageScorer(new DocFreqCache(settings), new ScoringStats(settings), new QueryTokenCache(settings));
+    	scorer.setFrequencySnapshots(frequencySnapshots);
+    	return scorer;
+    }
+    
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+    		ResourceWatcherService resourceWatcherService, ScriptService scriptService, NamedXContentRegistry xContentRegistry,
+    		Environment environment, NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry) {
+    	// the script engine is created first, so transport actions share its cache
+    	return Collections.singletonList(scorer);
+    }
+    
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+    	return Collections.singletonList(TransportDedupAction.executorBuilder(settings));
+    }
+    
+    @Override
+    public List<Setting<?>> getSettings() {
+    	List<Setting<?>> settings = new ArrayList<>(DocFreqCache.getSettings());
+    	settings.addAll(QueryTokenCache.getSettings());
+    	settings.addAll(ScoringStats.getSettings());
+    	settings.addAll(RestRecordLinkageBulkAction.getSettings());
+    	return settings;
+    }
+    
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+    	// analyzers are rebuilt when an index is reopened, so queries analyzed for it are discarded
+    	indexModule.addIndexEventListener(new IndexEventListener() {
+    		@Override
+    		public void afterIndexShardClosed(ShardId shardId, IndexShard indexShard, Settings indexSettings) {
+    			scorer.getQueryTokenCache().invalidate(shardId.getIndexName());
+    		}
+    		
+    		@Override
+    		public void afterIndexRemoved(Index index, IndexSettings indexSettings, IndexRemovalReason reason) {
+    			scorer.getQueryTokenCache().invalidate(index.getName());
+    		}
+    	});
+    }
+    
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+    	if (frequencySnapshots == null) {
+    		frequencySnapshots = new FrequencySnapshots(parameters.env.configFile().resolve("record_linkage"));
+    		frequencySnapshots.setScheduler(parameters.scheduler);
+    		scorer.setFrequencySnapshots(frequencySnapshots);
+    	}
+    	Map<String, Processor.Factory> processors = new HashMap<>();
+    	processors.put(TFIDFNormsProcessor.TYPE, new TFIDFNormsProcessor.Factory(frequencySnapshots, parameters.analysisRegistry));
+    	return processors;
+    }
+    
+    @Override
+    public Map<String, Mapper.TypeParser> getMappers() {
+    	return Collections.singletonMap(LinkageTextFieldMapper.CONTENT_TYPE, new LinkageTextFieldMapper.TypeParser());
+    }
+    
+    @Override
+    public Map<String, AnalysisProvider<TokenFilterFactory>> getTokenFilters() {
+    	return Collections.singletonMap(MinHashBandsTokenFilterFactory.NAME,
+    			AnalysisPlugin.requiresAnalysisSettings(MinHashBandsTokenFilterFactory::new));
+    }
+    
+    @Override
+    public List<QuerySpec<?>> getQueries() {
+    	return Arrays.asList(new QuerySpec<>(RecordLinkageQueryBuilder.NAME,
+    			RecordLinkageQueryBuilder::new, RecordLinkageQueryBuilder::fromXContent),
+    			new QuerySpec<>(MinHashQueryBuilder.NAME, MinHashQueryBuilder::new, MinHashQueryBuilder::fromXContent));
+    }
+    
+    @Override
+    public List<RescorerSpec<?>> getRescorers() {
+    	// rescorers are only parsed once the node has started, so they share the cache of the script engine
+    	return Collections.singletonList(new RescorerSpec<>(RecordLinkageRescorerBuilder.NAME,
+    			in -> new RecordLinkageRescorerBuilder(in, scorer), parser -> RecordLinkageRescorerBuilder.fromXContent(parser, scorer)));
+    }
+    
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+    		IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+    		IndexNameExpressionResolver indexNameExpressionResolver, Supplier<DiscoveryNodes> nodesInCluster) {
+    	return Arrays.asList(new RestRecordLinkageBulkAction(settings, restController, scorer),
+    			new RestRecordLinkageDedupAction(restController), new RestRecordLinkageStatsAction(restController));
+    }
+    
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+    	return Arrays.asList(new ActionHandler<>(DedupAction.INSTANCE, TransportDedupAction.class),
+    			new ActionHandler<>(RecordLinkageStatsAction.INSTANCE, TransportRecordLinkageStatsAction.class));
+    }
+    
+    @Override
+    public List<NamedWriteableRegistry.Entry> getNamedWriteables() {
+    	return Collections.singletonList(new NamedWriteableRegistry.Entry(Task.Status.class,
+    			DedupShardTask.DedupStatus.NAME, DedupShardTask.DedupStatus::new));
+    }
+    
+    @Override
+    public void close() throws IOException {
+    	// stops refreshing frequency snapshots
+    	if (frequencySnapshots != null) {
+    		frequencySnapshots.close();
+    	}
     }
 }
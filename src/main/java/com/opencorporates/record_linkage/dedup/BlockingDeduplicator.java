@@ -0,0 +1,431 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import com.opencorporates.record_linkage.scoring.DocFreqCache;
+import com.opencorporates.record_linkage.scoring.DocValuesDecoder;
+import com.opencorporates.record_linkage.scoring.FieldValuesDecoder;
+import com.opencorporates.record_linkage.scoring.TermVectorDecoder;
+import com.opencorporates.record_linkage.similarity.PreparedSimilarity;
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+import com.opencorporates.record_linkage.similarity.StringSimilarityAdapter;
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+import com.opencorporates.record_linkage.similarity.TokenSequence;
+import com.opencorporates.record_linkage.similarity.TokenSimilarity;
+import com.opencorporates.record_linkage.similarity.TokenStatistics;
+
+/**
+ * Finds pairs of similar documents within a shard.
+ *
+ * Comparing all pairs of documents is out of reach, so documents are first grouped into blocks:
+ * each token of the field which appears in at least two documents and at most {@code maxBlockSize}
+ * documents defines a block, made of the documents containing it. Documents are only compared
+ * within blocks, so they must share at least one rare token to be compared. A pair of documents
+ * sharing several such tokens is only scored in the block of the first of these tokens.
+ *
+ * Blocks are streamed from the terms of the field and scored in parallel on an executor.
+ * Only a few blocks are held at a time, so the memory used does not depend on the size of the shard.
+ */
+public class BlockingDeduplicator {
+
+	/**
+	 * Receives the progress of the deduplication, and decides whether it should go on.
+	 */
+	public interface Progress {
+
+		/**
+		 * Called each time a block is found, before it is scored.
+		 */
+		void blockFound();
+
+		/**
+		 * Called after scoring each block.
+		 *
+		 * @param pairs
+		 *     the number of pairs scored in the block
+		 */
+		void blockScored(long pairs);
+
+		/**
+		 * @return true if the deduplication should stop as soon as possible
+		 */
+		boolean isCancelled();
+	}
+
+	/**
+	 * Two documents of the shard and their similarity.
+	 */
+	public static class ScoredPair {
+		public final int first;
+		public final int second;
+		public final double score;
+
+		public ScoredPair(int first, int second, double score) {
+			this.first = first;
+			this.second = second;
+			this.score = score;
+		}
+	}
+
+	private final IndexReader reader;
+	private final String field;
+	private final StringSimilarity similarity;
+	private final DocFreqCache docFreqCache;
+	private final int positionIncrementGap;
+	private final boolean useDocValues;
+	private final int maxBlockSize;
+	private final double threshold;
+	private final int maxPairs;
+	// the number of documents of the shard with a value for the field, resolved when the deduplication starts
+	private int docCount;
+
+	// the best pairs found so far, worst first
+	private final PriorityQueue<ScoredPair> pairs = new PriorityQueue<>(Comparator.comparingDouble(p -> p.score));
+
+	/**
+	 * @param reader
+	 *     the reader of the whole shard
+	 * @param field
+	 *     the field to compare documents on
+	 * @param similarity
+	 *     the similarity, configured with its parameters
+	 * @param docFreqCache
+	 *     the node-level cache of token frequencies
+	 * @param positionIncrementGap
+	 *     the position increment gap of the field
+	 * @param useDocValues
+	 *     whether to read field values from doc values rather than term vectors
+	 * @param maxBlockSize
+	 *     the maximum frequency of a token for it to be used as a blocking key
+	 * @param threshold
+	 *     the minimum similarity of the pairs to return
+	 * @param maxPairs
+	 *     the maximum number of pairs to return
+	 */
+	public BlockingDeduplicator(IndexReader reader, String field, StringSimilarity similarity, DocFreqCache docFreqCache,
+			int positionIncrementGap, boolean useDocValues, int maxBlockSize, double threshold, int maxPairs) {
+		this.reader = reader;
+		this.field = field;
+		this.similarity = similarity;
+		this.docFreqCache = docFreqCache;
+		this.positionIncrementGap = positionIncrementGap;
+		this.useDocValues = useDocValues;
+		this.maxBlockSize = maxBlockSize;
+		this.threshold = threshold;
+		this.maxPairs = maxPairs;
+	}
+
+	/**
+	 * Finds the pairs of documents whose similarity is above the threshold.
+	 *
+	 * @param executor
+	 *     the executor to score blocks on
+	 * @param parallelism
+	 *     the number of blocks scored at the same time, twice as many being held in memory
+	 * @param progress
+	 *     receives the progress of the deduplication
+	 * @return the best pairs, by decreasing similarity
+	 */
+	public List<ScoredPair> run(Executor executor, int parallelism, Progress progress) throws IOException {
+		Terms terms = MultiTerms.getTerms(reader, field);
+		docCount = reader.getDocCount(field);
+		if (terms != null) {
+			scoreBlocks(terms, executor, 2 * Math.max(1, parallelism), progress);
+		}
+		List<ScoredPair> result = new ArrayList<>(pairs);
+		result.sort(Comparator.comparingDouble((ScoredPair p) -> p.score).reversed());
+		return result;
+	}
+
+	/**
+	 * Enumerates the tokens of the field over the whole shard, and scores the block
+	 * of each rare token as soon as it is found.
+	 */
+	private void scoreBlocks(Terms terms, Executor executor, int maxBlocks, Progress progress) throws IOException {
+		Semaphore permits = new Semaphore(maxBlocks);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Bits liveDocs = MultiBits.getLiveDocs(reader);
+		TermsEnum termsEnum = terms.iterator();
+		PostingsEnum postings = null;
+		int[] block = new int[maxBlockSize];
+		try {
+			while (failure.get() == null && !progress.isCancelled() && termsEnum.next() != null) {
+				int docFreq = termsEnum.docFreq();
+				if (docFreq < 2 || docFreq > maxBlockSize) {
+					continue;
+				}
+				postings = termsEnum.postings(postings, PostingsEnum.NONE);
+				int size = 0;
+				int doc;
+				while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+					if (liveDocs == null || liveDocs.get(doc)) {
+						block[size++] = doc;
+					}
+				}
+				if (size < 2) {
+					continue;
+				}
+				progress.blockFound();
+				BytesRef key = BytesRef.deepCopyOf(termsEnum.term());
+				int[] documents = Arrays.copyOf(block, size);
+				// wait for a block to be scored if too many are pending
+				permits.acquire();
+				try {
+					executor.execute(() -> {
+						try {
+							if (!progress.isCancelled()) {
+								progress.blockScored(scoreBlock(key, documents));
+							}
+						} catch (IOException | RuntimeException e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							permits.release();
+						}
+					});
+				} catch (RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+			// wait for all blocks to be scored
+			permits.acquire(maxBlocks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		Exception e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e != null) {
+			throw (RuntimeException) e;
+		}
+	}
+
+	/**
+	 * Compares all pairs of documents of a block, except the pairs which share a blocking key
+	 * enumerated before the key of this block.
+	 *
+	 * The documents of the block are decoded once, with their tokens interned in a dictionary
+	 * of the block. Each value of a document is then prepared once, and compared to the decoded
+	 * values of the documents after it.
+	 *
+	 * @param key
+	 *     the token defining the block
+	 * @param block
+	 *     the documents of the block, sorted
+	 * @return the number of pairs scored
+	 */
+	protected long scoreBlock(BytesRef key, int[] block) throws IOException {
+		List<LeafReaderContext> leaves = reader.leaves();
+		TokenDictionary dictionary = new TokenDictionary();
+		// decoders of the documents of the block, by segment
+		Map<Integer, FieldValuesDecoder> decoders = new HashMap<>();
+		List<TokenSequence[]> values = new ArrayList<>(block.length);
+		List<BytesRef[]> previousKeys = new ArrayList<>(block.length);
+		for (int doc : block) {
+			TokenSequence[] documentValues = fieldValues(doc, leaves, dictionary, decoders);
+			values.add(documentValues);
+			previousKeys.add(previousKeys(documentValues, key));
+		}
+		BlockStatistics statistics = new BlockStatistics(dictionary);
+		long scored = 0;
+		for (int i = 0; i < block.length - 1; i++) {
+			TokenSequence[] documentValues = values.get(i);
+			if (documentValues.length == 0) {
+				continue;
+			}
+			// prepared when the document is first compared
+			PreparedSimilarity[] prepared = null;
+			for (int j = i + 1; j < block.length; j++) {
+				if (shareKey(previousKeys.get(i), previousKeys.get(j))) {
+					// compared in the block of that key
+					continue;
+				}
+				if (prepared == null) {
+					prepared = prepare(documentValues, statistics);
+				}
+				double score = score(prepared, values.get(j));
+				scored++;
+				if (score >= threshold) {
+					addPair(new ScoredPair(block[i], block[j], score));
+				}
+			}
+		}
+		return scored;
+	}
+
+	/**
+	 * Prepares the similarity for each value of a document.
+	 */
+	private PreparedSimilarity[] prepare(TokenSequence[] documentValues, TokenStatistics statistics) {
+		PreparedSimilarity[] prepared = new PreparedSimilarity[documentValues.length];
+		BytesRef scratch = new BytesRef();
+		for (int v = 0; v < documentValues.length; v++) {
+			TokenSequence value = documentValues[v];
+			List<String> tokens = new ArrayList<>(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				tokens.add(value.bytes(i, scratch).utf8ToString());
+			}
+			// string similarities compare the values as strings
+			TokenSimilarity tokenSimilarity = StringSimilarityAdapter.adapt(similarity, String.join(" ", tokens));
+			prepared[v] = tokenSimilarity.prepare(value, statistics);
+		}
+		return prepared;
+	}
+
+	/**
+	 * The best score of the prepared values of a document against the values of another document.
+	 */
+	private static double score(PreparedSimilarity[] prepared, TokenSequence[] otherValues) {
+		double best = 0.;
+		for (PreparedSimilarity value : prepared) {
+			for (TokenSequence other : otherValues) {
+				if (value.upperBound(other) > best) {
+					best = Math.max(best, value.score(other));
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The blocking keys of a document which come before a given key, sorted.
+	 */
+	private BytesRef[] previousKeys(TokenSequence[] documentValues, BytesRef key) throws IOException {
+		List<BytesRef> keys = new ArrayList<>();
+		BytesRef scratch = new BytesRef();
+		for (TokenSequence value : documentValues) {
+			for (int i = 0; i < value.length(); i++) {
+				BytesRef token = value.bytes(i, scratch);
+				if (token.compareTo(key) < 0) {
+					keys.add(BytesRef.deepCopyOf(token));
+				}
+			}
+		}
+		keys.sort(null);
+		List<BytesRef> previous = new ArrayList<>(keys.size());
+		for (BytesRef token : keys) {
+			if (!previous.isEmpty() && previous.get(previous.size() - 1).equals(token)) {
+				continue;
+			}
+			// the frequency includes deleted documents, as when blocks are found
+			int docFreq = docFreqCache.docFreq(reader, field, token);
+			if (docFreq >= 2 && docFreq <= maxBlockSize) {
+				previous.add(token);
+			}
+		}
+		return previous.toArray(new BytesRef[previous.size()]);
+	}
+
+	/**
+	 * @return whether two sorted arrays of keys have one in common
+	 */
+	private static boolean shareKey(BytesRef[] a, BytesRef[] b) {
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			int cmp = a[i].compareTo(b[j]);
+			if (cmp == 0) {
+				return true;
+			} else if (cmp < 0) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Decodes the values of a document, with the decoder of its segment.
+	 */
+	private TokenSequence[] fieldValues(int doc, List<LeafReaderContext> leaves, TokenDictionary dictionary,
+			Map<Integer, FieldValuesDecoder> decoders) throws IOException {
+		LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+		FieldValuesDecoder decoder = decoders.get(leaf.ord);
+		if (decoder == null) {
+			decoder = useDocValues ? new DocValuesDecoder(leaf.reader(), field, dictionary)
+					: new TermVectorDecoder(leaf.reader(), field, dictionary, positionIncrementGap);
+			decoders.put(leaf.ord, decoder);
+		}
+		int valueCount = decoder.read(doc - leaf.docBase);
+		// the buffers of the decoder are reused for the next document
+		int[] tokens = Arrays.copyOf(decoder.tokens(), valueCount == 0 ? 0 : decoder.valueEnd(valueCount - 1));
+		TokenSequence[] sequences = new TokenSequence[valueCount];
+		for (int v = 0; v < valueCount; v++) {
+			int start = decoder.valueStart(v);
+			sequences[v] = new TokenSequence(dictionary, tokens, start, decoder.valueEnd(v) - start);
+		}
+		return sequences;
+	}
+
+	/**
+	 * The statistics of the tokens of a block over the whole shard, looked up once per token.
+	 * Like the block, it is only used by one thread.
+	 */
+	private class BlockStatistics implements TokenStatistics {
+
+		private final TokenDictionary dictionary;
+		private final BytesRef scratch = new BytesRef();
+		// frequency of each token by id (-1 if not looked up yet)
+		private long[] docFreqs = new long[0];
+
+		private BlockStatistics(TokenDictionary dictionary) {
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		public long docFreq(int tokenId) {
+			if (tokenId >= docFreqs.length) {
+				int oldLength = docFreqs.length;
+				docFreqs = ArrayUtil.grow(docFreqs, Math.max(tokenId + 1, dictionary.size()));
+				Arrays.fill(docFreqs, oldLength, docFreqs.length, -1L);
+			}
+			if (docFreqs[tokenId] < 0) {
+				try {
+					docFreqs[tokenId] = docFreqCache.docFreq(reader, field, dictionary.get(tokenId, scratch));
+				} catch (IOException e) {
+					docFreqs[tokenId] = 1L;
+				}
+			}
+			return docFreqs[tokenId];
+		}
+
+		@Override
+		public int numDocs() {
+			return docCount;
+		}
+	}
+
+	private synchronized void addPair(ScoredPair pair) {
+		if (pairs.size() < maxPairs) {
+			pairs.add(pair);
+		} else if (maxPairs > 0 && pairs.peek().score < pair.score) {
+			pairs.poll();
+			pairs.add(pair);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.opencorporates.record_linkage.dedup;
+
+import org.elasticsearch.action.ActionType;
+
+/**
+ * Finds pairs of similar documents within each shard of some indices.
+ */
+public class DedupAction extends ActionType<DedupResponse> {
+
+	public static final DedupAction INSTANCE = new DedupAction();
+	public static final String NAME = "indices:data/read/record_linkage/dedup";
+
+	private DedupAction() {
+		super(NAME, DedupResponse::new);
+	}
+}
@@ -0,0 +1,202 @@
+package com.opencorporates.record_linkage.dedup;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+
+/**
+ * Requests the pairs of similar documents of some indices. For instance:
+ * <pre>
+ * {
+ *     "field": "name",
+ *     "source": "tfidf",
+ *     "params": { "query_norm_exponent": 0.0 },
+ *     "threshold": 0.8,
+ *     "max_block_size": 100,
+ *     "max_pairs": 1000
+ * }
+ * </pre>
+ * The source and parameters are those of the {@code record_linkage_scorer} scripts,
+ * except for the query and field.
+ */
+public class DedupRequest extends BroadcastRequest<DedupRequest> {
+
+	private static final ParseField FIELD_FIELD = new ParseField("field");
+	private static final ParseField SOURCE_FIELD = new ParseField("source");
+	private static final ParseField PARAMS_FIELD = new ParseField("params");
+	private static final ParseField THRESHOLD_FIELD = new ParseField("threshold");
+	private static final ParseField MAX_BLOCK_SIZE_FIELD = new ParseField("max_block_size");
+	private static final ParseField MAX_PAIRS_FIELD = new ParseField("max_pairs");
+
+	private static final ObjectParser<DedupRequest, Void> PARSER = new ObjectParser<>("record_linkage_dedup");
+
+	static {
+		PARSER.declareString(DedupRequest::field, FIELD_FIELD);
+		PARSER.declareString(DedupRequest::source, SOURCE_FIELD);
+		PARSER.declareObject(DedupRequest::params, (p, c) -> p.map(), PARAMS_FIELD);
+		PARSER.declareDouble(DedupRequest::threshold, THRESHOLD_FIELD);
+		PARSER.declareInt(DedupRequest::maxBlockSize, MAX_BLOCK_SIZE_FIELD);
+		PARSER.declareInt(DedupRequest::maxPairs, MAX_PAIRS_FIELD);
+	}
+
+	private String field;
+	private String source = "tfidf";
+	private Map<String, Object> params = new HashMap<>();
+	private double threshold = 0.;
+	private int maxBlockSize = 100;
+	private int maxPairs = 1000;
+
+	public DedupRequest(String... indices) {
+		super(indices);
+	}
+
+	public DedupRequest(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		source = in.readString();
+		params = in.readMap();
+		threshold = in.readDouble();
+		maxBlockSize = in.readVInt();
+		maxPairs = in.readVInt();
+	}
+
+	/**
+	 * Reads the parameters of the deduplication from the body of a request.
+	 */
+	public DedupRequest fromXContent(XContentParser parser) throws IOException {
+		return PARSER.parse(parser, this, null);
+	}
+
+	public String field() {
+		return field;
+	}
+
+	/**
+	 * Sets the field documents are compared on.
+	 */
+	public DedupRequest field(String field) {
+		this.field = field;
+		return this;
+	}
+
+	public String source() {
+		return source;
+	}
+
+	/**
+	 * Sets the name of the similarity ("tfidf" by default).
+	 */
+	public DedupRequest source(String source) {
+		this.source = source;
+		return this;
+	}
+
+	public Map<String, Object> params() {
+		return params;
+	}
+
+	/**
+	 * Sets the parameters of the similarity.
+	 */
+	public DedupRequest params(Map<String, Object> params) {
+		this.params = new HashMap<>(params);
+		return this;
+	}
+
+	public double threshold() {
+		return threshold;
+	}
+
+	/**
+	 * Sets the minimum similarity of the pairs returned (0 by default).
+	 */
+	public DedupRequest threshold(double threshold) {
+		this.threshold = threshold;
+		return this;
+	}
+
+	public int maxBlockSize() {
+		return maxBlockSize;
+	}
+
+	/**
+	 * Sets the maximum number of documents a token can appear in,
+	 * for the documents containing it to be compared (100 by default).
+	 */
+	public DedupRequest maxBlockSize(int maxBlockSize) {
+		this.maxBlockSize = maxBlockSize;
+		return this;
+	}
+
+	public int maxPairs() {
+		return maxPairs;
+	}
+
+	/**
+	 * Sets the maximum number of pairs returned, keeping the most similar ones (1000 by default).
+	 */
+	public DedupRequest maxPairs(int maxPairs) {
+		this.maxPairs = maxPairs;
+		return this;
+	}
+
+	@Override
+	public ActionRequestValidationException validate() {
+		ActionRequestValidationException validationException = super.validate();
+		if (field == null) {
+			validationException = addValidationError("[" + FIELD_FIELD.getPreferredName() + "] is missing", validationException);
+		}
+		if (!RecordLinkageScorer.registeredSimilarities.containsKey(source)) {
+			validationException = addValidationError("unknown similarity [" + source + "]", validationException);
+		}
+		if (maxBlockSize < 2) {
+			validationException = addValidationError("[" + MAX_BLOCK_SIZE_FIELD.getPreferredName() + "] must be at least 2", validationException);
+		}
+		if (maxPairs < 0) {
+			validationException = addValidationError("[" + MAX_PAIRS_FIELD.getPreferredName() + "] must be positive", validationException);
+		}
+		return validationException;
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeString(field);
+		out.writeString(source);
+		out.writeMap(params);
+		out.writeDouble(threshold);
+		out.writeVInt(maxBlockSize);
+		out.writeVInt(maxPairs);
+	}
+
+	@Override
+	public Task createTask(long id, String type, String action, TaskId parentTaskId, Map<String, String> headers) {
+		// cancelling the request cancels the deduplication of all shards
+		return new CancellableTask(id, type, action, getDescription(), parentTaskId, headers) {
+			@Override
+			public boolean shouldCancelChildrenOnCancellation() {
+				return true;
+			}
+		};
+	}
+
+	@Override
+	public String getDescription() {
+		return "record_linkage dedup of " + String.join(",", indices()) + " on [" + field + "] with [" + source + "]";
+	}
+}
@@ -0,0 +1,60 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * The most similar pairs of documents found in all shards, by decreasing similarity.
+ */
+public class DedupResponse extends BroadcastResponse {
+
+	private final List<DuplicatePair> pairs;
+	private final long scoredPairs;
+
+	public DedupResponse(int totalShards, int successfulShards, int failedShards,
+			List<DefaultShardOperationFailedException> shardFailures, List<DuplicatePair> pairs, long scoredPairs) {
+		super(totalShards, successfulShards, failedShards, shardFailures);
+		this.pairs = pairs;
+		this.scoredPairs = scoredPairs;
+	}
+
+	public DedupResponse(StreamInput in) throws IOException {
+		super(in);
+		pairs = in.readList(DuplicatePair::new);
+		scoredPairs = in.readVLong();
+	}
+
+	public List<DuplicatePair> pairs() {
+		return pairs;
+	}
+
+	/**
+	 * @return the number of pairs of documents compared over all shards
+	 */
+	public long scoredPairs() {
+		return scoredPairs;
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeList(pairs);
+		out.writeVLong(scoredPairs);
+	}
+
+	@Override
+	protected void addCustomXContentFields(XContentBuilder builder, Params params) throws IOException {
+		builder.field("scored_pairs", scoredPairs);
+		builder.startArray("pairs");
+		for (DuplicatePair pair : pairs) {
+			pair.toXContent(builder, params);
+		}
+		builder.endArray();
+	}
+}
@@ -0,0 +1,128 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+/**
+ * The deduplication of a shard, which reports its progress to the tasks API
+ * and stops scoring blocks once cancelled.
+ */
+public class DedupShardTask extends CancellableTask implements BlockingDeduplicator.Progress {
+
+	private final AtomicInteger foundBlocks = new AtomicInteger();
+	private final AtomicInteger scoredBlocks = new AtomicInteger();
+	private final AtomicLong scoredPairs = new AtomicLong();
+
+	public DedupShardTask(long id, String type, String action, String description, TaskId parentTaskId, Map<String, String> headers) {
+		super(id, type, action, description, parentTaskId, headers);
+	}
+
+	@Override
+	public boolean shouldCancelChildrenOnCancellation() {
+		return false;
+	}
+
+	@Override
+	public void blockFound() {
+		foundBlocks.incrementAndGet();
+	}
+
+	@Override
+	public void blockScored(long pairs) {
+		scoredBlocks.incrementAndGet();
+		scoredPairs.addAndGet(pairs);
+	}
+
+	/**
+	 * @return the number of pairs of documents compared so far
+	 */
+	public long scoredPairs() {
+		return scoredPairs.get();
+	}
+
+	@Override
+	public Status getStatus() {
+		return new DedupStatus(foundBlocks.get(), scoredBlocks.get(), scoredPairs.get());
+	}
+
+	/**
+	 * The progress of the deduplication of a shard.
+	 */
+	public static class DedupStatus implements Task.Status {
+
+		public static final String NAME = "record_linkage_dedup";
+
+		private final int foundBlocks;
+		private final int scoredBlocks;
+		private final long scoredPairs;
+
+		public DedupStatus(int foundBlocks, int scoredBlocks, long scoredPairs) {
+			this.foundBlocks = foundBlocks;
+			this.scoredBlocks = scoredBlocks;
+			this.scoredPairs = scoredPairs;
+		}
+
+		public DedupStatus(StreamInput in) throws IOException {
+			foundBlocks = in.readVInt();
+			scoredBlocks = in.readVInt();
+			scoredPairs = in.readVLong();
+		}
+
+		public int foundBlocks() {
+			return foundBlocks;
+		}
+
+		public int scoredBlocks() {
+			return scoredBlocks;
+		}
+
+		public long scoredPairs() {
+			return scoredPairs;
+		}
+
+		@Override
+		public String getWriteableName() {
+			return NAME;
+		}
+
+		@Override
+		public void writeTo(StreamOutput out) throws IOException {
+			out.writeVInt(foundBlocks);
+			out.writeVInt(scoredBlocks);
+			out.writeVLong(scoredPairs);
+		}
+
+		@Override
+		public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+			builder.startObject();
+			builder.field("found_blocks", foundBlocks);
+			builder.field("scored_blocks", scoredBlocks);
+			builder.field("scored_pairs", scoredPairs);
+			return builder.endObject();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof DedupStatus)) {
+				return false;
+			}
+			DedupStatus o = (DedupStatus) other;
+			return foundBlocks == o.foundBlocks && scoredBlocks == o.scoredBlocks && scoredPairs == o.scoredPairs;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(foundBlocks, scoredBlocks, scoredPairs);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Two documents of the same index whose similarity is above the requested threshold.
+ */
+public class DuplicatePair implements Writeable, ToXContentObject {
+
+	private final String index;
+	private final String firstId;
+	private final String secondId;
+	private final double score;
+
+	public DuplicatePair(String index, String firstId, String secondId, double score) {
+		this.index = Objects.requireNonNull(index);
+		this.firstId = Objects.requireNonNull(firstId);
+		this.secondId = Objects.requireNonNull(secondId);
+		this.score = score;
+	}
+
+	public DuplicatePair(StreamInput in) throws IOException {
+		index = in.readString();
+		firstId = in.readString();
+		secondId = in.readString();
+		score = in.readDouble();
+	}
+
+	public String index() {
+		return index;
+	}
+
+	public String firstId() {
+		return firstId;
+	}
+
+	public String secondId() {
+		return secondId;
+	}
+
+	public double score() {
+		return score;
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		out.writeString(index);
+		out.writeString(firstId);
+		out.writeString(secondId);
+		out.writeDouble(score);
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject();
+		builder.field("_index", index);
+		builder.array("_ids", firstId, secondId);
+		builder.field("_score", score);
+		return builder.endObject();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof DuplicatePair)) {
+			return false;
+		}
+		DuplicatePair o = (DuplicatePair) other;
+		return index.equals(o.index) && firstId.equals(o.firstId) && secondId.equals(o.secondId) && score == o.score;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(index, firstId, secondId, score);
+	}
+
+	@Override
+	public String toString() {
+		return index + "[" + firstId + ", " + secondId + "]: " + score;
+	}
+}
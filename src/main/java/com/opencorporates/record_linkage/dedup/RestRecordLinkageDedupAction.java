@@ -0,0 +1,40 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+
+/**
+ * Finds pairs of similar documents in an index: {@code POST /{index}/_record_linkage/_dedup}.
+ *
+ * The body is a {@link DedupRequest}. The request runs until all shards are deduplicated;
+ * its progress can be followed, and it can be cancelled, with the tasks API.
+ */
+public class RestRecordLinkageDedupAction extends BaseRestHandler {
+
+	public RestRecordLinkageDedupAction(RestController controller) {
+		controller.registerHandler(RestRequest.Method.POST, "/{index}/_record_linkage/_dedup", this);
+	}
+
+	@Override
+	public String getName() {
+		return "record_linkage_dedup_action";
+	}
+
+	@Override
+	protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+		DedupRequest dedupRequest = new DedupRequest(Strings.splitStringByCommaToArray(request.param("index")));
+		dedupRequest.indicesOptions(IndicesOptions.fromRequest(request, dedupRequest.indicesOptions()));
+		try (XContentParser parser = request.contentParser()) {
+			dedupRequest.fromXContent(parser);
+		}
+		return channel -> client.execute(DedupAction.INSTANCE, dedupRequest, new RestToXContentListener<>(channel));
+	}
+}
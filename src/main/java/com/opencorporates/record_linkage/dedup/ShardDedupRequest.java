@@ -0,0 +1,49 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+/**
+ * The deduplication of a single shard.
+ */
+public class ShardDedupRequest extends BroadcastShardRequest {
+
+	private final DedupRequest request;
+
+	public ShardDedupRequest(ShardId shardId, DedupRequest request) {
+		super(shardId, request);
+		this.request = request;
+	}
+
+	public ShardDedupRequest(StreamInput in) throws IOException {
+		super(in);
+		request = new DedupRequest(in);
+	}
+
+	public DedupRequest request() {
+		return request;
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		request.writeTo(out);
+	}
+
+	@Override
+	public Task createTask(long id, String type, String action, TaskId parentTaskId, Map<String, String> headers) {
+		return new DedupShardTask(id, type, action, getDescription(), parentTaskId, headers);
+	}
+
+	@Override
+	public String getDescription() {
+		return request.getDescription() + " on shard " + shardId();
+	}
+}
@@ -0,0 +1,48 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+/**
+ * The pairs of similar documents found in a shard.
+ */
+public class ShardDedupResponse extends BroadcastShardResponse {
+
+	private final List<DuplicatePair> pairs;
+	private final long scoredPairs;
+
+	public ShardDedupResponse(ShardId shardId, List<DuplicatePair> pairs, long scoredPairs) {
+		super(shardId);
+		this.pairs = pairs;
+		this.scoredPairs = scoredPairs;
+	}
+
+	public ShardDedupResponse(StreamInput in) throws IOException {
+		super(in);
+		pairs = in.readList(DuplicatePair::new);
+		scoredPairs = in.readVLong();
+	}
+
+	public List<DuplicatePair> pairs() {
+		return pairs;
+	}
+
+	/**
+	 * @return the number of pairs of documents compared in the shard
+	 */
+	public long scoredPairs() {
+		return scoredPairs;
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeList(pairs);
+		out.writeVLong(scoredPairs);
+	}
+}
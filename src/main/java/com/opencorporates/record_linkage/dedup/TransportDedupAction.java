@@ -0,0 +1,171 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import com.opencorporates.record_linkage.scoring.ConfiguredSimilarities;
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+import com.opencorporates.record_linkage.scoring.SimilarityScriptFactory;
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+
+/**
+ * Deduplicates each shard with a {@link BlockingDeduplicator}, and merges the pairs found.
+ *
+ * Shards are deduplicated on the generic thread pool, which waits for the blocks
+ * to be scored on the {@value #THREAD_POOL_NAME} thread pool of the node.
+ */
+public class TransportDedupAction extends TransportBroadcastAction<DedupRequest, DedupResponse, ShardDedupRequest, ShardDedupResponse> {
+
+	/**
+	 * The thread pool blocks are scored on, sized by the number of processors
+	 * (see the {@code thread_pool.record_linkage_dedup} settings).
+	 */
+	public static final String THREAD_POOL_NAME = "record_linkage_dedup";
+
+	private final IndicesService indicesService;
+	private final RecordLinkageScorer scorer;
+
+	@Inject
+	public TransportDedupAction(ClusterService clusterService, TransportService transportService, ActionFilters actionFilters,
+			IndexNameExpressionResolver indexNameExpressionResolver, IndicesService indicesService, RecordLinkageScorer scorer) {
+		super(DedupAction.NAME, clusterService, transportService, actionFilters, indexNameExpressionResolver,
+				DedupRequest::new, ShardDedupRequest::new, ThreadPool.Names.GENERIC);
+		this.indicesService = indicesService;
+		this.scorer = scorer;
+	}
+
+	/**
+	 * Declares the thread pool blocks are scored on. Its queue is not bounded, as each
+	 * deduplication only submits a few blocks at a time.
+	 */
+	public static ExecutorBuilder<?> executorBuilder(Settings settings) {
+		return new FixedExecutorBuilder(settings, THREAD_POOL_NAME, EsExecutors.numberOfProcessors(settings), -1,
+				"thread_pool." + THREAD_POOL_NAME);
+	}
+
+	@Override
+	protected ShardDedupResponse shardOperation(ShardDedupRequest shardRequest, Task task) throws IOException {
+		DedupRequest request = shardRequest.request();
+		DedupShardTask dedupTask = (DedupShardTask) task;
+		IndexShard shard = indicesService.indexServiceSafe(shardRequest.shardId().getIndex()).getShard(shardRequest.shardId().id());
+		MapperService mapperService = shard.mapperService();
+		MappedFieldType fieldType = mapperService.fullName(request.field());
+		if (fieldType == null) {
+			// nothing to compare in this index
+			return new ShardDedupResponse(shardRequest.shardId(), new ArrayList<>(), 0);
+		}
+		StringSimilarity similarity = ConfiguredSimilarities.configure(RecordLinkageScorer.getSimilarity(request.source()), request.params());
+		int positionIncrementGap = fieldType.indexAnalyzer().getPositionIncrementGap(request.field());
+
+		try (Engine.Searcher searcher = shard.acquireSearcher("record_linkage_dedup")) {
+			BlockingDeduplicator deduplicator = new BlockingDeduplicator(searcher.getIndexReader(), request.field(), similarity,
+					scorer.getDocFreqCache(), positionIncrementGap, SimilarityScriptFactory.hasLinkageDocValues(mapperService, request.field()),
+					request.maxBlockSize(), request.threshold(), request.maxPairs());
+			ThreadPool threadPool = transportService.getThreadPool();
+			List<BlockingDeduplicator.ScoredPair> scored = deduplicator.run(threadPool.executor(THREAD_POOL_NAME),
+					threadPool.info(THREAD_POOL_NAME).getMax(), dedupTask);
+			if (dedupTask.isCancelled()) {
+				throw new TaskCancelledException("cancelled: " + dedupTask.getReasonCancelled());
+			}
+
+			String index = shardRequest.shardId().getIndexName();
+			FieldsVisitor visitor = new FieldsVisitor(false);
+			List<DuplicatePair> pairs = new ArrayList<>(scored.size());
+			for (BlockingDeduplicator.ScoredPair pair : scored) {
+				pairs.add(new DuplicatePair(index, id(searcher, visitor, pair.first), id(searcher, visitor, pair.second), pair.score));
+			}
+			return new ShardDedupResponse(shardRequest.shardId(), pairs, dedupTask.scoredPairs());
+		}
+	}
+
+	private static String id(Engine.Searcher searcher, FieldsVisitor visitor, int doc) throws IOException {
+		visitor.reset();
+		searcher.doc(doc, visitor);
+		return visitor.uid().id();
+	}
+
+	@Override
+	protected DedupResponse newResponse(DedupRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+		int successfulShards = 0;
+		int failedShards = 0;
+		long scoredPairs = 0;
+		List<DefaultShardOperationFailedException> shardFailures = new ArrayList<>();
+		List<DuplicatePair> pairs = new ArrayList<>();
+		for (int i = 0; i < shardsResponses.length(); i++) {
+			Object shardResponse = shardsResponses.get(i);
+			if (shardResponse == null) {
+				// a non active shard, ignore
+			} else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+				failedShards++;
+				shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+			} else {
+				successfulShards++;
+				ShardDedupResponse response = (ShardDedupResponse) shardResponse;
+				pairs.addAll(response.pairs());
+				scoredPairs += response.scoredPairs();
+			}
+		}
+		pairs.sort(Comparator.comparingDouble(DuplicatePair::score).reversed());
+		if (pairs.size() > request.maxPairs()) {
+			pairs = new ArrayList<>(pairs.subList(0, request.maxPairs()));
+		}
+		return new DedupResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures, pairs, scoredPairs);
+	}
+
+	@Override
+	protected ShardDedupRequest newShardRequest(int numShards, ShardRouting shard, DedupRequest request) {
+		return new ShardDedupRequest(shard.shardId(), request);
+	}
+
+	@Override
+	protected ShardDedupResponse readShardResponse(StreamInput in) throws IOException {
+		return new ShardDedupResponse(in);
+	}
+
+	@Override
+	protected GroupShardsIterator<ShardIterator> shards(ClusterState clusterState, DedupRequest request, String[] concreteIndices) {
+		return clusterService.operationRouting().searchShards(clusterState, concreteIndices, null, null);
+	}
+
+	@Override
+	protected ClusterBlockException checkGlobalBlock(ClusterState state, DedupRequest request) {
+		return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+	}
+
+	@Override
+	protected ClusterBlockException checkRequestBlock(ClusterState state, DedupRequest request, String[] concreteIndices) {
+		return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+	}
+}
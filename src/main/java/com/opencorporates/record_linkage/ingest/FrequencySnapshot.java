@@ -0,0 +1,164 @@
+package com.opencorporates.record_linkage.ingest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.lucene.util.BytesRef;
+
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+/**
+ * The document frequencies of the tokens of a field at a given point in time,
+ * used to compute TFIDF weights at index time, and to score the documents
+ * whose norms were computed from it.
+ *
+ * Snapshots are read from text files, whose first line is the number of documents,
+ * followed by one line per token with the token and its document frequency separated by a tab.
+ * Tokens missing from the snapshot are considered to be absent from the index.
+ * Each snapshot is identified by a checksum of its file, its version.
+ * Snapshots are not modified once loaded, so they can be shared by threads.
+ */
+public class FrequencySnapshot {
+
+	private final long numDocs;
+	private final long version;
+	private final Map<BytesRef, Long> docFreqs = new HashMap<>();
+	// sum of the document frequencies of all tokens
+	private long totalDocFreq = 0;
+
+	/**
+	 * Creates an empty snapshot, to which tokens are then added.
+	 */
+	public FrequencySnapshot(long numDocs, long version) {
+		this.numDocs = numDocs;
+		this.version = version;
+	}
+
+	/**
+	 * Reads a snapshot from a file.
+	 *
+	 * @throws IllegalArgumentException
+	 *     if the file is not formatted as expected
+	 */
+	public static FrequencySnapshot load(Path path) throws IOException {
+		byte[] content = Files.readAllBytes(path);
+		CRC32 checksum = new CRC32();
+		checksum.update(content);
+		try (BufferedReader reader = new BufferedReader(new StringReader(new String(content, StandardCharsets.UTF_8)))) {
+			String line = reader.readLine();
+			if (line == null) {
+				throw new IllegalArgumentException("Empty frequency snapshot [" + path + "]");
+			}
+			FrequencySnapshot snapshot = new FrequencySnapshot(parseLong(path, line.trim()), checksum.getValue());
+			while ((line = reader.readLine()) != null) {
+				int tab = line.lastIndexOf('\t');
+				if (tab < 0) {
+					if (line.trim().isEmpty()) {
+						continue;
+					}
+					throw new IllegalArgumentException("Invalid line [" + line + "] in frequency snapshot [" + path + "]");
+				}
+				snapshot.add(line.substring(0, tab), parseLong(path, line.substring(tab + 1).trim()));
+			}
+			return snapshot;
+		}
+	}
+
+	private static long parseLong(Path path, String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number [" + value + "] in frequency snapshot [" + path + "]");
+		}
+	}
+
+	/**
+	 * Sets the document frequency of a token, while the snapshot is built.
+	 */
+	public void add(String token, long docFreq) {
+		Long previous = docFreqs.put(new BytesRef(token), docFreq);
+		totalDocFreq += docFreq - (previous == null ? 0L : previous);
+	}
+
+	public long numDocs() {
+		return numDocs;
+	}
+
+	/**
+	 * @return the checksum of the file the snapshot was read from
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * @return the number of tokens in the snapshot
+	 */
+	public int size() {
+		return docFreqs.size();
+	}
+
+	/**
+	 * @return the number of documents containing the token in the snapshot
+	 */
+	public long docFreq(String token) {
+		return docFreq(new BytesRef(token));
+	}
+
+	/**
+	 * @return the number of documents containing the token in the snapshot
+	 */
+	public long docFreq(BytesRef token) {
+		return docFreqs.getOrDefault(token, 0L);
+	}
+
+	/**
+	 * The L2 norm of the TFIDF weight vector of a field value, as computed
+	 * by {@link TFIDFSimilarity} when documents are normalized.
+	 *
+	 * @param tokens
+	 *     the tokens of the value, as analyzed for the field
+	 */
+	public double norm(List<String> tokens) {
+		Set<String> distinct = new HashSet<>(tokens);
+		double norm = 0.;
+		for (String token : distinct) {
+			double weight = TFIDFSimilarity.idf(docFreq(token), (int) Math.min(Integer.MAX_VALUE, numDocs));
+			norm += weight * weight;
+		}
+		return Math.sqrt(norm);
+	}
+
+	/**
+	 * Measures how much the statistics changed from this snapshot to a newer one:
+	 * the largest of the relative change of the number of documents, and the relative
+	 * change of the document frequencies of the tokens (their L1 distance,
+	 * divided by the sum of the frequencies of this snapshot).
+	 */
+	public double drift(FrequencySnapshot newer) {
+		if (numDocs == 0 || totalDocFreq == 0) {
+			return newer.numDocs == numDocs && newer.totalDocFreq == totalDocFreq ? 0. : Double.POSITIVE_INFINITY;
+		}
+		long distance = 0;
+		for (Map.Entry<BytesRef, Long> entry : docFreqs.entrySet()) {
+			distance += Math.abs(newer.docFreq(entry.getKey()) - entry.getValue());
+		}
+		for (Map.Entry<BytesRef, Long> entry : newer.docFreqs.entrySet()) {
+			if (!docFreqs.containsKey(entry.getKey())) {
+				distance += entry.getValue();
+			}
+		}
+		double docCountDrift = Math.abs(newer.numDocs - numDocs) / (double) numDocs;
+		return Math.max(docCountDrift, distance / (double) totalDocFreq);
+	}
+}
@@ -0,0 +1,146 @@
+package com.opencorporates.record_linkage.ingest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.Scheduler;
+
+/**
+ * Holds the frequency snapshot read from a given file, and replaces it in the background
+ * when the file is updated. The new snapshot is only used if the statistics drifted past
+ * a threshold, so that the norms of documents indexed in the meantime stay valid.
+ *
+ * The background refresh stops once the snapshot has not been used for {@link #IDLE_REFRESHES}
+ * refresh intervals, for instance because the pipelines using it were deleted.
+ */
+public class FrequencySnapshotHolder {
+
+	private static final Logger logger = Logger.getLogger("RecordLinkage");
+
+	/**
+	 * Number of consecutive refreshes without any use of the snapshot, after which it is released.
+	 */
+	public static final int IDLE_REFRESHES = 10;
+
+	private final Path path;
+	private final double driftThreshold;
+	private final TimeValue refreshInterval;
+	private volatile FrequencySnapshot snapshot;
+	private volatile FileTime lastModified;
+	// whether the snapshot was used since the last refresh
+	private volatile boolean used = true;
+	private int idleRefreshes = 0;
+	private volatile boolean closed = false;
+	private volatile Scheduler.ScheduledCancellable scheduled = null;
+
+	/**
+	 * Loads the snapshot from the file.
+	 *
+	 * @param driftThreshold
+	 *     the drift (see {@link FrequencySnapshot#drift(FrequencySnapshot)}) above which a new snapshot is used
+	 * @param refreshInterval
+	 *     how often the file is checked for updates (0 to never check it)
+	 */
+	public FrequencySnapshotHolder(Path path, double driftThreshold, TimeValue refreshInterval) throws IOException {
+		this.path = path;
+		this.driftThreshold = driftThreshold;
+		this.refreshInterval = refreshInterval;
+		this.lastModified = Files.getLastModifiedTime(path);
+		this.snapshot = FrequencySnapshot.load(path);
+	}
+
+	/**
+	 * @return the snapshot currently in use
+	 */
+	public FrequencySnapshot get() {
+		if (!used) {
+			used = true;
+		}
+		return snapshot;
+	}
+
+	public double driftThreshold() {
+		return driftThreshold;
+	}
+
+	public TimeValue refreshInterval() {
+		return refreshInterval;
+	}
+
+	/**
+	 * Reloads the file if it was modified since it was last read.
+	 *
+	 * @return true if the new snapshot replaced the current one
+	 */
+	public boolean refresh() throws IOException {
+		FileTime modified = Files.getLastModifiedTime(path);
+		if (modified.equals(lastModified)) {
+			return false;
+		}
+		FrequencySnapshot newer = FrequencySnapshot.load(path);
+		lastModified = modified;
+		if (snapshot.drift(newer) < driftThreshold) {
+			return false;
+		}
+		snapshot = newer;
+		return true;
+	}
+
+	/**
+	 * Refreshes the snapshot every refresh interval, until it is closed or stays unused for too long.
+	 *
+	 * @param scheduler
+	 *     schedules a task after a delay in milliseconds, as provided to ingest processors
+	 * @param onIdle
+	 *     called when the refreshes stop because the snapshot was not used
+	 */
+	public void scheduleRefresh(BiFunction<Long, Runnable, Scheduler.ScheduledCancellable> scheduler, Runnable onIdle) {
+		if (closed || refreshInterval.millis() <= 0) {
+			return;
+		}
+		scheduled = scheduler.apply(refreshInterval.millis(), () -> {
+			if (closed) {
+				return;
+			}
+			idleRefreshes = used ? 0 : idleRefreshes + 1;
+			used = false;
+			if (idleRefreshes >= IDLE_REFRESHES) {
+				close();
+				onIdle.run();
+				return;
+			}
+			try {
+				if (refresh()) {
+					logger.info("Frequency snapshot [" + path + "] replaced, with " + snapshot.numDocs() + " documents");
+				}
+			} catch (IOException | IllegalArgumentException e) {
+				logger.log(Level.WARNING, "Failed to refresh frequency snapshot [" + path + "]", e);
+			}
+			scheduleRefresh(scheduler, onIdle);
+		});
+	}
+
+	/**
+	 * @return whether the refreshes of the snapshot were stopped
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stops refreshing the snapshot.
+	 */
+	public void close() {
+		closed = true;
+		Scheduler.ScheduledCancellable task = scheduled;
+		if (task != null) {
+			task.cancel();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.opencorporates.record_linkage.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.Scheduler;
+
+/**
+ * The frequency snapshots of a node, shared by the ingest processors computing norms
+ * and by the scripts scoring documents with these norms, so that both use the same statistics.
+ *
+ * Snapshots are read from the given directory, and identified by their file name.
+ * All the processors using a file share its refresh settings, which scripts adopt.
+ * Snapshots are released when they are no longer used, and read again on their next use.
+ */
+public class FrequencySnapshots implements Closeable {
+
+	public static final double DEFAULT_DRIFT_THRESHOLD = 0.05;
+	public static final TimeValue DEFAULT_REFRESH_INTERVAL = TimeValue.timeValueMinutes(1);
+
+	private final Path directory;
+	private final Map<Path, FrequencySnapshotHolder> holders = new ConcurrentHashMap<>();
+	// the files whose refresh settings were set by processors, rather than by default
+	private final Set<Path> registered = ConcurrentHashMap.newKeySet();
+	private volatile BiFunction<Long, Runnable, Scheduler.ScheduledCancellable> scheduler = null;
+
+	/**
+	 * @param directory
+	 *     the directory frequency snapshots are read from
+	 */
+	public FrequencySnapshots(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Sets the scheduler used to refresh snapshots. Snapshots are not refreshed without one.
+	 *
+	 * @param scheduler
+	 *     schedules a task after a delay in milliseconds, as provided to ingest processors
+	 */
+	public void setScheduler(BiFunction<Long, Runnable, Scheduler.ScheduledCancellable> scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Resolves the path of a snapshot file.
+	 *
+	 * @throws IllegalArgumentException
+	 *     if the file is outside of the snapshot directory
+	 */
+	public Path resolve(String file) {
+		Path path = directory.resolve(file).normalize();
+		if (!path.startsWith(directory)) {
+			throw new IllegalArgumentException("frequency snapshots must be in [" + directory + "]");
+		}
+		return path;
+	}
+
+	/**
+	 * Registers a user of a snapshot file with the given refresh settings, typically an ingest processor.
+	 *
+	 * @throws IllegalArgumentException
+	 *     if the file is already used with other refresh settings
+	 */
+	public FrequencySnapshotHolder register(String file, double driftThreshold, TimeValue refreshInterval) throws IOException {
+		Path path = resolve(file);
+		FrequencySnapshotHolder holder;
+		synchronized (this) {
+			holder = holders.get(path);
+			if (holder != null && !registered.contains(path)) {
+				// loaded by a script with the default settings
+				holders.remove(path);
+				holder.close();
+			}
+			holder = holder(path, driftThreshold, refreshInterval);
+			registered.add(path);
+		}
+		if (holder.driftThreshold() != driftThreshold || !holder.refreshInterval().equals(refreshInterval)) {
+			throw new IllegalArgumentException("frequency snapshot [" + file + "] is already used with drift_threshold ["
+					+ holder.driftThreshold() + "] and refresh_interval [" + holder.refreshInterval() + "]");
+		}
+		return holder;
+	}
+
+	/**
+	 * @return the snapshot read from a file, loaded with the given refresh settings if no other user loaded it
+	 */
+	public FrequencySnapshot get(String file, double driftThreshold, TimeValue refreshInterval) throws IOException {
+		return holder(resolve(file), driftThreshold, refreshInterval).get();
+	}
+
+	/**
+	 * @return the snapshot read from a file, loaded with the default refresh settings if no other user loaded it
+	 */
+	public FrequencySnapshot get(String file) throws IOException {
+		return get(file, DEFAULT_DRIFT_THRESHOLD, DEFAULT_REFRESH_INTERVAL);
+	}
+
+	private FrequencySnapshotHolder holder(Path path, double driftThreshold, TimeValue refreshInterval) throws IOException {
+		FrequencySnapshotHolder holder = holders.get(path);
+		if (holder != null) {
+			return holder;
+		}
+		synchronized (this) {
+			holder = holders.get(path);
+			if (holder == null) {
+				FrequencySnapshotHolder loaded = new FrequencySnapshotHolder(path, driftThreshold, refreshInterval);
+				holders.put(path, loaded);
+				if (scheduler != null) {
+					loaded.scheduleRefresh(scheduler, () -> release(path, loaded));
+				}
+				holder = loaded;
+			}
+			return holder;
+		}
+	}
+
+	private synchronized void release(Path path, FrequencySnapshotHolder holder) {
+		if (holders.remove(path, holder)) {
+			registered.remove(path);
+		}
+	}
+	
+	/**
+	 * @return the number of snapshots currently held
+	 */
+	public int size() {
+		return holders.size();
+	}
+
+	/**
+	 * Stops refreshing all snapshots, and releases them.
+	 */
+	@Override
+	public void close() {
+		for (FrequencySnapshotHolder holder : holders.values()) {
+			holder.close();
+		}
+		holders.clear();
+		registered.clear();
+	}
+}
@@ -0,0 +1,188 @@
+package com.opencorporates.record_linkage.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.analysis.AnalysisRegistry;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import com.opencorporates.record_linkage.scoring.PrecomputedNorms;
+
+/**
+ * The {@code record_linkage_tfidf_norms} ingest processor, which computes the norm of the
+ * TFIDF weight vector of each value of a field at index time, from a frequency snapshot.
+ * For instance:
+ * <pre>
+ * "record_linkage_tfidf_norms": {
+ *     "field": "name",
+ *     "target_field": "name_norms",
+ *     "analyzer": "standard",
+ *     "frequencies": "name_frequencies.tsv"
+ * }
+ * </pre>
+ * The norms are stored as packed floats, in the order of the values, in a {@code binary} field
+ * with doc values (see {@link PrecomputedNorms}), along with the version of the snapshot. The {@code tfidf}
+ * similarity can then normalize documents without looking up the frequencies of all their tokens,
+ * provided that the script is supplied with the same snapshot, so that query weights are consistent
+ * with the norms.
+ * 
+ * The snapshot is read from the {@code record_linkage} directory of the node configuration, and reloaded
+ * every refresh_interval (1 minute by default) if the file changed and the statistics drifted
+ * by more than drift_threshold (5% by default, see {@link FrequencySnapshot#drift(FrequencySnapshot)}).
+ * All the processors reading the same file must use the same settings.
+ */
+public class TFIDFNormsProcessor extends AbstractProcessor {
+	
+	public static final String TYPE = "record_linkage_tfidf_norms";
+	
+	private final String field;
+	private final String targetField;
+	private final Analyzer analyzer;
+	private final FrequencySnapshots snapshots;
+	private final String frequencies;
+	private final double driftThreshold;
+	private final TimeValue refreshInterval;
+	private final boolean ignoreMissing;
+	
+	/**
+	 * @param snapshots
+	 *     the frequency snapshots of the node
+	 * @param frequencies
+	 *     the file of the snapshot to compute norms from, read with the given refresh settings
+	 */
+	public TFIDFNormsProcessor(String tag, String field, String targetField, Analyzer analyzer,
+			FrequencySnapshots snapshots, String frequencies, double driftThreshold, TimeValue refreshInterval,
+			boolean ignoreMissing) {
+		super(tag);
+		this.field = field;
+		this.targetField = targetField;
+		this.analyzer = analyzer;
+		this.snapshots = snapshots;
+		this.frequencies = frequencies;
+		this.driftThreshold = driftThreshold;
+		this.refreshInterval = refreshInterval;
+		this.ignoreMissing = ignoreMissing;
+	}
+	
+	@Override
+	public String getType() {
+		return TYPE;
+	}
+	
+	public String getField() {
+		return field;
+	}
+	
+	public String getTargetField() {
+		return targetField;
+	}
+
+	@Override
+	public IngestDocument execute(IngestDocument document) throws Exception {
+		Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+		if (value == null) {
+			return document;
+		}
+		List<?> values = value instanceof List ? (List<?>) value : Collections.singletonList(value);
+		// read again if it was released while the pipeline was idle
+		FrequencySnapshot snapshot = snapshots.get(frequencies, driftThreshold, refreshInterval);
+		float[] norms = new float[values.size()];
+		int count = 0;
+		for (Object v : values) {
+			List<String> tokens = analyze(String.valueOf(v));
+			// values without any token are not indexed, so they get no norm
+			if (!tokens.isEmpty()) {
+				norms[count++] = (float) snapshot.norm(tokens);
+			}
+		}
+		document.setFieldValue(targetField, encode(snapshot.version(), Arrays.copyOf(norms, count)));
+		return document;
+	}
+	
+	private List<String> analyze(String text) throws IOException {
+		List<String> tokens = new ArrayList<>();
+		try (TokenStream source = analyzer.tokenStream(field, text)) {
+			source.reset();
+			CharTermAttribute termAtt = source.addAttribute(CharTermAttribute.class);
+			while (source.incrementToken()) {
+				tokens.add(termAtt.toString());
+			}
+			source.end();
+		}
+		return tokens;
+	}
+	
+	/**
+	 * Packs norms and the version of their snapshot into the base64 representation expected by {@code binary} fields.
+	 */
+	public static String encode(long version, float[] norms) {
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + norms.length * Float.BYTES);
+		buffer.putLong(version);
+		for (float norm : norms) {
+			buffer.putFloat(norm);
+		}
+		return Base64.getEncoder().encodeToString(buffer.array());
+	}
+	
+	/**
+	 * Creates processors, sharing the frequency snapshots of the node.
+	 */
+	public static class Factory implements Processor.Factory {
+		
+		private final FrequencySnapshots snapshots;
+		private final AnalysisRegistry analysisRegistry;
+		
+		/**
+		 * @param snapshots
+		 *     the frequency snapshots of the node, also used by scripts
+		 * @param analysisRegistry
+		 *     provides the analyzers available at ingest time
+		 */
+		public Factory(FrequencySnapshots snapshots, AnalysisRegistry analysisRegistry) {
+			this.snapshots = snapshots;
+			this.analysisRegistry = analysisRegistry;
+		}
+
+		@Override
+		public TFIDFNormsProcessor create(Map<String, Processor.Factory> processorFactories, String tag,
+				Map<String, Object> config) throws Exception {
+			String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+			String targetField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "target_field", field + "_norms");
+			String analyzerName = ConfigurationUtils.readStringProperty(TYPE, tag, config, "analyzer", "standard");
+			String frequencies = ConfigurationUtils.readStringProperty(TYPE, tag, config, "frequencies");
+			String refreshIntervalValue = ConfigurationUtils.readStringProperty(TYPE, tag, config, "refresh_interval",
+					FrequencySnapshots.DEFAULT_REFRESH_INTERVAL.getStringRep());
+			Double driftThresholdValue = ConfigurationUtils.readDoubleProperty(TYPE, tag, config, "drift_threshold");
+			boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+			
+			Analyzer analyzer = analysisRegistry.getAnalyzer(analyzerName);
+			if (analyzer == null) {
+				throw ConfigurationUtils.newConfigurationException(TYPE, tag, "analyzer",
+						"analyzer [" + analyzerName + "] not found, only built-in analyzers are available at ingest time");
+			}
+			double driftThreshold = driftThresholdValue == null ? FrequencySnapshots.DEFAULT_DRIFT_THRESHOLD : driftThresholdValue;
+			TimeValue refreshInterval;
+			try {
+				refreshInterval = TimeValue.parseTimeValue(refreshIntervalValue, "refresh_interval");
+				snapshots.register(frequencies, driftThreshold, refreshInterval);
+			} catch (IOException | IllegalArgumentException e) {
+				throw ConfigurationUtils.newConfigurationException(TYPE, tag, "frequencies", e);
+			}
+			return new TFIDFNormsProcessor(tag, field, targetField, analyzer, snapshots, frequencies, driftThreshold,
+					refreshInterval, ignoreMissing);
+		}
+	}
+}
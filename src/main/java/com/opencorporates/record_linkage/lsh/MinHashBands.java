@@ -0,0 +1,104 @@
+package com.opencorporates.record_linkage.lsh;
+
+import java.util.Arrays;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+
+/**
+ * Computes the MinHash signature of a set of tokens, and groups it into bands
+ * for locality-sensitive hashing (LSH).
+ * 
+ * The signature is made of bands × rows min-hashes. Two sets with Jaccard similarity s
+ * have the same value for a given band with probability s<sup>rows</sup>, so they share at least
+ * one band with probability 1 - (1 - s<sup>rows</sup>)<sup>bands</sup>. More rows make candidates more
+ * similar, more bands find more of them.
+ * 
+ * The hash functions are derived from a single 128 bits Murmur3 hash of each token,
+ * following Kirsch and Mitzenmacher, so adding a token costs one hash whatever the size
+ * of the signature. Instances are reusable but not thread-safe.
+ */
+public class MinHashBands {
+	
+	private final int bands;
+	private final int rows;
+	private final long seed;
+	private final long[] minHashes;
+	private final MurmurHash3.Hash128 hash = new MurmurHash3.Hash128();
+	private boolean empty = true;
+	
+	/**
+	 * @param bands
+	 *     the number of bands, each of which gives a term
+	 * @param rows
+	 *     the number of min-hashes in each band
+	 * @param seed
+	 *     the seed of the hash functions, which must be the same at index and query time
+	 */
+	public MinHashBands(int bands, int rows, long seed) {
+		if (bands < 1 || rows < 1) {
+			throw new IllegalArgumentException("The number of bands and rows must be positive");
+		}
+		this.bands = bands;
+		this.rows = rows;
+		this.seed = seed;
+		this.minHashes = new long[bands * rows];
+		reset();
+	}
+	
+	public int bands() {
+		return bands;
+	}
+	
+	public int rows() {
+		return rows;
+	}
+	
+	/**
+	 * Clears the signature, to compute the one of another set.
+	 */
+	public void reset() {
+		Arrays.fill(minHashes, Long.MAX_VALUE);
+		empty = true;
+	}
+	
+	/**
+	 * @return true if no token was added since the last reset
+	 */
+	public boolean isEmpty() {
+		return empty;
+	}
+	
+	/**
+	 * Adds a token to the set. Adding the same token twice has no effect.
+	 */
+	public void add(byte[] bytes, int offset, int length) {
+		MurmurHash3.hash128(bytes, offset, length, seed, hash);
+		long h = hash.h1;
+		for (int i = 0; i < minHashes.length; i++) {
+			if (h < minHashes[i]) {
+				minHashes[i] = h;
+			}
+			h += hash.h2;
+		}
+		empty = false;
+	}
+	
+	/**
+	 * @return a hash of the min-hashes of the given band
+	 */
+	public long band(int band) {
+		long h = seed + band;
+		for (int i = band * rows; i < (band + 1) * rows; i++) {
+			h = MurmurHash3.murmur64(h * 31 + minHashes[i]);
+		}
+		return h;
+	}
+	
+	/**
+	 * @return the term representing the given band, prefixed by the band number
+	 *     so that different bands never match each other
+	 */
+	public String bandTerm(int band) {
+		return band + "_" + Long.toHexString(band(band));
+	}
+}
@@ -0,0 +1,107 @@
+package com.opencorporates.record_linkage.lsh;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.CharsRefBuilder;
+
+/**
+ * Replaces the tokens of a value by the LSH bands of their MinHash signature
+ * (see {@link MinHashBands}), one term per band, all at the same position.
+ * 
+ * The signature is computed either on the set of tokens, or on the set of
+ * character q-grams of the value (its tokens joined by spaces) if q is positive.
+ * Values without any token give no term.
+ */
+public final class MinHashBandsTokenFilter extends TokenFilter {
+	
+	private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+	private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+	private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+	
+	private final MinHashBands signature;
+	private final int q;
+	private final BytesRefBuilder bytes = new BytesRefBuilder();
+	private final CharsRefBuilder value = new CharsRefBuilder();
+	private int nextBand = -1;
+	private int startOffset;
+	private int endOffset;
+
+	/**
+	 * @param input
+	 *     the tokens to compute the signature of
+	 * @param bands
+	 *     the number of bands, and so of terms produced
+	 * @param rows
+	 *     the number of min-hashes in each band
+	 * @param seed
+	 *     the seed of the hash functions
+	 * @param q
+	 *     the length of the character q-grams to hash, or 0 to hash the tokens
+	 */
+	public MinHashBandsTokenFilter(TokenStream input, int bands, int rows, long seed, int q) {
+		super(input);
+		this.signature = new MinHashBands(bands, rows, seed);
+		this.q = q;
+	}
+
+	@Override
+	public boolean incrementToken() throws IOException {
+		if (nextBand < 0) {
+			consumeInput();
+			nextBand = 0;
+		}
+		if (signature.isEmpty() || nextBand >= signature.bands()) {
+			return false;
+		}
+		clearAttributes();
+		termAtt.append(signature.bandTerm(nextBand));
+		offsetAtt.setOffset(startOffset, endOffset);
+		posIncAtt.setPositionIncrement(nextBand == 0 ? 1 : 0);
+		nextBand++;
+		return true;
+	}
+	
+	private void consumeInput() throws IOException {
+		boolean first = true;
+		while (input.incrementToken()) {
+			if (first) {
+				startOffset = offsetAtt.startOffset();
+				first = false;
+			}
+			endOffset = offsetAtt.endOffset();
+			if (q > 0) {
+				if (value.length() > 0) {
+					value.append(" ");
+				}
+				value.append(termAtt);
+			} else {
+				bytes.copyChars(termAtt);
+				signature.add(bytes.bytes(), 0, bytes.length());
+			}
+		}
+		if (q > 0 && value.length() > 0) {
+			// values shorter than q are hashed as a single q-gram
+			int gramLength = Math.min(q, value.length());
+			for (int i = 0; i + gramLength <= value.length(); i++) {
+				bytes.copyChars(value.chars(), i, gramLength);
+				signature.add(bytes.bytes(), 0, bytes.length());
+			}
+		}
+	}
+
+	@Override
+	public void reset() throws IOException {
+		super.reset();
+		signature.reset();
+		value.clear();
+		nextBand = -1;
+		startOffset = 0;
+		endOffset = 0;
+	}
+}
@@ -0,0 +1,49 @@
+package com.opencorporates.record_linkage.lsh;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+
+/**
+ * The {@code record_linkage_minhash} token filter, which indexes the LSH bands
+ * of the MinHash signature of field values. For instance:
+ * <pre>
+ * "filter": {
+ *     "name_bands": {
+ *         "type": "record_linkage_minhash",
+ *         "bands": 20,
+ *         "rows": 3,
+ *         "q": 3
+ *     }
+ * }
+ * </pre>
+ * The same filter must be used to analyze the query, so that it gets the same bands.
+ */
+public class MinHashBandsTokenFilterFactory extends AbstractTokenFilterFactory {
+	
+	public static final String NAME = "record_linkage_minhash";
+	
+	private final int bands;
+	private final int rows;
+	private final long seed;
+	private final int q;
+
+	public MinHashBandsTokenFilterFactory(IndexSettings indexSettings, Environment environment, String name, Settings settings) {
+		super(indexSettings, name, settings);
+		this.bands = settings.getAsInt("bands", 20);
+		this.rows = settings.getAsInt("rows", 3);
+		this.seed = settings.getAsLong("seed", 0L);
+		this.q = settings.getAsInt("q", 0);
+		if (bands < 1 || rows < 1 || q < 0) {
+			throw new IllegalArgumentException("[" + NAME + "] filter [" + name
+					+ "] requires positive bands and rows, and a non-negative q");
+		}
+	}
+
+	@Override
+	public TokenStream create(TokenStream tokenStream) {
+		return new MinHashBandsTokenFilter(tokenStream, bands, rows, seed, q);
+	}
+}
@@ -0,0 +1,82 @@
+package com.opencorporates.record_linkage.mapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.store.GrowableByteArrayDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.CustomDocValuesField;
+
+/**
+ * Binary doc values holding the tokens of all the values of a
+ * {@link LinkageTextFieldMapper} field in a document. As binary doc values
+ * can only hold one value per document, the values of the field are accumulated
+ * in a single instance of this field.
+ *
+ * The encoding is the following, where all integers are variable-length:
+ * <ul>
+ * <li>the number of distinct tokens in the document, followed by each distinct token
+ *     (its length in bytes, and its UTF-8 bytes);</li>
+ * <li>the number of values, followed by each value
+ *     (its number of tokens, and the index of each token in the list of distinct tokens).</li>
+ * </ul>
+ * Tokens repeated across values are therefore only stored once.
+ */
+public class LinkageTextDocValuesField extends CustomDocValuesField {
+
+	private final List<List<BytesRef>> values = new ArrayList<>();
+
+	public LinkageTextDocValuesField(String name) {
+		super(name);
+	}
+
+	/**
+	 * Adds a value to the field.
+	 *
+	 * @param tokens
+	 *     the tokens of the value, in order
+	 */
+	public void add(List<BytesRef> tokens) {
+		values.add(tokens);
+	}
+
+	@Override
+	public BytesRef binaryValue() {
+		return encode(values);
+	}
+
+	/**
+	 * Encodes the tokens of all values of a field.
+	 */
+	public static BytesRef encode(List<List<BytesRef>> values) {
+		Map<BytesRef, Integer> distinctTokens = new LinkedHashMap<>();
+		for (List<BytesRef> value : values) {
+			for (BytesRef token : value) {
+				distinctTokens.putIfAbsent(token, distinctTokens.size());
+			}
+		}
+
+		GrowableByteArrayDataOutput out = new GrowableByteArrayDataOutput(64);
+		try {
+			out.writeVInt(distinctTokens.size());
+			for (BytesRef token : distinctTokens.keySet()) {
+				out.writeVInt(token.length);
+				out.writeBytes(token.bytes, token.offset, token.length);
+			}
+			out.writeVInt(values.size());
+			for (List<BytesRef> value : values) {
+				out.writeVInt(value.size());
+				for (BytesRef token : value) {
+					out.writeVInt(distinctTokens.get(token));
+				}
+			}
+		} catch (IOException e) {
+			// cannot happen when writing to memory
+			throw new IllegalStateException(e);
+		}
+		return new BytesRef(out.getBytes(), 0, out.getPosition());
+	}
+}
@@ -0,0 +1,204 @@
+package com.opencorporates.record_linkage.mapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.NormsFieldExistsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.Version;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.FieldNamesFieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.StringFieldType;
+import org.elasticsearch.index.mapper.TypeParsers;
+import org.elasticsearch.index.query.QueryShardContext;
+
+/**
+ * A text field designed for record linkage. Like a text field, values are analyzed
+ * and indexed, which gives access to token frequencies. In addition, the tokens of
+ * each value are stored in binary doc values (see {@link LinkageTextDocValuesField}),
+ * from which similarity scripts read the field values. Doc values are enabled by default. This is much faster than
+ * reading them from term vectors, which are compressed by chunks of documents.
+ *
+ * For instance:
+ * <pre>
+ * "name": {
+ *     "type": "linkage_text",
+ *     "analyzer": "my_analyzer"
+ * }
+ * </pre>
+ */
+public class LinkageTextFieldMapper extends FieldMapper {
+
+	public static final String CONTENT_TYPE = "linkage_text";
+
+	public static class Defaults {
+		public static final MappedFieldType FIELD_TYPE = new LinkageTextFieldType();
+
+		static {
+			FIELD_TYPE.setTokenized(true);
+			FIELD_TYPE.setStored(false);
+			FIELD_TYPE.setOmitNorms(true);
+			FIELD_TYPE.setIndexOptions(IndexOptions.DOCS);
+			FIELD_TYPE.freeze();
+		}
+	}
+
+	public static class Builder extends FieldMapper.Builder<Builder, LinkageTextFieldMapper> {
+
+		public Builder(String name) {
+			super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
+			builder = this;
+		}
+
+		@Override
+		protected IndexOptions getDefaultIndexOption() {
+			return IndexOptions.DOCS;
+		}
+
+		@Override
+		protected boolean defaultDocValues(Version indexCreated) {
+			// the field is tokenized, but similarities read its values from doc values
+			return true;
+		}
+
+		@Override
+		public LinkageTextFieldMapper build(BuilderContext context) {
+			setupFieldType(context);
+			if (!fieldType.hasDocValues() && !fieldType.storeTermVectorPositions()) {
+				throw new MapperParsingException("[" + CONTENT_TYPE + "] field [" + name
+						+ "] cannot be scored without doc_values, unless it stores term vectors with positions");
+			}
+			return new LinkageTextFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
+					multiFieldsBuilder.build(this, context), copyTo);
+		}
+	}
+
+	public static class TypeParser implements Mapper.TypeParser {
+
+		@Override
+		public Mapper.Builder<?, ?> parse(String name, Map<String, Object> node, ParserContext parserContext)
+				throws MapperParsingException {
+			Builder builder = new Builder(name);
+			builder.fieldType().setIndexAnalyzer(parserContext.getIndexAnalyzers().getDefaultIndexAnalyzer());
+			builder.fieldType().setSearchAnalyzer(parserContext.getIndexAnalyzers().getDefaultSearchAnalyzer());
+			builder.fieldType().setSearchQuoteAnalyzer(parserContext.getIndexAnalyzers().getDefaultSearchQuoteAnalyzer());
+			TypeParsers.parseTextField(builder, name, node, parserContext);
+			return builder;
+		}
+	}
+
+	public static final class LinkageTextFieldType extends StringFieldType {
+
+		public LinkageTextFieldType() {
+			// default constructor
+		}
+
+		protected LinkageTextFieldType(LinkageTextFieldType ref) {
+			super(ref);
+		}
+
+		@Override
+		public LinkageTextFieldType clone() {
+			return new LinkageTextFieldType(this);
+		}
+
+		@Override
+		public String typeName() {
+			return CONTENT_TYPE;
+		}
+
+		@Override
+		public Query existsQuery(QueryShardContext context) {
+			if (hasDocValues()) {
+				return new DocValuesFieldExistsQuery(name());
+			} else if (omitNorms()) {
+				return new TermQuery(new Term(FieldNamesFieldMapper.NAME, name()));
+			} else {
+				return new NormsFieldExistsQuery(name());
+			}
+		}
+	}
+
+	protected LinkageTextFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+			Settings indexSettings, MultiFields multiFields, CopyTo copyTo) {
+		super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+	}
+
+	@Override
+	public LinkageTextFieldType fieldType() {
+		return (LinkageTextFieldType) super.fieldType();
+	}
+
+	@Override
+	protected void parseCreateField(ParseContext context, List<IndexableField> fields) throws IOException {
+		final String value;
+		if (context.externalValueSet()) {
+			value = context.externalValue().toString();
+		} else {
+			value = context.parser().textOrNull();
+		}
+		if (value == null) {
+			return;
+		}
+
+		if (fieldType().indexOptions() != IndexOptions.NONE) {
+			fields.add(new Field(fieldType().name(), value, fieldType()));
+			if (fieldType().omitNorms()) {
+				createFieldNamesField(context, fields);
+			}
+		}
+
+		if (fieldType().hasDocValues()) {
+			LinkageTextDocValuesField docValues = (LinkageTextDocValuesField) context.doc().getByKey(fieldType().name());
+			if (docValues == null) {
+				docValues = new LinkageTextDocValuesField(fieldType().name());
+				context.doc().addWithKey(fieldType().name(), docValues);
+			}
+			docValues.add(analyze(value));
+		}
+	}
+
+	/**
+	 * Parses a value with the index analyzer of the field.
+	 */
+	protected List<BytesRef> analyze(String value) throws IOException {
+		List<BytesRef> tokens = new ArrayList<>();
+		try (TokenStream source = fieldType().indexAnalyzer().tokenStream(fieldType().name(), value)) {
+			source.reset();
+			TermToBytesRefAttribute termAtt = source.addAttribute(TermToBytesRefAttribute.class);
+			while (source.incrementToken()) {
+				tokens.add(BytesRef.deepCopyOf(termAtt.getBytesRef()));
+			}
+			source.end();
+		}
+		return tokens;
+	}
+
+	@Override
+	protected String contentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+		super.doXContentBody(builder, includeDefaults, params);
+		doXContentAnalyzers(builder, includeDefaults);
+	}
+}
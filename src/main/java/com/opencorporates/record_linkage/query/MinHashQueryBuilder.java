@@ -0,0 +1,217 @@
+package com.opencorporates.record_linkage.query;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ConstructingObjectParser;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+import com.opencorporates.record_linkage.lsh.MinHashBandsTokenFilterFactory;
+
+/**
+ * The {@code record_linkage_minhash} query, which retrieves candidates sharing
+ * LSH bands with the query string. The field must be analyzed with the
+ * {@link MinHashBandsTokenFilterFactory record_linkage_minhash} filter, and the query is
+ * analyzed with the search analyzer of the field (or the analyzer supplied), so that
+ * it gets the same bands. For instance:
+ * <pre>
+ * "record_linkage_minhash": {
+ *     "field": "name.bands",
+ *     "query": "GreenTech distribution Ltd.",
+ *     "minimum_should_match": 2
+ * }
+ * </pre>
+ * Each band matched contributes 1 to the score, and documents matching fewer bands than
+ * minimum_should_match (1 by default) are not returned. The candidates can then be rescored
+ * with similarity scripts.
+ */
+public class MinHashQueryBuilder extends AbstractQueryBuilder<MinHashQueryBuilder> {
+
+	public static final String NAME = "record_linkage_minhash";
+
+	private static final ParseField FIELD_FIELD = new ParseField("field");
+	private static final ParseField QUERY_FIELD = new ParseField("query");
+	private static final ParseField ANALYZER_FIELD = new ParseField("analyzer");
+	private static final ParseField MINIMUM_SHOULD_MATCH_FIELD = new ParseField("minimum_should_match");
+
+	private static final ConstructingObjectParser<MinHashQueryBuilder, Void> PARSER = new ConstructingObjectParser<>(NAME,
+			args -> new MinHashQueryBuilder((String) args[0], (String) args[1]));
+
+	static {
+		PARSER.declareString(ConstructingObjectParser.constructorArg(), FIELD_FIELD);
+		PARSER.declareString(ConstructingObjectParser.constructorArg(), QUERY_FIELD);
+		PARSER.declareString(MinHashQueryBuilder::analyzer, ANALYZER_FIELD);
+		PARSER.declareInt(MinHashQueryBuilder::minimumShouldMatch, MINIMUM_SHOULD_MATCH_FIELD);
+		declareStandardFields(PARSER);
+	}
+
+	private final String field;
+	private final String query;
+	private String analyzer = null;
+	private int minimumShouldMatch = 1;
+
+	public MinHashQueryBuilder(String field, String query) {
+		if (field == null) {
+			throw new IllegalArgumentException("Missing argument 'field', the field holding the bands.");
+		}
+		if (query == null) {
+			throw new IllegalArgumentException("Missing argument 'query', containing the name to compare against.");
+		}
+		this.field = field;
+		this.query = query;
+	}
+
+	public MinHashQueryBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		query = in.readString();
+		analyzer = in.readOptionalString();
+		minimumShouldMatch = in.readVInt();
+	}
+
+	public static MinHashQueryBuilder fromXContent(XContentParser parser) {
+		return PARSER.apply(parser, null);
+	}
+
+	/**
+	 * Sets the analyzer used to compute the bands of the query (the search analyzer of the field otherwise).
+	 */
+	public MinHashQueryBuilder analyzer(String analyzer) {
+		this.analyzer = analyzer;
+		return this;
+	}
+
+	/**
+	 * Sets the number of bands candidates must share with the query.
+	 */
+	public MinHashQueryBuilder minimumShouldMatch(int minimumShouldMatch) {
+		if (minimumShouldMatch < 1) {
+			throw new IllegalArgumentException("[" + NAME + "] minimum_should_match must be positive");
+		}
+		this.minimumShouldMatch = minimumShouldMatch;
+		return this;
+	}
+
+	public String field() {
+		return field;
+	}
+
+	public String query() {
+		return query;
+	}
+
+	public String analyzer() {
+		return analyzer;
+	}
+
+	public int minimumShouldMatch() {
+		return minimumShouldMatch;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeString(query);
+		out.writeOptionalString(analyzer);
+		out.writeVInt(minimumShouldMatch);
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.field(QUERY_FIELD.getPreferredName(), query);
+		if (analyzer != null) {
+			builder.field(ANALYZER_FIELD.getPreferredName(), analyzer);
+		}
+		builder.field(MINIMUM_SHOULD_MATCH_FIELD.getPreferredName(), minimumShouldMatch);
+		printBoostAndQueryName(builder);
+		builder.endObject();
+	}
+
+	@Override
+	protected Query doToQuery(QueryShardContext context) throws IOException {
+		Analyzer queryAnalyzer;
+		if (analyzer != null) {
+			queryAnalyzer = context.getIndexAnalyzers().get(analyzer);
+			if (queryAnalyzer == null) {
+				throw new QueryShardException(context, "[" + NAME + "] analyzer [" + analyzer + "] not found");
+			}
+		} else {
+			MappedFieldType fieldType = context.fieldMapper(field);
+			if (fieldType == null) {
+				return new MatchNoDocsQuery("unknown field [" + field + "]");
+			}
+			queryAnalyzer = context.getSearchAnalyzer(fieldType);
+		}
+		return bandsQuery(field, bands(queryAnalyzer, field, query), minimumShouldMatch);
+	}
+
+	/**
+	 * Analyzes the query into its band terms.
+	 */
+	static Set<BytesRef> bands(Analyzer queryAnalyzer, String field, String query) throws IOException {
+		Set<BytesRef> terms = new LinkedHashSet<>();
+		try (TokenStream source = queryAnalyzer.tokenStream(field, query)) {
+			source.reset();
+			TermToBytesRefAttribute termAtt = source.addAttribute(TermToBytesRefAttribute.class);
+			while (source.incrementToken()) {
+				terms.add(BytesRef.deepCopyOf(termAtt.getBytesRef()));
+			}
+			source.end();
+		}
+		return terms;
+	}
+
+	/**
+	 * Combines the band terms in a disjunction, where each band matched scores 1.
+	 */
+	static Query bandsQuery(String field, Set<BytesRef> bands, int minimumShouldMatch) {
+		if (bands.size() < minimumShouldMatch) {
+			return new MatchNoDocsQuery("the query has fewer than " + minimumShouldMatch + " bands");
+		}
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		for (BytesRef band : bands) {
+			builder.add(new ConstantScoreQuery(new TermQuery(new Term(field, band))), BooleanClause.Occur.SHOULD);
+		}
+		builder.setMinimumNumberShouldMatch(minimumShouldMatch);
+		return builder.build();
+	}
+
+	@Override
+	protected boolean doEquals(MinHashQueryBuilder other) {
+		return field.equals(other.field) && query.equals(other.query) && Objects.equals(analyzer, other.analyzer)
+				&& minimumShouldMatch == other.minimumShouldMatch;
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field, query, analyzer, minimumShouldMatch);
+	}
+}
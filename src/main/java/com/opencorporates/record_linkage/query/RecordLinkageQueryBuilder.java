@@ -0,0 +1,183 @@
+package com.opencorporates.record_linkage.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ConstructingObjectParser;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+/**
+ * The {@code record_linkage} query, which retrieves documents by TFIDF similarity
+ * to the query string, computed natively by Lucene rather than by a script.
+ * For instance:
+ * <pre>
+ * "record_linkage": {
+ *     "field": "name",
+ *     "query": "GreenTech distribution Ltd.",
+ *     "analyzer": "my_analyzer",
+ *     "query_norm_exponent": 1
+ * }
+ * </pre>
+ * Documents are not normalized (see {@link TFIDFQuery}).
+ */
+public class RecordLinkageQueryBuilder extends AbstractQueryBuilder<RecordLinkageQueryBuilder> {
+
+	public static final String NAME = "record_linkage";
+
+	private static final ParseField FIELD_FIELD = new ParseField("field");
+	private static final ParseField QUERY_FIELD = new ParseField("query");
+	private static final ParseField ANALYZER_FIELD = new ParseField("analyzer");
+	private static final ParseField QUERY_NORM_EXPONENT_FIELD = new ParseField("query_norm_exponent");
+
+	private static final ConstructingObjectParser<RecordLinkageQueryBuilder, Void> PARSER = new ConstructingObjectParser<>(NAME,
+			args -> new RecordLinkageQueryBuilder((String) args[0], (String) args[1]));
+
+	static {
+		PARSER.declareString(ConstructingObjectParser.constructorArg(), FIELD_FIELD);
+		PARSER.declareString(ConstructingObjectParser.constructorArg(), QUERY_FIELD);
+		PARSER.declareString(RecordLinkageQueryBuilder::analyzer, ANALYZER_FIELD);
+		PARSER.declareDouble(RecordLinkageQueryBuilder::queryNormExponent, QUERY_NORM_EXPONENT_FIELD);
+		declareStandardFields(PARSER);
+	}
+
+	private final String field;
+	private final String query;
+	private String analyzer = null;
+	private double queryNormExponent = 0.;
+
+	public RecordLinkageQueryBuilder(String field, String query) {
+		if (field == null) {
+			throw new IllegalArgumentException("Missing argument 'field', the field to compare the query against.");
+		}
+		if (query == null) {
+			throw new IllegalArgumentException("Missing argument 'query', containing the name to compare against.");
+		}
+		this.field = field;
+		this.query = query;
+	}
+
+	public RecordLinkageQueryBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		query = in.readString();
+		analyzer = in.readOptionalString();
+		queryNormExponent = in.readDouble();
+	}
+
+	public static RecordLinkageQueryBuilder fromXContent(XContentParser parser) {
+		return PARSER.apply(parser, null);
+	}
+
+	/**
+	 * Sets the analyzer used to parse the query (the default search analyzer otherwise).
+	 */
+	public RecordLinkageQueryBuilder analyzer(String analyzer) {
+		this.analyzer = analyzer;
+		return this;
+	}
+
+	/**
+	 * Sets the exponent of the norm of the query vector (see {@link TFIDFSimilarity}).
+	 */
+	public RecordLinkageQueryBuilder queryNormExponent(double queryNormExponent) {
+		this.queryNormExponent = queryNormExponent;
+		return this;
+	}
+
+	public String field() {
+		return field;
+	}
+
+	public String query() {
+		return query;
+	}
+
+	public String analyzer() {
+		return analyzer;
+	}
+
+	public double queryNormExponent() {
+		return queryNormExponent;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeString(query);
+		out.writeOptionalString(analyzer);
+		out.writeDouble(queryNormExponent);
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.field(QUERY_FIELD.getPreferredName(), query);
+		if (analyzer != null) {
+			builder.field(ANALYZER_FIELD.getPreferredName(), analyzer);
+		}
+		builder.field(QUERY_NORM_EXPONENT_FIELD.getPreferredName(), queryNormExponent);
+		printBoostAndQueryName(builder);
+		builder.endObject();
+	}
+
+	@Override
+	protected Query doToQuery(QueryShardContext context) throws IOException {
+		// Parse the query like similarity scripts do, so that both compute the same similarity
+		Analyzer queryAnalyzer;
+		if (analyzer != null) {
+			queryAnalyzer = context.getIndexAnalyzers().get(analyzer);
+			if (queryAnalyzer == null) {
+				throw new QueryShardException(context, "[" + NAME + "] analyzer [" + analyzer + "] not found");
+			}
+		} else {
+			queryAnalyzer = context.getIndexAnalyzers().getDefaultSearchAnalyzer();
+		}
+		return new TFIDFQuery(field, analyze(queryAnalyzer), new TFIDFSimilarity(queryNormExponent, 1.0));
+	}
+
+	private List<BytesRef> analyze(Analyzer queryAnalyzer) throws IOException {
+		List<BytesRef> terms = new ArrayList<>();
+		try (TokenStream source = queryAnalyzer.tokenStream(field, query)) {
+			source.reset();
+			TermToBytesRefAttribute termAtt = source.addAttribute(TermToBytesRefAttribute.class);
+			while (source.incrementToken()) {
+				terms.add(BytesRef.deepCopyOf(termAtt.getBytesRef()));
+			}
+			source.end();
+		}
+		return terms;
+	}
+
+	@Override
+	protected boolean doEquals(RecordLinkageQueryBuilder other) {
+		return field.equals(other.field) && query.equals(other.query) && Objects.equals(analyzer, other.analyzer)
+				&& queryNormExponent == other.queryNormExponent;
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field, query, analyzer, queryNormExponent);
+	}
+}
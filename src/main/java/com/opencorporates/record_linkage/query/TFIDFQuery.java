@@ -0,0 +1,135 @@
+package com.opencorporates.record_linkage.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+import com.opencorporates.record_linkage.similarity.TokenSequence;
+import com.opencorporates.record_linkage.similarity.TokenStatistics;
+
+/**
+ * Runs the TFIDF similarity as a Lucene query, without document normalization
+ * (as with {@code doc_norm_exponent} set to 1). The similarity of a document is
+ * then a sum of fixed contributions of the distinct query tokens it contains, so the
+ * query rewrites to a disjunction of constant-score term queries, each boosted by its
+ * contribution. The maximum score of each clause is known, which lets Lucene skip
+ * documents which cannot make it to the top hits (WAND).
+ *
+ * Token frequencies are taken from the reader the query is rewritten against,
+ * which is the whole shard.
+ */
+public class TFIDFQuery extends Query {
+
+	private final String field;
+	// distinct query terms, sorted
+	private final List<BytesRef> terms;
+	private final TFIDFSimilarity similarity;
+
+	/**
+	 * @param field
+	 *     the field to match the query against
+	 * @param terms
+	 *     the query parsed into terms by the analyzer
+	 * @param similarity
+	 *     the similarity, which determines how the query vector is normalized
+	 */
+	public TFIDFQuery(String field, List<BytesRef> terms, TFIDFSimilarity similarity) {
+		this.field = Objects.requireNonNull(field);
+		this.terms = new ArrayList<>(new TreeSet<>(terms));
+		this.similarity = similarity;
+	}
+
+	@Override
+	public Query rewrite(IndexReader reader) throws IOException {
+		if (terms.isEmpty()) {
+			return new MatchNoDocsQuery("no query terms");
+		}
+		TokenDictionary dictionary = new TokenDictionary();
+		int[] ids = new int[terms.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = dictionary.add(terms.get(i));
+		}
+		int numDocs = reader.getDocCount(field);
+		TokenStatistics statistics = new TokenStatistics() {
+
+			@Override
+			public long docFreq(int tokenId) {
+				try {
+					return reader.docFreq(new Term(field, terms.get(tokenId)));
+				} catch (IOException e) {
+					return 1L;
+				}
+			}
+
+			@Override
+			public int numDocs() {
+				return numDocs;
+			}
+		};
+		double[] weights = similarity.queryWeights(new TokenSequence(dictionary, ids, 0, ids.length), statistics);
+
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		for (int i = 0; i < ids.length; i++) {
+			Query termQuery = new ConstantScoreQuery(new TermQuery(new Term(field, terms.get(i))));
+			builder.add(new BoostQuery(termQuery, (float) weights[ids[i]]), Occur.SHOULD);
+		}
+		return builder.build();
+	}
+
+	@Override
+	public void visit(QueryVisitor visitor) {
+		if (visitor.acceptField(field)) {
+			Term[] queryTerms = new Term[terms.size()];
+			for (int i = 0; i < queryTerms.length; i++) {
+				queryTerms[i] = new Term(field, terms.get(i));
+			}
+			visitor.getSubVisitor(Occur.SHOULD, this).consumeTerms(this, queryTerms);
+		}
+	}
+
+	@Override
+	public String toString(String defaultField) {
+		StringBuilder builder = new StringBuilder("tfidf(");
+		if (!field.equals(defaultField)) {
+			builder.append(field).append(':');
+		}
+		for (int i = 0; i < terms.size(); i++) {
+			if (i > 0) {
+				builder.append(' ');
+			}
+			builder.append(terms.get(i).utf8ToString());
+		}
+		return builder.append(", query_norm_exponent=").append(similarity.getQueryNormExponent()).append(')').toString();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!sameClassAs(other)) {
+			return false;
+		}
+		TFIDFQuery o = (TFIDFQuery) other;
+		return field.equals(o.field) && terms.equals(o.terms)
+				&& similarity.getQueryNormExponent() == o.similarity.getQueryNormExponent();
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(classHash(), field, terms, similarity.getQueryNormExponent());
+	}
+}
@@ -0,0 +1,133 @@
+package com.opencorporates.record_linkage.rescore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.Rescorer;
+
+import com.opencorporates.record_linkage.scoring.SimilarityScript;
+import com.opencorporates.record_linkage.scoring.SimilarityScriptFactory;
+
+/**
+ * Rescores the top hits with a weighted sum of similarities.
+ *
+ * Unlike a rescore query made of script scores, which scores one document at a time,
+ * the window is sorted by document id and each segment is scored in one batch
+ * (see {@link SimilarityScript#execute(int[], double[])}): a single script
+ * is created per segment and similarity, and documents are read in order.
+ */
+public class RecordLinkageRescorer implements Rescorer {
+
+	public static final RecordLinkageRescorer INSTANCE = new RecordLinkageRescorer();
+
+	/**
+	 * The similarities to rescore with, bound to a shard.
+	 */
+	public static class Context extends RescoreContext {
+		private final List<SimilarityScriptFactory> factories;
+		private final double[] weights;
+		private final float queryWeight;
+		private final float rescoreQueryWeight;
+
+		public Context(int windowSize, List<SimilarityScriptFactory> factories, double[] weights,
+				float queryWeight, float rescoreQueryWeight) {
+			super(windowSize, INSTANCE);
+			this.factories = factories;
+			this.weights = weights;
+			this.queryWeight = queryWeight;
+			this.rescoreQueryWeight = rescoreQueryWeight;
+		}
+	}
+
+	@Override
+	public TopDocs rescore(TopDocs topDocs, IndexSearcher searcher, RescoreContext rescoreContext) throws IOException {
+		Context context = (Context) rescoreContext;
+		int windowSize = Math.min(topDocs.scoreDocs.length, context.getWindowSize());
+		ScoreDoc[] hits = Arrays.copyOf(topDocs.scoreDocs, windowSize);
+		Arrays.sort(hits, Comparator.comparingInt(hit -> hit.doc));
+
+		double[] similarities = similarities(hits, searcher.getIndexReader().leaves(), context);
+		Set<Integer> rescored = new HashSet<>();
+		for (int i = 0; i < hits.length; i++) {
+			hits[i].score = (float) (context.queryWeight * hits[i].score + context.rescoreQueryWeight * similarities[i]);
+			rescored.add(hits[i].doc);
+		}
+		Arrays.sort(hits, (a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : Integer.compare(a.doc, b.doc));
+		context.setRescoredDocs(rescored);
+
+		// hits outside of the window are kept as they are, after the rescored ones
+		ScoreDoc[] result = Arrays.copyOf(hits, topDocs.scoreDocs.length);
+		System.arraycopy(topDocs.scoreDocs, windowSize, result, windowSize, topDocs.scoreDocs.length - windowSize);
+		return new TopDocs(topDocs.totalHits, result);
+	}
+
+	/**
+	 * Computes the weighted sum of similarities of the hits, segment by segment.
+	 *
+	 * @param hits
+	 *     the hits to score, sorted by document id
+	 */
+	protected double[] similarities(ScoreDoc[] hits, List<LeafReaderContext> leaves, Context context) throws IOException {
+		double[] similarities = new double[hits.length];
+		int start = 0;
+		while (start < hits.length) {
+			LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hits[start].doc, leaves));
+			int end = start;
+			while (end < hits.length && hits[end].doc < leaf.docBase + leaf.reader().maxDoc()) {
+				end++;
+			}
+			int[] docIds = new int[end - start];
+			for (int i = 0; i < docIds.length; i++) {
+				docIds[i] = hits[start + i].doc - leaf.docBase;
+			}
+			double[] scores = new double[docIds.length];
+			for (int s = 0; s < context.factories.size(); s++) {
+				context.factories.get(s).similarityScript(leaf).execute(docIds, scores);
+				for (int i = 0; i < scores.length; i++) {
+					similarities[start + i] += context.weights[s] * scores[i];
+				}
+			}
+			start = end;
+		}
+		return similarities;
+	}
+
+	@Override
+	public Explanation explain(int topLevelDocId, IndexSearcher searcher, RescoreContext rescoreContext,
+			Explanation sourceExplanation) throws IOException {
+		Context context = (Context) rescoreContext;
+		if (!context.isRescored(topLevelDocId)) {
+			return sourceExplanation;
+		}
+		List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+		LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(topLevelDocId, leaves));
+		List<Explanation> details = new ArrayList<>();
+		double sum = 0.;
+		for (int s = 0; s < context.factories.size(); s++) {
+			SimilarityScript script = context.factories.get(s).similarityScript(leaf);
+			script.setDocument(topLevelDocId - leaf.docBase);
+			double similarity = script.execute();
+			sum += context.weights[s] * similarity;
+			details.add(Explanation.match((float) (context.weights[s] * similarity), "weight(" + context.weights[s] + ") * similarity",
+					Explanation.match((float) similarity, "similarity")));
+		}
+		Explanation first = Explanation.match(context.queryWeight * sourceExplanation.getValue().floatValue(),
+				"product of:", sourceExplanation, Explanation.match(context.queryWeight, "primaryWeight"));
+		Explanation second = Explanation.match((float) (context.rescoreQueryWeight * sum), "product of:",
+				Explanation.match((float) sum, "sum of:", details), Explanation.match(context.rescoreQueryWeight, "secondaryWeight"));
+		return Explanation.match(first.getValue().floatValue() + second.getValue().floatValue(),
+				"sum of first pass and record linkage scores", first, second);
+	}
+}
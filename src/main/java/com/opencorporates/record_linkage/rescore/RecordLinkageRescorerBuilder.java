@@ -0,0 +1,176 @@
+package com.opencorporates.record_linkage.rescore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+import com.opencorporates.record_linkage.scoring.SimilarityScriptFactory;
+
+/**
+ * The {@code record_linkage} rescorer, which rescores the top hits of a query
+ * with a weighted sum of similarities. For instance:
+ * <pre>
+ * "rescore": {
+ *     "window_size": 30,
+ *     "record_linkage": {
+ *         "query_weight": 0,
+ *         "rescore_query_weight": 1,
+ *         "similarities": [
+ *             { "source": "tfidf", "weight": 1.1, "params": { "query": "GreenTech distribution Ltd.", "field": "name" } },
+ *             { "source": "tfidf", "weight": 0.1, "params": { "query": "38 Station Approach", "field": "address" } }
+ *         ]
+ *     }
+ * }
+ * </pre>
+ * This computes the same scores as the equivalent {@code function_score} rescore query,
+ * but scores the whole window at once (see {@link RecordLinkageRescorer}).
+ */
+public class RecordLinkageRescorerBuilder extends RescorerBuilder<RecordLinkageRescorerBuilder> {
+
+	public static final String NAME = "record_linkage";
+
+	private static final ParseField QUERY_WEIGHT_FIELD = new ParseField("query_weight");
+	private static final ParseField RESCORE_QUERY_WEIGHT_FIELD = new ParseField("rescore_query_weight");
+	private static final ParseField SIMILARITIES_FIELD = new ParseField("similarities");
+
+	private static final ObjectParser<RecordLinkageRescorerBuilder, Void> PARSER = new ObjectParser<>(NAME);
+
+	static {
+		PARSER.declareFloat(RecordLinkageRescorerBuilder::setQueryWeight, QUERY_WEIGHT_FIELD);
+		PARSER.declareFloat(RecordLinkageRescorerBuilder::setRescoreQueryWeight, RESCORE_QUERY_WEIGHT_FIELD);
+		PARSER.declareObjectArray(RecordLinkageRescorerBuilder::setSimilarities, (p, c) -> SimilarityClause.fromXContent(p),
+				SIMILARITIES_FIELD);
+	}
+
+	private final RecordLinkageScorer scorer;
+	private List<SimilarityClause> similarities = new ArrayList<>();
+	private float queryWeight = 1.0f;
+	private float rescoreQueryWeight = 1.0f;
+
+	/**
+	 * @param scorer
+	 *     the script engine, which creates the similarities
+	 */
+	public RecordLinkageRescorerBuilder(RecordLinkageScorer scorer) {
+		this.scorer = scorer;
+	}
+
+	public RecordLinkageRescorerBuilder(StreamInput in, RecordLinkageScorer scorer) throws IOException {
+		super(in);
+		this.scorer = scorer;
+		similarities = in.readList(SimilarityClause::new);
+		queryWeight = in.readFloat();
+		rescoreQueryWeight = in.readFloat();
+	}
+
+	public static RecordLinkageRescorerBuilder fromXContent(XContentParser parser, RecordLinkageScorer scorer) throws IOException {
+		RecordLinkageRescorerBuilder builder = PARSER.parse(parser, new RecordLinkageRescorerBuilder(scorer), null);
+		if (builder.similarities.isEmpty()) {
+			throw new IllegalArgumentException("[" + NAME + "] requires at least one similarity");
+		}
+		return builder;
+	}
+
+	public List<SimilarityClause> getSimilarities() {
+		return similarities;
+	}
+
+	public RecordLinkageRescorerBuilder setSimilarities(List<SimilarityClause> similarities) {
+		this.similarities = new ArrayList<>(similarities);
+		return this;
+	}
+
+	public float getQueryWeight() {
+		return queryWeight;
+	}
+
+	/**
+	 * Sets the weight of the original score of the hits (1 by default).
+	 */
+	public RecordLinkageRescorerBuilder setQueryWeight(float queryWeight) {
+		this.queryWeight = queryWeight;
+		return this;
+	}
+
+	public float getRescoreQueryWeight() {
+		return rescoreQueryWeight;
+	}
+
+	/**
+	 * Sets the weight of the sum of similarities (1 by default).
+	 */
+	public RecordLinkageRescorerBuilder setRescoreQueryWeight(float rescoreQueryWeight) {
+		this.rescoreQueryWeight = rescoreQueryWeight;
+		return this;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeList(similarities);
+		out.writeFloat(queryWeight);
+		out.writeFloat(rescoreQueryWeight);
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(QUERY_WEIGHT_FIELD.getPreferredName(), queryWeight);
+		builder.field(RESCORE_QUERY_WEIGHT_FIELD.getPreferredName(), rescoreQueryWeight);
+		builder.startArray(SIMILARITIES_FIELD.getPreferredName());
+		for (SimilarityClause similarity : similarities) {
+			similarity.toXContent(builder, params);
+		}
+		builder.endArray();
+		builder.endObject();
+	}
+
+	@Override
+	protected RescoreContext innerBuildContext(int windowSize, QueryShardContext context) throws IOException {
+		List<SimilarityScriptFactory> factories = new ArrayList<>(similarities.size());
+		double[] weights = new double[similarities.size()];
+		for (int i = 0; i < weights.length; i++) {
+			SimilarityClause similarity = similarities.get(i);
+			factories.add(scorer.newFactory(similarity.source(), similarity.params(), context.lookup()));
+			weights[i] = similarity.weight();
+		}
+		return new RecordLinkageRescorer.Context(windowSize, factories, weights, queryWeight, rescoreQueryWeight);
+	}
+
+	@Override
+	public RecordLinkageRescorerBuilder rewrite(QueryRewriteContext ctx) throws IOException {
+		return this;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!super.equals(other)) {
+			return false;
+		}
+		RecordLinkageRescorerBuilder o = (RecordLinkageRescorerBuilder) other;
+		return similarities.equals(o.similarities) && queryWeight == o.queryWeight
+				&& rescoreQueryWeight == o.rescoreQueryWeight;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(super.hashCode(), similarities, queryWeight, rescoreQueryWeight);
+	}
+}
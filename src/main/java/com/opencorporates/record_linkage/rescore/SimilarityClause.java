@@ -0,0 +1,115 @@
+package com.opencorporates.record_linkage.rescore;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ConstructingObjectParser;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+/**
+ * A weighted similarity, configured with the same source and parameters
+ * as a {@code record_linkage_scorer} script. For instance:
+ * <pre>
+ * {
+ *     "source": "tfidf",
+ *     "weight": 1.1,
+ *     "params": {
+ *         "query": "GreenTech distribution Ltd.",
+ *         "field": "name"
+ *     }
+ * }
+ * </pre>
+ */
+public class SimilarityClause implements Writeable, ToXContentObject {
+
+	private static final ParseField SOURCE_FIELD = new ParseField("source");
+	private static final ParseField PARAMS_FIELD = new ParseField("params");
+	private static final ParseField WEIGHT_FIELD = new ParseField("weight");
+
+	@SuppressWarnings("unchecked")
+	private static final ConstructingObjectParser<SimilarityClause, Void> PARSER = new ConstructingObjectParser<>("similarity",
+			args -> new SimilarityClause((String) args[0], (Map<String, Object>) args[1], args[2] == null ? 1.0 : (Double) args[2]));
+
+	static {
+		PARSER.declareString(ConstructingObjectParser.constructorArg(), SOURCE_FIELD);
+		PARSER.declareObject(ConstructingObjectParser.constructorArg(), (p, c) -> p.map(), PARAMS_FIELD);
+		PARSER.declareDouble(ConstructingObjectParser.optionalConstructorArg(), WEIGHT_FIELD);
+	}
+
+	private final String source;
+	private final Map<String, Object> params;
+	private final double weight;
+
+	/**
+	 * @param source
+	 *     the name of the similarity
+	 * @param params
+	 *     the parameters of the similarity, including the query and field
+	 * @param weight
+	 *     the factor the similarity is multiplied by
+	 */
+	public SimilarityClause(String source, Map<String, Object> params, double weight) {
+		this.source = Objects.requireNonNull(source);
+		this.params = Objects.requireNonNull(params);
+		this.weight = weight;
+	}
+
+	public SimilarityClause(StreamInput in) throws IOException {
+		source = in.readString();
+		params = in.readMap();
+		weight = in.readDouble();
+	}
+
+	public static SimilarityClause fromXContent(XContentParser parser) {
+		return PARSER.apply(parser, null);
+	}
+
+	public String source() {
+		return source;
+	}
+
+	public Map<String, Object> params() {
+		return params;
+	}
+
+	public double weight() {
+		return weight;
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		out.writeString(source);
+		out.writeMap(params);
+		out.writeDouble(weight);
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params xContentParams) throws IOException {
+		builder.startObject();
+		builder.field(SOURCE_FIELD.getPreferredName(), source);
+		builder.field(WEIGHT_FIELD.getPreferredName(), weight);
+		builder.field(PARAMS_FIELD.getPreferredName(), params);
+		return builder.endObject();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof SimilarityClause)) {
+			return false;
+		}
+		SimilarityClause o = (SimilarityClause) other;
+		return source.equals(o.source) && params.equals(o.params) && weight == o.weight;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(source, params, weight);
+	}
+}
@@ -0,0 +1,166 @@
+package com.opencorporates.record_linkage.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MatchNoneQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import com.opencorporates.record_linkage.query.RecordLinkageQueryBuilder;
+import com.opencorporates.record_linkage.rescore.RecordLinkageRescorerBuilder;
+import com.opencorporates.record_linkage.rescore.SimilarityClause;
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+
+/**
+ * Describes how records are linked to the documents of an index: which similarities
+ * are computed on which fields, with which weights. For instance:
+ * <pre>
+ * {
+ *     "size": 3,
+ *     "window_size": 30,
+ *     "similarities": [
+ *         { "source": "tfidf", "weight": 1.1, "params": { "field": "name", "analyzer": "my_analyzer" } },
+ *         { "source": "levenshtein", "weight": 0.01, "params": { "field": "name" } }
+ *     ]
+ * }
+ * </pre>
+ * The parameters of each similarity are those of the corresponding script, except
+ * for the query, which is the value of the field in each record.
+ *
+ * For each record, candidates are retrieved with a {@code record_linkage} query on each
+ * field, and the best {@code window_size} candidates are rescored with the weighted sum of similarities.
+ */
+public class LinkageProfile {
+
+	private static final ParseField SIZE_FIELD = new ParseField("size");
+	private static final ParseField WINDOW_SIZE_FIELD = new ParseField("window_size");
+	private static final ParseField BATCH_SIZE_FIELD = new ParseField("batch_size");
+	private static final ParseField SIMILARITIES_FIELD = new ParseField("similarities");
+
+	private static final ObjectParser<LinkageProfile, Void> PARSER = new ObjectParser<>("profile", LinkageProfile::new);
+
+	static {
+		PARSER.declareInt(LinkageProfile::setSize, SIZE_FIELD);
+		PARSER.declareInt(LinkageProfile::setWindowSize, WINDOW_SIZE_FIELD);
+		PARSER.declareInt(LinkageProfile::setBatchSize, BATCH_SIZE_FIELD);
+		PARSER.declareObjectArray(LinkageProfile::setSimilarities, (p, c) -> SimilarityClause.fromXContent(p), SIMILARITIES_FIELD);
+	}
+
+	private int size = 10;
+	private int windowSize = 30;
+	private int batchSize = 100;
+	private List<SimilarityClause> similarities = new ArrayList<>();
+
+	public static LinkageProfile fromXContent(XContentParser parser) throws IOException {
+		LinkageProfile profile = PARSER.parse(parser, null);
+		if (profile.similarities.isEmpty()) {
+			throw new IllegalArgumentException("The linkage profile requires at least one similarity");
+		}
+		for (SimilarityClause similarity : profile.similarities) {
+			RecordLinkageScorer.getSimilarity(similarity.source());
+			if (!similarity.params().containsKey("field")) {
+				throw new IllegalArgumentException("Missing argument 'field' for similarity '" + similarity.source() + "'");
+			}
+		}
+		return profile;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Sets the number of candidates returned for each record (10 by default).
+	 */
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Sets the number of candidates rescored with the similarities for each record (30 by default).
+	 */
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of records sent to the shards at once (100 by default).
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public List<SimilarityClause> getSimilarities() {
+		return similarities;
+	}
+
+	public void setSimilarities(List<SimilarityClause> similarities) {
+		this.similarities = new ArrayList<>(similarities);
+	}
+
+	/**
+	 * Builds the search request retrieving the candidates of a record.
+	 *
+	 * @param indices
+	 *     the indices to search
+	 * @param record
+	 *     the values of the record, by field name
+	 * @param scorer
+	 *     the script engine the rescorer creates similarities with
+	 */
+	public SearchRequest searchRequest(String[] indices, Map<String, Object> record, RecordLinkageScorer scorer) {
+		// one candidate query per field, with the analyzer of its first similarity
+		Map<String, RecordLinkageQueryBuilder> fieldQueries = new LinkedHashMap<>();
+		List<SimilarityClause> clauses = new ArrayList<>(similarities.size());
+		for (SimilarityClause similarity : similarities) {
+			String field = similarity.params().get("field").toString();
+			Object value = record.get(field);
+			if (value == null) {
+				continue;
+			}
+			Map<String, Object> params = new HashMap<>(similarity.params());
+			params.put("query", value.toString());
+			clauses.add(new SimilarityClause(similarity.source(), params, similarity.weight()));
+			if (!fieldQueries.containsKey(field)) {
+				RecordLinkageQueryBuilder query = new RecordLinkageQueryBuilder(field, value.toString());
+				Object analyzer = similarity.params().get("analyzer");
+				if (analyzer != null) {
+					query.analyzer(analyzer.toString());
+				}
+				fieldQueries.put(field, query);
+			}
+		}
+
+		SearchSourceBuilder source = new SearchSourceBuilder().size(size).fetchSource(false);
+		if (clauses.isEmpty()) {
+			source.query(new MatchNoneQueryBuilder());
+		} else {
+			BoolQueryBuilder query = QueryBuilders.boolQuery();
+			fieldQueries.values().forEach(query::should);
+			source.query(query);
+			source.addRescorer(new RecordLinkageRescorerBuilder(scorer)
+					.setSimilarities(clauses)
+					.setQueryWeight(0.0f)
+					.windowSize(windowSize));
+		}
+		return new SearchRequest(indices).source(source);
+	}
+}
@@ -0,0 +1,234 @@
+package com.opencorporates.record_linkage.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+
+/**
+ * Links a batch of records to the documents of an index:
+ * {@code POST /{index}/_record_linkage/_bulk}.
+ *
+ * The body is in NDJSON format: the first line is a {@link LinkageProfile}, and each following
+ * line is a record, as an object mapping field names to values. An optional {@code _id}
+ * key identifies the record in the response.
+ *
+ * The response is also in NDJSON format, with one line per record, in the order of the request,
+ * holding the best candidates for that record (or the error raised when searching them).
+ * Records are sent to the shards in batches of {@code batch_size} multi-search requests,
+ * one batch at a time. This saves the HTTP and parsing overhead of one request per record,
+ * but each record is still analyzed by the scripts of each shard it is searched on.
+ *
+ * The response is buffered and sent once all batches complete, so both the request and the response
+ * are held in memory: requests are rejected above {@code record_linkage.bulk.max_bytes} (10mb by default)
+ * or {@code record_linkage.bulk.max_records} records (10000 by default).
+ */
+public class RestRecordLinkageBulkAction extends BaseRestHandler {
+
+	private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+	public static final Setting<Integer> MAX_RECORDS_SETTING =
+			Setting.intSetting("record_linkage.bulk.max_records", 10000, 1, Property.NodeScope);
+	public static final Setting<ByteSizeValue> MAX_BYTES_SETTING =
+			Setting.byteSizeSetting("record_linkage.bulk.max_bytes", new ByteSizeValue(10, ByteSizeUnit.MB), Property.NodeScope);
+
+	/**
+	 * @return the settings of the endpoint, to be registered by the plugin
+	 */
+	public static List<Setting<?>> getSettings() {
+		return Arrays.asList(MAX_RECORDS_SETTING, MAX_BYTES_SETTING);
+	}
+
+	private final RecordLinkageScorer scorer;
+	private final int maxRecords;
+	private final long maxBytes;
+
+	public RestRecordLinkageBulkAction(Settings settings, RestController controller, RecordLinkageScorer scorer) {
+		this.scorer = scorer;
+		this.maxRecords = MAX_RECORDS_SETTING.get(settings);
+		this.maxBytes = MAX_BYTES_SETTING.get(settings).getBytes();
+		controller.registerHandler(RestRequest.Method.POST, "/{index}/_record_linkage/_bulk", this);
+	}
+
+	@Override
+	public String getName() {
+		return "record_linkage_bulk_action";
+	}
+
+	@Override
+	protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+		String[] indices = Strings.splitStringByCommaToArray(request.param("index"));
+		int maxConcurrentSearches = request.paramAsInt("max_concurrent_searches", MultiSearchRequest.MAX_CONCURRENT_SEARCH_REQUESTS_DEFAULT);
+
+		BytesReference content = request.requiredContent();
+		if (content.length() > maxBytes) {
+			throw new IllegalArgumentException("The request is too large [" + content.length() + " bytes], at most ["
+					+ maxBytes + "] are allowed by " + MAX_BYTES_SETTING.getKey());
+		}
+		List<BytesReference> lines = lines(content);
+		if (lines.isEmpty()) {
+			throw new IllegalArgumentException("The first line of the request must be a linkage profile");
+		}
+		if (lines.size() - 1 > maxRecords) {
+			throw new IllegalArgumentException("Too many records [" + (lines.size() - 1) + "], at most ["
+					+ maxRecords + "] are allowed by " + MAX_RECORDS_SETTING.getKey());
+		}
+		LinkageProfile profile;
+		try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+				DeprecationHandler.THROW_UNSUPPORTED_OPERATION, lines.get(0).streamInput())) {
+			profile = LinkageProfile.fromXContent(parser);
+		}
+		List<Map<String, Object>> records = new ArrayList<>(lines.size() - 1);
+		for (BytesReference line : lines.subList(1, lines.size())) {
+			records.add(XContentHelper.convertToMap(line, false, XContentType.JSON).v2());
+		}
+
+		return channel -> new BulkLinkage(client, channel, indices, profile, records, maxConcurrentSearches).next(0);
+	}
+
+	/**
+	 * Splits a body in NDJSON format into lines, ignoring blank lines.
+	 */
+	static List<BytesReference> lines(BytesReference data) {
+		List<BytesReference> lines = new ArrayList<>();
+		int from = 0;
+		while (from < data.length()) {
+			int end = data.indexOf((byte) '\n', from);
+			if (end < 0) {
+				end = data.length();
+			}
+			int start = from;
+			while (start < end && Character.isWhitespace(data.get(start))) {
+				start++;
+			}
+			if (start < end) {
+				lines.add(data.slice(start, end - start));
+			}
+			from = end + 1;
+		}
+		return lines;
+	}
+
+	/**
+	 * Searches the candidates of the records, one batch after the other. The lines of the response
+	 * are buffered as the batches complete, and sent once the last one is done.
+	 */
+	private class BulkLinkage {
+		private final NodeClient client;
+		private final RestChannel channel;
+		private final String[] indices;
+		private final LinkageProfile profile;
+		private final List<Map<String, Object>> records;
+		private final int maxConcurrentSearches;
+		private final BytesStreamOutput output = new BytesStreamOutput();
+
+		private BulkLinkage(NodeClient client, RestChannel channel, String[] indices, LinkageProfile profile,
+				List<Map<String, Object>> records, int maxConcurrentSearches) {
+			this.client = client;
+			this.channel = channel;
+			this.indices = indices;
+			this.profile = profile;
+			this.records = records;
+			this.maxConcurrentSearches = maxConcurrentSearches;
+		}
+
+		private void next(int from) {
+			if (from >= records.size()) {
+				channel.sendResponse(new BytesRestResponse(RestStatus.OK, NDJSON_CONTENT_TYPE, output.bytes()));
+				return;
+			}
+			int to = Math.min(records.size(), from + profile.getBatchSize());
+			MultiSearchRequest batch = new MultiSearchRequest();
+			if (maxConcurrentSearches > 0) {
+				// otherwise the default of multi-search requests applies
+				batch.maxConcurrentSearchRequests(maxConcurrentSearches);
+			}
+			for (Map<String, Object> record : records.subList(from, to)) {
+				batch.add(profile.searchRequest(indices, record, scorer));
+			}
+			client.multiSearch(batch, new ActionListener<MultiSearchResponse>() {
+
+				@Override
+				public void onResponse(MultiSearchResponse response) {
+					try {
+						MultiSearchResponse.Item[] items = response.getResponses();
+						for (int i = 0; i < items.length; i++) {
+							writeRecord(from + i, items[i]);
+						}
+					} catch (IOException e) {
+						onFailure(e);
+						return;
+					}
+					next(to);
+				}
+
+				@Override
+				public void onFailure(Exception e) {
+					try {
+						channel.sendResponse(new BytesRestResponse(channel, e));
+					} catch (IOException inner) {
+						inner.addSuppressed(e);
+						logger.error("failed to send failure response", inner);
+					}
+				}
+			});
+		}
+
+		private void writeRecord(int index, MultiSearchResponse.Item item) throws IOException {
+			try (XContentBuilder builder = JsonXContent.contentBuilder()) {
+				builder.startObject();
+				builder.field("record", index);
+				Object id = records.get(index).get("_id");
+				if (id != null) {
+					builder.field("_id", id);
+				}
+				if (item.isFailure()) {
+					builder.field("error", item.getFailureMessage());
+				} else {
+					builder.startArray("candidates");
+					for (SearchHit hit : item.getResponse().getHits()) {
+						builder.startObject();
+						builder.field("_index", hit.getIndex());
+						builder.field("_id", hit.getId());
+						builder.field("_score", hit.getScore());
+						builder.endObject();
+					}
+					builder.endArray();
+				}
+				builder.endObject();
+				BytesReference.bytes(builder).writeTo(output);
+			}
+			output.writeByte((byte) '\n');
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Reads the binary doc values of a field by document, in any order.
+ *
+ * Doc values can only be iterated forwards, so the iterator is pulled again when an earlier
+ * document is requested. Requesting the current document again returns the value already
+ * positioned on: advancing to it would fail on sparse doc values.
+ */
+class BinaryDocValuesCursor {
+
+	private final LeafReader reader;
+	private final String field;
+	private BinaryDocValues docValues = null;
+	private int docId = -1;
+	private boolean exists = false;
+
+	/**
+	 * @param reader
+	 *     the segment to read doc values from
+	 * @param field
+	 *     the field to read
+	 */
+	BinaryDocValuesCursor(LeafReader reader, String field) {
+		this.reader = reader;
+		this.field = field;
+	}
+
+	/**
+	 * @return the value of a document, or null if it has none
+	 */
+	BytesRef get(int docId) throws IOException {
+		if (docValues == null || docId != this.docId) {
+			if (docValues == null || docId < this.docId) {
+				docValues = DocValues.getBinary(reader, field);
+			}
+			this.docId = docId;
+			exists = docValues.advanceExact(docId);
+		}
+		return exists ? docValues.binaryValue() : null;
+	}
+}
@@ -0,0 +1,57 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+
+/**
+ * A cheap test, built once per query, which rules out documents that cannot
+ * get a positive similarity score. Documents ruled out are given a score of zero
+ * without reading their term vectors.
+ *
+ * A prefilter must never rule out a document which would get a positive score:
+ * it only makes scoring faster.
+ */
+public interface CandidatePrefilter {
+
+	/**
+	 * Instantiates the prefilter on a segment.
+	 *
+	 * @param reader
+	 *     the segment the documents to test belong to
+	 */
+	public Leaf forLeaf(LeafReader reader) throws IOException;
+
+	/**
+	 * A prefilter bound to a segment. Instances are used by a single script,
+	 * and are most efficient when documents are tested in increasing order.
+	 */
+	public interface Leaf {
+
+		/**
+		 * @return false if the document is known to have a zero score
+		 */
+		public boolean mayMatch(int docId) throws IOException;
+	}
+
+	/**
+	 * Creates prefilters for a similarity.
+	 */
+	public interface Factory {
+
+		/**
+		 * @param similarity
+		 *     the similarity, configured with the parameters of the query
+		 * @param field
+		 *     the field the query is compared to
+		 * @param queryTerms
+		 *     the query, parsed into terms by the analyzer
+		 * @return a prefilter, or null if no document can be ruled out for this query
+		 */
+		public CandidatePrefilter create(StringSimilarity similarity, String field, List<BytesRef> queryTerms);
+	}
+}
@@ -0,0 +1,105 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+
+/**
+ * Interns the similarities configured with the parameters supplied by users,
+ * so that parameters are parsed and validated once rather than for each search on each shard.
+ * 
+ * Configured similarities are immutable and can be shared by all scripts. They are
+ * keyed by the registered similarity and the parameters other than those of the script (such as the query),
+ * compared by their string representation. The number of configurations kept is bounded,
+ * and all of them are discarded when the bound is reached.
+ */
+public final class ConfiguredSimilarities {
+	
+	public static final int MAX_CONFIGURATIONS = 1000;
+	
+	// parameters read by the scripts rather than the similarities
+	private static final Set<String> SCRIPT_PARAMETERS = new HashSet<>(Arrays.asList("query", "field", "value_mode", "top_k", "norms_field",
+			"frequencies"));
+	
+	private static final Map<Key, StringSimilarity> CONFIGURED = new ConcurrentHashMap<>();
+	
+	private ConfiguredSimilarities() {
+		// utility class
+	}
+	
+	/**
+	 * Configures a similarity with user-supplied parameters.
+	 * 
+	 * @param similarity
+	 *     the similarity, as registered
+	 * @param params
+	 *     the script parameters, including the query, the field and how values are combined, which are ignored
+	 * @throws IllegalArgumentException
+	 *     if the parameters are not valid for this similarity
+	 */
+	public static StringSimilarity configure(StringSimilarity similarity, Map<String, Object> params) {
+		Key key = new Key(similarity, params);
+		StringSimilarity configured = CONFIGURED.get(key);
+		if (configured == null) {
+			Map<String, Object> similarityParameters = new HashMap<>(params);
+			similarityParameters.keySet().removeAll(SCRIPT_PARAMETERS);
+			configured = similarity.withParameters(similarityParameters);
+			if (CONFIGURED.size() >= MAX_CONFIGURATIONS) {
+				CONFIGURED.clear();
+			}
+			CONFIGURED.put(key, configured);
+		}
+		return configured;
+	}
+	
+	/**
+	 * @return the number of configurations currently kept
+	 */
+	public static int size() {
+		return CONFIGURED.size();
+	}
+	
+	/**
+	 * Discards all configurations.
+	 */
+	public static void clear() {
+		CONFIGURED.clear();
+	}
+	
+	private static final class Key {
+		private final StringSimilarity similarity;
+		private final Map<String, String> parameters = new TreeMap<>();
+		private final int hashCode;
+		
+		private Key(StringSimilarity similarity, Map<String, Object> params) {
+			this.similarity = similarity;
+			for (Map.Entry<String, Object> entry : params.entrySet()) {
+				if (!SCRIPT_PARAMETERS.contains(entry.getKey())) {
+					parameters.put(entry.getKey(), Objects.toString(entry.getValue()));
+				}
+			}
+			this.hashCode = 31 * System.identityHashCode(similarity) + parameters.hashCode();
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) other;
+			return similarity == o.similarity && parameters.equals(o.parameters);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * A node-level cache of document frequencies, keyed by segment, field and term.
+ * The frequencies of a whole shard are the sum of those of its segments: shard readers
+ * are reopened on every refresh, while most of their segments are not, so caching
+ * per segment keeps the cache warm across refreshes.
+ *
+ * Similarities look up the frequency of every token of every scored document,
+ * and common tokens (such as "ltd") are looked up over and over again. Readers
+ * are immutable, so the frequency of a term in a given reader never changes:
+ * entries are only discarded when the reader is closed, or when they are evicted
+ * to keep the cache within its configured size. The keys of each segment are indexed,
+ * so that closing a segment only touches its own entries.
+ */
+public class DocFreqCache implements IndexReader.ClosedListener {
+
+	public static final Setting<Integer> SIZE_SETTING =
+			Setting.intSetting("record_linkage.doc_freq_cache.size", 100000, 0, Property.NodeScope);
+	public static final Setting<TimeValue> EXPIRE_SETTING =
+			Setting.timeSetting("record_linkage.doc_freq_cache.expire", TimeValue.MINUS_ONE, Property.NodeScope);
+
+	/**
+	 * @return the settings used to configure the cache
+	 */
+	public static List<Setting<?>> getSettings() {
+		return Arrays.asList(SIZE_SETTING, EXPIRE_SETTING);
+	}
+
+	private final Cache<Key, Integer> cache;
+	private final boolean enabled;
+	// the cached keys of each segment core, which the cache listens to the closing of
+	private final ConcurrentMap<IndexReader.CacheKey, Set<Key>> keysByCore = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a cache configured by the node settings.
+	 */
+	public DocFreqCache(Settings settings) {
+		this(SIZE_SETTING.get(settings), EXPIRE_SETTING.get(settings));
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param size
+	 *     the maximum number of frequencies to keep (0 disables the cache)
+	 * @param expireAfterAccess
+	 *     the time after which unused frequencies are evicted (-1 to never expire them)
+	 */
+	public DocFreqCache(int size, TimeValue expireAfterAccess) {
+		CacheBuilder<Key, Integer> builder = CacheBuilder.<Key, Integer>builder().setMaximumWeight(size)
+				.removalListener(this::onRemoval);
+		if (expireAfterAccess.nanos() > 0) {
+			builder.setExpireAfterAccess(expireAfterAccess);
+		}
+		this.cache = builder.build();
+		this.enabled = size > 0;
+	}
+
+	/**
+	 * @return a cache which never stores anything, and simply delegates lookups to the index
+	 */
+	public static DocFreqCache disabled() {
+		return new DocFreqCache(0, TimeValue.MINUS_ONE);
+	}
+
+	/**
+	 * Returns the number of documents containing a term in the given reader.
+	 *
+	 * @param reader
+	 *      the segment or shard to look up the frequency in
+	 * @param field
+	 *      the field the term belongs to
+	 * @param term
+	 *      the bytes of the term. They are copied if they need to be stored in the cache.
+	 */
+	public int docFreq(IndexReader reader, String field, BytesRef term) throws IOException {
+		if (!(reader instanceof LeafReader)) {
+			if (!enabled) {
+				return reader.docFreq(new Term(field, term));
+			}
+			int docFreq = 0;
+			for (LeafReaderContext leaf : reader.leaves()) {
+				docFreq += docFreq(leaf.reader(), field, term);
+			}
+			return docFreq;
+		}
+		// deletions do not change frequencies, so segments can be cached by core
+		IndexReader.CacheHelper cacheHelper = ((LeafReader) reader).getCoreCacheHelper();
+		if (!enabled || cacheHelper == null) {
+			return reader.docFreq(new Term(field, term));
+		}
+
+		IndexReader.CacheKey coreKey = cacheHelper.getKey();
+		Integer cached = cache.get(new Key(coreKey, field, term));
+		if (cached != null) {
+			return cached;
+		}
+
+		Key key = new Key(coreKey, field, BytesRef.deepCopyOf(term));
+		int docFreq = reader.docFreq(new Term(field, key.term));
+		keysOf(cacheHelper).add(key);
+		cache.put(key, docFreq);
+		return docFreq;
+	}
+
+	/**
+	 * @return the set of cached keys of a segment core, listening to its closing when the set is created
+	 */
+	private Set<Key> keysOf(IndexReader.CacheHelper cacheHelper) {
+		IndexReader.CacheKey coreKey = cacheHelper.getKey();
+		Set<Key> keys = keysByCore.get(coreKey);
+		if (keys != null) {
+			return keys;
+		}
+		Set<Key> created = ConcurrentHashMap.newKeySet();
+		keys = keysByCore.putIfAbsent(coreKey, created);
+		if (keys != null) {
+			return keys;
+		}
+		cacheHelper.addClosedListener(this);
+		return created;
+	}
+
+	private void onRemoval(RemovalNotification<Key, Integer> notification) {
+		if (notification.getRemovalReason() == RemovalNotification.RemovalReason.REPLACED) {
+			return;
+		}
+		Key key = notification.getKey();
+		Set<Key> keys = keysByCore.get(key.coreKey);
+		if (keys != null) {
+			keys.remove(key);
+		}
+	}
+
+	/**
+	 * Discards all frequencies associated with a segment which has been closed.
+	 */
+	@Override
+	public void onClose(IndexReader.CacheKey coreKey) {
+		Set<Key> keys = keysByCore.remove(coreKey);
+		if (keys == null) {
+			return;
+		}
+		for (Key key : keys) {
+			cache.invalidate(key);
+		}
+	}
+
+	/**
+	 * @return the hit, miss and eviction counters of the cache
+	 */
+	public Cache.CacheStats stats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return the number of frequencies currently cached
+	 */
+	public int count() {
+		return cache.count();
+	}
+
+	/**
+	 * Discards all cached frequencies.
+	 */
+	public void clear() {
+		cache.invalidateAll();
+		for (Set<Key> keys : keysByCore.values()) {
+			keys.clear();
+		}
+	}
+
+	private static final class Key {
+		private final IndexReader.CacheKey coreKey;
+		private final String field;
+		private final BytesRef term;
+		private final int hashCode;
+
+		private Key(IndexReader.CacheKey coreKey, String field, BytesRef term) {
+			this.coreKey = coreKey;
+			this.field = field;
+			this.term = term;
+			this.hashCode = Objects.hash(coreKey, field, term);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) other;
+			return coreKey == o.coreKey && field.equals(o.field) && term.bytesEquals(o.term);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import com.opencorporates.record_linkage.mapper.LinkageTextDocValuesField;
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+
+/**
+ * Decodes the values of a {@code linkage_text} field from its binary doc values
+ * (see {@link LinkageTextDocValuesField} for the encoding).
+ *
+ * The distinct tokens of a document are interned once, after which each value
+ * is a plain list of indices, so no positions need to be sorted out as with
+ * term vectors.
+ */
+public class DocValuesDecoder extends FieldValuesDecoder {
+
+	private final BinaryDocValuesCursor docValues;
+	private final ByteArrayDataInput input = new ByteArrayDataInput();
+	private final BytesRef token = new BytesRef();
+	// token ids of the distinct tokens of the current document, in encoding order
+	private int[] distinctTokens = new int[16];
+
+	/**
+	 * @param reader
+	 *     the segment to read doc values from
+	 * @param field
+	 *     the field to decode
+	 * @param dictionary
+	 *     the dictionary to intern tokens in
+	 */
+	public DocValuesDecoder(LeafReader reader, String field, TokenDictionary dictionary) {
+		super(dictionary);
+		this.docValues = new BinaryDocValuesCursor(reader, field);
+	}
+
+	@Override
+	public int read(int docId) throws IOException {
+		clear();
+		BytesRef bytes = docValues.get(docId);
+		if (bytes == null) {
+			return 0;
+		}
+		input.reset(bytes.bytes, bytes.offset, bytes.length);
+
+		int distinctCount = input.readVInt();
+		distinctTokens = ArrayUtil.grow(distinctTokens, distinctCount);
+		token.bytes = bytes.bytes;
+		for(int i = 0; i < distinctCount; i++) {
+			token.length = input.readVInt();
+			token.offset = input.getPosition();
+			distinctTokens[i] = dictionary.add(token);
+			input.skipBytes(token.length);
+		}
+
+		int values = input.readVInt();
+		int length = 0;
+		for(int value = 0; value < values; value++) {
+			int tokenCount = input.readVInt();
+			tokens = ArrayUtil.grow(tokens, length + tokenCount);
+			for(int i = 0; i < tokenCount; i++) {
+				tokens[length++] = distinctTokens[input.readVInt()];
+			}
+			// values without any token are not visible in term vectors either
+			if (tokenCount > 0) {
+				endValue(length);
+			}
+		}
+		return valueCount;
+	}
+}
@@ -0,0 +1,85 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+
+/**
+ * Decodes the values of a field in a document, each value being
+ * a sequence of token ids.
+ *
+ * A decoder is meant to be reused for all documents of a segment: tokens
+ * and value boundaries are written into growable arrays which are kept
+ * from one document to the next, so that decoding a document does not
+ * allocate once the buffers are large enough.
+ */
+public abstract class FieldValuesDecoder {
+
+	protected final TokenDictionary dictionary;
+
+	// token ids of the current document, in order
+	protected int[] tokens = new int[16];
+	// for each value of the current document, the index in tokens where it ends
+	protected int[] valueEnds = new int[4];
+	protected int valueCount = 0;
+
+	/**
+	 * @param dictionary
+	 *     the dictionary to intern tokens in
+	 */
+	protected FieldValuesDecoder(TokenDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Decodes the values of a document, replacing the values decoded previously.
+	 *
+	 * @param docId
+	 *     the document to read, in the segment of the decoder
+	 * @return the number of values found
+	 */
+	public abstract int read(int docId) throws IOException;
+
+	protected void endValue(int end) {
+		valueEnds = ArrayUtil.grow(valueEnds, valueCount + 1);
+		valueEnds[valueCount++] = end;
+	}
+
+	/**
+	 * Forgets the values decoded previously.
+	 */
+	public void clear() {
+		valueCount = 0;
+	}
+
+	/**
+	 * @return the number of values of the document last decoded
+	 */
+	public int valueCount() {
+		return valueCount;
+	}
+
+	/**
+	 * @return the token ids of all values, in order. Only the first
+	 *    {@code valueEnd(valueCount() - 1)} entries are meaningful.
+	 */
+	public int[] tokens() {
+		return tokens;
+	}
+
+	/**
+	 * @return the index in {@link #tokens()} where the given value starts
+	 */
+	public int valueStart(int value) {
+		return value == 0 ? 0 : valueEnds[value - 1];
+	}
+
+	/**
+	 * @return the index in {@link #tokens()} where the given value ends (exclusive)
+	 */
+	public int valueEnd(int value) {
+		return valueEnds[value];
+	}
+}
@@ -0,0 +1,35 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.LeafReader;
+
+/**
+ * Reads the term vectors of the documents of a segment, keeping those of the
+ * last document read. Decoders of different fields sharing an instance fetch
+ * the term vectors of each document only once.
+ */
+public class LeafTermVectors {
+
+	private final LeafReader reader;
+	private int docId = -1;
+	private Fields fields = null;
+
+	public LeafTermVectors(LeafReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return the term vectors of a document, or null if it has none
+	 */
+	public Fields get(int docId) throws IOException {
+		if (docId != this.docId) {
+			// forget the previous document first, in case reading fails
+			this.docId = -1;
+			fields = reader.getTermVectors(docId);
+			this.docId = docId;
+		}
+		return fields;
+	}
+}
@@ -0,0 +1,118 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+
+import com.opencorporates.record_linkage.similarity.LevenshteinSimilarity;
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+
+/**
+ * Rules out documents which cannot be within max_distance edits of the query,
+ * using the inverted index of the field instead of term vectors.
+ *
+ * The query and field values are compared as their tokens joined by spaces.
+ * Each edit touches at most two query tokens (two when it affects a separating space),
+ * so if the query has more than 2 * max_distance tokens, at least one of them is left
+ * untouched by any alignment within the bound, and therefore appears as a token of
+ * the field value. Documents which do not contain any query token can be ruled out.
+ *
+ * The union of the query tokens is compiled once into an automaton, which
+ * is intersected with the terms dictionary of each segment.
+ *
+ * Note that approximate token matches (such as those of {@link org.apache.lucene.util.automaton.LevenshteinAutomata})
+ * cannot be used here: an edit on a separating space merges or splits tokens, so a
+ * field value can be within the bound without any of its tokens being close to a query token.
+ */
+public class LevenshteinPrefilter implements CandidatePrefilter {
+
+	private final String field;
+	private final CompiledAutomaton automaton;
+
+	/**
+	 * Creates a prefilter if the query has enough tokens for it to be sound.
+	 */
+	public static CandidatePrefilter create(StringSimilarity similarity, String field, List<BytesRef> queryTerms) {
+		if (!(similarity instanceof LevenshteinSimilarity)) {
+			return null;
+		}
+		int maxDistance = ((LevenshteinSimilarity) similarity).getMaxDistance();
+		if (queryTerms.size() <= 2 * maxDistance) {
+			return null;
+		}
+		for (BytesRef term : queryTerms) {
+			// tokens containing spaces cannot be told apart from separators
+			for (int i = term.offset; i < term.offset + term.length; i++) {
+				if (term.bytes[i] == ' ') {
+					return null;
+				}
+			}
+		}
+		return new LevenshteinPrefilter(field, queryTerms);
+	}
+
+	protected LevenshteinPrefilter(String field, List<BytesRef> queryTerms) {
+		this.field = field;
+		this.automaton = new CompiledAutomaton(Automata.makeStringUnion(new TreeSet<>(queryTerms)));
+	}
+
+	@Override
+	public Leaf forLeaf(LeafReader reader) throws IOException {
+		return new LeafPrefilter(reader);
+	}
+
+	private class LeafPrefilter implements Leaf {
+
+		private final LeafReader reader;
+		private final List<PostingsEnum> postings = new ArrayList<>();
+		private int lastDocId = Integer.MAX_VALUE;
+
+		private LeafPrefilter(LeafReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean mayMatch(int docId) throws IOException {
+			if (docId < lastDocId) {
+				// postings can only move forward, so start again
+				reset();
+			}
+			lastDocId = docId;
+			for (PostingsEnum posting : postings) {
+				int current = posting.docID();
+				if (current < docId) {
+					current = posting.advance(docId);
+				}
+				if (current == docId) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void reset() throws IOException {
+			postings.clear();
+			Terms terms = reader.terms(field);
+			if (terms == null) {
+				return;
+			}
+			TermsEnum termsEnum = automaton.getTermsEnum(terms);
+			while (termsEnum.next() != null) {
+				PostingsEnum posting = termsEnum.postings(null, PostingsEnum.NONE);
+				if (posting.docID() != DocIdSetIterator.NO_MORE_DOCS) {
+					postings.add(posting);
+				}
+			}
+		}
+	}
+}
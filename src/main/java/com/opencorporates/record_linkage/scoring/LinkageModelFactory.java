@@ -0,0 +1,206 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.script.FieldScript;
+import org.elasticsearch.script.ScoreScript;
+import org.elasticsearch.search.lookup.SearchLookup;
+
+/**
+ * Combines several similarities, possibly on different fields, into a single score.
+ * This is the {@code model} source of the {@code record_linkage_scorer} scripts:
+ * <pre>
+ * {
+ *     "features": [
+ *         { "source": "tfidf", "weight": 1.1, "params": { "field": "name", "query": "GreenTech distribution Ltd." } },
+ *         { "source": "tfidf", "weight": 0.4, "params": { "field": "address", "query": "38 Station Approach" } }
+ *     ],
+ *     "intercept": -2.0,
+ *     "link": "logistic"
+ * }
+ * </pre>
+ * The score is the intercept plus the weighted sum of the features, optionally
+ * mapped to [0,1] by the logistic function.
+ *
+ * Compared to one script per feature combined by a {@code function_score} query,
+ * the term vectors of each document are fetched only once for all features.
+ */
+public class LinkageModelFactory {
+
+	public static final String SOURCE = "model";
+
+	/**
+	 * How the weighted sum of the features is turned into a score.
+	 */
+	public enum Link {
+		IDENTITY,
+		LOGISTIC;
+
+		public double apply(double value) {
+			if (this == LOGISTIC) {
+				return 1.0 / (1.0 + Math.exp(-value));
+			}
+			return value;
+		}
+	}
+
+	private final Map<String, Object> params;
+	private final SearchLookup lookup;
+	private final List<SimilarityScriptFactory> features = new ArrayList<>();
+	private final double[] weights;
+	private final double intercept;
+	private final Link link;
+
+	/**
+	 * Constructs a model.
+	 *
+	 * @param params
+	 *     the features and link supplied by the user in the query
+	 * @param lookup
+	 *     an entry point to the index
+	 * @param scorer
+	 *     creates the similarities of the features
+	 */
+	@SuppressWarnings("unchecked")
+	public LinkageModelFactory(Map<String, Object> params, SearchLookup lookup, RecordLinkageScorer scorer) {
+		this.params = params;
+		this.lookup = lookup;
+		Object features = params.get("features");
+		if (!(features instanceof List) || ((List<?>) features).isEmpty()) {
+			throw new IllegalArgumentException("Missing argument 'features', the list of similarities combined by the model.");
+		}
+		List<?> featureList = (List<?>) features;
+		this.weights = new double[featureList.size()];
+		for (int i = 0; i < featureList.size(); i++) {
+			if (!(featureList.get(i) instanceof Map)) {
+				throw new IllegalArgumentException("Invalid feature, expected an object with a 'source' and 'params'.");
+			}
+			Map<String, Object> feature = (Map<String, Object>) featureList.get(i);
+			Object source = feature.get("source");
+			Object featureParams = feature.get("params");
+			if (source == null || !(featureParams instanceof Map)) {
+				throw new IllegalArgumentException("Invalid feature, expected an object with a 'source' and 'params'.");
+			}
+			this.features.add(scorer.newFactory(source.toString(), (Map<String, Object>) featureParams, lookup));
+			this.weights[i] = readDouble(feature, "weight", 1.0);
+		}
+		this.intercept = readDouble(params, "intercept", 0.0);
+		Object link = params.get("link");
+		try {
+			this.link = link == null ? Link.IDENTITY : Link.valueOf(link.toString().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid link '" + link + "', expected 'identity' or 'logistic'.");
+		}
+	}
+
+	private static double readDouble(Map<String, Object> parameters, String key, double defaultValue) {
+		Object v = parameters.get(key);
+		if (v == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.valueOf(v.toString());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number for '" + key + "': " + v);
+		}
+	}
+
+	/**
+	 * Computes the score of the model for the documents of a segment.
+	 */
+	public class LeafModel {
+
+		private final SimilarityScript[] scripts;
+
+		protected LeafModel(LeafReaderContext context) throws IOException {
+			LeafTermVectors termVectors = new LeafTermVectors(context.reader());
+			scripts = new SimilarityScript[features.size()];
+			for (int i = 0; i < scripts.length; i++) {
+				scripts[i] = features.get(i).similarityScript(context);
+				scripts[i].shareTermVectors(termVectors);
+			}
+		}
+
+		public void setDocument(int docId) {
+			for (SimilarityScript script : scripts) {
+				script.setDocument(docId);
+			}
+		}
+
+		public double execute() {
+			double sum = intercept;
+			for (int i = 0; i < scripts.length; i++) {
+				sum += weights[i] * scripts[i].execute();
+			}
+			return link.apply(sum);
+		}
+	}
+
+	/**
+	 * Instantiates the model in a given context.
+	 */
+	public LeafModel leafModel(LeafReaderContext context) throws IOException {
+		return new LeafModel(context);
+	}
+
+	/**
+	 * @return
+	 *      a script used to influence the score of documents returned in a search query
+	 */
+	public ScoreScript.LeafFactory toScoreScriptFactory() {
+		return new ScoreScript.LeafFactory() {
+			@Override
+			public boolean needs_score() {
+				return false;
+			}
+
+			@Override
+			public ScoreScript newInstance(LeafReaderContext ctx) throws IOException {
+				return new ScoreScript(params, lookup, ctx) {
+
+					LeafModel wrapped = leafModel(ctx);
+
+					@Override
+					public void setDocument(int docId) {
+						wrapped.setDocument(docId);
+					}
+
+					@Override
+					public double execute(ExplanationHolder explanation) {
+						return wrapped.execute();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * @return
+	 *     a script used to return the score of the model as an additional field
+	 */
+	public FieldScript.LeafFactory toFieldScriptFactory() {
+		return new FieldScript.LeafFactory() {
+			@Override
+			public FieldScript newInstance(LeafReaderContext ctx) throws IOException {
+				return new FieldScript(params, lookup, ctx) {
+
+					LeafModel wrapped = leafModel(ctx);
+
+					@Override
+					public void setDocument(int docId) {
+						wrapped.setDocument(docId);
+					}
+
+					@Override
+					public Object execute() {
+						return wrapped.execute();
+					}
+				};
+			}
+		};
+	}
+}
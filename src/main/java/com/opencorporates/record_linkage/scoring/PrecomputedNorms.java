@@ -0,0 +1,88 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Reads the document norms computed at index time by the {@code record_linkage_tfidf_norms}
+ * ingest processor, from the doc values of a {@code binary} field.
+ *
+ * Such doc values hold the number of binary values of the document and the length of
+ * each of them as vints. The processor writes a single value, made of the version of the
+ * frequency snapshot the norms were computed from as a big-endian long, followed by one
+ * big-endian float per value of the scored field.
+ */
+public class PrecomputedNorms {
+
+	private final BinaryDocValuesCursor docValues;
+	private final ByteArrayDataInput input = new ByteArrayDataInput();
+	private float[] norms = new float[4];
+	private int count = 0;
+	private long version = 0L;
+
+	/**
+	 * @param reader
+	 *     the segment to read doc values from
+	 * @param field
+	 *     the {@code binary} field holding the norms
+	 */
+	public PrecomputedNorms(LeafReader reader, String field) {
+		this.docValues = new BinaryDocValuesCursor(reader, field);
+	}
+
+	/**
+	 * Reads the norms of a document.
+	 *
+	 * @return the number of norms stored for the document
+	 */
+	public int read(int docId) throws IOException {
+		count = 0;
+		version = 0L;
+		BytesRef bytes = docValues.get(docId);
+		if (bytes == null) {
+			return 0;
+		}
+		input.reset(bytes.bytes, bytes.offset, bytes.length);
+		if (input.readVInt() != 1) {
+			// not written by the processor
+			return 0;
+		}
+		int length = input.readVInt();
+		if (length < Long.BYTES) {
+			return 0;
+		}
+		version = input.readLong();
+		int newCount = (length - Long.BYTES) / Float.BYTES;
+		norms = ArrayUtil.grow(norms, newCount);
+		for(int i = 0; i < newCount; i++) {
+			norms[i] = Float.intBitsToFloat(input.readInt());
+		}
+		count = newCount;
+		return count;
+	}
+
+	/**
+	 * @return the number of norms of the current document
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return the version of the frequency snapshot the norms of the current document were computed from
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * @return the norm of a value of the current document
+	 */
+	public float norm(int value) {
+		return norms[value];
+	}
+}
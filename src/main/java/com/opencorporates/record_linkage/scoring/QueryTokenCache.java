@@ -0,0 +1,191 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.analysis.AnalyzerComponentsProvider;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+
+/**
+ * A node-level cache of analyzed queries, keyed by index, analyzer, field and query string.
+ *
+ * Bulk linkage requests compare the same normalized names with several fields and similarities,
+ * and the analysis chains of names can be expensive (ICU folding, synonyms). Entries are tied
+ * to the analysis components they were computed with, so they are not reused once the analyzers
+ * of an index are rebuilt or their search analyzers are reloaded. They are discarded when the shards
+ * of the index are closed on the node, when they are not used for an hour by default,
+ * or when they are evicted to keep the cache within its configured size.
+ */
+public class QueryTokenCache {
+
+	public static final Setting<Integer> SIZE_SETTING =
+			Setting.intSetting("record_linkage.query_token_cache.size", 10000, 0, Property.NodeScope);
+	public static final Setting<TimeValue> EXPIRE_SETTING =
+			Setting.timeSetting("record_linkage.query_token_cache.expire", TimeValue.timeValueHours(1), Property.NodeScope);
+
+	/**
+	 * @return the settings used to configure the cache
+	 */
+	public static List<Setting<?>> getSettings() {
+		return Arrays.asList(SIZE_SETTING, EXPIRE_SETTING);
+	}
+
+	private final Cache<Key, List<BytesRef>> cache;
+	private final boolean enabled;
+
+	/**
+	 * Creates a cache configured by the node settings.
+	 */
+	public QueryTokenCache(Settings settings) {
+		this(SIZE_SETTING.get(settings), EXPIRE_SETTING.get(settings));
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param size
+	 *     the maximum number of queries to keep (0 disables the cache)
+	 * @param expireAfterAccess
+	 *     the time after which unused queries are evicted (-1 to never expire them)
+	 */
+	public QueryTokenCache(int size, TimeValue expireAfterAccess) {
+		CacheBuilder<Key, List<BytesRef>> builder = CacheBuilder.<Key, List<BytesRef>>builder().setMaximumWeight(size);
+		if (expireAfterAccess.nanos() > 0) {
+			builder.setExpireAfterAccess(expireAfterAccess);
+		}
+		this.cache = builder.build();
+		this.enabled = size > 0;
+	}
+
+	/**
+	 * @return a cache which never stores anything, and simply analyzes the queries
+	 */
+	public static QueryTokenCache disabled() {
+		return new QueryTokenCache(0, TimeValue.MINUS_ONE);
+	}
+
+	/**
+	 * Returns the tokens of a query, as analyzed for the given field.
+	 *
+	 * @param index
+	 *      the name of the index the analyzer belongs to (can be null)
+	 * @param analyzerName
+	 *      the name of the analyzer, as supplied by the user
+	 * @param analyzer
+	 *      the analyzer itself
+	 * @param field
+	 *      the field the query is compared to
+	 * @param query
+	 *      the query string
+	 * @param analyze
+	 *      analyzes the query string if it is not cached
+	 * @return the list of terms, which must not be modified
+	 */
+	public List<BytesRef> tokens(String index, String analyzerName, Analyzer analyzer, String field, String query,
+			Function<String, List<BytesRef>> analyze) {
+		if (!enabled) {
+			return analyze.apply(query);
+		}
+		Key key = new Key(index, analyzerName, analysisComponents(analyzer), field, query);
+		List<BytesRef> tokens = cache.get(key);
+		if (tokens == null) {
+			tokens = Collections.unmodifiableList(new ArrayList<>(analyze.apply(query)));
+			cache.put(key, tokens);
+		}
+		return tokens;
+	}
+
+	/**
+	 * Identifies the state of an analyzer: reloading search analyzers replaces the components
+	 * of the analyzer, rather than the analyzer itself.
+	 */
+	static Object analysisComponents(Analyzer analyzer) {
+		Analyzer wrapped = analyzer instanceof NamedAnalyzer ? ((NamedAnalyzer) analyzer).analyzer() : analyzer;
+		if (wrapped instanceof AnalyzerComponentsProvider) {
+			return ((AnalyzerComponentsProvider) wrapped).getComponents();
+		}
+		return analyzer;
+	}
+
+	/**
+	 * Discards all queries analyzed for an index.
+	 */
+	public void invalidate(String index) {
+		List<Key> toInvalidate = new ArrayList<>();
+		for (Key key : cache.keys()) {
+			if (Objects.equals(key.index, index)) {
+				toInvalidate.add(key);
+			}
+		}
+		for (Key key : toInvalidate) {
+			cache.invalidate(key);
+		}
+	}
+
+	/**
+	 * @return the hit, miss and eviction counters of the cache
+	 */
+	public Cache.CacheStats stats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return the number of queries currently cached
+	 */
+	public int count() {
+		return cache.count();
+	}
+
+	/**
+	 * Discards all cached queries.
+	 */
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	private static final class Key {
+		private final String index;
+		private final String analyzerName;
+		// compared by identity
+		private final Object analysis;
+		private final String field;
+		private final String query;
+		private final int hashCode;
+
+		private Key(String index, String analyzerName, Object analysis, String field, String query) {
+			this.index = index;
+			this.analyzerName = analyzerName;
+			this.analysis = analysis;
+			this.field = field;
+			this.query = query;
+			this.hashCode = Objects.hash(index, analyzerName, System.identityHashCode(analysis), field, query);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) other;
+			return analysis == o.analysis && Objects.equals(index, o.index) && analyzerName.equals(o.analyzerName)
+					&& field.equals(o.field) && query.equals(o.query);
+		}
+	}
+}
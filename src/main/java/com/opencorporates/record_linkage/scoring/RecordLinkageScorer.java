@@ -9,8 +9,14 @@ import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
 import org.elasticsearch.search.lookup.SearchLookup;
 
+import com.opencorporates.record_linkage.ingest.FrequencySnapshots;
+
 import com.opencorporates.record_linkage.similarity.ExactTFIDFSimilarity;
+import com.opencorporates.record_linkage.similarity.JaroWinklerSimilarity;
 import com.opencorporates.record_linkage.similarity.LevenshteinSimilarity;
+import com.opencorporates.record_linkage.similarity.PhoneticSimilarity;
+import com.opencorporates.record_linkage.similarity.QGramSimilarity;
+import com.opencorporates.record_linkage.similarity.SoftTFIDFSimilarity;
 import com.opencorporates.record_linkage.similarity.StringSimilarity;
 import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
 
@@ -29,11 +35,97 @@ public class RecordLinkageScorer implements ScriptEngine {
 	
 	// map of all known similarities. The key is the string input by the user to select it.
 	public static Map<String, StringSimilarity> registeredSimilarities = new HashMap<>();
+	// prefilters which can rule out documents before they are scored, for the similarities which support them
+	public static Map<String, CandidatePrefilter.Factory> registeredPrefilters = new HashMap<>();
 	
     static {
     	registerSimilarity("tfidf", new TFIDFSimilarity());
-    	registerSimilarity("levenshtein", new LevenshteinSimilarity());
+    	registerSimilarity("levenshtein", new LevenshteinSimilarity(), LevenshteinPrefilter::create);
     	registerSimilarity("exact_tfidf", new ExactTFIDFSimilarity());
+    	registerSimilarity("jaro_winkler", new JaroWinklerSimilarity());
+    	registerSimilarity("soft_tfidf", new SoftTFIDFSimilarity());
+    	registerSimilarity("qgram", new QGramSimilarity());
+    	registerSimilarity("phonetic", new PhoneticSimilarity());
+    }
+    
+    private final DocFreqCache docFreqCache;
+    private final ScoringStats stats;
+    private final QueryTokenCache queryTokenCache;
+    // snapshots the norms of documents were computed from at index time (null if unavailable)
+    private FrequencySnapshots frequencySnapshots = null;
+    
+    /**
+     * Creates a script engine which does not cache token frequencies.
+     */
+    public RecordLinkageScorer() {
+    	this(DocFreqCache.disabled());
+    }
+    
+    /**
+     * Creates a script engine.
+     * 
+     * @param docFreqCache
+     *     the node-level cache of token frequencies, shared by all scripts
+     */
+    public RecordLinkageScorer(DocFreqCache docFreqCache) {
+    	this(docFreqCache, new ScoringStats(true));
+    }
+    
+    /**
+     * Creates a script engine which records the work done by its scripts.
+     * 
+     * @param stats
+     *     the node-level counters of the scripts
+     */
+    public RecordLinkageScorer(DocFreqCache docFreqCache, ScoringStats stats) {
+    	this(docFreqCache, stats, QueryTokenCache.disabled());
+    }
+    
+    /**
+     * Creates a script engine which caches analyzed queries.
+     * 
+     * @param queryTokenCache
+     *     the node-level cache of analyzed queries, shared by all scripts
+     */
+    public RecordLinkageScorer(DocFreqCache docFreqCache, ScoringStats stats, QueryTokenCache queryTokenCache) {
+    	this.docFreqCache = docFreqCache;
+    	this.stats = stats;
+    	this.queryTokenCache = queryTokenCache;
+    }
+    
+    /**
+     * @return the node-level cache of token frequencies
+     */
+    public DocFreqCache getDocFreqCache() {
+    	return docFreqCache;
+    }
+    
+    /**
+     * @return the node-level cache of analyzed queries
+     */
+    public QueryTokenCache getQueryTokenCache() {
+    	return queryTokenCache;
+    }
+    
+    /**
+     * @return the node-level counters of the scripts
+     */
+    public ScoringStats getStats() {
+    	return stats;
+    }
+    
+    /**
+     * Sets the frequency snapshots scripts read to score documents by their precomputed norms.
+     */
+    public void setFrequencySnapshots(FrequencySnapshots frequencySnapshots) {
+    	this.frequencySnapshots = frequencySnapshots;
+    }
+    
+    /**
+     * @return the frequency snapshots of the node, or null if unavailable
+     */
+    public FrequencySnapshots getFrequencySnapshots() {
+    	return frequencySnapshots;
     }
     
     /**
@@ -47,6 +139,61 @@ public class RecordLinkageScorer implements ScriptEngine {
     static void registerSimilarity(String identifier, StringSimilarity similarity) {
         registeredSimilarities.put(identifier, similarity);
     }
+    
+    /**
+     * Registers a similarity for use in ElasticSearch queries, along with a prefilter
+     * which can rule out candidates cheaply.
+     * 
+     * @param identifier
+     *     the name of the similarity method, which will be used as "source" in queries
+     * @param similarity
+     *     the instance implementing this similarity
+     * @param prefilter
+     *     creates prefilters for the queries using this similarity
+     */
+    static void registerSimilarity(String identifier, StringSimilarity similarity, CandidatePrefilter.Factory prefilter) {
+        registerSimilarity(identifier, similarity);
+        registeredPrefilters.put(identifier, prefilter);
+    }
+
+    /**
+     * Looks up a registered similarity.
+     * 
+     * @param identifier
+     *     the name of the similarity method, as supplied by the user
+     * @throws IllegalArgumentException
+     *     if no similarity is registered with this name
+     */
+    public static StringSimilarity getSimilarity(String identifier) {
+		StringSimilarity similarity = registeredSimilarities.get(identifier);
+		if (similarity == null) {
+			String usage = String.join(", ", registeredSimilarities.keySet());
+			throw new IllegalArgumentException("Invalid source, available similarities are: "+usage);
+		}
+		return similarity;
+    }
+    
+    /**
+     * Creates a factory of similarity scripts, outside of any script context.
+     * 
+     * @param identifier
+     *     the name of the similarity method
+     * @param params
+     *     the similarity parameters, as they would be supplied to a script
+     * @param lookup
+     *     an entry point to the index
+     */
+    public SimilarityScriptFactory newFactory(String identifier, Map<String, Object> params, SearchLookup lookup) {
+    	return createFactory(identifier, getSimilarity(identifier), params, lookup);
+    }
+    
+    private SimilarityScriptFactory createFactory(String identifier, StringSimilarity similarity, Map<String, Object> params, SearchLookup lookup) {
+    	SimilarityScriptFactory factory = new SimilarityScriptFactory(params, lookup, similarity, docFreqCache,
+    			registeredPrefilters.get(identifier), queryTokenCache);
+    	factory.setMetrics(stats.metrics(identifier, factory.getField()));
+    	factory.setFrequencySnapshots(frequencySnapshots);
+    	return factory;
+    }
 
 	@Override
 	public String getType() {
@@ -56,12 +203,11 @@ public class RecordLinkageScorer implements ScriptEngine {
 	@Override
 	public <FactoryType> FactoryType compile(String name, String code, ScriptContext<FactoryType> context,
 			Map<String, String> params) {
-		// Lookup similarity (the "source" code supplied by the user must be one of the registered similarities)
-		StringSimilarity selectedSimilarity = registeredSimilarities.get(code);
-		if (selectedSimilarity == null) {
-			String usage = String.join(", ", registeredSimilarities.keySet());
-			throw new IllegalArgumentException("Invalid source, available similarities are: "+usage);
+		if (LinkageModelFactory.SOURCE.equals(code)) {
+			return compileModel(context);
 		}
+		// Lookup similarity (the "source" code supplied by the user must be one of the registered similarities)
+		StringSimilarity selectedSimilarity = getSimilarity(code);
 		
 		// Ensure the script is used in a supported context
 		if (context.equals(ScoreScript.CONTEXT)) {
@@ -69,7 +215,7 @@ public class RecordLinkageScorer implements ScriptEngine {
 				
 				@Override
 				public ScoreScript.LeafFactory newFactory(Map<String, Object> params, SearchLookup lookup) {
-					SimilarityScriptFactory wrapped = new SimilarityScriptFactory(params, lookup, selectedSimilarity);
+					SimilarityScriptFactory wrapped = createFactory(code, selectedSimilarity, params, lookup);
 					return wrapped.toScoreScriptFactory();
 				}
 			};
@@ -80,7 +226,7 @@ public class RecordLinkageScorer implements ScriptEngine {
 				@Override
 				public FieldScript.LeafFactory newFactory(Map<String, Object> params,
 						SearchLookup lookup) {
-					SimilarityScriptFactory wrapped = new SimilarityScriptFactory(params, lookup, selectedSimilarity);
+					SimilarityScriptFactory wrapped = createFactory(code, selectedSimilarity, params, lookup);
 					return wrapped.toFieldScriptFactory();
 				}
 			};
@@ -92,4 +238,21 @@ public class RecordLinkageScorer implements ScriptEngine {
         }
 	}
 
+	/**
+	 * Compiles a script combining several similarities, described in its parameters.
+	 */
+	private <FactoryType> FactoryType compileModel(ScriptContext<FactoryType> context) {
+		if (context.equals(ScoreScript.CONTEXT)) {
+			ScoreScript.Factory factory = (params, lookup) -> new LinkageModelFactory(params, lookup, this).toScoreScriptFactory();
+			return context.factoryClazz.cast(factory);
+		} else if (context.equals(FieldScript.CONTEXT)) {
+			FieldScript.Factory factory = (params, lookup) -> new LinkageModelFactory(params, lookup, this).toFieldScriptFactory();
+			return context.factoryClazz.cast(factory);
+		} else {
+			throw new IllegalArgumentException(getType()
+					+ " scripts cannot be used for context ["
+					+ context.name + "]");
+		}
+	}
+
 }
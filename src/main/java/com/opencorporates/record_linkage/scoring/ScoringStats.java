@@ -0,0 +1,176 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * Node-level counters of the work done by the similarity scripts, by similarity and field.
+ *
+ * Scripts are executed concurrently for many documents, so counters are {@link LongAdder}s,
+ * which scripts update without contending with each other. Latencies are recorded in a
+ * histogram with one bucket per power of two nanoseconds.
+ *
+ * Field names come from the scripts sent by users, so the number of fields counted separately
+ * is bounded: once it is reached, the work done on any other field is counted under {@link #OTHER_FIELD}.
+ */
+public class ScoringStats {
+
+	public static final Setting<Boolean> ENABLED_SETTING =
+			Setting.boolSetting("record_linkage.stats.enabled", true, Property.NodeScope);
+	public static final Setting<Integer> MAX_FIELDS_SETTING =
+			Setting.intSetting("record_linkage.stats.max_fields", 1000, 0, Property.NodeScope);
+
+	/**
+	 * The field the counters of fields beyond the maximum number of fields are recorded under.
+	 */
+	public static final String OTHER_FIELD = "_other";
+
+	/**
+	 * @return the settings used to configure the statistics
+	 */
+	public static List<Setting<?>> getSettings() {
+		return Arrays.asList(ENABLED_SETTING, MAX_FIELDS_SETTING);
+	}
+
+	private final boolean enabled;
+	private final int maxFields;
+	private final ConcurrentMap<String, ConcurrentMap<String, Metrics>> metrics = new ConcurrentHashMap<>();
+	// number of similarity and field pairs counted separately
+	private final AtomicInteger fields = new AtomicInteger();
+
+	/**
+	 * Creates statistics enabled by the node settings.
+	 */
+	public ScoringStats(Settings settings) {
+		this(ENABLED_SETTING.get(settings), MAX_FIELDS_SETTING.get(settings));
+	}
+
+	/**
+	 * @param enabled
+	 *     false to leave scripts uninstrumented
+	 */
+	public ScoringStats(boolean enabled) {
+		this(enabled, MAX_FIELDS_SETTING.getDefault(Settings.EMPTY));
+	}
+
+	/**
+	 * @param enabled
+	 *     false to leave scripts uninstrumented
+	 * @param maxFields
+	 *     the maximum number of similarity and field pairs counted separately
+	 */
+	public ScoringStats(boolean enabled, int maxFields) {
+		this.enabled = enabled;
+		this.maxFields = maxFields;
+	}
+
+	/**
+	 * @return statistics which never record anything
+	 */
+	public static ScoringStats disabled() {
+		return new ScoringStats(false);
+	}
+
+	/**
+	 * @return the counters of a similarity on a field, or null if statistics are disabled
+	 */
+	public Metrics metrics(String similarity, String field) {
+		if (!enabled) {
+			return null;
+		}
+		ConcurrentMap<String, Metrics> byField = metrics.computeIfAbsent(similarity, s -> new ConcurrentHashMap<>());
+		Metrics fieldMetrics = byField.get(field);
+		if (fieldMetrics == null && fields.get() < maxFields) {
+			// concurrent scripts may exceed the maximum by a few fields
+			fieldMetrics = byField.computeIfAbsent(field, f -> {
+				fields.incrementAndGet();
+				return new Metrics();
+			});
+		}
+		return fieldMetrics != null ? fieldMetrics : byField.computeIfAbsent(OTHER_FIELD, f -> new Metrics());
+	}
+
+	/**
+	 * @return the current value of all counters, by similarity and field
+	 */
+	public List<SimilarityStats> snapshot() {
+		List<SimilarityStats> stats = new ArrayList<>();
+		for (Map.Entry<String, ConcurrentMap<String, Metrics>> similarity : metrics.entrySet()) {
+			for (Map.Entry<String, Metrics> field : similarity.getValue().entrySet()) {
+				stats.add(field.getValue().snapshot(similarity.getKey(), field.getKey()));
+			}
+		}
+		stats.sort(SimilarityStats.ORDER);
+		return stats;
+	}
+
+	/**
+	 * The counters of a similarity on a field.
+	 */
+	public static class Metrics {
+		private final LongAdder scripts = new LongAdder();
+		private final LongAdder documents = new LongAdder();
+		private final LongAdder prefiltered = new LongAdder();
+		private final LongAdder fetchNanos = new LongAdder();
+		private final LongAdder frequencyNanos = new LongAdder();
+		private final LongAdder computeNanos = new LongAdder();
+		private final LongAdder[] latencyBuckets = new LongAdder[SimilarityStats.LATENCY_BUCKETS];
+
+		Metrics() {
+			for (int i = 0; i < latencyBuckets.length; i++) {
+				latencyBuckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Records the creation of a script for a segment.
+		 */
+		public void scriptCreated() {
+			scripts.increment();
+		}
+
+		/**
+		 * Records a document ruled out by a prefilter, without reading its values.
+		 */
+		public void prefiltered() {
+			prefiltered.increment();
+		}
+
+		/**
+		 * Records the scoring of a document.
+		 *
+		 * @param fetch
+		 *     the time spent reading the field values, in nanoseconds
+		 * @param frequency
+		 *     the time spent looking up token frequencies
+		 * @param compute
+		 *     the time spent computing the similarity, excluding frequency lookups
+		 */
+		public void record(long fetch, long frequency, long compute) {
+			documents.increment();
+			fetchNanos.add(fetch);
+			frequencyNanos.add(frequency);
+			computeNanos.add(compute);
+			latencyBuckets[SimilarityStats.latencyBucket(fetch + frequency + compute)].increment();
+		}
+
+		SimilarityStats snapshot(String similarity, String field) {
+			long[] buckets = new long[latencyBuckets.length];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = latencyBuckets[i].sum();
+			}
+			return new SimilarityStats(similarity, field, scripts.sum(), documents.sum(), prefiltered.sum(),
+					fetchNanos.sum(), frequencyNanos.sum(), computeNanos.sum(), buckets);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Token statistics of a field over a whole shard, rather than over a single segment.
+ *
+ * The frequencies of the query tokens and the number of documents are resolved once
+ * per query and shared by the scripts of all segments. This saves looking them up
+ * again in each segment, and makes the scores independent of how documents
+ * are spread over segments, so they do not change as segments are merged.
+ */
+public class ShardStatistics {
+
+	private final IndexReader reader;
+	private final int docCount;
+	private final long[] queryDocFreqs;
+
+	protected ShardStatistics(IndexReader reader, int docCount, long[] queryDocFreqs) {
+		this.reader = reader;
+		this.docCount = docCount;
+		this.queryDocFreqs = queryDocFreqs;
+	}
+
+	/**
+	 * Resolves the statistics of the query tokens over the shard a segment belongs to.
+	 *
+	 * @param context
+	 *     any segment of the shard
+	 * @param field
+	 *     the field the tokens belong to
+	 * @param queryTerms
+	 *     the tokens of the query
+	 */
+	public static ShardStatistics build(LeafReaderContext context, String field, List<BytesRef> queryTerms) throws IOException {
+		IndexReaderContext topLevelContext = ReaderUtil.getTopLevelContext(context);
+		IndexReader reader = topLevelContext.reader();
+		long[] queryDocFreqs = new long[queryTerms.size()];
+		for (int i = 0; i < queryDocFreqs.length; i++) {
+			queryDocFreqs[i] = TermStates.build(topLevelContext, new Term(field, queryTerms.get(i)), true).docFreq();
+		}
+		return new ShardStatistics(reader, reader.getDocCount(field), queryDocFreqs);
+	}
+
+	/**
+	 * @return the reader of the whole shard, to look up the frequencies of other tokens
+	 *     via the {@link DocFreqCache}, which caches them per segment
+	 */
+	public IndexReader reader() {
+		return reader;
+	}
+
+	/**
+	 * @return the number of documents of the shard which have a value for the field
+	 */
+	public int docCount() {
+		return docCount;
+	}
+
+	/**
+	 * @param index
+	 *     the position of a token in the list of query tokens
+	 * @return the number of documents of the shard containing the token
+	 */
+	public long queryDocFreq(int index) {
+		return queryDocFreqs[index];
+	}
+}
@@ -1,24 +1,28 @@
 package com.opencorporates.record_linkage.scoring;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
-import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
-import org.apache.lucene.index.PostingsEnum;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 
+import com.opencorporates.record_linkage.ingest.FrequencySnapshot;
+import com.opencorporates.record_linkage.similarity.NormalizedSimilarity;
+import com.opencorporates.record_linkage.similarity.PreparedSimilarity;
 import com.opencorporates.record_linkage.similarity.StringSimilarity;
+import com.opencorporates.record_linkage.similarity.StringSimilarityAdapter;
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+import com.opencorporates.record_linkage.similarity.TokenSequence;
+import com.opencorporates.record_linkage.similarity.TokenSimilarity;
+import com.opencorporates.record_linkage.similarity.TokenStatistics;
 
 /**
  * String similarity methods can be called from two contexts:
@@ -29,19 +33,49 @@ import com.opencorporates.record_linkage.similarity.StringSimilarity;
  * This class gathers logic that is common to both contexts, translating
  * the data required by the similarity heuristics from ElasticSearch's internal
  * representation to a more convenient representation required by {@class StringSimilarity}.
+ *
+ * Tokens are interned in a {@link TokenDictionary} owned by the script, so that
+ * field values can be compared to the query without creating any string.
  */
-public class SimilarityScript {
-	private Logger logger = Logger.getLogger("RecordLinkage");
-	
+public class SimilarityScript implements TokenStatistics {
 	protected LeafReader reader;
+	// the reader token frequencies are looked up in: the segment, or the whole shard
+	// (whose frequencies are cached per segment, see DocFreqCache)
+	protected IndexReader statisticsReader;
 	protected String field;
 	protected int currentDocId = -1;
 	protected int positionIncrementGap;
 	protected String query;
-	protected List<String> queryTokens;
-	protected Map<String, Long> queryFreqs;
 	protected int totalDocs;
-	protected StringSimilarity similarity;
+	protected TokenSimilarity similarity;
+	protected PreparedSimilarity preparedSimilarity;
+	protected DocFreqCache docFreqCache;
+	protected TokenDictionary dictionary = new TokenDictionary();
+	protected TokenSequence querySequence;
+	protected TokenSequence fieldSequence;
+	protected TermVectorDecoder termVectorDecoder;
+	protected FieldValuesDecoder decoder;
+	protected CandidatePrefilter.Leaf prefilter;
+	// norms of the field values computed at index time (null if not supplied)
+	protected PrecomputedNorms precomputedNorms;
+	// the snapshot the norms were computed from, and the similarity weighting the query with it
+	protected FrequencySnapshot normsSnapshot;
+	protected NormalizedSimilarity normalizedSimilarity;
+	// whether the norms of the current document can be used
+	private boolean useNorms = false;
+	// node-level counters updated for each document scored (null if disabled)
+	protected ScoringStats.Metrics metrics;
+	// whether the similarity looks up the frequencies of tokens, which are then resolved before scoring
+	private boolean usesFrequencies = false;
+	// frequency of each token in the dictionary, indexed by token id (-1 if not looked up yet)
+	protected long[] docFreqs = new long[0];
+	// how the scores of the values of the field are combined
+	protected ValueMode valueMode = ValueMode.MAX;
+	protected int topK = ValueMode.DEFAULT_TOP_K;
+	// scores or upper bounds of the values of the current document, and the order they are visited in
+	private double[] valueScores = new double[0];
+	private int[] valueOrder = new int[0];
+	private final BytesRef scratch = new BytesRef();
 	
 	/**
 	 * Creates a similarity script.
@@ -64,14 +98,129 @@ public class SimilarityScript {
 	 */
 	public SimilarityScript(LeafReader reader, String field, String query,
 			List<String> queryTokens, int positionIncrementGap, int totalDocs, StringSimilarity similarity) {
+		this(reader, field, query, toBytes(queryTokens), positionIncrementGap, totalDocs, similarity, DocFreqCache.disabled());
+	}
+
+	/**
+	 * Creates a similarity script which looks up token frequencies via a cache.
+	 *
+	 * @param queryTerms
+	 *      the query parsed into a list of terms by the analyzer
+	 * @param docFreqCache
+	 *      the node-level cache of token frequencies
+	 */
+	public SimilarityScript(LeafReader reader, String field, String query,
+			List<BytesRef> queryTerms, int positionIncrementGap, int totalDocs, StringSimilarity similarity,
+			DocFreqCache docFreqCache) {
+		this(reader, field, query, queryTerms, positionIncrementGap, totalDocs, similarity, docFreqCache, null);
+	}
+
+	/**
+	 * Creates a similarity script which computes token frequencies over the whole shard.
+	 *
+	 * @param statistics
+	 *      the statistics of the query tokens in the shard
+	 */
+	public SimilarityScript(LeafReader reader, String field, String query,
+			List<BytesRef> queryTerms, int positionIncrementGap, StringSimilarity similarity,
+			DocFreqCache docFreqCache, ShardStatistics statistics) {
+		this(reader, field, query, queryTerms, positionIncrementGap, statistics.docCount(), similarity, docFreqCache, statistics);
+	}
+
+	private SimilarityScript(LeafReader reader, String field, String query,
+			List<BytesRef> queryTerms, int positionIncrementGap, int totalDocs, StringSimilarity similarity,
+			DocFreqCache docFreqCache, ShardStatistics statistics) {
 		this.reader = reader;
+		this.statisticsReader = statistics == null ? reader : statistics.reader();
+		this.docFreqCache = docFreqCache;
 		this.field = field;
 		this.positionIncrementGap = positionIncrementGap;
 		this.query = query;
-		this.queryTokens = queryTokens;
-		this.queryFreqs = getFrequencies(queryTokens);
 		this.totalDocs = totalDocs;
-		this.similarity = similarity;
+		this.similarity = StringSimilarityAdapter.adapt(similarity, query);
+		
+		// Intern the query tokens first, so that they get the smallest ids
+		int[] queryIds = new int[queryTerms.size()];
+		for(int i = 0; i < queryIds.length; i++) {
+			queryIds[i] = dictionary.add(queryTerms.get(i));
+		}
+		if (statistics != null) {
+			docFreqs = new long[dictionary.size()];
+			for(int i = 0; i < queryIds.length; i++) {
+				docFreqs[queryIds[i]] = statistics.queryDocFreq(i);
+			}
+		}
+		this.querySequence = new TokenSequence(dictionary, queryIds, 0, queryIds.length);
+		this.fieldSequence = new TokenSequence(dictionary);
+		this.termVectorDecoder = new TermVectorDecoder(reader, field, dictionary, positionIncrementGap);
+		this.decoder = termVectorDecoder;
+		this.preparedSimilarity = this.similarity.prepare(querySequence, this);
+	}
+	
+	private static List<BytesRef> toBytes(List<String> tokens) {
+		List<BytesRef> terms = new ArrayList<>(tokens.size());
+		for(String token : tokens) {
+			terms.add(new BytesRef(token));
+		}
+		return terms;
+	}
+	
+	/**
+	 * Reads the field values from the binary doc values of a {@code linkage_text}
+	 * field rather than from term vectors.
+	 */
+	public void useDocValues() {
+		this.decoder = new DocValuesDecoder(reader, field, dictionary);
+	}
+	
+	/**
+	 * Reads term vectors via the given instance, so that scripts comparing
+	 * other fields of the same documents do not fetch them again.
+	 */
+	public void shareTermVectors(LeafTermVectors termVectors) {
+		termVectorDecoder.setTermVectors(termVectors);
+	}
+	
+	/**
+	 * Sets a prefilter, used to skip documents which cannot get a positive score
+	 * without reading their term vectors.
+	 */
+	public void setPrefilter(CandidatePrefilter.Leaf prefilter) {
+		this.prefilter = prefilter;
+	}
+	
+	/**
+	 * Normalizes field values by the norms computed at index time, for the similarities
+	 * which support it. The query is then weighted with the statistics of the snapshot
+	 * the norms were computed from, so that scores are consistent with the norms.
+	 * Documents without norms for all their values, or with norms computed from
+	 * another snapshot, are scored normally.
+	 */
+	public void setPrecomputedNorms(PrecomputedNorms precomputedNorms, FrequencySnapshot snapshot) {
+		PreparedSimilarity prepared = similarity.prepare(querySequence, new SnapshotStatistics(snapshot));
+		if (prepared instanceof NormalizedSimilarity) {
+			this.precomputedNorms = precomputedNorms;
+			this.normsSnapshot = snapshot;
+			this.normalizedSimilarity = (NormalizedSimilarity) prepared;
+		}
+	}
+	
+	/**
+	 * Sets how the scores of the values of a multi-valued field are combined.
+	 * 
+	 * @param topK
+	 *     the number of best scores averaged in {@link ValueMode#TOP_K_MEAN} mode
+	 */
+	public void setValueMode(ValueMode valueMode, int topK) {
+		this.valueMode = valueMode;
+		this.topK = topK;
+	}
+	
+	/**
+	 * Sets the counters to record the work done by the script in.
+	 */
+	public void setMetrics(ScoringStats.Metrics metrics) {
+		this.metrics = metrics;
 	}
 	
 	/**
@@ -86,46 +235,236 @@ public class SimilarityScript {
      * @return
      */
     public double execute() {
-    	List<List<String>> fieldValues = getFieldValues();
-    	
-    	// We compute all the frequencies at once to save up on frequency lookups of common tokens between the multiple values
-    	Map<String, Long> fieldFreqs = getFrequencies(fieldValues.stream().flatMap(List::stream).collect(Collectors.toSet()));
+    	try {
+    		if (prefilter != null && !prefilter.mayMatch(currentDocId)) {
+    			if (metrics != null) {
+    				metrics.prefiltered();
+    			}
+    			return 0.;
+    		}
+    	} catch (IOException e) {
+    		// score the document normally
+    	}
+    	long fetchStart = metrics == null ? 0L : System.nanoTime();
+    	loadFieldValues();
+    	useNorms = loadNorms();
+    	long loaded = metrics == null ? 0L : System.nanoTime();
     	
-    	// Take the maximum score over all field values (TODO: this could be configurable)
+    	// Frequencies are looked up in one phase, timed as a whole, and shared between values by token id
+    	long resolved = loaded;
+    	if (!useNorms && usesFrequencies && resolveFrequencies() && metrics != null) {
+    		resolved = System.nanoTime();
+    	}
+    	double score = valueMode == ValueMode.MAX ? maxValueScore() : combinedValueScore();
+    	if (metrics != null) {
+    		metrics.record(loaded - fetchStart, resolved - loaded, System.nanoTime() - resolved);
+    	}
+        return score;
+    }
+    
+    /**
+     * Looks up the frequencies of the tokens of the current document which were not looked up yet.
+     * 
+     * @return whether any frequency was looked up
+     */
+    private boolean resolveFrequencies() {
+    	int valueCount = decoder.valueCount();
+    	int end = valueCount == 0 ? 0 : decoder.valueEnd(valueCount - 1);
+    	int[] tokens = decoder.tokens();
+    	boolean lookedUp = false;
+    	for(int i = 0; i < end; i++) {
+    		int tokenId = tokens[i];
+    		if (tokenId >= docFreqs.length || docFreqs[tokenId] < 0) {
+    			docFreq(tokenId);
+    			lookedUp = true;
+    		}
+    	}
+    	return lookedUp;
+    }
+    
+    /**
+     * Points the field sequence to a value of the current document.
+     */
+    private TokenSequence fieldValue(int value) {
+    	int start = decoder.valueStart(value);
+    	return fieldSequence.reset(decoder.tokens(), start, decoder.valueEnd(value) - start);
+    }
+    
+    /**
+     * Reads the precomputed norms of the current document.
+     * 
+     * @return whether there is one for each value
+     */
+    private boolean loadNorms() {
+    	if (precomputedNorms == null) {
+    		return false;
+    	}
+    	try {
+    		return precomputedNorms.read(currentDocId) == decoder.valueCount()
+    				&& precomputedNorms.version() == normsSnapshot.version();
+    	} catch (IOException e) {
+    		return false;
+    	}
+    }
+    
+    /**
+     * Scores a value of the current document.
+     */
+    private double scoreValue(int value) {
+    	if (useNorms) {
+    		return normalizedSimilarity.score(fieldValue(value), precomputedNorms.norm(value));
+    	}
+    	return preparedSimilarity.score(fieldValue(value));
+    }
+    
+    /**
+     * @return the similarity the values of the current document are scored with
+     */
+    private PreparedSimilarity currentSimilarity() {
+    	return useNorms ? normalizedSimilarity : preparedSimilarity;
+    }
+    
+    /**
+     * The maximum score over all field values. Values are scored by decreasing upper bound,
+     * and the remaining ones are skipped once none of them can beat the best score.
+     */
+    private double maxValueScore() {
+    	int valueCount = decoder.valueCount();
     	double maxScore = 0.;
-    	for(List<String> fieldValue : fieldValues) {
-    		Map<String, Long> tokenFrequencies = fieldValue.stream().distinct().collect(Collectors.toMap(k -> k, k -> fieldFreqs.get(k)));
-    		
-    		double s = similarity.compute(query, queryTokens, queryFreqs, fieldValue, tokenFrequencies, totalDocs);
+    	if (valueCount == 1) {
+    		return scoreValue(0);
+    	}
+    	PreparedSimilarity scoring = currentSimilarity();
+    	double bound = scoring.maxScore();
+    	ensureValueCapacity(valueCount);
+    	boolean sorted = true;
+    	for(int value = 0; value < valueCount; value++) {
+    		valueOrder[value] = value;
+    		valueScores[value] = scoring.upperBound(fieldValue(value));
+    		sorted &= valueScores[value] == bound;
+    	}
+    	if (!sorted) {
+    		sortByDecreasingBound(valueCount);
+    	}
+    	for(int i = 0; i < valueCount; i++) {
+    		int value = valueOrder[i];
+    		if (maxScore >= bound || valueScores[value] <= maxScore) {
+    			break;
+    		}
+    		double s = scoreValue(value);
     		if (s > maxScore) {
     			maxScore = s;
     		}
     	}
-        return maxScore;
+    	return maxScore;
+    }
+    
+    /**
+     * Sorts the values of the current document by decreasing upper bound (insertion sort,
+     * as documents rarely have many values).
+     */
+    private void sortByDecreasingBound(int valueCount) {
+    	for(int i = 1; i < valueCount; i++) {
+    		int value = valueOrder[i];
+    		int j = i - 1;
+    		while (j >= 0 && valueScores[valueOrder[j]] < valueScores[value]) {
+    			valueOrder[j + 1] = valueOrder[j];
+    			j--;
+    		}
+    		valueOrder[j + 1] = value;
+    	}
+    }
+    
+    /**
+     * Combines the scores of all field values, in the modes other than {@link ValueMode#MAX}.
+     */
+    private double combinedValueScore() {
+    	int valueCount = decoder.valueCount();
+    	if (valueCount == 0) {
+    		return 0.;
+    	}
+    	ensureValueCapacity(valueCount);
+    	double sum = 0.;
+    	for(int value = 0; value < valueCount; value++) {
+    		valueScores[value] = scoreValue(value);
+    		sum += valueScores[value];
+    	}
+    	switch (valueMode) {
+    	case SUM:
+    		return sum;
+    	case AVG:
+    		return sum / valueCount;
+    	default:
+    		if (valueCount <= topK) {
+    			return sum / valueCount;
+    		}
+    		Arrays.sort(valueScores, 0, valueCount);
+    		double topSum = 0.;
+    		for(int i = valueCount - topK; i < valueCount; i++) {
+    			topSum += valueScores[i];
+    		}
+    		return topSum / topK;
+    	}
+    }
+    
+    private void ensureValueCapacity(int valueCount) {
+    	if (valueScores.length < valueCount) {
+    		valueScores = new double[ArrayUtil.oversize(valueCount, Double.BYTES)];
+    		valueOrder = new int[valueScores.length];
+    	}
+    }
+    
+    /**
+     * Executes the similarity computation on a batch of documents of the segment.
+     * Documents are read in order, so their term vectors or doc values are accessed sequentially,
+     * and token frequencies are only looked up once for the whole batch.
+     * 
+     * @param docIds
+     *     the documents to score, sorted by increasing id
+     * @param scores
+     *     the array to write the score of each document to: the score of {@code docIds[i]} is written to {@code scores[i]}
+     */
+    public void execute(int[] docIds, double[] scores) {
+    	for(int i = 0; i < docIds.length; i++) {
+    		setDocument(docIds[i]);
+    		scores[i] = execute();
+    	}
     }
     
     /**
      * Retrieves the values of the target field. Each value is represented as a list of tokens.
      */
-    protected List<List<String>> getFieldValues() {
+    public List<List<String>> getFieldValues() {
+    	loadFieldValues();
+    	return decodedValues(decoder);
+    }
+    
+    /**
+     * Retrieves the values of the target field, keeping each token as the bytes indexed.
+     */
+    public List<List<BytesRef>> getFieldTerms() {
+    	loadFieldValues();
+    	List<List<BytesRef>> values = new ArrayList<>(decoder.valueCount());
+    	for(int value = 0; value < decoder.valueCount(); value++) {
+    		List<BytesRef> terms = new ArrayList<>(decoder.valueEnd(value) - decoder.valueStart(value));
+    		for(int i = decoder.valueStart(value); i < decoder.valueEnd(value); i++) {
+    			terms.add(BytesRef.deepCopyOf(dictionary.get(decoder.tokens()[i], scratch)));
+    		}
+    		values.add(terms);
+    	}
+    	return values;
+    }
+    
+    /**
+     * Decodes the values of the target field for the current document into the decoder.
+     */
+    protected void loadFieldValues() {
     	try {
-    		Fields fields = reader.getTermVectors(currentDocId);
-    		
-			Terms terms = fields == null ? null : fields.terms(field);
-			
-			if(terms == null) {
-				return Collections.emptyList();
-			}
-			
-			if (!terms.hasPositions()) {
-				logger.warning("Term vector positions missing for field '"+field+"'");
-				return Collections.emptyList();
-			}
-			return getFieldTokensFromTermVector(terms.iterator());
+    		decoder.read(currentDocId);
 		} catch (IOException e) {
-			// return an empty map
+			// leave the field values empty
+			decoder.clear();
 		}
-    	return Collections.emptyList();
     }
     
     /**
@@ -135,39 +474,23 @@ public class SimilarityScript {
      * from a term vector
      */
     public List<List<String>> getFieldTokensFromTermVector(TermsEnum termsEnum) throws IOException {
-    	// First, index the tokens by position
-    	Map<Integer, String> positionToToken = new HashMap<>();
-		BytesRef term;
-		PostingsEnum postings = null;
-		while((term = termsEnum.next()) != null) {
-			String token = term.utf8ToString();
-			postings = termsEnum.postings(postings, PostingsEnum.POSITIONS);
-			postings.nextDoc();
-			for(int i = 0; i < postings.freq(); i++) {
-				positionToToken.put(postings.nextPosition(), token);
-			}
-		}
-		
-		// Second, generate value lists (each of which is a list of tokens)
-		// The positions between two value lists are separated by positionIncrementGap
-		List<List<String>> fieldValues = new LinkedList<>();
-		List<String> currentValue = new LinkedList<>();
-		int currentPosition = 0;
-		for(int i = 0; i < positionToToken.size(); i++) {
-			if(positionToToken.containsKey(currentPosition)) {
-				currentValue.add(positionToToken.get(currentPosition));
-				currentPosition++;
-			} else {
-				fieldValues.add(currentValue);
-				currentValue = new LinkedList<>();
-				currentPosition += positionIncrementGap;
-				i--;
-			}
-		}
-		if (!currentValue.isEmpty()) {
-			fieldValues.add(currentValue);
-		} 
-		return fieldValues;
+    	termVectorDecoder.decode(termsEnum);
+    	return decodedValues(termVectorDecoder);
+    }
+    
+    /**
+     * Converts the values held by the decoder to lists of strings.
+     */
+    private List<List<String>> decodedValues(FieldValuesDecoder decoder) {
+    	List<List<String>> values = new ArrayList<>(decoder.valueCount());
+    	for(int value = 0; value < decoder.valueCount(); value++) {
+    		List<String> tokens = new ArrayList<>();
+    		for(int i = decoder.valueStart(value); i < decoder.valueEnd(value); i++) {
+    			tokens.add(dictionary.get(decoder.tokens()[i], scratch).utf8ToString());
+    		}
+    		values.add(tokens);
+    	}
+    	return values;
     }
     
     /**
@@ -177,7 +500,7 @@ public class SimilarityScript {
     	Map<String, Long> freqs = new HashMap<>();
     	for(String token : tokens) {
     		try {
-				freqs.put(token, (long) reader.docFreq(new Term(field, token)));
+				freqs.put(token, (long) docFreqCache.docFreq(statisticsReader, field, new BytesRef(token)));
 			} catch (IOException e) {
 				freqs.put(token, 1L);
 			}
@@ -185,5 +508,55 @@ public class SimilarityScript {
     	return freqs;
     }
     
+    /**
+     * The frequency of a token interned in the dictionary of this script.
+     * Frequencies are looked up once per token and kept for the lifetime of the script.
+     */
+    @Override
+    public long docFreq(int tokenId) {
+    	if (tokenId >= docFreqs.length) {
+    		int oldLength = docFreqs.length;
+    		docFreqs = ArrayUtil.grow(docFreqs, Math.max(tokenId + 1, dictionary.size()));
+    		Arrays.fill(docFreqs, oldLength, docFreqs.length, -1L);
+    	}
+    	long freq = docFreqs[tokenId];
+    	if (freq < 0) {
+    		usesFrequencies = true;
+    		try {
+    			freq = docFreqCache.docFreq(statisticsReader, field, dictionary.get(tokenId, scratch));
+    		} catch (IOException e) {
+    			freq = 1L;
+    		}
+    		docFreqs[tokenId] = freq;
+    	}
+    	return freq;
+    }
+    
+    @Override
+    public int numDocs() {
+    	return totalDocs;
+    }
+    
+    /**
+     * The statistics of a frequency snapshot, for the tokens of the dictionary of this script.
+     */
+    private class SnapshotStatistics implements TokenStatistics {
+    	
+    	private final FrequencySnapshot snapshot;
+    	
+    	private SnapshotStatistics(FrequencySnapshot snapshot) {
+    		this.snapshot = snapshot;
+    	}
+    	
+    	@Override
+    	public long docFreq(int tokenId) {
+    		return snapshot.docFreq(dictionary.get(tokenId, scratch));
+    	}
+    	
+    	@Override
+    	public int numDocs() {
+    		return (int) Math.min(Integer.MAX_VALUE, snapshot.numDocs());
+    	}
+    }
 
 }
@@ -1,24 +1,29 @@
 package com.opencorporates.record_linkage.scoring;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.index.analysis.IndexAnalyzers;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperService;
 import org.elasticsearch.script.FieldScript;
 import org.elasticsearch.script.FieldScript.LeafFactory;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.search.lookup.SearchLookup;
 
+import com.opencorporates.record_linkage.ingest.FrequencySnapshot;
+import com.opencorporates.record_linkage.ingest.FrequencySnapshots;
+import com.opencorporates.record_linkage.mapper.LinkageTextFieldMapper.LinkageTextFieldType;
 import com.opencorporates.record_linkage.similarity.StringSimilarity;
 
 /**
@@ -30,10 +35,24 @@ public class SimilarityScriptFactory {
     private final SearchLookup lookup;
     private final Map<String, Object> params;
     private final StringSimilarity similarity;
-    private final List<String> queryTokens;
+    private final List<BytesRef> queryTerms;
     private final String field;
     private final String query;
     private final Analyzer analyzer;
+    private final DocFreqCache docFreqCache;
+    private final QueryTokenCache queryTokenCache;
+    private final CandidatePrefilter prefilter;
+    private final boolean useDocValues;
+    private final ValueMode valueMode;
+    private final int topK;
+    // binary field holding the norms of the field values computed at index time (null if none)
+    private final String normsField;
+    // the frequency snapshot the norms were computed from, resolved once for all segments (null if unavailable)
+    private FrequencySnapshot normsSnapshot = null;
+    // node-level counters of the scripts created by this factory (null if disabled)
+    private ScoringStats.Metrics metrics = null;
+    // token statistics over the shard, resolved when the first segment is scored
+    private ShardStatistics statistics = null;
 	private Logger logger = Logger.getLogger("RecordLinkage");
 	private int positionIncrementGap;
 
@@ -48,6 +67,30 @@ public class SimilarityScriptFactory {
 	 *     the string similarity to use when comparing the query to the field
 	 */
     protected SimilarityScriptFactory(Map<String, Object> params, SearchLookup lookup, StringSimilarity similarity) {
+    	this(params, lookup, similarity, DocFreqCache.disabled(), null);
+    }
+
+	/**
+	 * Constructs a factory which looks up token frequencies via a cache.
+	 * 
+	 * @param docFreqCache
+	 *     the node-level cache of token frequencies
+	 * @param prefilterFactory
+	 *     creates a prefilter to rule out candidates for the similarity (can be null)
+	 */
+    protected SimilarityScriptFactory(Map<String, Object> params, SearchLookup lookup, StringSimilarity similarity,
+    		DocFreqCache docFreqCache, CandidatePrefilter.Factory prefilterFactory) {
+    	this(params, lookup, similarity, docFreqCache, prefilterFactory, QueryTokenCache.disabled());
+    }
+
+	/**
+	 * Constructs a factory which looks up the tokens of the query via a cache.
+	 * 
+	 * @param queryTokenCache
+	 *     the node-level cache of analyzed queries
+	 */
+    protected SimilarityScriptFactory(Map<String, Object> params, SearchLookup lookup, StringSimilarity similarity,
+    		DocFreqCache docFreqCache, CandidatePrefilter.Factory prefilterFactory, QueryTokenCache queryTokenCache) {
 		if (!params.containsKey("query")) {
 			throw new IllegalArgumentException("Missing argument 'query', containing the name to compare against.");
 		}
@@ -58,22 +101,91 @@ public class SimilarityScriptFactory {
 		this.field = params.get("field").toString();
 		this.params = params;
         this.lookup = lookup;
+        this.docFreqCache = docFreqCache;
+        this.queryTokenCache = queryTokenCache;
         
-        // Configure similarity with user-supplied parameters
-        Map<String, Object> similarityParameters = new HashMap<>(params);
-        similarityParameters.remove("query");
-        similarityParameters.remove("field");
-        this.similarity = similarity.withParameters(similarityParameters);
+        // Configure similarity with user-supplied parameters, once for all searches using them
+        this.similarity = ConfiguredSimilarities.configure(similarity, params);
+        this.valueMode = params.containsKey("value_mode") ? ValueMode.fromString(params.get("value_mode").toString()) : ValueMode.MAX;
+        this.topK = params.containsKey("top_k") ? parseTopK(params.get("top_k")) : ValueMode.DEFAULT_TOP_K;
+        this.normsField = params.containsKey("norms_field") ? params.get("norms_field").toString() : null;
+        if (normsField != null && !params.containsKey("frequencies")) {
+        	throw new IllegalArgumentException("Missing argument 'frequencies', the frequency snapshot the norms in ["
+        			+ normsField + "] were computed from.");
+        }
         
         // Parse the query into tokens according to the analyzer supplied
-		IndexAnalyzers indexAnalyzers = lookup.doc().mapperService().getIndexAnalyzers();
+		MapperService mapperService = lookup.doc().mapperService();
+		IndexAnalyzers indexAnalyzers = mapperService.getIndexAnalyzers();
+		String analyzerName;
 		if (params.containsKey("analyzer"))  {
-			this.analyzer = indexAnalyzers.get(params.get("analyzer").toString());
+			analyzerName = params.get("analyzer").toString();
+			this.analyzer = indexAnalyzers.get(analyzerName);
 		} else {
+			analyzerName = "default_search";
 			this.analyzer = indexAnalyzers.getDefaultSearchAnalyzer();
 		}
 		this.positionIncrementGap = analyzer.getPositionIncrementGap(field);
-        this.queryTokens = parseWithAnalyzer(query);
+		String index = mapperService.index() == null ? null : mapperService.index().getName();
+        this.queryTerms = queryTokenCache.tokens(index, analyzerName, analyzer, field, query, this::analyze);
+        
+        // linkage_text fields store their tokens in doc values, which are faster to read than term vectors
+        this.useDocValues = hasLinkageDocValues(mapperService, field);
+        this.prefilter = prefilterFactory == null ? null : prefilterFactory.create(this.similarity, field, queryTerms);
+    }
+    
+    private static int parseTopK(Object value) {
+    	try {
+    		int topK = Double.valueOf(value.toString()).intValue();
+    		if (topK >= 1) {
+    			return topK;
+    		}
+    	} catch (NumberFormatException e) {
+    		// rejected below
+    	}
+    	throw new IllegalArgumentException("Invalid top_k [" + value + "], expected a positive integer");
+    }
+    
+    /**
+     * @return the field the query is compared to
+     */
+    public String getField() {
+    	return field;
+    }
+    
+    /**
+     * Sets the counters the scripts created by this factory record their work in.
+     */
+    public void setMetrics(ScoringStats.Metrics metrics) {
+    	this.metrics = metrics;
+    }
+    
+    /**
+     * Resolves the frequency snapshot supplied as {@code frequencies}, which the query is weighted with
+     * when documents are normalized by their precomputed norms. Norms are ignored without snapshots.
+     * 
+     * @throws IllegalArgumentException
+     *     if the snapshot cannot be read
+     */
+    public void setFrequencySnapshots(FrequencySnapshots snapshots) {
+    	if (normsField == null || snapshots == null) {
+    		return;
+    	}
+    	String frequencies = params.get("frequencies").toString();
+    	try {
+    		normsSnapshot = snapshots.get(frequencies);
+    	} catch (IOException e) {
+    		throw new IllegalArgumentException("Unable to read frequency snapshot [" + frequencies + "]", e);
+    	}
+    }
+    
+    /**
+     * @return whether the field is a {@code linkage_text} field with doc values,
+     *      from which field values can be read instead of term vectors
+     */
+    public static boolean hasLinkageDocValues(MapperService mapperService, String field) {
+        MappedFieldType fieldType = mapperService.fullName(field);
+        return fieldType instanceof LinkageTextFieldType && fieldType.hasDocValues();
     }
     
     /**
@@ -86,17 +198,35 @@ public class SimilarityScriptFactory {
      */
     protected List<String> parseWithAnalyzer(String text) {
     	List<String> results = new ArrayList<>();
+    	for(BytesRef term : analyze(text)) {
+    		results.add(term.utf8ToString());
+    	}
+    	return results;
+    }
+    
+    /**
+     * Parses a string with the analyzer supplied to the script,
+     * keeping the tokens as the bytes indexed by the analyzer.
+     * 
+     * @param text
+     *         the text to parse into tokens
+     * @return
+     *        the list of terms
+     * @throws UncheckedIOException
+     *        if the analyzer fails, so that no empty list of tokens gets cached
+     */
+    protected List<BytesRef> analyze(String text) {
+    	List<BytesRef> results = new ArrayList<>();
 
     	try (TokenStream source = analyzer.tokenStream(field, text)) {
             source.reset();
-            CharTermAttribute termAtt = source.addAttribute(CharTermAttribute.class);
-            BytesRefBuilder builder = new BytesRefBuilder();
+            TermToBytesRefAttribute termAtt = source.addAttribute(TermToBytesRefAttribute.class);
             while (source.incrementToken()) {
-            	builder.copyChars(termAtt);
-            	results.add(builder.toBytesRef().utf8ToString());
+            	results.add(BytesRef.deepCopyOf(termAtt.getBytesRef()));
             }
+            source.end();
     	} catch (IOException e) {
-			// Leave the list of tokens empty.
+    		throw new UncheckedIOException("Unable to analyze [" + text + "] for field [" + field + "]", e);
 		}
 		return results;
     }
@@ -112,9 +242,34 @@ public class SimilarityScriptFactory {
      */
     public SimilarityScript similarityScript(LeafReaderContext context) throws IOException {
     	LeafReader reader = context.reader();
-        int totalDocs = reader.getDocCount(field);
     	
-    	return new SimilarityScript(reader, field, query, queryTokens, positionIncrementGap, totalDocs, similarity);
+    	SimilarityScript script = new SimilarityScript(reader, field, query, queryTerms, positionIncrementGap, similarity,
+    			docFreqCache, shardStatistics(context));
+    	if (useDocValues) {
+    		script.useDocValues();
+    	}
+    	script.setValueMode(valueMode, topK);
+    	if (normsSnapshot != null) {
+    		script.setPrecomputedNorms(new PrecomputedNorms(reader, normsField), normsSnapshot);
+    	}
+    	if (prefilter != null) {
+    		script.setPrefilter(prefilter.forLeaf(reader));
+    	}
+    	if (metrics != null) {
+    		metrics.scriptCreated();
+    		script.setMetrics(metrics);
+    	}
+    	return script;
+    }
+    
+    /**
+     * Resolves the statistics of the query tokens over the shard, once for all its segments.
+     */
+    protected synchronized ShardStatistics shardStatistics(LeafReaderContext context) throws IOException {
+    	if (statistics == null) {
+    		statistics = ShardStatistics.build(context, field, queryTerms);
+    	}
+    	return statistics;
     }
     
     /**
@@ -0,0 +1,194 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * The counters of a similarity on a field at a given time, on one node or summed over several nodes.
+ */
+public class SimilarityStats implements Writeable, ToXContentObject {
+
+	public static final Comparator<SimilarityStats> ORDER =
+			Comparator.comparing(SimilarityStats::similarity).thenComparing(SimilarityStats::field);
+
+	// bucket i counts the documents scored in less than 2^i nanoseconds (and at least 2^(i-1))
+	static final int LATENCY_BUCKETS = 40;
+
+	private final String similarity;
+	private final String field;
+	private final long scripts;
+	private final long documents;
+	private final long prefiltered;
+	private final long fetchNanos;
+	private final long frequencyNanos;
+	private final long computeNanos;
+	private final long[] latencyBuckets;
+
+	public SimilarityStats(String similarity, String field, long scripts, long documents, long prefiltered,
+			long fetchNanos, long frequencyNanos, long computeNanos, long[] latencyBuckets) {
+		this.similarity = Objects.requireNonNull(similarity);
+		this.field = Objects.requireNonNull(field);
+		this.scripts = scripts;
+		this.documents = documents;
+		this.prefiltered = prefiltered;
+		this.fetchNanos = fetchNanos;
+		this.frequencyNanos = frequencyNanos;
+		this.computeNanos = computeNanos;
+		this.latencyBuckets = latencyBuckets;
+	}
+
+	public SimilarityStats(StreamInput in) throws IOException {
+		similarity = in.readString();
+		field = in.readString();
+		scripts = in.readVLong();
+		documents = in.readVLong();
+		prefiltered = in.readVLong();
+		fetchNanos = in.readVLong();
+		frequencyNanos = in.readVLong();
+		computeNanos = in.readVLong();
+		latencyBuckets = in.readVLongArray();
+	}
+
+	/**
+	 * @return the bucket of the latency histogram a duration falls in
+	 */
+	static int latencyBucket(long nanos) {
+		return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0L, nanos)));
+	}
+
+	/**
+	 * Sums the counters of the same similarity and field on two nodes.
+	 */
+	public SimilarityStats add(SimilarityStats other) {
+		long[] buckets = new long[Math.max(latencyBuckets.length, other.latencyBuckets.length)];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = (i < latencyBuckets.length ? latencyBuckets[i] : 0L)
+					+ (i < other.latencyBuckets.length ? other.latencyBuckets[i] : 0L);
+		}
+		return new SimilarityStats(similarity, field, scripts + other.scripts, documents + other.documents,
+				prefiltered + other.prefiltered, fetchNanos + other.fetchNanos, frequencyNanos + other.frequencyNanos,
+				computeNanos + other.computeNanos, buckets);
+	}
+
+	public String similarity() {
+		return similarity;
+	}
+
+	public String field() {
+		return field;
+	}
+
+	/**
+	 * @return the number of scripts created, one per segment and query
+	 */
+	public long scripts() {
+		return scripts;
+	}
+
+	/**
+	 * @return the number of documents scored, excluding those ruled out by a prefilter
+	 */
+	public long documents() {
+		return documents;
+	}
+
+	public long prefiltered() {
+		return prefiltered;
+	}
+
+	/**
+	 * @return the time spent reading term vectors or doc values, in nanoseconds
+	 */
+	public long fetchNanos() {
+		return fetchNanos;
+	}
+
+	public long frequencyNanos() {
+		return frequencyNanos;
+	}
+
+	public long computeNanos() {
+		return computeNanos;
+	}
+
+	/**
+	 * Estimates a percentile of the time spent scoring a document, by the upper bound
+	 * of the bucket it falls in. The estimate is at most twice the actual value.
+	 *
+	 * @param percentile
+	 *     between 0 and 100
+	 * @return the estimate in nanoseconds, or 0 if no document was scored
+	 */
+	public long latencyPercentile(double percentile) {
+		long total = Arrays.stream(latencyBuckets).sum();
+		if (total == 0) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < latencyBuckets.length; i++) {
+			seen += latencyBuckets[i];
+			if (seen >= Math.max(1L, rank)) {
+				return 1L << i;
+			}
+		}
+		return 1L << (latencyBuckets.length - 1);
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		out.writeString(similarity);
+		out.writeString(field);
+		out.writeVLong(scripts);
+		out.writeVLong(documents);
+		out.writeVLong(prefiltered);
+		out.writeVLong(fetchNanos);
+		out.writeVLong(frequencyNanos);
+		out.writeVLong(computeNanos);
+		out.writeVLongArray(latencyBuckets);
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject();
+		builder.field("similarity", similarity);
+		builder.field("field", field);
+		builder.field("scripts", scripts);
+		builder.field("documents", documents);
+		builder.field("prefiltered", prefiltered);
+		builder.field("fetch_time_in_nanos", fetchNanos);
+		builder.field("frequency_time_in_nanos", frequencyNanos);
+		builder.field("compute_time_in_nanos", computeNanos);
+		builder.startObject("latency_in_nanos");
+		builder.field("p50", latencyPercentile(50));
+		builder.field("p90", latencyPercentile(90));
+		builder.field("p99", latencyPercentile(99));
+		builder.endObject();
+		return builder.endObject();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof SimilarityStats)) {
+			return false;
+		}
+		SimilarityStats o = (SimilarityStats) other;
+		return similarity.equals(o.similarity) && field.equals(o.field) && scripts == o.scripts && documents == o.documents
+				&& prefiltered == o.prefiltered && fetchNanos == o.fetchNanos && frequencyNanos == o.frequencyNanos
+				&& computeNanos == o.computeNanos && Arrays.equals(latencyBuckets, o.latencyBuckets);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(similarity, field, scripts, documents, prefiltered, fetchNanos, frequencyNanos, computeNanos,
+				Arrays.hashCode(latencyBuckets));
+	}
+}
@@ -0,0 +1,147 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+
+/**
+ * Decodes the term vector of a document into the values of a field,
+ * each value being a sequence of token ids.
+ *
+ * The postings enum used to read positions is reused from one document
+ * to the next, like the buffers holding the values.
+ *
+ * Within a term vector, the values of a multi-valued field are separated by
+ * (at least) positionIncrementGap unused positions.
+ */
+public class TermVectorDecoder extends FieldValuesDecoder {
+	private Logger logger = Logger.getLogger("RecordLinkage");
+
+	private LeafTermVectors termVectors;
+	private final String field;
+	private final int positionIncrementGap;
+
+	// token id at each position of the current document, -1 if no token is at that position.
+	// All entries are -1 between two calls to decode.
+	private int[] tokenAtPosition = new int[0];
+	private PostingsEnum postings = null;
+
+	/**
+	 * Creates a decoder which can only decode term vectors supplied by the caller.
+	 *
+	 * @param dictionary
+	 *     the dictionary to intern tokens in
+	 * @param positionIncrementGap
+	 *     the amount by which token positions are shifted when a new field value starts
+	 */
+	public TermVectorDecoder(TokenDictionary dictionary, int positionIncrementGap) {
+		this(null, null, dictionary, positionIncrementGap);
+	}
+
+	/**
+	 * Creates a decoder reading the term vectors of a field in a segment.
+	 *
+	 * @param reader
+	 *     the segment to read term vectors from
+	 * @param field
+	 *     the field to decode
+	 */
+	public TermVectorDecoder(LeafReader reader, String field, TokenDictionary dictionary, int positionIncrementGap) {
+		super(dictionary);
+		this.termVectors = reader == null ? null : new LeafTermVectors(reader);
+		this.field = field;
+		this.positionIncrementGap = Math.max(1, positionIncrementGap);
+	}
+
+	/**
+	 * Reads term vectors via the given instance, which can be shared with the decoders
+	 * of other fields of the same segment.
+	 */
+	public void setTermVectors(LeafTermVectors termVectors) {
+		this.termVectors = termVectors;
+	}
+
+	@Override
+	public int read(int docId) throws IOException {
+		clear();
+		Fields fields = termVectors.get(docId);
+
+		Terms terms = fields == null ? null : fields.terms(field);
+
+		if(terms == null) {
+			return 0;
+		}
+
+		if (!terms.hasPositions()) {
+			logger.warning("Term vector positions missing for field '"+field+"'");
+			return 0;
+		}
+		return decode(terms.iterator());
+	}
+
+	/**
+	 * Decodes the term vector of a document, replacing the values decoded previously.
+	 *
+	 * @param termsEnum
+	 *     the terms of the term vector, which must have positions
+	 * @return the number of values found
+	 */
+	public int decode(TermsEnum termsEnum) throws IOException {
+		// First, index the tokens by position
+		int maxPosition = -1;
+		int tokenCount = 0;
+		BytesRef term;
+		while((term = termsEnum.next()) != null) {
+			int token = dictionary.add(term);
+			postings = termsEnum.postings(postings, PostingsEnum.POSITIONS);
+			postings.nextDoc();
+			int freq = postings.freq();
+			for(int i = 0; i < freq; i++) {
+				int position = postings.nextPosition();
+				if (position >= tokenAtPosition.length) {
+					int oldLength = tokenAtPosition.length;
+					tokenAtPosition = ArrayUtil.grow(tokenAtPosition, position + 1);
+					Arrays.fill(tokenAtPosition, oldLength, tokenAtPosition.length, -1);
+				}
+				tokenAtPosition[position] = token;
+				maxPosition = Math.max(maxPosition, position);
+			}
+			tokenCount += freq;
+		}
+
+		// Second, scan the positions once, starting a new value after each gap
+		tokens = ArrayUtil.grow(tokens, tokenCount);
+		valueCount = 0;
+		int length = 0;
+		int gap = 0;
+		for(int position = 0; position <= maxPosition; position++) {
+			int token = tokenAtPosition[position];
+			if (token < 0) {
+				gap++;
+				continue;
+			}
+			if (gap >= positionIncrementGap && length > 0) {
+				endValue(length);
+			}
+			gap = 0;
+			tokens[length++] = token;
+		}
+		if (length > 0) {
+			endValue(length);
+		}
+		if (maxPosition >= 0) {
+			Arrays.fill(tokenAtPosition, 0, maxPosition + 1, -1);
+		}
+		return valueCount;
+	}
+}
@@ -0,0 +1,43 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.util.Locale;
+
+/**
+ * How the scores of the values of a multi-valued field are combined
+ * into the score of the document, selected by the value_mode parameter.
+ */
+public enum ValueMode {
+	/**
+	 * The best score of any value (by default). Values are scored in decreasing order
+	 * of their upper bound, until no remaining value can beat the best score.
+	 */
+	MAX,
+	/**
+	 * The sum of the scores of all values.
+	 */
+	SUM,
+	/**
+	 * The average score of the values.
+	 */
+	AVG,
+	/**
+	 * The average of the top_k best scores (3 by default).
+	 */
+	TOP_K_MEAN;
+	
+	public static final int DEFAULT_TOP_K = 3;
+	
+	/**
+	 * Parses a value mode supplied by the user.
+	 * 
+	 * @throws IllegalArgumentException
+	 *     if the value mode is not known
+	 */
+	public static ValueMode fromString(String valueMode) {
+		try {
+			return valueOf(valueMode.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid value_mode [" + valueMode + "], expected one of max, sum, avg or top_k_mean");
+		}
+	}
+}
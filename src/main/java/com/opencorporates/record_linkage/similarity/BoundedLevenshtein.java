@@ -0,0 +1,178 @@
+package com.opencorporates.record_linkage.similarity;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Computes Levenshtein distances up to a given bound.
+ *
+ * When the shorter string has at most 64 characters, this uses the bit-parallel
+ * algorithm of Myers, in the formulation of Hyyrö ("Explaining and Extending the Bit-parallel
+ * Approximate String Matching Algorithm of Myers", 2001), which processes a whole column
+ * of the dynamic programming matrix in a few operations on a single long. Longer strings
+ * fall back on the classical dynamic programming algorithm, restricted to the diagonal band
+ * of width 2 * bound + 1 (Ukkonen). Both stop as soon as the distance is known to exceed the bound.
+ *
+ * Instances hold scratch buffers, so they are not thread-safe.
+ */
+public class BoundedLevenshtein {
+
+	// match masks of the pattern characters, for characters which fit in the table
+	private final long[] asciiMasks = new long[256];
+	// match masks of the other pattern characters
+	private char[] otherChars = new char[8];
+	private long[] otherMasks = new long[8];
+	private int otherCount = 0;
+	// rows of the banded dynamic programming matrix
+	private int[] previousRow = new int[0];
+	private int[] currentRow = new int[0];
+
+	/**
+	 * Computes the Levenshtein distance between two strings, if it does not exceed a bound.
+	 *
+	 * @param a
+	 *     the characters of the first string
+	 * @param aLength
+	 *     the length of the first string
+	 * @param b
+	 *     the characters of the second string
+	 * @param bLength
+	 *     the length of the second string
+	 * @param maxDistance
+	 *     the largest distance which needs to be computed exactly
+	 * @return the distance between the two strings if it is at most maxDistance, maxDistance + 1 otherwise
+	 */
+	public int distance(char[] a, int aLength, char[] b, int bLength, int maxDistance) {
+		if (Math.abs(aLength - bLength) > maxDistance) {
+			return maxDistance + 1;
+		}
+		// use the shorter string as pattern
+		if (aLength > bLength) {
+			return distance(b, bLength, a, aLength, maxDistance);
+		}
+		if (aLength == 0) {
+			return bLength;
+		}
+		if (aLength <= 64) {
+			return myers(a, aLength, b, bLength, maxDistance);
+		} else {
+			return banded(a, aLength, b, bLength, maxDistance);
+		}
+	}
+
+	private int myers(char[] pattern, int m, char[] text, int n, int maxDistance) {
+		for (int i = 0; i < m; i++) {
+			addMask(pattern[i], 1L << i);
+		}
+
+		long vp = m == 64 ? -1L : (1L << m) - 1;
+		long vn = 0L;
+		long last = 1L << (m - 1);
+		int score = m;
+		int result = -1;
+		for (int j = 0; j < n; j++) {
+			long eq = mask(text[j]);
+			long xv = eq | vn;
+			long xh = (((eq & vp) + vp) ^ vp) | eq;
+			long hp = vn | ~(xh | vp);
+			long hn = vp & xh;
+			if ((hp & last) != 0) {
+				score++;
+			} else if ((hn & last) != 0) {
+				score--;
+			}
+			// the distance can decrease by at most one for each remaining character
+			if (score - (n - j - 1) > maxDistance) {
+				result = maxDistance + 1;
+				break;
+			}
+			hp = (hp << 1) | 1L;
+			hn = hn << 1;
+			vp = hn | ~(xv | hp);
+			vn = hp & xv;
+		}
+		if (result < 0) {
+			result = score <= maxDistance ? score : maxDistance + 1;
+		}
+
+		// reset the masks for the next call
+		for (int i = 0; i < m; i++) {
+			if (pattern[i] < asciiMasks.length) {
+				asciiMasks[pattern[i]] = 0L;
+			}
+		}
+		otherCount = 0;
+		return result;
+	}
+
+	private void addMask(char c, long bit) {
+		if (c < asciiMasks.length) {
+			asciiMasks[c] |= bit;
+			return;
+		}
+		for (int i = 0; i < otherCount; i++) {
+			if (otherChars[i] == c) {
+				otherMasks[i] |= bit;
+				return;
+			}
+		}
+		otherChars = ArrayUtil.grow(otherChars, otherCount + 1);
+		otherMasks = ArrayUtil.grow(otherMasks, otherCount + 1);
+		otherChars[otherCount] = c;
+		otherMasks[otherCount] = bit;
+		otherCount++;
+	}
+
+	private long mask(char c) {
+		if (c < asciiMasks.length) {
+			return asciiMasks[c];
+		}
+		for (int i = 0; i < otherCount; i++) {
+			if (otherChars[i] == c) {
+				return otherMasks[i];
+			}
+		}
+		return 0L;
+	}
+
+	private int banded(char[] a, int m, char[] b, int n, int maxDistance) {
+		int outside = maxDistance + 1;
+		previousRow = ArrayUtil.grow(previousRow, n + 1);
+		currentRow = ArrayUtil.grow(currentRow, n + 1);
+		int[] previous = previousRow;
+		int[] current = currentRow;
+
+		int firstHi = Math.min(n, maxDistance);
+		for (int j = 0; j <= firstHi; j++) {
+			previous[j] = j;
+		}
+		if (firstHi < n) {
+			previous[firstHi + 1] = outside;
+		}
+
+		for (int i = 1; i <= m; i++) {
+			int lo = Math.max(1, i - maxDistance);
+			int hi = Math.min(n, i + maxDistance);
+			current[lo - 1] = lo == 1 && i <= maxDistance ? i : outside;
+			int rowMin = current[lo - 1];
+			char c = a[i - 1];
+			for (int j = lo; j <= hi; j++) {
+				int value = previous[j - 1] + (c == b[j - 1] ? 0 : 1);
+				value = Math.min(value, previous[j] + 1);
+				value = Math.min(value, current[j - 1] + 1);
+				value = Math.min(value, outside);
+				current[j] = value;
+				rowMin = Math.min(rowMin, value);
+			}
+			if (hi < n) {
+				current[hi + 1] = outside;
+			}
+			if (rowMin > maxDistance) {
+				return outside;
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return Math.min(previous[n], outside);
+	}
+}
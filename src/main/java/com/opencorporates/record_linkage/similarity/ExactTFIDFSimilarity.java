@@ -8,7 +8,7 @@ import java.util.Map;
  * only if the query and field match exactly and zero otherwise.
  * For an exact match, the value is the TFIDF weight of the query.
  */
-public class ExactTFIDFSimilarity implements StringSimilarity {
+public class ExactTFIDFSimilarity implements StringSimilarity, TokenSimilarity {
 
 	/**
 	 * Compute the similarity between a query and a document, given by the frequencies
@@ -36,7 +36,44 @@ public class ExactTFIDFSimilarity implements StringSimilarity {
 		}
 		
 		// Compute the TFIDF weight of the query
-		return queryFreqs.values().stream().mapToDouble(f -> -Math.log((1.0 + f) / (1.0 + numDocs))).sum();
+		return queryFreqs.values().stream().mapToDouble(f -> TFIDFSimilarity.idf(f, numDocs)).sum();
+	}
+
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		return prepare(query, statistics).score(field);
+	}
+
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		// Compute the TFIDF weight of the query once
+		double queryWeight = SparseVector.idf(query, statistics).sum();
+		
+		return new PreparedSimilarity() {
+			@Override
+			public double score(TokenSequence field) {
+				// Determine if query and field are equal
+				if (query.length() != field.length()) {
+					return 0.;
+				}
+				for(int i = 0; i < query.length(); i++) {
+					if (query.id(i) != field.id(i)) {
+						return 0.;
+					}
+				}
+				return queryWeight;
+			}
+			
+			@Override
+			public double maxScore() {
+				return queryWeight;
+			}
+			
+			@Override
+			public double upperBound(TokenSequence field) {
+				return query.length() == field.length() ? queryWeight : 0.;
+			}
+		};
 	}
 
 }
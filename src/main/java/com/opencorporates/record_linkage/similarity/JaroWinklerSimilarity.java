@@ -0,0 +1,209 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+
+/**
+ * The Jaro-Winkler similarity between the query and the field value, between 0 and 1,
+ * following Winkler, "String Comparator Metrics and Enhanced Decision Rules in the
+ * Fellegi-Sunter Model of Record Linkage" (1990).
+ *
+ * Tokens are joined by spaces and compared character by character. Pairs whose Jaro similarity
+ * is above boost_threshold (0.7 by default) get a bonus for their common prefix (of at most 4 characters),
+ * proportional to prefix_scale (0.1 by default, at most 0.25 so that the score stays below 1).
+ */
+public class JaroWinklerSimilarity implements StringSimilarity, TokenSimilarity {
+
+	public static final double DEFAULT_PREFIX_SCALE = 0.1;
+	public static final double DEFAULT_BOOST_THRESHOLD = 0.7;
+	private static final int MAX_PREFIX = 4;
+
+	protected double prefixScale = DEFAULT_PREFIX_SCALE;
+	protected double boostThreshold = DEFAULT_BOOST_THRESHOLD;
+
+	// Buffers used to compare the query and field, reused across documents
+	private static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+	public JaroWinklerSimilarity() {
+		// default constructor
+	}
+
+	public JaroWinklerSimilarity(double prefixScale, double boostThreshold) {
+		this.prefixScale = prefixScale;
+		this.boostThreshold = boostThreshold;
+	}
+
+	/**
+	 * Reads a numeric parameter from the user-supplied parameters
+	 */
+	private double readDouble(Map<String, Object> parameters, String key, double defaultValue) {
+		Object v = parameters.get(key);
+		if(v == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.valueOf(v.toString());
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	@Override
+	public JaroWinklerSimilarity withParameters(Map<String, Object> parameters) {
+		double newPrefixScale = Math.max(0., Math.min(0.25, readDouble(parameters, "prefix_scale", DEFAULT_PREFIX_SCALE)));
+		double newBoostThreshold = readDouble(parameters, "boost_threshold", DEFAULT_BOOST_THRESHOLD);
+		if (newPrefixScale == prefixScale && newBoostThreshold == boostThreshold) {
+			return this;
+		}
+		return new JaroWinklerSimilarity(newPrefixScale, newBoostThreshold);
+	}
+
+	public double getPrefixScale() {
+		return prefixScale;
+	}
+
+	public double getBoostThreshold() {
+		return boostThreshold;
+	}
+
+	@Override
+	public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
+			List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
+		Buffers b = buffers.get();
+		join(queryTokens, b.query);
+		join(fieldTokens, b.field);
+		return b.matcher.similarity(b.query.chars(), b.query.length(), b.field.chars(), b.field.length(), prefixScale, boostThreshold);
+	}
+
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		Buffers b = buffers.get();
+		LevenshteinSimilarity.join(query, b.bytes, b.scratch, b.query);
+		LevenshteinSimilarity.join(field, b.bytes, b.scratch, b.field);
+		return b.matcher.similarity(b.query.chars(), b.query.length(), b.field.chars(), b.field.length(), prefixScale, boostThreshold);
+	}
+
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		BytesRefBuilder bytes = new BytesRefBuilder();
+		BytesRef scratch = new BytesRef();
+		CharsRefBuilder queryChars = new CharsRefBuilder();
+		LevenshteinSimilarity.join(query, bytes, scratch, queryChars);
+		CharsRef joinedQuery = queryChars.toCharsRef();
+		CharsRefBuilder fieldChars = new CharsRefBuilder();
+		Matcher matcher = new Matcher();
+
+		return new PreparedSimilarity() {
+			@Override
+			public double score(TokenSequence field) {
+				LevenshteinSimilarity.join(field, bytes, scratch, fieldChars);
+				return matcher.similarity(joinedQuery.chars, joinedQuery.length, fieldChars.chars(), fieldChars.length(), prefixScale, boostThreshold);
+			}
+			
+			@Override
+			public double maxScore() {
+				return 1.;
+			}
+		};
+	}
+
+	private static void join(List<String> tokens, CharsRefBuilder chars) {
+		chars.clear();
+		for (int i = 0; i < tokens.size(); i++) {
+			if (i > 0) {
+				chars.append(' ');
+			}
+			chars.append(tokens.get(i));
+		}
+	}
+
+	/**
+	 * Computes Jaro-Winkler similarities, reusing its buffers of matched characters.
+	 * Instances are not thread-safe.
+	 */
+	protected static class Matcher {
+		private boolean[] aMatched = new boolean[32];
+		private boolean[] bMatched = new boolean[32];
+
+		/**
+		 * @return the Jaro-Winkler similarity of the first aLength characters of a
+		 *     and the first bLength characters of b
+		 */
+		public double similarity(char[] a, int aLength, char[] b, int bLength, double prefixScale, double boostThreshold) {
+			if (aLength == 0 && bLength == 0) {
+				return 1.;
+			} else if (aLength == 0 || bLength == 0) {
+				return 0.;
+			}
+			if (aMatched.length < aLength) {
+				aMatched = new boolean[ArrayUtil.oversize(aLength, 1)];
+			}
+			if (bMatched.length < bLength) {
+				bMatched = new boolean[ArrayUtil.oversize(bLength, 1)];
+			}
+			Arrays.fill(aMatched, 0, aLength, false);
+			Arrays.fill(bMatched, 0, bLength, false);
+
+			// characters match if they are equal and not further apart than the window
+			int window = Math.max(0, Math.max(aLength, bLength) / 2 - 1);
+			int matches = 0;
+			for (int i = 0; i < aLength; i++) {
+				int end = Math.min(bLength, i + window + 1);
+				for (int j = Math.max(0, i - window); j < end; j++) {
+					if (!bMatched[j] && a[i] == b[j]) {
+						aMatched[i] = true;
+						bMatched[j] = true;
+						matches++;
+						break;
+					}
+				}
+			}
+			if (matches == 0) {
+				return 0.;
+			}
+
+			// matched characters which are not in the same order are half transpositions
+			int halfTranspositions = 0;
+			int j = 0;
+			for (int i = 0; i < aLength; i++) {
+				if (aMatched[i]) {
+					while (!bMatched[j]) {
+						j++;
+					}
+					if (a[i] != b[j]) {
+						halfTranspositions++;
+					}
+					j++;
+				}
+			}
+			double m = matches;
+			double jaro = (m / aLength + m / bLength + (m - halfTranspositions / 2) / m) / 3.;
+			if (jaro <= boostThreshold) {
+				return jaro;
+			}
+
+			int prefix = 0;
+			int maxPrefix = Math.min(MAX_PREFIX, Math.min(aLength, bLength));
+			while (prefix < maxPrefix && a[prefix] == b[prefix]) {
+				prefix++;
+			}
+			return jaro + prefix * prefixScale * (1. - jaro);
+		}
+	}
+
+	private static class Buffers {
+		final BytesRefBuilder bytes = new BytesRefBuilder();
+		final BytesRef scratch = new BytesRef();
+		final CharsRefBuilder query = new CharsRefBuilder();
+		final CharsRefBuilder field = new CharsRefBuilder();
+		final Matcher matcher = new Matcher();
+	}
+
+}
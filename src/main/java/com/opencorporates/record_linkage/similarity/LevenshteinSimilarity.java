@@ -2,24 +2,141 @@ package com.opencorporates.record_linkage.similarity;
 
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.text.similarity.LevenshteinDistance;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
 
 /**
  * A simple string similarity which returns 100 - d(q,f)
  * where d(q,f) is the Levenshtein distance between the query
  * and the field value.
+ *
+ * Distances above max_distance (100 by default) yield a score of 0,
+ * which makes it possible to stop computing distances early.
  */
-public class LevenshteinSimilarity implements StringSimilarity {
-	
-	protected LevenshteinDistance distance = new LevenshteinDistance();
+public class LevenshteinSimilarity implements StringSimilarity, TokenSimilarity {
+
+	public static final int DEFAULT_MAX_DISTANCE = 100;
+
+	protected int maxDistance = DEFAULT_MAX_DISTANCE;
+
+	// Buffers used to compare the tokens of the query and field, reused across documents
+	private static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+	public LevenshteinSimilarity() {
+		// default constructor
+	}
+
+	public LevenshteinSimilarity(int maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Reads an integer parameter from the user-supplied parameters
+	 */
+	private int readInt(Map<String, Object> parameters, String key, int defaultValue) {
+		Object v = parameters.get(key);
+		if(v == null) {
+			return defaultValue;
+		}
+		try {
+			return Math.max(0, Double.valueOf(v.toString()).intValue());
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	@Override
+	public LevenshteinSimilarity withParameters(Map<String, Object> parameters) {
+		int newMaxDistance = readInt(parameters, "max_distance", DEFAULT_MAX_DISTANCE);
+		if (newMaxDistance == maxDistance) {
+			return this;
+		}
+		return new LevenshteinSimilarity(newMaxDistance);
+	}
+
+	/**
+	 * @return the largest distance which yields a positive score
+	 */
+	public int getMaxDistance() {
+		return maxDistance;
+	}
 
 	@Override
 	public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
 			List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
-		String parsedQuery = String.join(" ", queryTokens);
-	    String parsedField = String.join(" ", fieldTokens);
-	    int moves = distance.apply(parsedQuery, parsedField);
-	    return (double) Math.max(0, 100-moves);
+		char[] parsedQuery = String.join(" ", queryTokens).toCharArray();
+		char[] parsedField = String.join(" ", fieldTokens).toCharArray();
+		int moves = buffers.get().levenshtein.distance(parsedQuery, parsedQuery.length, parsedField, parsedField.length, maxDistance);
+		return score(moves);
+	}
+
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		Buffers b = buffers.get();
+		join(query, b.bytes, b.scratch, b.query);
+		join(field, b.bytes, b.scratch, b.field);
+		int moves = b.levenshtein.distance(b.query.chars(), b.query.length(), b.field.chars(), b.field.length(), maxDistance);
+		return score(moves);
+	}
+
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		BytesRefBuilder bytes = new BytesRefBuilder();
+		BytesRef scratch = new BytesRef();
+		CharsRefBuilder queryChars = new CharsRefBuilder();
+		join(query, bytes, scratch, queryChars);
+		CharsRef joinedQuery = queryChars.toCharsRef();
+		CharsRefBuilder fieldChars = new CharsRefBuilder();
+		BoundedLevenshtein levenshtein = new BoundedLevenshtein();
+
+		return new PreparedSimilarity() {
+			@Override
+			public double score(TokenSequence field) {
+				join(field, bytes, scratch, fieldChars);
+				int moves = levenshtein.distance(joinedQuery.chars, joinedQuery.length, fieldChars.chars(), fieldChars.length(), maxDistance);
+				return LevenshteinSimilarity.this.score(moves);
+			}
+			
+			@Override
+			public double maxScore() {
+				return LevenshteinSimilarity.this.score(0);
+			}
+		};
+	}
+
+	/**
+	 * Converts a distance to a score.
+	 */
+	protected double score(int moves) {
+		if (moves > maxDistance) {
+			return 0.;
+		}
+		return (double) Math.max(0, 100-moves);
+	}
+
+	/**
+	 * Decodes a sequence of tokens into characters, separated by spaces.
+	 */
+	protected static void join(TokenSequence tokens, BytesRefBuilder bytes, BytesRef scratch, CharsRefBuilder chars) {
+		bytes.clear();
+		for (int i = 0; i < tokens.length(); i++) {
+			if (i > 0) {
+				bytes.append((byte) ' ');
+			}
+			bytes.append(tokens.bytes(i, scratch));
+		}
+		chars.copyUTF8Bytes(bytes.get());
+	}
+
+	private static class Buffers {
+		final BytesRefBuilder bytes = new BytesRefBuilder();
+		final BytesRef scratch = new BytesRef();
+		final CharsRefBuilder query = new CharsRefBuilder();
+		final CharsRefBuilder field = new CharsRefBuilder();
+		final BoundedLevenshtein levenshtein = new BoundedLevenshtein();
 	}
 
 }
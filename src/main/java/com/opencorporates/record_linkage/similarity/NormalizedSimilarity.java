@@ -0,0 +1,20 @@
+package com.opencorporates.record_linkage.similarity;
+
+/**
+ * A {@link PreparedSimilarity} which normalizes field values by the norm of their weight vector,
+ * and can use a norm computed ahead of time instead of looking up the statistics of all
+ * the tokens of the value.
+ */
+public interface NormalizedSimilarity extends PreparedSimilarity {
+	
+	/**
+	 * Compute the similarity between the prepared query and a field value, whose norm is known.
+	 * 
+	 * @param field
+	 *     the tokens of the field value, in order
+	 * @param norm
+	 *     the L2 norm of the weight vector of the field value
+	 * @return a non-negative score
+	 */
+	public double score(TokenSequence field, double norm);
+}
@@ -0,0 +1,325 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.apache.commons.codec.language.Metaphone;
+import org.apache.commons.codec.language.Nysiis;
+import org.apache.commons.codec.language.RefinedSoundex;
+import org.apache.commons.codec.language.Soundex;
+import org.apache.commons.codec.language.bm.BeiderMorseEncoder;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+
+/**
+ * A similarity which compares tokens by their phonetic codes rather than their spelling,
+ * which suits person names. Two tokens match if they share a phonetic code (some encoders
+ * give several codes for a token, such as the alternate encoding of Double Metaphone).
+ * 
+ * The score is the weight of the matching tokens of the query and the field, divided by
+ * the weight of all their tokens, where tokens are weighted by their inverse document frequency
+ * as in {@link TFIDFSimilarity}. It is between 0 and 1.
+ * 
+ * The encoder parameter selects double_metaphone (by default), metaphone, soundex,
+ * refined_soundex, nysiis or beider_morse. Encoding tokens is expensive, so the codes of each
+ * token are kept in a cache shared by all queries, up to {@link #CACHE_SIZE} tokens per encoder.
+ */
+public class PhoneticSimilarity implements StringSimilarity, TokenSimilarity {
+	
+	public static final int CACHE_SIZE = 100000;
+	
+	/**
+	 * The phonetic encoders supported. They are all thread-safe.
+	 */
+	public enum Encoder {
+		DOUBLE_METAPHONE {
+			private final DoubleMetaphone encoder = new DoubleMetaphone();
+			
+			@Override
+			protected String[] encode(String token) {
+				return codes(encoder.doubleMetaphone(token, false), encoder.doubleMetaphone(token, true));
+			}
+		},
+		METAPHONE {
+			private final Metaphone encoder = new Metaphone();
+			
+			@Override
+			protected String[] encode(String token) {
+				return codes(encoder.metaphone(token));
+			}
+		},
+		SOUNDEX {
+			private final Soundex encoder = new Soundex();
+			
+			@Override
+			protected String[] encode(String token) {
+				try {
+					return codes(encoder.soundex(token));
+				} catch (IllegalArgumentException e) {
+					// characters which cannot be mapped
+					return new String[0];
+				}
+			}
+		},
+		REFINED_SOUNDEX {
+			private final RefinedSoundex encoder = new RefinedSoundex();
+			
+			@Override
+			protected String[] encode(String token) {
+				return codes(encoder.soundex(token));
+			}
+		},
+		NYSIIS {
+			private final Nysiis encoder = new Nysiis();
+			
+			@Override
+			protected String[] encode(String token) {
+				return codes(encoder.nysiis(token));
+			}
+		},
+		BEIDER_MORSE {
+			private final BeiderMorseEncoder encoder = new BeiderMorseEncoder();
+			
+			@Override
+			protected String[] encode(String token) {
+				try {
+					return codes(encoder.encode(token).split("\\|"));
+				} catch (Exception e) {
+					return new String[0];
+				}
+			}
+		};
+		
+		/**
+		 * @return the distinct non-empty phonetic codes of a token
+		 */
+		protected abstract String[] encode(String token);
+		
+		private static String[] codes(String... codes) {
+			Set<String> distinct = new HashSet<>();
+			for (String code : codes) {
+				if (code != null && !code.isEmpty()) {
+					distinct.add(code);
+				}
+			}
+			return distinct.toArray(new String[distinct.size()]);
+		}
+	}
+	
+	// codes of the tokens already encoded, by encoder and token bytes
+	private static final Map<Encoder, Cache<BytesRef, String[]>> CACHES = new EnumMap<>(Encoder.class);
+	
+	static {
+		for (Encoder encoder : Encoder.values()) {
+			CACHES.put(encoder, CacheBuilder.<BytesRef, String[]>builder().setMaximumWeight(CACHE_SIZE).build());
+		}
+	}
+	
+	protected Encoder encoder = Encoder.DOUBLE_METAPHONE;
+	
+	public PhoneticSimilarity() {
+		// default constructor
+	}
+	
+	public PhoneticSimilarity(Encoder encoder) {
+		this.encoder = encoder;
+	}
+	
+	@Override
+	public PhoneticSimilarity withParameters(Map<String, Object> parameters) {
+		Object v = parameters.get("encoder");
+		if (v == null) {
+			return this;
+		}
+		try {
+			return new PhoneticSimilarity(Encoder.valueOf(v.toString().toUpperCase(Locale.ROOT)));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid encoder [" + v + "], expected one of "
+					+ "double_metaphone, metaphone, soundex, refined_soundex, nysiis or beider_morse");
+		}
+	}
+	
+	public Encoder getEncoder() {
+		return encoder;
+	}
+	
+	/**
+	 * The phonetic codes of a token, encoded once for all queries.
+	 * 
+	 * @param token
+	 *     the bytes of the token. They are copied if they need to be stored in the cache.
+	 */
+	public String[] codes(BytesRef token) {
+		Cache<BytesRef, String[]> cache = CACHES.get(encoder);
+		String[] codes = cache.get(token);
+		if (codes == null) {
+			BytesRef key = BytesRef.deepCopyOf(token);
+			codes = encoder.encode(key.utf8ToString());
+			cache.put(key, codes);
+		}
+		return codes;
+	}
+	
+	/**
+	 * @return the number of tokens whose codes are cached for the encoder of this similarity
+	 */
+	public int cachedCount() {
+		return CACHES.get(encoder).count();
+	}
+
+	@Override
+	public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
+			List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
+		Set<String> queryCodes = new HashSet<>();
+		for (String token : queryTokens) {
+			queryCodes.addAll(Arrays.asList(codes(new BytesRef(token))));
+		}
+		Set<String> fieldCodes = new HashSet<>();
+		for (String token : fieldTokens) {
+			fieldCodes.addAll(Arrays.asList(codes(new BytesRef(token))));
+		}
+		double matched = matchedWeight(new HashSet<>(queryTokens), fieldCodes, queryFreqs, numDocs)
+				+ matchedWeight(new HashSet<>(fieldTokens), queryCodes, fieldFreqs, numDocs);
+		double total = totalWeight(new HashSet<>(queryTokens), queryFreqs, numDocs)
+				+ totalWeight(new HashSet<>(fieldTokens), fieldFreqs, numDocs);
+		return total == 0. ? 0. : matched / total;
+	}
+	
+	private double matchedWeight(Set<String> tokens, Set<String> otherCodes, Map<String, Long> freqs, int numDocs) {
+		double weight = 0.;
+		for (String token : tokens) {
+			for (String code : codes(new BytesRef(token))) {
+				if (otherCodes.contains(code)) {
+					weight += TFIDFSimilarity.idf(freqs.getOrDefault(token, 0L), numDocs);
+					break;
+				}
+			}
+		}
+		return weight;
+	}
+	
+	private static double totalWeight(Set<String> tokens, Map<String, Long> freqs, int numDocs) {
+		double weight = 0.;
+		for (String token : tokens) {
+			weight += TFIDFSimilarity.idf(freqs.getOrDefault(token, 0L), numDocs);
+		}
+		return weight;
+	}
+
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		return prepare(query, statistics).score(field);
+	}
+
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		return new PreparedPhonetic(query, statistics);
+	}
+	
+	/**
+	 * Phonetic similarity bound to a query. The codes of the tokens are stored in an array
+	 * indexed by token id, so that the shared cache is only looked up once per token.
+	 * Instances are not thread-safe.
+	 */
+	protected class PreparedPhonetic implements PreparedSimilarity {
+		
+		private final TokenStatistics statistics;
+		// for each code of the query, the numbers of the distinct query tokens which have it
+		private final Map<String, int[]> queryCodes = new HashMap<>();
+		private final double[] queryWeights;
+		private final double queryWeight;
+		private final boolean[] matched;
+		// codes of each token, by token id (null if not looked up yet)
+		private String[][] tokenCodes = new String[0][];
+		private final BytesRef scratch = new BytesRef();
+		
+		protected PreparedPhonetic(TokenSequence query, TokenStatistics statistics) {
+			this.statistics = statistics;
+			List<Double> weights = new ArrayList<>();
+			double total = 0.;
+			for (int i = 0; i < query.length(); i++) {
+				if (query.isFirstOccurrence(i)) {
+					int number = weights.size();
+					double weight = TFIDFSimilarity.idf(statistics.docFreq(query.id(i)), statistics.numDocs());
+					weights.add(weight);
+					total += weight;
+					for (String code : codes(query, i)) {
+						int[] numbers = queryCodes.get(code);
+						if (numbers == null) {
+							queryCodes.put(code, new int[] { number });
+						} else if (numbers[numbers.length - 1] != number) {
+							numbers = Arrays.copyOf(numbers, numbers.length + 1);
+							numbers[numbers.length - 1] = number;
+							queryCodes.put(code, numbers);
+						}
+					}
+				}
+			}
+			queryWeights = weights.stream().mapToDouble(Double::doubleValue).toArray();
+			queryWeight = total;
+			matched = new boolean[queryWeights.length];
+		}
+		
+		private String[] codes(TokenSequence sequence, int index) {
+			int id = sequence.id(index);
+			if (id >= tokenCodes.length) {
+				tokenCodes = Arrays.copyOf(tokenCodes, ArrayUtil.oversize(id + 1, 8));
+			}
+			String[] codes = tokenCodes[id];
+			if (codes == null) {
+				codes = PhoneticSimilarity.this.codes(sequence.bytes(index, scratch));
+				tokenCodes[id] = codes;
+			}
+			return codes;
+		}
+
+		@Override
+		public double score(TokenSequence field) {
+			double matchedWeight = 0.;
+			double fieldWeight = 0.;
+			for (int i = 0; i < field.length(); i++) {
+				if (!field.isFirstOccurrence(i)) {
+					continue;
+				}
+				double weight = TFIDFSimilarity.idf(statistics.docFreq(field.id(i)), statistics.numDocs());
+				fieldWeight += weight;
+				boolean fieldMatched = false;
+				for (String code : codes(field, i)) {
+					int[] numbers = queryCodes.get(code);
+					if (numbers != null) {
+						fieldMatched = true;
+						for (int number : numbers) {
+							matched[number] = true;
+						}
+					}
+				}
+				if (fieldMatched) {
+					matchedWeight += weight;
+				}
+			}
+			for (int k = 0; k < matched.length; k++) {
+				if (matched[k]) {
+					matchedWeight += queryWeights[k];
+					matched[k] = false;
+				}
+			}
+			double total = queryWeight + fieldWeight;
+			return total == 0. ? 0. : matchedWeight / total;
+		}
+		
+		@Override
+		public double maxScore() {
+			return 1.;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.opencorporates.record_linkage.similarity;
+
+/**
+ * A {@link TokenSimilarity} bound to a particular query, obtained via
+ * {@link TokenSimilarity#prepare(TokenSequence, TokenStatistics)}.
+ * 
+ * Everything which only depends on the query (such as its weight vector)
+ * is computed once when the similarity is prepared, and reused for each
+ * field value scored. The query-dependent state is immutable. A prepared similarity
+ * is owned by a single script, so it may keep scratch buffers across calls.
+ */
+public interface PreparedSimilarity {
+	
+	/**
+	 * Compute the similarity between the prepared query and a field value.
+	 * 
+	 * @param field
+	 *     the tokens of the field value, in order
+	 * @return a non-negative score
+	 */
+	public double score(TokenSequence field);
+	
+	/**
+	 * @return the highest score any field value can get for the prepared query,
+	 *     or infinity if it is not known
+	 */
+	public default double maxScore() {
+		return Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * An upper bound of the score of a field value, cheaper to compute than the score itself.
+	 * It is used to score the most promising values of multi-valued fields first.
+	 * 
+	 * @param field
+	 *     the tokens of the field value, in order
+	 * @return a number greater than or equal to {@link #score(TokenSequence)}
+	 */
+	public default double upperBound(TokenSequence field) {
+		return maxScore();
+	}
+}
@@ -0,0 +1,193 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * A similarity between the sets of character q-grams of the query and the field,
+ * which is tolerant to typos anywhere in names.
+ * 
+ * The q-grams are the tokens of the field, which is expected to be a subfield analysed
+ * with an n-gram tokenizer (for instance trigrams), and the query is split into q-grams
+ * with the same analyzer. The similarity can be the Jaccard index (by default),
+ * the Dice coefficient or the cosine similarity of the two sets, via the measure parameter.
+ * 
+ * The distinct q-grams of the query are numbered once per query, and the q-grams they share
+ * with a field value are counted by intersecting bitsets over these numbers.
+ */
+public class QGramSimilarity implements StringSimilarity, TokenSimilarity {
+	
+	/**
+	 * The set similarity measures supported.
+	 */
+	public enum Measure {
+		JACCARD {
+			@Override
+			public double compute(int intersection, int querySize, int fieldSize) {
+				return (double) intersection / (querySize + fieldSize - intersection);
+			}
+		},
+		DICE {
+			@Override
+			public double compute(int intersection, int querySize, int fieldSize) {
+				return 2.0 * intersection / (querySize + fieldSize);
+			}
+		},
+		COSINE {
+			@Override
+			public double compute(int intersection, int querySize, int fieldSize) {
+				return intersection / Math.sqrt((double) querySize * fieldSize);
+			}
+		};
+		
+		/**
+		 * Computes the similarity of two sets, given their sizes and the size of their intersection.
+		 * The intersection must not be empty.
+		 */
+		public abstract double compute(int intersection, int querySize, int fieldSize);
+	}
+	
+	protected Measure measure = Measure.JACCARD;
+	
+	public QGramSimilarity() {
+		// default constructor
+	}
+	
+	public QGramSimilarity(Measure measure) {
+		this.measure = measure;
+	}
+	
+	@Override
+	public QGramSimilarity withParameters(Map<String, Object> parameters) {
+		Object v = parameters.get("measure");
+		if (v == null) {
+			return this;
+		}
+		try {
+			return new QGramSimilarity(Measure.valueOf(v.toString().toUpperCase(Locale.ROOT)));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid measure [" + v + "], expected one of jaccard, dice or cosine");
+		}
+	}
+	
+	public Measure getMeasure() {
+		return measure;
+	}
+
+	@Override
+	public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
+			List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
+		Set<String> queryGrams = new HashSet<>(queryTokens);
+		Set<String> fieldGrams = new HashSet<>(fieldTokens);
+		int intersection = 0;
+		for (String gram : fieldGrams) {
+			if (queryGrams.contains(gram)) {
+				intersection++;
+			}
+		}
+		if (intersection == 0) {
+			return 0.;
+		}
+		return measure.compute(intersection, queryGrams.size(), fieldGrams.size());
+	}
+
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		return prepare(query, statistics).score(field);
+	}
+
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		return new PreparedQGrams(query);
+	}
+	
+	/**
+	 * Q-gram similarity bound to a query. Instances are not thread-safe.
+	 */
+	protected class PreparedQGrams implements PreparedSimilarity {
+		
+		// for each token id, its number among the distinct query q-grams (-1 for q-grams absent from the query)
+		private final int[] queryNumbers;
+		private final int querySize;
+		// the query q-grams found in the current field value, as a bitset over their numbers
+		private final long[] matched;
+		// the tokens of the current field value already counted, as a bitset over token ids
+		private long[] seen = new long[0];
+		
+		protected PreparedQGrams(TokenSequence query) {
+			int maxId = -1;
+			for (int i = 0; i < query.length(); i++) {
+				maxId = Math.max(maxId, query.id(i));
+			}
+			queryNumbers = new int[maxId + 1];
+			Arrays.fill(queryNumbers, -1);
+			int size = 0;
+			for (int i = 0; i < query.length(); i++) {
+				if (queryNumbers[query.id(i)] < 0) {
+					queryNumbers[query.id(i)] = size++;
+				}
+			}
+			querySize = size;
+			matched = new long[words(size)];
+		}
+
+		@Override
+		public double score(TokenSequence field) {
+			if (querySize == 0 || field.length() == 0) {
+				return 0.;
+			}
+			int fieldSize = 0;
+			for (int i = 0; i < field.length(); i++) {
+				int id = field.id(i);
+				if (id < queryNumbers.length && queryNumbers[id] >= 0) {
+					int number = queryNumbers[id];
+					long bit = 1L << number;
+					if ((matched[number >> 6] & bit) == 0) {
+						matched[number >> 6] |= bit;
+						fieldSize++;
+					}
+				} else {
+					if (id >> 6 >= seen.length) {
+						seen = ArrayUtil.grow(seen, (id >> 6) + 1);
+					}
+					long bit = 1L << id;
+					if ((seen[id >> 6] & bit) == 0) {
+						seen[id >> 6] |= bit;
+						fieldSize++;
+					}
+				}
+			}
+			int intersection = 0;
+			for (int w = 0; w < matched.length; w++) {
+				intersection += Long.bitCount(matched[w]);
+				matched[w] = 0L;
+			}
+			// only clear the words which were set
+			for (int i = 0; i < field.length(); i++) {
+				int id = field.id(i);
+				if (id >> 6 < seen.length) {
+					seen[id >> 6] = 0L;
+				}
+			}
+			if (intersection == 0) {
+				return 0.;
+			}
+			return measure.compute(intersection, querySize, fieldSize);
+		}
+		
+		@Override
+		public double maxScore() {
+			return 1.;
+		}
+	}
+	
+	private static int words(int bits) {
+		return (bits + 63) >> 6;
+	}
+}
@@ -0,0 +1,258 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRefBuilder;
+
+/**
+ * The SoftTFIDF similarity of Cohen et al., "A Comparison of String Metrics for Matching
+ * Names and Records": a TFIDF similarity where each query token is matched with the most
+ * similar token of the field, according to Jaro-Winkler, if their similarity is above
+ * a threshold (0.9 by default). Matched pairs contribute the product of their TFIDF weights
+ * and of their similarity, so that typos in rare words are still rewarded.
+ *
+ * Weights are normalized like in {@link TFIDFSimilarity}, with the same norm exponents.
+ *
+ * The same field tokens come up again and again across candidates, so the prepared similarity
+ * remembers the similarity of each pair of query and field tokens. Prepared similarities are bound
+ * to the token dictionary of a segment, so the memo lives as long as the script of the segment.
+ * It grows with the number of distinct field tokens compared, and is emptied once it holds
+ * max_memo_tokens (100000 by default) of them.
+ */
+public class SoftTFIDFSimilarity implements StringSimilarity, TokenSimilarity {
+
+	public static final double DEFAULT_THRESHOLD = 0.9;
+	public static final int DEFAULT_MAX_MEMO_TOKENS = 100000;
+
+	protected double queryNormExponent = 0;
+	protected double docNormExponent = 0;
+	protected double threshold = DEFAULT_THRESHOLD;
+	protected int maxMemoTokens = DEFAULT_MAX_MEMO_TOKENS;
+
+	public SoftTFIDFSimilarity() {
+		// default constructor
+	}
+
+	public SoftTFIDFSimilarity(double queryNormExponent, double docNormExponent, double threshold, int maxMemoTokens) {
+		this.queryNormExponent = queryNormExponent;
+		this.docNormExponent = docNormExponent;
+		this.threshold = threshold;
+		this.maxMemoTokens = maxMemoTokens;
+	}
+
+	/**
+	 * Reads a numeric parameter from the user-supplied parameters
+	 */
+	private double readDouble(Map<String, Object> parameters, String key, double defaultValue) {
+		Object v = parameters.get(key);
+		if(v == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.valueOf(v.toString());
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	@Override
+	public SoftTFIDFSimilarity withParameters(Map<String, Object> parameters) {
+		return new SoftTFIDFSimilarity(
+				readDouble(parameters, "query_norm_exponent", 0.),
+				readDouble(parameters, "doc_norm_exponent", 0.),
+				readDouble(parameters, "threshold", DEFAULT_THRESHOLD),
+				(int) Math.max(0, readDouble(parameters, "max_memo_tokens", DEFAULT_MAX_MEMO_TOKENS)));
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
+			List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
+		TokenDictionary dictionary = new TokenDictionary();
+		TokenSequence querySequence = sequence(dictionary, queryTokens);
+		TokenSequence fieldSequence = sequence(dictionary, fieldTokens);
+		Map<String, Long> freqs = new HashMap<>(fieldFreqs);
+		freqs.putAll(queryFreqs);
+		BytesRef scratch = new BytesRef();
+		TokenStatistics statistics = new TokenStatistics() {
+			@Override
+			public long docFreq(int tokenId) {
+				return freqs.getOrDefault(dictionary.get(tokenId, scratch).utf8ToString(), 0L);
+			}
+
+			@Override
+			public int numDocs() {
+				return numDocs;
+			}
+		};
+		return compute(querySequence, fieldSequence, statistics);
+	}
+
+	private static TokenSequence sequence(TokenDictionary dictionary, List<String> tokens) {
+		int[] ids = new int[tokens.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = dictionary.add(new BytesRef(tokens.get(i)));
+		}
+		return new TokenSequence(dictionary, ids, 0, ids.length);
+	}
+
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		return prepare(query, statistics).score(field);
+	}
+
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		return new PreparedSoftTFIDF(query, statistics);
+	}
+
+	/**
+	 * SoftTFIDF similarity bound to a query, which remembers the similarities of the token pairs it compares.
+	 * Instances are not thread-safe.
+	 */
+	protected class PreparedSoftTFIDF implements PreparedSimilarity {
+
+		private final TokenStatistics statistics;
+		// distinct query tokens, with their characters and normalized weights
+		private final int[] queryIds;
+		private final char[][] queryChars;
+		private final double[] queryWeights;
+		// the memo slot of each field token, by id, valid if the slot is in use and holds this id
+		private int[] slotOfToken = new int[0];
+		// the field token held by each slot in use
+		private int[] slotTokens = new int[0];
+		private int usedSlots = 0;
+		// the similarity of each field token in a slot with each query token, at slot * queryIds.length + k
+		// (NaN if not computed yet)
+		private float[] memo = new float[0];
+		private final JaroWinklerSimilarity.Matcher matcher = new JaroWinklerSimilarity.Matcher();
+		private final BytesRef scratch = new BytesRef();
+		private final CharsRefBuilder fieldChars = new CharsRefBuilder();
+		// the distinct tokens of the field value being scored
+		private final SparseVector fieldVector = new SparseVector();
+
+		protected PreparedSoftTFIDF(TokenSequence query, TokenStatistics statistics) {
+			this.statistics = statistics;
+			int distinct = 0;
+			for (int i = 0; i < query.length(); i++) {
+				if (query.isFirstOccurrence(i)) {
+					distinct++;
+				}
+			}
+			queryIds = new int[distinct];
+			queryChars = new char[distinct][];
+			queryWeights = new double[distinct];
+			CharsRefBuilder chars = new CharsRefBuilder();
+			double queryNorm = 0.;
+			int k = 0;
+			for (int i = 0; i < query.length(); i++) {
+				if (query.isFirstOccurrence(i)) {
+					queryIds[k] = query.id(i);
+					chars.copyUTF8Bytes(query.bytes(i, scratch));
+					queryChars[k] = Arrays.copyOf(chars.chars(), chars.length());
+					queryWeights[k] = TFIDFSimilarity.idf(statistics.docFreq(queryIds[k]), statistics.numDocs());
+					queryNorm += queryWeights[k] * queryWeights[k];
+					k++;
+				}
+			}
+			double normalization = TFIDFSimilarity.normalization(Math.sqrt(queryNorm), queryNormExponent);
+			for (k = 0; k < distinct; k++) {
+				queryWeights[k] /= normalization;
+			}
+		}
+
+		@Override
+		public double score(TokenSequence field) {
+			double dotProduct = 0.;
+			for (int k = 0; k < queryIds.length; k++) {
+				// the most similar field token, if above the threshold
+				double best = 0.;
+				int bestId = -1;
+				for (int i = 0; i < field.length(); i++) {
+					double s = similarity(k, field, i);
+					if (s >= threshold && s > best) {
+						best = s;
+						bestId = field.id(i);
+					}
+				}
+				if (bestId >= 0) {
+					dotProduct += queryWeights[k] * TFIDFSimilarity.idf(statistics.docFreq(bestId), statistics.numDocs()) * best;
+				}
+			}
+			if (dotProduct == 0. || docNormExponent == 1.0) {
+				return dotProduct;
+			}
+			double docNorm = fieldVector.reset(field).weighByIdf(statistics).l2Norm();
+			return dotProduct / TFIDFSimilarity.normalization(docNorm, docNormExponent);
+		}
+
+		/**
+		 * The similarity between a query token and the token at the given position of the field.
+		 */
+		private double similarity(int queryIndex, TokenSequence field, int position) {
+			int id = field.id(position);
+			if (id == queryIds[queryIndex]) {
+				return 1.;
+			}
+			if (maxMemoTokens == 0) {
+				return compare(queryIndex, field, position);
+			}
+			int index = slot(id) * queryIds.length + queryIndex;
+			if (Float.isNaN(memo[index])) {
+				memo[index] = (float) compare(queryIndex, field, position);
+			}
+			return memo[index];
+		}
+
+		/**
+		 * @return the memo slot of a field token, assigned to it if it has none
+		 */
+		private int slot(int id) {
+			if (id < slotOfToken.length) {
+				int slot = slotOfToken[id];
+				if (slot < usedSlots && slotTokens[slot] == id) {
+					return slot;
+				}
+			} else {
+				slotOfToken = ArrayUtil.grow(slotOfToken, id + 1);
+			}
+			if (usedSlots == maxMemoTokens) {
+				// evict all field tokens, rather than tracking which ones are used
+				usedSlots = 0;
+			}
+			int slot = usedSlots++;
+			if (slot == slotTokens.length) {
+				slotTokens = ArrayUtil.grow(slotTokens, Math.min(maxMemoTokens, slot + 1));
+				int oldLength = memo.length;
+				memo = Arrays.copyOf(memo, slotTokens.length * queryIds.length);
+				Arrays.fill(memo, oldLength, memo.length, Float.NaN);
+			}
+			slotTokens[slot] = id;
+			slotOfToken[id] = slot;
+			Arrays.fill(memo, slot * queryIds.length, (slot + 1) * queryIds.length, Float.NaN);
+			return slot;
+		}
+
+		/**
+		 * @return the number of field tokens whose similarities are currently remembered
+		 */
+		int memoizedTokens() {
+			return usedSlots;
+		}
+
+		private double compare(int queryIndex, TokenSequence field, int position) {
+			fieldChars.copyUTF8Bytes(field.bytes(position, scratch));
+			char[] chars = queryChars[queryIndex];
+			return matcher.similarity(chars, chars.length, fieldChars.chars(), fieldChars.length(),
+					JaroWinklerSimilarity.DEFAULT_PREFIX_SCALE, JaroWinklerSimilarity.DEFAULT_BOOST_THRESHOLD);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.opencorporates.record_linkage.similarity;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.InPlaceMergeSorter;
+
+/**
+ * A weighted set of tokens, stored as parallel arrays of token identifiers
+ * (sorted by increasing identifier, without duplicates) and weights.
+ *
+ * The similarity of two vectors is computed with a single merge pass over both,
+ * without any hashing or boxing, which makes it the scoring kernel of the similarities
+ * comparing sets of tokens. Vectors are filled with {@link #add(int, double)} followed by
+ * {@link #sort()}, and can be cleared and reused for each field value.
+ * Instances are not thread-safe.
+ */
+public final class SparseVector {
+
+	private int[] ids;
+	private double[] weights;
+	private int size = 0;
+
+	private final InPlaceMergeSorter sorter = new InPlaceMergeSorter() {
+		@Override
+		protected int compare(int i, int j) {
+			return Integer.compare(ids[i], ids[j]);
+		}
+
+		@Override
+		protected void swap(int i, int j) {
+			int id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+			double weight = weights[i];
+			weights[i] = weights[j];
+			weights[j] = weight;
+		}
+	};
+
+	public SparseVector() {
+		this(8);
+	}
+
+	public SparseVector(int capacity) {
+		ids = new int[Math.max(1, capacity)];
+		weights = new double[ids.length];
+	}
+
+	/**
+	 * Creates a vector holding the distinct tokens of a sequence, weighted
+	 * by their inverse document frequency.
+	 */
+	public static SparseVector idf(TokenSequence tokens, TokenStatistics statistics) {
+		SparseVector vector = new SparseVector(tokens.length());
+		return vector.reset(tokens).weighByIdf(statistics);
+	}
+
+	/**
+	 * Removes all tokens from the vector.
+	 *
+	 * @return this vector
+	 */
+	public SparseVector clear() {
+		size = 0;
+		return this;
+	}
+
+	/**
+	 * Sets the vector to the distinct tokens of a sequence, with a weight of 1.
+	 *
+	 * @return this vector, sorted
+	 */
+	public SparseVector reset(TokenSequence tokens) {
+		clear();
+		for(int i = 0; i < tokens.length(); i++) {
+			add(tokens.id(i), 1.);
+		}
+		return sort();
+	}
+
+	/**
+	 * Adds a token to the vector. {@link #sort()} must be called once all
+	 * tokens are added, before the vector is used.
+	 */
+	public void add(int id, double weight) {
+		if (size == ids.length) {
+			ids = ArrayUtil.grow(ids, size + 1);
+			weights = ArrayUtil.growExact(weights, ids.length);
+		}
+		ids[size] = id;
+		weights[size] = weight;
+		size++;
+	}
+
+	/**
+	 * Sorts the tokens by identifier. The weight of a token added several times
+	 * is the one it was first added with.
+	 *
+	 * @return this vector
+	 */
+	public SparseVector sort() {
+		// the sort is stable, so the first occurrence of a token comes first
+		sorter.sort(0, size);
+		int distinct = 0;
+		for(int i = 0; i < size; i++) {
+			if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+				ids[distinct] = ids[i];
+				weights[distinct] = weights[i];
+				distinct++;
+			}
+		}
+		size = distinct;
+		return this;
+	}
+
+	/**
+	 * Replaces the weights of the tokens by their inverse document frequency.
+	 *
+	 * @return this vector
+	 */
+	public SparseVector weighByIdf(TokenStatistics statistics) {
+		for(int i = 0; i < size; i++) {
+			weights[i] = TFIDFSimilarity.idf(statistics.docFreq(ids[i]), statistics.numDocs());
+		}
+		return this;
+	}
+
+	/**
+	 * Divides all weights by the same factor.
+	 *
+	 * @return this vector
+	 */
+	public SparseVector divide(double factor) {
+		for(int i = 0; i < size; i++) {
+			weights[i] /= factor;
+		}
+		return this;
+	}
+
+	/**
+	 * Squares all weights.
+	 *
+	 * @return this vector
+	 */
+	public SparseVector square() {
+		for(int i = 0; i < size; i++) {
+			weights[i] *= weights[i];
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of distinct tokens in the vector
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the identifier of the i-th token, by increasing identifier
+	 */
+	public int id(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @return the weight of the i-th token
+	 */
+	public double weight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * @return the sum of the weights
+	 */
+	public double sum() {
+		double sum = 0.;
+		for(int i = 0; i < size; i++) {
+			sum += weights[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the euclidean norm of the vector
+	 */
+	public double l2Norm() {
+		double norm = 0.;
+		for(int i = 0; i < size; i++) {
+			norm += weights[i] * weights[i];
+		}
+		return Math.sqrt(norm);
+	}
+
+	/**
+	 * Computes the dot product of two vectors, by merging their sorted tokens.
+	 */
+	public double dot(SparseVector other) {
+		double dotProduct = 0.;
+		int i = 0;
+		int j = 0;
+		// stop as soon as either vector is exhausted
+		while (i < size && j < other.size) {
+			int a = ids[i];
+			int b = other.ids[j];
+			if (a == b) {
+				dotProduct += weights[i++] * other.weights[j++];
+			} else if (a < b) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return dotProduct;
+	}
+
+	/**
+	 * @return the largest token identifier in the vector, or -1 if it is empty
+	 */
+	public int maxId() {
+		return size == 0 ? -1 : ids[size - 1];
+	}
+}
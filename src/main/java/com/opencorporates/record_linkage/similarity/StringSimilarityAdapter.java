@@ -0,0 +1,74 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Exposes a {@link StringSimilarity} as a {@link TokenSimilarity}, by
+ * decoding the tokens and looking up their frequencies for each comparison.
+ * This is slower than implementing {@link TokenSimilarity} directly.
+ */
+public class StringSimilarityAdapter implements TokenSimilarity {
+	
+	private final StringSimilarity similarity;
+	private final String query;
+	
+	/**
+	 * @param similarity
+	 *     the string similarity to adapt
+	 * @param query
+	 *     the original query string supplied by the user
+	 */
+	public StringSimilarityAdapter(StringSimilarity similarity, String query) {
+		this.similarity = similarity;
+		this.query = query;
+	}
+	
+	/**
+	 * Selects the most efficient way to use a string similarity as a token similarity.
+	 */
+	public static TokenSimilarity adapt(StringSimilarity similarity, String query) {
+		if (similarity instanceof TokenSimilarity) {
+			return (TokenSimilarity) similarity;
+		}
+		return new StringSimilarityAdapter(similarity, query);
+	}
+
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		List<String> queryTokens = new ArrayList<>(query.length());
+		Map<String, Long> queryFreqs = new HashMap<>();
+		decode(query, statistics, queryTokens, queryFreqs);
+		List<String> fieldTokens = new ArrayList<>(field.length());
+		Map<String, Long> fieldFreqs = new HashMap<>();
+		decode(field, statistics, fieldTokens, fieldFreqs);
+		return similarity.compute(this.query, queryTokens, queryFreqs, fieldTokens, fieldFreqs, statistics.numDocs());
+	}
+	
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		// The query is only decoded once
+		List<String> queryTokens = new ArrayList<>(query.length());
+		Map<String, Long> queryFreqs = new HashMap<>();
+		decode(query, statistics, queryTokens, queryFreqs);
+		return field -> {
+			List<String> fieldTokens = new ArrayList<>(field.length());
+			Map<String, Long> fieldFreqs = new HashMap<>();
+			decode(field, statistics, fieldTokens, fieldFreqs);
+			return similarity.compute(this.query, queryTokens, queryFreqs, fieldTokens, fieldFreqs, statistics.numDocs());
+		};
+	}
+	
+	private static void decode(TokenSequence sequence, TokenStatistics statistics, List<String> tokens, Map<String, Long> freqs) {
+		BytesRef scratch = new BytesRef();
+		for (int i = 0; i < sequence.length(); i++) {
+			String token = sequence.bytes(i, scratch).utf8ToString();
+			tokens.add(token);
+			freqs.put(token, statistics.docFreq(sequence.id(i)));
+		}
+	}
+}
@@ -1,13 +1,13 @@
 package com.opencorporates.record_linkage.similarity;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import org.apache.lucene.util.BytesRef;
+
 /**
  * A simple TFIDF-based similarity following Cohen et al.,
  * "A Comparison of String Metrics for Matching Names and Records".
@@ -22,13 +22,16 @@ import java.util.stream.Collectors;
  * (such as "Direct Services") get a lower score than strings containing
  * rarer words (such as "Northumbria Breweries").
  */
-public class TFIDFSimilarity implements StringSimilarity {
+public class TFIDFSimilarity implements StringSimilarity, TokenSimilarity {
 	
 	private Logger logger = Logger.getLogger("TFIDF");
 	
 	protected double queryNormExponent = 0;
 	protected double docNormExponent = 0;
 	
+	// Dictionary interning the tokens compared by the string-based method, cleared between calls
+	private static final ThreadLocal<TokenDictionary> dictionaries = ThreadLocal.withInitial(TokenDictionary::new);
+	
 	public TFIDFSimilarity() {
 		// default constructor
 	}
@@ -53,6 +56,14 @@ public class TFIDFSimilarity implements StringSimilarity {
 		}
 	}
 	
+	public double getQueryNormExponent() {
+		return queryNormExponent;
+	}
+	
+	public double getDocNormExponent() {
+		return docNormExponent;
+	}
+	
 	@Override
 	public TFIDFSimilarity withParameters(Map<String, Object> parameters) {
 		return new TFIDFSimilarity(readDouble(parameters, "query_norm_exponent", 0.), readDouble(parameters, "doc_norm_exponent", 0.));
@@ -61,25 +72,149 @@ public class TFIDFSimilarity implements StringSimilarity {
 	@Override
 	public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
 			List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
-		Map<String, Double> queryVector = weightVector(queryFreqs, numDocs, queryNormExponent);
-		Map<String, Double> docVector = weightVector(fieldFreqs, numDocs, docNormExponent);
-		double result = 0;
-		Set<String> tokens = new HashSet<>();
-		tokens.addAll(queryTokens);
-		tokens.addAll(fieldTokens);
+		TokenDictionary dictionary = dictionaries.get();
+		dictionary.clear();
+		SparseVector queryVector = weightVector(dictionary, queryTokens, queryFreqs, numDocs);
+		SparseVector docVector = weightVector(dictionary, fieldTokens, fieldFreqs, numDocs);
+		queryVector.divide(normalization(queryVector.l2Norm(), queryNormExponent));
+		docVector.divide(normalization(docVector.l2Norm(), docNormExponent));
+		return queryVector.dot(docVector);
+	}
+	
+	/**
+	 * The raw weight vector of a list of tokens, interned in the given dictionary.
+	 * Tokens without any frequency are left out.
+	 */
+	private static SparseVector weightVector(TokenDictionary dictionary, List<String> tokens, Map<String, Long> frequencies, int numDocs) {
+		SparseVector vector = new SparseVector(tokens.size());
 		for(String token : tokens) {
-			double fieldScore = 0.;
-			if (fieldTokens.contains(token)) {
-				fieldScore = docVector.getOrDefault(token, 0.);
+			Long frequency = frequencies.get(token);
+			if (frequency != null) {
+				vector.add(dictionary.add(new BytesRef(token)), idf(frequency, numDocs));
+			}
+		}
+		return vector.sort();
+	}
+	
+	@Override
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+		return prepare(query, statistics).score(field);
+	}
+	
+	@Override
+	public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		return new PreparedTFIDF(query, statistics);
+	}
+	
+	/**
+	 * TFIDF similarity bound to a query. The normalized query vector is computed once,
+	 * and merged with the tokens of each field value.
+	 */
+	protected class PreparedTFIDF implements NormalizedSimilarity {
+		
+		private final TokenStatistics statistics;
+		// for each query token, the product of its normalized query weight and its raw document weight
+		private final SparseVector products;
+		// the distinct tokens of the field value being scored
+		private final SparseVector fieldVector = new SparseVector();
+		private final double maxScore;
+		
+		protected PreparedTFIDF(TokenSequence query, TokenStatistics statistics) {
+			this.statistics = statistics;
+			this.products = queryProducts(query, statistics);
+			if (docNormExponent == 1.0) {
+				// reached by the values containing all the query tokens
+				this.maxScore = products.sum();
+			} else if (docNormExponent == 0. && queryNormExponent == 0.) {
+				// the cosine similarity
+				this.maxScore = 1.;
+			} else {
+				this.maxScore = Double.POSITIVE_INFINITY;
 			}
-			result += queryVector.getOrDefault(token, 0.) * fieldScore;
 		}
-		return result;
+
+		@Override
+		public double score(TokenSequence field) {
+			double dotProduct = products.dot(fieldVector.reset(field));
+			if (dotProduct == 0. || docNormExponent == 1.0) {
+				return dotProduct;
+			}
+			// frequencies of the other field tokens are only looked up when the value matches
+			double docNorm = fieldVector.weighByIdf(statistics).l2Norm();
+			return dotProduct / normalization(docNorm, docNormExponent);
+		}
+		
+		@Override
+		public double score(TokenSequence field, double norm) {
+			double dotProduct = products.dot(fieldVector.reset(field));
+			if (dotProduct == 0. || docNormExponent == 1.0) {
+				return dotProduct;
+			}
+			// the norm is rounded when stored, which must not lift the score above its bound
+			return Math.min(maxScore, dotProduct / normalization(norm, docNormExponent));
+		}
+		
+		@Override
+		public double maxScore() {
+			return maxScore;
+		}
+	}
+	
+	/**
+	 * Computes the contribution of each query token to the similarity of a document containing it,
+	 * before normalization by the document norm. This is the product of the normalized query weight
+	 * of the token and its raw document weight.
+	 */
+	public SparseVector queryProducts(TokenSequence query, TokenStatistics statistics) {
+		SparseVector vector = SparseVector.idf(query, statistics);
+		double queryNormalization = normalization(vector.l2Norm(), queryNormExponent);
+		return vector.square().divide(queryNormalization);
+	}
+	
+	/**
+	 * Same as {@link #queryProducts(TokenSequence, TokenStatistics)}, as a dense array.
+	 * 
+	 * @return an array indexed by token id, holding 0 for tokens absent from the query
+	 */
+	public double[] queryWeights(TokenSequence query, TokenStatistics statistics) {
+		SparseVector products = queryProducts(query, statistics);
+		int maxId = -1;
+		for(int i = 0; i < query.length(); i++) {
+			maxId = Math.max(maxId, query.id(i));
+		}
+		double[] weights = new double[maxId + 1];
+		for(int i = 0; i < products.size(); i++) {
+			weights[products.id(i)] = products.weight(i);
+		}
+		return weights;
+	}
+	
+	/**
+	 * The factor by which weights are divided, given the L2 norm of the vector
+	 * and the norm exponent. This is consistent with {@link #weightVector(Map, int, double)}.
+	 */
+	protected static double normalization(double l2Norm, double normExponent) {
+		if (normExponent == 1.0 || l2Norm == 0) {
+			return 1.0;
+		}
+		return Math.pow(l2Norm, 1.0 - normExponent);
+	}
+	
+	/**
+	 * The inverse document frequency of a token.
+	 * 
+	 * @param docFreq
+	 *     the number of documents the token appears in
+	 * @param numDocs
+	 *     the number of documents in which the field is present
+	 */
+	public static double idf(long docFreq, int numDocs) {
+		return -Math.log((1.0 + docFreq) / (1.0 + numDocs));
 	}
 	
 	public Map<String, Double> weightVector(Map<String, Long> frequencies, int numDocs, double normExponent) {
 		Map<String, Double> rawWeights = frequencies.entrySet().stream().collect(Collectors.toMap(Entry::getKey,
-				f -> -Math.log((1.0 + f.getValue()) / (1.0 + numDocs))));
+				f -> idf(f.getValue(), numDocs)));
 		if (normExponent == 1.0) {
 			return rawWeights;
 		}
@@ -0,0 +1,63 @@
+package com.opencorporates.record_linkage.similarity;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+
+/**
+ * Interns tokens, represented by their UTF-8 bytes, into
+ * consecutive integer identifiers. Two tokens are equal if and
+ * only if they have the same identifier, so similarities can compare
+ * tokens without decoding them into strings.
+ * 
+ * The query tokens are interned first, so they always get
+ * the smallest identifiers. Dictionaries are not thread-safe: each
+ * script owns its own.
+ */
+public class TokenDictionary {
+	
+	private final BytesRefHash hash = new BytesRefHash();
+	
+	/**
+	 * Returns the identifier of a token, assigning a new one if the token
+	 * has not been seen before. The bytes are copied.
+	 */
+	public int add(BytesRef token) {
+		int id = hash.add(token);
+		return id < 0 ? -id - 1 : id;
+	}
+	
+	/**
+	 * @return the identifier of the token, or -1 if it has never been added.
+	 */
+	public int find(BytesRef token) {
+		return hash.find(token);
+	}
+	
+	/**
+	 * Retrieves the bytes of a token.
+	 * 
+	 * @param id
+	 *     the identifier of the token
+	 * @param scratch
+	 *     a reference which is pointed to the bytes of the token
+	 * @return the scratch reference
+	 */
+	public BytesRef get(int id, BytesRef scratch) {
+		return hash.get(id, scratch);
+	}
+	
+	/**
+	 * @return the number of distinct tokens interned
+	 */
+	public int size() {
+		return hash.size();
+	}
+	
+	/**
+	 * Forgets all tokens, so that the dictionary can be reused. Identifiers are assigned from 0 again.
+	 */
+	public void clear() {
+		hash.clear();
+		hash.reinit();
+	}
+}
@@ -0,0 +1,94 @@
+package com.opencorporates.record_linkage.similarity;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * An ordered list of tokens, represented by their identifiers
+ * in a {@link TokenDictionary}. This is a view on a slice of an
+ * array, which can be moved to other slices without allocating.
+ */
+public final class TokenSequence {
+	
+	private final TokenDictionary dictionary;
+	private int[] ids;
+	private int offset;
+	private int length;
+	
+	public TokenSequence(TokenDictionary dictionary) {
+		this(dictionary, new int[0], 0, 0);
+	}
+	
+	public TokenSequence(TokenDictionary dictionary, int[] ids, int offset, int length) {
+		this.dictionary = dictionary;
+		reset(ids, offset, length);
+	}
+	
+	/**
+	 * Points this sequence to another slice of token identifiers.
+	 * 
+	 * @return this sequence
+	 */
+	public TokenSequence reset(int[] ids, int offset, int length) {
+		this.ids = ids;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+	
+	/**
+	 * @return the number of tokens in the sequence
+	 */
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * @return the identifier of the token at the given position in the sequence
+	 */
+	public int id(int index) {
+		return ids[offset + index];
+	}
+	
+	/**
+	 * @return true if the token at the given position does not appear earlier in the sequence
+	 */
+	public boolean isFirstOccurrence(int index) {
+		int id = ids[offset + index];
+		for (int i = offset; i < offset + index; i++) {
+			if (ids[i] == id) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return true if the token appears in the sequence
+	 */
+	public boolean contains(int tokenId) {
+		for (int i = offset; i < offset + length; i++) {
+			if (ids[i] == tokenId) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Retrieves the bytes of the token at the given position.
+	 * 
+	 * @param scratch
+	 *     a reference which is pointed to the bytes of the token
+	 * @return the scratch reference
+	 */
+	public BytesRef bytes(int index, BytesRef scratch) {
+		return dictionary.get(id(index), scratch);
+	}
+	
+	/**
+	 * @return the dictionary which the token identifiers refer to
+	 */
+	public TokenDictionary dictionary() {
+		return dictionary;
+	}
+}
@@ -0,0 +1,47 @@
+package com.opencorporates.record_linkage.similarity;
+
+/**
+ * A metric computing the similarity between a query string and a field value,
+ * like {@link StringSimilarity}, but working on token identifiers rather than strings.
+ * 
+ * Tokens are interned in a {@link TokenDictionary} shared by the query and the field
+ * value: two tokens are equal if and only if their identifiers are equal. Implementations
+ * can therefore compare tokens without decoding them, so that no string needs to be created
+ * for each document scored. The bytes of the tokens remain available from the dictionary
+ * for metrics which need to compare their characters.
+ * 
+ * Like string similarities, instances of this interface are expected to be immutable,
+ * and are shared between threads. {@link StringSimilarity} instances which do not implement
+ * this interface can be used via {@link StringSimilarityAdapter}.
+ */
+public interface TokenSimilarity {
+	
+	/**
+	 * Compute the similarity between a query and a field value.
+	 * 
+	 * @param query
+	 *     the tokens of the query, in order
+	 * @param field
+	 *     the tokens of the field value, in order
+	 * @param statistics
+	 *     gives access to the frequency of each token
+	 * @return a non-negative score
+	 */
+	public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics);
+	
+	/**
+	 * Binds the similarity to a query, so that it can be compared to many field values.
+	 * Implementations should override this to compute everything that only depends
+	 * on the query once.
+	 * 
+	 * @param query
+	 *     the tokens of the query, in order. The sequence must not be modified afterwards.
+	 * @param statistics
+	 *     gives access to the frequency of each token, for the query and the field values
+	 *     scored later on
+	 * @return a similarity ready to score field values against this query
+	 */
+	public default PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+		return field -> compute(query, field, statistics);
+	}
+}
@@ -0,0 +1,18 @@
+package com.opencorporates.record_linkage.similarity;
+
+/**
+ * Provides the frequencies of tokens in the index, given
+ * their identifiers in a {@link TokenDictionary}.
+ */
+public interface TokenStatistics {
+	
+	/**
+	 * @return the number of documents the token appears in
+	 */
+	public long docFreq(int tokenId);
+	
+	/**
+	 * @return the number of documents in which the field is present
+	 */
+	public int numDocs();
+}
@@ -0,0 +1,74 @@
+package com.opencorporates.record_linkage.stats;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import com.opencorporates.record_linkage.scoring.SimilarityStats;
+
+/**
+ * The counters of the similarity scripts and of the frequency cache of a node.
+ */
+public class NodeRecordLinkageStats extends BaseNodeResponse implements ToXContentFragment {
+
+	private final List<SimilarityStats> similarities;
+	private final long cacheHits;
+	private final long cacheMisses;
+	private final long cacheEvictions;
+	private final long cacheCount;
+
+	public NodeRecordLinkageStats(DiscoveryNode node, List<SimilarityStats> similarities, Cache.CacheStats cacheStats, long cacheCount) {
+		super(node);
+		this.similarities = similarities;
+		this.cacheHits = cacheStats.getHits();
+		this.cacheMisses = cacheStats.getMisses();
+		this.cacheEvictions = cacheStats.getEvictions();
+		this.cacheCount = cacheCount;
+	}
+
+	public NodeRecordLinkageStats(StreamInput in) throws IOException {
+		super(in);
+		similarities = in.readList(SimilarityStats::new);
+		cacheHits = in.readVLong();
+		cacheMisses = in.readVLong();
+		cacheEvictions = in.readVLong();
+		cacheCount = in.readVLong();
+	}
+
+	public List<SimilarityStats> similarities() {
+		return similarities;
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeList(similarities);
+		out.writeVLong(cacheHits);
+		out.writeVLong(cacheMisses);
+		out.writeVLong(cacheEvictions);
+		out.writeVLong(cacheCount);
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.field("name", getNode().getName());
+		builder.startObject("doc_freq_cache");
+		builder.field("count", cacheCount);
+		builder.field("hits", cacheHits);
+		builder.field("misses", cacheMisses);
+		builder.field("evictions", cacheEvictions);
+		builder.endObject();
+		builder.startArray("similarities");
+		for (SimilarityStats stats : similarities) {
+			stats.toXContent(builder, params);
+		}
+		return builder.endArray();
+	}
+}
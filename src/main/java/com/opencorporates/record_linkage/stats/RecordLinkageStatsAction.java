@@ -0,0 +1,16 @@
+package com.opencorporates.record_linkage.stats;
+
+import org.elasticsearch.action.ActionType;
+
+/**
+ * Collects the counters of the similarity scripts on each node.
+ */
+public class RecordLinkageStatsAction extends ActionType<RecordLinkageStatsResponse> {
+
+	public static final RecordLinkageStatsAction INSTANCE = new RecordLinkageStatsAction();
+	public static final String NAME = "cluster:monitor/record_linkage/stats";
+
+	private RecordLinkageStatsAction() {
+		super(NAME, RecordLinkageStatsResponse::new);
+	}
+}
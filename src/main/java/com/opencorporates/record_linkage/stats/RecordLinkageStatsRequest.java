@@ -0,0 +1,35 @@
+package com.opencorporates.record_linkage.stats;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+/**
+ * Requests the counters of the similarity scripts on some nodes (all of them by default).
+ */
+public class RecordLinkageStatsRequest extends BaseNodesRequest<RecordLinkageStatsRequest> {
+
+	public RecordLinkageStatsRequest(String... nodesIds) {
+		super(nodesIds);
+	}
+
+	public RecordLinkageStatsRequest(StreamInput in) throws IOException {
+		super(in);
+	}
+
+	/**
+	 * The request sent to each node.
+	 */
+	public static class NodeRequest extends BaseNodeRequest {
+
+		public NodeRequest() {
+			super();
+		}
+
+		public NodeRequest(StreamInput in) throws IOException {
+			super(in);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.opencorporates.record_linkage.stats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import com.opencorporates.record_linkage.scoring.SimilarityStats;
+
+/**
+ * The counters of the similarity scripts on each node, and summed over all nodes.
+ */
+public class RecordLinkageStatsResponse extends BaseNodesResponse<NodeRecordLinkageStats> implements ToXContentFragment {
+
+	public RecordLinkageStatsResponse(ClusterName clusterName, List<NodeRecordLinkageStats> nodes, List<FailedNodeException> failures) {
+		super(clusterName, nodes, failures);
+	}
+
+	public RecordLinkageStatsResponse(StreamInput in) throws IOException {
+		super(in);
+	}
+
+	@Override
+	protected List<NodeRecordLinkageStats> readNodesFrom(StreamInput in) throws IOException {
+		return in.readList(NodeRecordLinkageStats::new);
+	}
+
+	@Override
+	protected void writeNodesTo(StreamOutput out, List<NodeRecordLinkageStats> nodes) throws IOException {
+		out.writeList(nodes);
+	}
+
+	/**
+	 * @return the counters of each similarity and field, summed over all nodes
+	 */
+	public List<SimilarityStats> total() {
+		Map<String, SimilarityStats> total = new LinkedHashMap<>();
+		for (NodeRecordLinkageStats node : getNodes()) {
+			for (SimilarityStats stats : node.similarities()) {
+				total.merge(stats.similarity() + "\u0000" + stats.field(), stats, SimilarityStats::add);
+			}
+		}
+		List<SimilarityStats> result = new ArrayList<>(total.values());
+		result.sort(SimilarityStats.ORDER);
+		return result;
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject("total");
+		builder.startArray("similarities");
+		for (SimilarityStats stats : total()) {
+			stats.toXContent(builder, params);
+		}
+		builder.endArray();
+		builder.endObject();
+		builder.startObject("nodes");
+		for (NodeRecordLinkageStats node : getNodes()) {
+			builder.startObject(node.getNode().getId());
+			node.toXContent(builder, params);
+			builder.endObject();
+		}
+		return builder.endObject();
+	}
+}
@@ -0,0 +1,34 @@
+package com.opencorporates.record_linkage.stats;
+
+import java.io.IOException;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * Returns the counters of the similarity scripts: {@code GET /_record_linkage/stats},
+ * or {@code GET /_record_linkage/stats/{nodeId}} for some nodes only.
+ */
+public class RestRecordLinkageStatsAction extends BaseRestHandler {
+
+	public RestRecordLinkageStatsAction(RestController controller) {
+		controller.registerHandler(RestRequest.Method.GET, "/_record_linkage/stats", this);
+		controller.registerHandler(RestRequest.Method.GET, "/_record_linkage/stats/{nodeId}", this);
+	}
+
+	@Override
+	public String getName() {
+		return "record_linkage_stats_action";
+	}
+
+	@Override
+	protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+		RecordLinkageStatsRequest statsRequest = new RecordLinkageStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+		statsRequest.timeout(request.param("timeout"));
+		return channel -> client.execute(RecordLinkageStatsAction.INSTANCE, statsRequest, new RestActions.NodesResponseRestListener<>(channel));
+	}
+}
@@ -0,0 +1,56 @@
+package com.opencorporates.record_linkage.stats;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import com.opencorporates.record_linkage.scoring.DocFreqCache;
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+
+/**
+ * Reads the counters of the script engine on each node.
+ */
+public class TransportRecordLinkageStatsAction extends TransportNodesAction<RecordLinkageStatsRequest, RecordLinkageStatsResponse,
+		RecordLinkageStatsRequest.NodeRequest, NodeRecordLinkageStats> {
+
+	private final RecordLinkageScorer scorer;
+
+	@Inject
+	public TransportRecordLinkageStatsAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+			ActionFilters actionFilters, RecordLinkageScorer scorer) {
+		super(RecordLinkageStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+				RecordLinkageStatsRequest::new, RecordLinkageStatsRequest.NodeRequest::new, ThreadPool.Names.MANAGEMENT,
+				NodeRecordLinkageStats.class);
+		this.scorer = scorer;
+	}
+
+	@Override
+	protected RecordLinkageStatsResponse newResponse(RecordLinkageStatsRequest request, List<NodeRecordLinkageStats> responses,
+			List<FailedNodeException> failures) {
+		return new RecordLinkageStatsResponse(clusterService.getClusterName(), responses, failures);
+	}
+
+	@Override
+	protected RecordLinkageStatsRequest.NodeRequest newNodeRequest(RecordLinkageStatsRequest request) {
+		return new RecordLinkageStatsRequest.NodeRequest();
+	}
+
+	@Override
+	protected NodeRecordLinkageStats newNodeResponse(StreamInput in) throws IOException {
+		return new NodeRecordLinkageStats(in);
+	}
+
+	@Override
+	protected NodeRecordLinkageStats nodeOperation(RecordLinkageStatsRequest.NodeRequest request) {
+		DocFreqCache cache = scorer.getDocFreqCache();
+		return new NodeRecordLinkageStats(clusterService.localNode(), scorer.getStats().snapshot(), cache.stats(), cache.count());
+	}
+}
@@ -40,6 +40,8 @@ public class LeafReaderStub extends LeafReader {
         docs = new HashMap<>();
         docs.put(4, Collections.singletonList(Arrays.asList("greentech", "distribution", "ltd")));
         docs.put(5, Collections.singletonList(Arrays.asList("distribution", "ltd")));
+        docs.put(6, Arrays.asList(Arrays.asList("acme", "ltd"), Arrays.asList("greentech", "distribution", "ltd"),
+                Arrays.asList("greentech", "services")));
     }
     
     public void setDocId(int newDocId) {
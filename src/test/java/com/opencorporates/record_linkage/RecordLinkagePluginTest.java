@@ -2,15 +2,20 @@ package com.opencorporates.record_linkage;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.script.ScriptContext;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import com.opencorporates.record_linkage.dedup.TransportDedupAction;
 import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
 
 public class RecordLinkagePluginTest {
@@ -31,6 +36,18 @@ public class RecordLinkagePluginTest {
         Assert.assertTrue(SUT.getScriptEngine(settings, context) instanceof RecordLinkageScorer);
     }
     
+    @Test
+    public void testDedupThreadPool() {
+        Settings settings = Settings.builder().put("node.name", "test").build();
+        ThreadPool threadPool = new ThreadPool(settings, SUT.getExecutorBuilders(settings).toArray(new ExecutorBuilder<?>[0]));
+        try {
+            Assert.assertEquals(EsExecutors.numberOfProcessors(settings),
+                    threadPool.info(TransportDedupAction.THREAD_POOL_NAME).getMax());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+    
     @After
     public void tearDown() throws IOException {
         SUT.close();
@@ -0,0 +1,117 @@
+package com.opencorporates.record_linkage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * An in-memory index, analyzed by whitespace, for tests which need
+ * a real reader rather than a {@link LeafReaderStub}.
+ */
+public class TestIndex implements Closeable {
+
+    /**
+     * Text fields storing term vectors with positions, as similarity scripts read them.
+     */
+    public static final FieldType TEXT_WITH_TERM_VECTORS = new FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        TEXT_WITH_TERM_VECTORS.setStoreTermVectors(true);
+        TEXT_WITH_TERM_VECTORS.setStoreTermVectorPositions(true);
+        TEXT_WITH_TERM_VECTORS.freeze();
+    }
+
+    private final ByteBuffersDirectory directory = new ByteBuffersDirectory();
+    private final IndexWriter writer;
+    private DirectoryReader reader = null;
+
+    public TestIndex() throws IOException {
+        writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()));
+    }
+
+    /**
+     * Builds a document from field names and values, given in alternation.
+     */
+    public static Document document(FieldType fieldType, String... fieldsAndValues) {
+        Document document = new Document();
+        for (int i = 0; i + 1 < fieldsAndValues.length; i += 2) {
+            document.add(new Field(fieldsAndValues[i], fieldsAndValues[i + 1], fieldType));
+        }
+        return document;
+    }
+
+    public void addDocument(Iterable<? extends IndexableField> document) throws IOException {
+        writer.addDocument(document);
+    }
+
+    /**
+     * Adds a document with text fields, without term vectors.
+     */
+    public void addText(String... fieldsAndValues) throws IOException {
+        addDocument(document(TextField.TYPE_NOT_STORED, fieldsAndValues));
+    }
+
+    /**
+     * Adds a document with text fields storing term vectors.
+     */
+    public void addWithTermVectors(String... fieldsAndValues) throws IOException {
+        addDocument(document(TEXT_WITH_TERM_VECTORS, fieldsAndValues));
+    }
+
+    public void deleteDocuments(Term term) throws IOException {
+        writer.deleteDocuments(term);
+    }
+
+    /**
+     * Flushes the documents added so far, so that the next ones go to a new segment.
+     */
+    public void commit() throws IOException {
+        writer.commit();
+    }
+
+    /**
+     * Merges all documents into a single segment.
+     */
+    public void forceMerge() throws IOException {
+        writer.forceMerge(1);
+    }
+
+    /**
+     * @return a reader on the documents added so far, opened on the first call
+     */
+    public DirectoryReader reader() throws IOException {
+        if (reader == null) {
+            reader = DirectoryReader.open(writer);
+        }
+        return reader;
+    }
+
+    /**
+     * Reopens the reader on the documents added since it was opened, closing the previous one,
+     * as ElasticSearch does when a shard is refreshed.
+     */
+    public DirectoryReader refresh() throws IOException {
+        DirectoryReader newer = DirectoryReader.openIfChanged(reader());
+        if (newer != null) {
+            reader.close();
+            reader = newer;
+        }
+        return reader;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(reader, writer, directory);
+    }
+}
@@ -0,0 +1,144 @@
+package com.opencorporates.record_linkage.dedup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.scoring.DocFreqCache;
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+public class BlockingDeduplicatorTest {
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private ForkJoinPool pool;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        List<String> names = Arrays.asList(
+                "greentech distribution ltd",
+                "acme corp",
+                "greentech distribution limited",
+                "north east services ltd",
+                "acme corp",
+                "deleted north east",
+                "common ltd");
+        for (int i = 0; i < names.size(); i++) {
+            index.addWithTermVectors("name", names.get(i));
+            if (i % 2 == 1) {
+                // spread documents over several segments
+                index.commit();
+            }
+        }
+        index.deleteDocuments(new Term("name", "deleted"));
+        reader = index.reader();
+        pool = new ForkJoinPool(2);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        index.close();
+    }
+    
+    private BlockingDeduplicator deduplicator(int maxBlockSize, double threshold, int maxPairs) {
+        return new BlockingDeduplicator(reader, "name", new TFIDFSimilarity(0., 0.), DocFreqCache.disabled(),
+                100, false, maxBlockSize, threshold, maxPairs);
+    }
+    
+    private static class CountingProgress implements BlockingDeduplicator.Progress {
+        AtomicInteger blocks = new AtomicInteger();
+        AtomicInteger scoredBlocks = new AtomicInteger();
+        AtomicLong pairs = new AtomicLong();
+        boolean cancelled = false;
+
+        @Override
+        public void blockFound() {
+            blocks.incrementAndGet();
+        }
+
+        @Override
+        public void blockScored(long pairs) {
+            scoredBlocks.incrementAndGet();
+            this.pairs.addAndGet(pairs);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+    
+    @Test
+    public void testFindPairs() throws IOException {
+        CountingProgress progress = new CountingProgress();
+        List<BlockingDeduplicator.ScoredPair> pairs = deduplicator(2, 0.5, 10).run(pool, 2, progress);
+        
+        // blocks: "acme", "corp", "distribution", "greentech" ("ltd" is too frequent, "north" and "east" only have one live document)
+        Assert.assertEquals(4, progress.blocks.get());
+        Assert.assertEquals(4, progress.scoredBlocks.get());
+        // each pair is only compared in the first block it appears in
+        Assert.assertEquals(2L, progress.pairs.get());
+        
+        Assert.assertEquals(2, pairs.size());
+        Assert.assertEquals(1, pairs.get(0).first);
+        Assert.assertEquals(4, pairs.get(0).second);
+        Assert.assertEquals(0, pairs.get(1).first);
+        Assert.assertEquals(2, pairs.get(1).second);
+        Assert.assertTrue(pairs.get(0).score > pairs.get(1).score);
+    }
+    
+    @Test
+    public void testLargerBlocks() throws IOException {
+        CountingProgress progress = new CountingProgress();
+        List<BlockingDeduplicator.ScoredPair> pairs = deduplicator(3, 0., 10).run(pool, 2, progress);
+        
+        // "ltd" now defines a block, comparing documents 0, 3 and 6 to each other
+        Assert.assertEquals(5, progress.blocks.get());
+        Assert.assertEquals(5L, progress.pairs.get());
+        Assert.assertEquals(5, pairs.size());
+    }
+    
+    @Test
+    public void testFewBlocksInMemory() throws IOException {
+        CountingProgress progress = new CountingProgress();
+        // only two blocks are held at a time
+        List<BlockingDeduplicator.ScoredPair> pairs = deduplicator(3, 0., 10).run(pool, 1, progress);
+        
+        Assert.assertEquals(5, progress.scoredBlocks.get());
+        Assert.assertEquals(5L, progress.pairs.get());
+        Assert.assertEquals(5, pairs.size());
+    }
+    
+    @Test
+    public void testMaxPairs() throws IOException {
+        List<BlockingDeduplicator.ScoredPair> pairs = deduplicator(3, 0., 1).run(pool, 2, new CountingProgress());
+        
+        Assert.assertEquals(1, pairs.size());
+        Assert.assertEquals(1, pairs.get(0).first);
+        Assert.assertEquals(4, pairs.get(0).second);
+    }
+    
+    @Test
+    public void testCancelled() throws IOException {
+        CountingProgress progress = new CountingProgress();
+        progress.cancelled = true;
+        List<BlockingDeduplicator.ScoredPair> pairs = deduplicator(2, 0., 10).run(pool, 2, progress);
+        
+        Assert.assertEquals(0, progress.blocks.get());
+        Assert.assertEquals(0, progress.scoredBlocks.get());
+        Assert.assertTrue(pairs.isEmpty());
+    }
+}
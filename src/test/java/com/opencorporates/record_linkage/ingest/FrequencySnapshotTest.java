@@ -0,0 +1,96 @@
+package com.opencorporates.record_linkage.ingest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+public class FrequencySnapshotTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private Path write(String content) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("frequencies.tsv");
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+    
+    @Test
+    public void testLoad() throws IOException {
+        FrequencySnapshot snapshot = FrequencySnapshot.load(write("10000\ngreentech\t1\nltd\t1000\n\nservices\t100\n"));
+        Assert.assertEquals(10000L, snapshot.numDocs());
+        Assert.assertEquals(1000L, snapshot.docFreq("ltd"));
+        Assert.assertEquals(0L, snapshot.docFreq("acme"));
+        Assert.assertEquals(3, snapshot.size());
+    }
+    
+    @Test
+    public void testVersion() throws IOException {
+        long version = FrequencySnapshot.load(write("10000\nltd\t1000\n")).version();
+        Assert.assertEquals(version, FrequencySnapshot.load(write("10000\nltd\t1000\n")).version());
+        Assert.assertNotEquals(version, FrequencySnapshot.load(write("10000\nltd\t1001\n")).version());
+    }
+    
+    @Test
+    public void testDrift() throws IOException {
+        FrequencySnapshot snapshot = FrequencySnapshot.load(write("10000\nltd\t1000\nservices\t100\n"));
+        Assert.assertEquals(0., snapshot.drift(FrequencySnapshot.load(write("10000\nltd\t1000\nservices\t100\n"))), 0.);
+        // a change of the number of documents
+        Assert.assertEquals(0.1, snapshot.drift(FrequencySnapshot.load(write("11000\nltd\t1000\nservices\t100\n"))), 0.0001);
+        // a change of frequencies, including a new token, with the same number of documents
+        Assert.assertEquals(0.2, snapshot.drift(FrequencySnapshot.load(write("10000\nltd\t1100\nservices\t100\nacme\t120\n"))), 0.0001);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLine() throws IOException {
+        FrequencySnapshot.load(write("10000\ngreentech 1\n"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() throws IOException {
+        FrequencySnapshot.load(write(""));
+    }
+    
+    @Test
+    public void testNorm() throws IOException {
+        FrequencySnapshot snapshot = FrequencySnapshot.load(write("10000\ngreentech\t1\nltd\t1000\n"));
+        double greentech = TFIDFSimilarity.idf(1L, 10000);
+        double ltd = TFIDFSimilarity.idf(1000L, 10000);
+        Assert.assertEquals(Math.sqrt(greentech * greentech + ltd * ltd),
+                snapshot.norm(Arrays.asList("greentech", "ltd", "ltd")), 0.0001);
+        Assert.assertEquals(0., snapshot.norm(Arrays.asList()), 0.);
+    }
+    
+    @Test
+    public void testRefreshOnDrift() throws IOException {
+        Path path = write("10000\nltd\t1000\n");
+        FrequencySnapshotHolder holder = new FrequencySnapshotHolder(path, 0.05, TimeValue.ZERO);
+        
+        // unchanged file
+        Assert.assertFalse(holder.refresh());
+        
+        // small drift: the current snapshot is kept
+        write("10200\nltd\t1020\n");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+        Assert.assertFalse(holder.refresh());
+        Assert.assertEquals(10000L, holder.get().numDocs());
+        
+        // large drift
+        write("12000\nltd\t1200\n");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+        Assert.assertTrue(holder.refresh());
+        Assert.assertEquals(12000L, holder.get().numDocs());
+        Assert.assertEquals(1200L, holder.get().docFreq("ltd"));
+    }
+}
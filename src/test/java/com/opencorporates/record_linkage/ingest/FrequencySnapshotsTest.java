@@ -0,0 +1,126 @@
+package com.opencorporates.record_linkage.ingest;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.Scheduler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrequencySnapshotsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // tasks scheduled by the snapshots, run manually
+    private List<Runnable> tasks = new ArrayList<>();
+    private Scheduler.ScheduledCancellable cancellable = mock(Scheduler.ScheduledCancellable.class);
+    private FrequencySnapshots SUT;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.write(folder.getRoot().toPath().resolve("frequencies.tsv"), "10000\nltd\t1000\n".getBytes(StandardCharsets.UTF_8));
+        SUT = new FrequencySnapshots(folder.getRoot().toPath());
+        SUT.setScheduler((delay, task) -> {
+            tasks.add(task);
+            return cancellable;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        SUT.close();
+    }
+
+    /**
+     * Runs the last scheduled task.
+     */
+    private void runScheduled() {
+        tasks.remove(tasks.size() - 1).run();
+    }
+
+    @Test
+    public void testShared() throws IOException {
+        FrequencySnapshotHolder holder = SUT.register("frequencies.tsv", 0.05, TimeValue.timeValueMinutes(1));
+        Assert.assertSame(holder, SUT.register("frequencies.tsv", 0.05, TimeValue.timeValueMinutes(1)));
+        Assert.assertSame(holder.get(), SUT.get("frequencies.tsv"));
+        Assert.assertEquals(1, SUT.size());
+        Assert.assertEquals(1, tasks.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflictingSettings() throws IOException {
+        SUT.register("frequencies.tsv", 0.05, TimeValue.timeValueMinutes(1));
+        SUT.register("frequencies.tsv", 0.1, TimeValue.timeValueMinutes(1));
+    }
+
+    @Test
+    public void testRegisterAfterScript() throws IOException {
+        // loaded with the default settings by a script first
+        SUT.get("frequencies.tsv");
+        FrequencySnapshotHolder holder = SUT.register("frequencies.tsv", 0.1, TimeValue.timeValueMinutes(5));
+        Assert.assertEquals(0.1, holder.driftThreshold(), 0.);
+        Assert.assertEquals(1, SUT.size());
+        verify(cancellable).cancel();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutsideDirectory() throws IOException {
+        SUT.get("../frequencies.tsv");
+    }
+
+    @Test
+    public void testReleaseWhenIdle() throws IOException {
+        FrequencySnapshotHolder holder = SUT.register("frequencies.tsv", 0.05, TimeValue.timeValueMinutes(1));
+        // used before the first refresh
+        runScheduled();
+        for (int i = 0; i < FrequencySnapshotHolder.IDLE_REFRESHES - 1; i++) {
+            runScheduled();
+        }
+        Assert.assertFalse(holder.isClosed());
+        Assert.assertEquals(1, SUT.size());
+
+        runScheduled();
+        Assert.assertTrue(holder.isClosed());
+        Assert.assertTrue(tasks.isEmpty());
+        Assert.assertEquals(0, SUT.size());
+
+        // read again on the next use
+        Assert.assertEquals(10000L, SUT.get("frequencies.tsv").numDocs());
+        Assert.assertEquals(1, SUT.size());
+    }
+
+    @Test
+    public void testUseDelaysRelease() throws IOException {
+        FrequencySnapshotHolder holder = SUT.register("frequencies.tsv", 0.05, TimeValue.timeValueMinutes(1));
+        for (int i = 0; i < 2 * FrequencySnapshotHolder.IDLE_REFRESHES; i++) {
+            holder.get();
+            runScheduled();
+        }
+        Assert.assertFalse(holder.isClosed());
+        Assert.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        FrequencySnapshotHolder holder = SUT.register("frequencies.tsv", 0.05, TimeValue.timeValueMinutes(1));
+        SUT.close();
+        Assert.assertTrue(holder.isClosed());
+        Assert.assertEquals(0, SUT.size());
+        verify(cancellable).cancel();
+        // a refresh already running does not reschedule itself
+        runScheduled();
+        Assert.assertTrue(tasks.isEmpty());
+    }
+}
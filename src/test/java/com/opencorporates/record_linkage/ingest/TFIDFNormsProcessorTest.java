@@ -0,0 +1,88 @@
+package com.opencorporates.record_linkage.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.ingest.IngestDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TFIDFNormsProcessorTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private FrequencySnapshots snapshots;
+    private FrequencySnapshot snapshot;
+    private TFIDFNormsProcessor SUT;
+    
+    @Before
+    public void setUp() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("frequencies.tsv");
+        Files.write(path, "10000\ngreentech\t1\nltd\t1000\nservices\t100\n".getBytes(StandardCharsets.UTF_8));
+        snapshots = new FrequencySnapshots(folder.getRoot().toPath());
+        snapshot = snapshots.register("frequencies.tsv", 0.05, TimeValue.ZERO).get();
+        SUT = new TFIDFNormsProcessor("tag", "name", "name_norms", new WhitespaceAnalyzer(), snapshots, "frequencies.tsv",
+                0.05, TimeValue.ZERO, true);
+    }
+    
+    @After
+    public void tearDown() {
+        snapshots.close();
+    }
+    
+    private IngestDocument document(Object name) {
+        Map<String, Object> source = new HashMap<>();
+        if (name != null) {
+            source.put("name", name);
+        }
+        return new IngestDocument(source, new HashMap<>());
+    }
+    
+    private float[] norms(IngestDocument document) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(document.getFieldValue("name_norms", String.class)));
+        Assert.assertEquals(snapshot.version(), buffer.getLong());
+        float[] norms = new float[buffer.remaining() / Float.BYTES];
+        for (int i = 0; i < norms.length; i++) {
+            norms[i] = buffer.getFloat();
+        }
+        return norms;
+    }
+    
+    @Test
+    public void testSingleValue() throws Exception {
+        IngestDocument document = SUT.execute(document("greentech services ltd"));
+        float[] norms = norms(document);
+        Assert.assertEquals(1, norms.length);
+        Assert.assertEquals(snapshot.norm(Arrays.asList("greentech", "services", "ltd")), norms[0], 0.0001);
+    }
+    
+    @Test
+    public void testMultipleValues() throws Exception {
+        IngestDocument document = SUT.execute(document(Arrays.asList("greentech ltd", "", "services")));
+        float[] norms = norms(document);
+        // the empty value has no norm, as it is not indexed
+        Assert.assertEquals(2, norms.length);
+        Assert.assertEquals(snapshot.norm(Arrays.asList("greentech", "ltd")), norms[0], 0.0001);
+        Assert.assertEquals(snapshot.norm(Arrays.asList("services")), norms[1], 0.0001);
+    }
+    
+    @Test
+    public void testIgnoreMissing() throws Exception {
+        IngestDocument document = SUT.execute(document(null));
+        Assert.assertFalse(document.hasField("name_norms"));
+    }
+}
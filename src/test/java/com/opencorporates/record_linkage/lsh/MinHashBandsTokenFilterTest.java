@@ -0,0 +1,103 @@
+package com.opencorporates.record_linkage.lsh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MinHashBandsTokenFilterTest {
+    
+    private static Analyzer analyzer(int bands, int rows, int q) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer, new MinHashBandsTokenFilter(tokenizer, bands, rows, 42L, q));
+            }
+        };
+    }
+    
+    private static List<String> bands(Analyzer analyzer, String text) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream("name", text)) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                Assert.assertEquals(terms.isEmpty() ? 1 : 0, posIncAtt.getPositionIncrement());
+                terms.add(termAtt.toString());
+            }
+            stream.end();
+        }
+        return terms;
+    }
+    
+    private static int common(List<String> a, List<String> b) {
+        Set<String> shared = new HashSet<>(a);
+        shared.retainAll(b);
+        return shared.size();
+    }
+    
+    @Test
+    public void testTokens() throws IOException {
+        Analyzer analyzer = analyzer(20, 2, 0);
+        List<String> bands = bands(analyzer, "greentech distribution ltd");
+        Assert.assertEquals(20, bands.size());
+        Assert.assertTrue(bands.get(0).startsWith("0_"));
+        Assert.assertTrue(bands.get(19).startsWith("19_"));
+        // the signature only depends on the set of tokens
+        Assert.assertEquals(bands, bands(analyzer, "ltd greentech distribution greentech"));
+        // reusing the stream gives the same bands
+        Assert.assertEquals(bands, bands(analyzer, "greentech distribution ltd"));
+        
+        Assert.assertTrue(common(bands, bands(analyzer, "greentech distribution limited")) > 0);
+        Assert.assertEquals(0, common(bands, bands(analyzer, "acme corp")));
+        Assert.assertTrue(bands(analyzer, "").isEmpty());
+    }
+    
+    @Test
+    public void testQGrams() throws IOException {
+        Analyzer analyzer = analyzer(20, 3, 3);
+        List<String> bands = bands(analyzer, "greentech distribution");
+        Assert.assertEquals(20, bands.size());
+        // typos keep most q-grams, so some bands are still shared
+        Assert.assertTrue(common(bands, bands(analyzer, "greentek distribution")) > 0);
+        Assert.assertEquals(0, common(bands, bands(analyzer, "acme corp")));
+        // values shorter than q still get bands
+        Assert.assertEquals(20, bands(analyzer, "ab").size());
+    }
+    
+    @Test
+    public void testCollisionProbability() {
+        // sets with Jaccard similarity 0.5 agree on a min-hash about half of the time
+        MinHashBands a = new MinHashBands(1000, 1, 7L);
+        MinHashBands b = new MinHashBands(1000, 1, 7L);
+        for (int i = 0; i < 300; i++) {
+            BytesRef token = new BytesRef("token" + i);
+            if (i < 200) {
+                a.add(token.bytes, token.offset, token.length);
+            }
+            if (i >= 100) {
+                b.add(token.bytes, token.offset, token.length);
+            }
+        }
+        int agreements = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (a.band(i) == b.band(i)) {
+                agreements++;
+            }
+        }
+        Assert.assertEquals(333, agreements, 60);
+    }
+}
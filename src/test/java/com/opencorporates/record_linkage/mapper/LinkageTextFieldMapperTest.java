@@ -0,0 +1,111 @@
+package com.opencorporates.record_linkage.mapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.IndexAnalyzers;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.mapper.ContentPath;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldNamesFieldMapper;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.scoring.DocValuesDecoder;
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+
+public class LinkageTextFieldMapperTest {
+    
+    private LinkageTextFieldMapper mapper(Map<String, Object> mapping) {
+        Mapper.TypeParser.ParserContext parserContext = Mockito.mock(Mapper.TypeParser.ParserContext.class);
+        NamedAnalyzer whitespace = new NamedAnalyzer("default", AnalyzerScope.INDEX, new WhitespaceAnalyzer());
+        Mockito.when(parserContext.getIndexAnalyzers()).thenReturn(
+                new IndexAnalyzers(Collections.singletonMap("default", whitespace), Collections.emptyMap(), Collections.emptyMap()));
+        Mockito.when(parserContext.indexVersionCreated()).thenReturn(Version.CURRENT);
+        
+        Mapper.Builder<?, ?> builder = new LinkageTextFieldMapper.TypeParser().parse("name", new HashMap<>(mapping), parserContext);
+        Settings settings = Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT).build();
+        return (LinkageTextFieldMapper) builder.build(new Mapper.BuilderContext(settings, new ContentPath()));
+    }
+    
+    private ParseContext.Document parse(LinkageTextFieldMapper mapper, String... values) throws IOException {
+        ParseContext.Document document = new ParseContext.Document();
+        DocumentMapper docMapper = Mockito.mock(DocumentMapper.class);
+        Mockito.when(docMapper.metadataMapper(FieldNamesFieldMapper.class)).thenReturn(Mockito.mock(FieldNamesFieldMapper.class));
+        for (String value : values) {
+            ParseContext context = Mockito.mock(ParseContext.class);
+            XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                    DeprecationHandler.THROW_UNSUPPORTED_OPERATION, "\"" + value + "\"");
+            parser.nextToken();
+            Mockito.when(context.parser()).thenReturn(parser);
+            Mockito.when(context.doc()).thenReturn(document);
+            Mockito.when(context.docMapper()).thenReturn(docMapper);
+            mapper.parse(context);
+        }
+        return document;
+    }
+    
+    @Test
+    public void testDocValuesByDefault() throws IOException {
+        LinkageTextFieldMapper mapper = mapper(Collections.singletonMap("type", "linkage_text"));
+        Assert.assertTrue(mapper.fieldType().hasDocValues());
+        
+        ParseContext.Document document = parse(mapper, "greentech distribution ltd", "greentech ltd");
+        try (TestIndex index = new TestIndex()) {
+            index.addDocument(document);
+            TokenDictionary dictionary = new TokenDictionary();
+            DocValuesDecoder decoder = new DocValuesDecoder(index.reader().leaves().get(0).reader(), "name", dictionary);
+            decoder.read(0);
+            
+            BytesRef scratch = new BytesRef();
+            List<List<String>> values = new ArrayList<>();
+            for (int value = 0; value < decoder.valueCount(); value++) {
+                List<String> tokens = new ArrayList<>();
+                for (int i = decoder.valueStart(value); i < decoder.valueEnd(value); i++) {
+                    tokens.add(dictionary.get(decoder.tokens()[i], scratch).utf8ToString());
+                }
+                values.add(tokens);
+            }
+            Assert.assertEquals(Arrays.asList(
+                    Arrays.asList("greentech", "distribution", "ltd"),
+                    Arrays.asList("greentech", "ltd")), values);
+        }
+    }
+    
+    @Test
+    public void testTermVectorsWithoutDocValues() {
+        Map<String, Object> mapping = new HashMap<>();
+        mapping.put("type", "linkage_text");
+        mapping.put("doc_values", false);
+        mapping.put("term_vector", "with_positions");
+        Assert.assertFalse(mapper(mapping).fieldType().hasDocValues());
+    }
+    
+    @Test(expected = MapperParsingException.class)
+    public void testRejectUnscorableField() {
+        Map<String, Object> mapping = new HashMap<>();
+        mapping.put("type", "linkage_text");
+        mapping.put("doc_values", false);
+        mapper(mapping);
+    }
+}
@@ -0,0 +1,80 @@
+package com.opencorporates.record_linkage.query;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.lsh.MinHashBandsTokenFilter;
+
+public class MinHashQueryBuilderTest {
+    
+    private static XContentParser parser(String json) throws IOException {
+        return JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json);
+    }
+    
+    @Test
+    public void testFromXContent() throws IOException {
+        String json = "{\"field\": \"name.bands\", \"query\": \"GreenTech Ltd\", \"analyzer\": \"name_bands\", "
+                + "\"minimum_should_match\": 2, \"boost\": 2}";
+        MinHashQueryBuilder builder = MinHashQueryBuilder.fromXContent(parser(json));
+        
+        Assert.assertEquals("name.bands", builder.field());
+        Assert.assertEquals("GreenTech Ltd", builder.query());
+        Assert.assertEquals("name_bands", builder.analyzer());
+        Assert.assertEquals(2, builder.minimumShouldMatch());
+        Assert.assertEquals(2.0f, builder.boost(), 0.f);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMinimumShouldMatch() {
+        new MinHashQueryBuilder("name.bands", "GreenTech Ltd").minimumShouldMatch(0);
+    }
+    
+    @Test
+    public void testSerialization() throws IOException {
+        MinHashQueryBuilder builder = new MinHashQueryBuilder("name.bands", "GreenTech Ltd")
+                .analyzer("name_bands").minimumShouldMatch(3);
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            builder.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                Assert.assertEquals(builder, new MinHashQueryBuilder(in));
+            }
+        }
+    }
+    
+    @Test
+    public void testBandsQuery() throws IOException {
+        Analyzer analyzer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new WhitespaceTokenizer();
+                return new TokenStreamComponents(tokenizer, new MinHashBandsTokenFilter(tokenizer, 8, 2, 0L, 0));
+            }
+        };
+        Set<BytesRef> bands = MinHashQueryBuilder.bands(analyzer, "name.bands", "greentech ltd");
+        Assert.assertEquals(8, bands.size());
+        
+        Query query = MinHashQueryBuilder.bandsQuery("name.bands", bands, 2);
+        Assert.assertTrue(query instanceof BooleanQuery);
+        Assert.assertEquals(8, ((BooleanQuery) query).clauses().size());
+        Assert.assertEquals(2, ((BooleanQuery) query).getMinimumNumberShouldMatch());
+        
+        Assert.assertTrue(MinHashQueryBuilder.bandsQuery("name.bands", bands, 9) instanceof MatchNoDocsQuery);
+    }
+}
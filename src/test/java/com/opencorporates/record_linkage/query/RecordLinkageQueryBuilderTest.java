@@ -0,0 +1,71 @@
+package com.opencorporates.record_linkage.query;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecordLinkageQueryBuilderTest {
+    
+    private static XContentParser parser(String json) throws IOException {
+        return JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json);
+    }
+    
+    @Test
+    public void testFromXContent() throws IOException {
+        String json = "{\"field\": \"name\", \"query\": \"GreenTech Ltd\", \"analyzer\": \"my_analyzer\", "
+                + "\"query_norm_exponent\": 1, \"boost\": 2, \"_name\": \"linkage\"}";
+        RecordLinkageQueryBuilder builder = RecordLinkageQueryBuilder.fromXContent(parser(json));
+        
+        Assert.assertEquals("name", builder.field());
+        Assert.assertEquals("GreenTech Ltd", builder.query());
+        Assert.assertEquals("my_analyzer", builder.analyzer());
+        Assert.assertEquals(1.0, builder.queryNormExponent(), 0.);
+        Assert.assertEquals(2.0f, builder.boost(), 0.f);
+        Assert.assertEquals("linkage", builder.queryName());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingQuery() throws IOException {
+        RecordLinkageQueryBuilder.fromXContent(parser("{\"field\": \"name\"}"));
+    }
+    
+    @Test
+    public void testToXContent() throws IOException {
+        RecordLinkageQueryBuilder builder = new RecordLinkageQueryBuilder("name", "GreenTech Ltd").queryNormExponent(1.0);
+        XContentBuilder xContent = JsonXContent.contentBuilder();
+        xContent.startObject();
+        builder.doXContent(xContent, ToXContent.EMPTY_PARAMS);
+        xContent.endObject();
+        
+        XContentParser parser = parser(BytesReference.bytes(xContent).utf8ToString());
+        parser.nextToken();
+        parser.nextToken();
+        Assert.assertEquals(RecordLinkageQueryBuilder.NAME, parser.currentName());
+        parser.nextToken();
+        Assert.assertEquals(builder, RecordLinkageQueryBuilder.fromXContent(parser));
+    }
+    
+    @Test
+    public void testSerialization() throws IOException {
+        RecordLinkageQueryBuilder builder = new RecordLinkageQueryBuilder("name", "GreenTech Ltd")
+                .analyzer("my_analyzer").queryNormExponent(0.5);
+        builder.boost(3.0f);
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            builder.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                Assert.assertEquals(builder, new RecordLinkageQueryBuilder(in));
+            }
+        }
+    }
+}
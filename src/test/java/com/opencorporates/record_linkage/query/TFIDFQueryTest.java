@@ -0,0 +1,117 @@
+package com.opencorporates.record_linkage.query;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+public class TFIDFQueryTest {
+    
+    private static final List<String> NAMES = Arrays.asList(
+            "greentech distribution ltd", "acme corp", "north east services ltd",
+            "greentech ltd", "greentech services", "acme ltd");
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        for (int i = 0; i < NAMES.size(); i++) {
+            index.addText("name", NAMES.get(i));
+            if (i == 2) {
+                // spread the documents over two segments
+                index.commit();
+            }
+        }
+        reader = index.reader();
+        searcher = new IndexSearcher(reader);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    private static List<BytesRef> terms(String... tokens) {
+        return Arrays.stream(tokens).map(BytesRef::new).collect(Collectors.toList());
+    }
+    
+    private static double idf(long docFreq) {
+        return TFIDFSimilarity.idf(docFreq, NAMES.size());
+    }
+    
+    @Test
+    public void testRewrite() throws IOException {
+        TFIDFQuery query = new TFIDFQuery("name", terms("greentech", "ltd", "greentech"), new TFIDFSimilarity());
+        Assert.assertTrue(searcher.rewrite(query) instanceof BooleanQuery);
+        Assert.assertEquals(2, ((BooleanQuery) searcher.rewrite(query)).clauses().size());
+        
+        TFIDFQuery empty = new TFIDFQuery("name", terms(), new TFIDFSimilarity());
+        Assert.assertTrue(searcher.rewrite(empty) instanceof MatchNoDocsQuery);
+    }
+    
+    @Test
+    public void testScores() throws IOException {
+        TFIDFQuery query = new TFIDFQuery("name", terms("greentech", "distribution", "ltd"), new TFIDFSimilarity(1.0, 1.0));
+        TopDocs topDocs = searcher.search(query, 2);
+        
+        Assert.assertEquals(2, topDocs.scoreDocs.length);
+        ScoreDoc best = topDocs.scoreDocs[0];
+        Assert.assertEquals(0, best.doc);
+        double expected = Math.pow(idf(3), 2) + Math.pow(idf(1), 2) + Math.pow(idf(4), 2);
+        Assert.assertEquals(expected, best.score, 0.0001);
+        
+        Assert.assertEquals(3, topDocs.scoreDocs[1].doc);
+        Assert.assertEquals(Math.pow(idf(3), 2) + Math.pow(idf(4), 2), topDocs.scoreDocs[1].score, 0.0001);
+    }
+    
+    @Test
+    public void testQueryNormalization() throws IOException {
+        TFIDFQuery query = new TFIDFQuery("name", terms("greentech", "ltd"), new TFIDFSimilarity(0.0, 1.0));
+        TopDocs topDocs = searcher.search(query, 1);
+        
+        // documents are not normalized, so any document containing all query terms gets the L2 norm of the query vector
+        Assert.assertEquals(0, topDocs.scoreDocs[0].doc);
+        Assert.assertEquals(Math.sqrt(Math.pow(idf(3), 2) + Math.pow(idf(4), 2)), topDocs.scoreDocs[0].score, 0.0001);
+    }
+    
+    @Test
+    public void testEquals() {
+        TFIDFQuery query = new TFIDFQuery("name", terms("greentech", "ltd"), new TFIDFSimilarity());
+        Assert.assertEquals(query, new TFIDFQuery("name", terms("ltd", "greentech"), new TFIDFSimilarity()));
+        Assert.assertEquals(query.hashCode(), new TFIDFQuery("name", terms("ltd", "greentech"), new TFIDFSimilarity()).hashCode());
+        Assert.assertNotEquals(query, new TFIDFQuery("name", terms("greentech", "ltd"), new TFIDFSimilarity(1.0, 1.0)));
+        Assert.assertNotEquals(query, new TFIDFQuery("address", terms("greentech", "ltd"), new TFIDFSimilarity()));
+        Assert.assertEquals("tfidf(name:greentech ltd, query_norm_exponent=0.0)", query.toString());
+    }
+    
+    @Test
+    public void testExtractTerms() {
+        TFIDFQuery query = new TFIDFQuery("name", terms("greentech", "ltd"), new TFIDFSimilarity());
+        Set<Term> extracted = new HashSet<>();
+        query.visit(QueryVisitor.termCollector(extracted));
+        Assert.assertEquals(2, extracted.size());
+        Assert.assertTrue(extracted.contains(new Term("name", "ltd")));
+    }
+}
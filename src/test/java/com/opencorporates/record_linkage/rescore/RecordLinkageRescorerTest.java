@@ -0,0 +1,170 @@
+package com.opencorporates.record_linkage.rescore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.IndexAnalyzers;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.search.lookup.DocLookup;
+import org.elasticsearch.search.lookup.SearchLookup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+import com.opencorporates.record_linkage.scoring.SimilarityScript;
+import com.opencorporates.record_linkage.scoring.SimilarityScriptFactory;
+
+public class RecordLinkageRescorerTest {
+    
+    private static final List<String> NAMES = Arrays.asList(
+            "greentech distribution ltd", "acme corp", "north east services ltd",
+            "greentech ltd", "greentech services", "acme ltd");
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private SearchLookup lookup;
+    private RecordLinkageScorer scorer;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        for (int i = 0; i < NAMES.size(); i++) {
+            index.addWithTermVectors("name", NAMES.get(i));
+            if (i == 2) {
+                // spread the documents over two segments
+                index.commit();
+            }
+        }
+        reader = index.reader();
+        searcher = new IndexSearcher(reader);
+        
+        lookup = Mockito.mock(SearchLookup.class);
+        DocLookup docLookup = Mockito.mock(DocLookup.class);
+        MapperService mapperService = Mockito.mock(MapperService.class);
+        IndexAnalyzers indexAnalyzers = new IndexAnalyzers(
+                Collections.singletonMap("default", new NamedAnalyzer("default", AnalyzerScope.GLOBAL, new WhitespaceAnalyzer())),
+                Collections.emptyMap(), Collections.emptyMap());
+        Mockito.when(lookup.doc()).thenReturn(docLookup);
+        Mockito.when(docLookup.mapperService()).thenReturn(mapperService);
+        Mockito.when(mapperService.getIndexAnalyzers()).thenReturn(indexAnalyzers);
+        scorer = new RecordLinkageScorer();
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    private Map<String, Object> params(String query) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("query", query);
+        params.put("field", "name");
+        return params;
+    }
+    
+    private double similarity(SimilarityScriptFactory factory, int docId) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        SimilarityScript script = factory.similarityScript(leaf);
+        script.setDocument(docId - leaf.docBase);
+        return script.execute();
+    }
+    
+    private TopDocs topDocs(int... docIds) {
+        ScoreDoc[] scoreDocs = new ScoreDoc[docIds.length];
+        for (int i = 0; i < docIds.length; i++) {
+            scoreDocs[i] = new ScoreDoc(docIds[i], docIds.length - i);
+        }
+        return new TopDocs(new TotalHits(docIds.length, TotalHits.Relation.EQUAL_TO), scoreDocs);
+    }
+    
+    @Test
+    public void testRescore() throws IOException {
+        SimilarityScriptFactory tfidf = scorer.newFactory("tfidf", params("greentech ltd"), lookup);
+        SimilarityScriptFactory levenshtein = scorer.newFactory("levenshtein", params("greentech ltd"), lookup);
+        RecordLinkageRescorer.Context context = new RecordLinkageRescorer.Context(5,
+                Arrays.asList(tfidf, levenshtein), new double[] { 2.0, 0.5 }, 0.0f, 1.0f);
+        
+        TopDocs rescored = RecordLinkageRescorer.INSTANCE.rescore(topDocs(5, 0, 4, 1, 3, 2), searcher, context);
+        
+        Assert.assertEquals(6, rescored.scoreDocs.length);
+        // the exact match comes first
+        Assert.assertEquals(3, rescored.scoreDocs[0].doc);
+        for (int i = 0; i < 5; i++) {
+            int doc = rescored.scoreDocs[i].doc;
+            double expected = 2.0 * similarity(tfidf, doc) + 0.5 * similarity(levenshtein, doc);
+            Assert.assertEquals(expected, rescored.scoreDocs[i].score, 0.0001);
+            Assert.assertTrue(context.isRescored(doc));
+            if (i > 0) {
+                Assert.assertTrue(rescored.scoreDocs[i - 1].score >= rescored.scoreDocs[i].score);
+            }
+        }
+        // hits outside of the window are left untouched
+        Assert.assertEquals(2, rescored.scoreDocs[5].doc);
+        Assert.assertEquals(1.0f, rescored.scoreDocs[5].score, 0.f);
+        Assert.assertFalse(context.isRescored(2));
+    }
+    
+    @Test
+    public void testExplain() throws IOException {
+        SimilarityScriptFactory tfidf = scorer.newFactory("tfidf", params("greentech ltd"), lookup);
+        RecordLinkageRescorer.Context context = new RecordLinkageRescorer.Context(10,
+                Collections.singletonList(tfidf), new double[] { 2.0 }, 1.0f, 1.0f);
+        TopDocs rescored = RecordLinkageRescorer.INSTANCE.rescore(topDocs(4, 0), searcher, context);
+        
+        Explanation explanation = RecordLinkageRescorer.INSTANCE.explain(4, searcher, context,
+                Explanation.match(2.0f, "first pass"));
+        float score = rescored.scoreDocs[0].doc == 4 ? rescored.scoreDocs[0].score : rescored.scoreDocs[1].score;
+        Assert.assertEquals(score, explanation.getValue().floatValue(), 0.0001);
+    }
+    
+    @Test
+    public void testBuilderParsing() throws IOException {
+        String json = "{\"query_weight\": 0, \"similarities\": ["
+                + "{\"source\": \"tfidf\", \"weight\": 1.1, \"params\": {\"query\": \"greentech ltd\", \"field\": \"name\"}},"
+                + "{\"source\": \"levenshtein\", \"params\": {\"query\": \"greentech ltd\", \"field\": \"name\"}}]}";
+        XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json);
+        RecordLinkageRescorerBuilder builder = RecordLinkageRescorerBuilder.fromXContent(parser, scorer);
+        
+        Assert.assertEquals(0.0f, builder.getQueryWeight(), 0.f);
+        Assert.assertEquals(1.0f, builder.getRescoreQueryWeight(), 0.f);
+        Assert.assertEquals(2, builder.getSimilarities().size());
+        Assert.assertEquals(new SimilarityClause("tfidf", params("greentech ltd"), 1.1), builder.getSimilarities().get(0));
+        Assert.assertEquals(1.0, builder.getSimilarities().get(1).weight(), 0.);
+        
+        builder.windowSize(30);
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            builder.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                Assert.assertEquals(builder, new RecordLinkageRescorerBuilder(in, scorer));
+            }
+        }
+    }
+}
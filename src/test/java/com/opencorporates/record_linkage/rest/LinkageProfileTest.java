@@ -0,0 +1,96 @@
+package com.opencorporates.record_linkage.rest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MatchNoneQueryBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.query.RecordLinkageQueryBuilder;
+import com.opencorporates.record_linkage.rescore.RecordLinkageRescorerBuilder;
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+
+public class LinkageProfileTest {
+    
+    private static final String PROFILE = "{\"size\": 3, \"window_size\": 20, \"similarities\": ["
+            + "{\"source\": \"tfidf\", \"weight\": 1.1, \"params\": {\"field\": \"name\", \"analyzer\": \"my_analyzer\"}},"
+            + "{\"source\": \"levenshtein\", \"weight\": 0.01, \"params\": {\"field\": \"name\"}},"
+            + "{\"source\": \"tfidf\", \"weight\": 0.1, \"params\": {\"field\": \"address\"}}]}";
+    
+    private RecordLinkageScorer scorer;
+    
+    @Before
+    public void setUp() {
+        scorer = new RecordLinkageScorer();
+    }
+    
+    private static LinkageProfile parse(String json) throws IOException {
+        XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json);
+        return LinkageProfile.fromXContent(parser);
+    }
+    
+    @Test
+    public void testParse() throws IOException {
+        LinkageProfile profile = parse(PROFILE);
+        Assert.assertEquals(3, profile.getSize());
+        Assert.assertEquals(20, profile.getWindowSize());
+        Assert.assertEquals(100, profile.getBatchSize());
+        Assert.assertEquals(3, profile.getSimilarities().size());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSimilarity() throws IOException {
+        parse("{\"similarities\": [{\"source\": \"unknown\", \"params\": {\"field\": \"name\"}}]}");
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingField() throws IOException {
+        parse("{\"similarities\": [{\"source\": \"tfidf\", \"params\": {}}]}");
+    }
+    
+    @Test
+    public void testSearchRequest() throws IOException {
+        Map<String, Object> record = new HashMap<>();
+        record.put("name", "GreenTech Ltd");
+        record.put("address", "38 Station Approach");
+        SearchRequest request = parse(PROFILE).searchRequest(new String[] { "companies" }, record, scorer);
+        
+        Assert.assertArrayEquals(new String[] { "companies" }, request.indices());
+        Assert.assertEquals(3, request.source().size());
+        BoolQueryBuilder query = (BoolQueryBuilder) request.source().query();
+        Assert.assertEquals(2, query.should().size());
+        RecordLinkageQueryBuilder nameQuery = (RecordLinkageQueryBuilder) query.should().get(0);
+        Assert.assertEquals("name", nameQuery.field());
+        Assert.assertEquals("GreenTech Ltd", nameQuery.query());
+        Assert.assertEquals("my_analyzer", nameQuery.analyzer());
+        
+        RecordLinkageRescorerBuilder rescorer = (RecordLinkageRescorerBuilder) request.source().rescores().get(0);
+        Assert.assertEquals(20, rescorer.windowSize().intValue());
+        Assert.assertEquals(0.0f, rescorer.getQueryWeight(), 0.f);
+        Assert.assertEquals(3, rescorer.getSimilarities().size());
+        Assert.assertEquals("38 Station Approach", rescorer.getSimilarities().get(2).params().get("query"));
+    }
+    
+    @Test
+    public void testMissingValues() throws IOException {
+        Map<String, Object> record = new HashMap<>();
+        record.put("name", "GreenTech Ltd");
+        SearchRequest request = parse(PROFILE).searchRequest(new String[] { "companies" }, record, scorer);
+        RecordLinkageRescorerBuilder rescorer = (RecordLinkageRescorerBuilder) request.source().rescores().get(0);
+        Assert.assertEquals(2, rescorer.getSimilarities().size());
+        
+        request = parse(PROFILE).searchRequest(new String[] { "companies" }, new HashMap<>(), scorer);
+        Assert.assertTrue(request.source().query() instanceof MatchNoneQueryBuilder);
+        Assert.assertNull(request.source().rescores());
+    }
+}
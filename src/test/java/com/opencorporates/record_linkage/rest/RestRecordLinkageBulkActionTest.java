@@ -0,0 +1,153 @@
+package com.opencorporates.record_linkage.rest;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.CheckedConsumer;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.http.HttpRequest;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.opencorporates.record_linkage.scoring.RecordLinkageScorer;
+
+public class RestRecordLinkageBulkActionTest {
+
+    private static final String PROFILE = "{\"size\": 1, \"batch_size\": 2, \"similarities\": ["
+            + "{\"source\": \"tfidf\", \"weight\": 1.0, \"params\": {\"field\": \"name\"}}]}";
+
+    private NodeClient client;
+    private RestChannel channel;
+    // number of records of each multi-search request sent
+    private List<Integer> batches;
+
+    @Before
+    public void setUp() {
+        client = mock(NodeClient.class);
+        channel = mock(RestChannel.class);
+        batches = new ArrayList<>();
+        // the first record of each batch is found, the others fail
+        doAnswer(invocation -> {
+            MultiSearchRequest request = (MultiSearchRequest) invocation.getArguments()[0];
+            @SuppressWarnings("unchecked")
+            ActionListener<MultiSearchResponse> listener = (ActionListener<MultiSearchResponse>) invocation.getArguments()[1];
+            batches.add(request.requests().size());
+            MultiSearchResponse.Item[] items = new MultiSearchResponse.Item[request.requests().size()];
+            items[0] = new MultiSearchResponse.Item(searchResponse("doc" + batches.size()), null);
+            for (int i = 1; i < items.length; i++) {
+                items[i] = new MultiSearchResponse.Item(null, new IllegalStateException("failed"));
+            }
+            listener.onResponse(new MultiSearchResponse(items, 1L));
+            return null;
+        }).when(client).multiSearch(any(MultiSearchRequest.class), any());
+    }
+
+    private static SearchResponse searchResponse(String id) {
+        SearchHit hit = new SearchHit(0, id, null, Collections.emptyMap());
+        hit.score(2.f);
+        SearchHits hits = new SearchHits(new SearchHit[] { hit }, new TotalHits(1L, TotalHits.Relation.EQUAL_TO), 2.f);
+        return new SearchResponse(new InternalSearchResponse(hits, null, null, null, false, null, 1), null, 1, 1, 0, 1L,
+                ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+
+    private static RestRecordLinkageBulkAction action(Settings settings) {
+        return new RestRecordLinkageBulkAction(settings, mock(RestController.class), new RecordLinkageScorer());
+    }
+
+    private static RestRequest request(String body) {
+        HttpRequest httpRequest = mock(HttpRequest.class);
+        when(httpRequest.content()).thenReturn(new BytesArray(body));
+        Map<String, String> params = new HashMap<>();
+        params.put("index", "companies");
+        return new RestRequest(NamedXContentRegistry.EMPTY, params, "/companies/_record_linkage/_bulk",
+                Collections.singletonMap("Content-Type", Collections.singletonList("application/x-ndjson")), httpRequest, null) {
+        };
+    }
+
+    @Test
+    public void testLines() {
+        BytesReference data = new BytesArray("{\"size\": 3}\n{\"name\": \"acme\"}\n\n  \n{\"name\": \"greentech\"}");
+        List<BytesReference> lines = RestRecordLinkageBulkAction.lines(data);
+
+        Assert.assertEquals(3, lines.size());
+        Assert.assertEquals("{\"size\": 3}", lines.get(0).utf8ToString());
+        Assert.assertEquals("{\"name\": \"acme\"}", lines.get(1).utf8ToString());
+        Assert.assertEquals("{\"name\": \"greentech\"}", lines.get(2).utf8ToString());
+    }
+
+    @Test
+    public void testTrailingNewline() {
+        List<BytesReference> lines = RestRecordLinkageBulkAction.lines(new BytesArray("{}\n{}\n"));
+        Assert.assertEquals(2, lines.size());
+    }
+
+    @Test
+    public void testLinkInBatches() throws Exception {
+        String body = PROFILE + "\n{\"_id\": \"r1\", \"name\": \"acme\"}\n{\"name\": \"greentech\"}\n{\"_id\": \"r3\", \"name\": \"northumbria\"}\n";
+        CheckedConsumer<RestChannel, Exception> consumer = action(Settings.EMPTY).prepareRequest(request(body), client);
+        consumer.accept(channel);
+
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(2, (int) batches.get(0));
+        Assert.assertEquals(1, (int) batches.get(1));
+        ArgumentCaptor<RestResponse> response = ArgumentCaptor.forClass(RestResponse.class);
+        verify(channel, times(1)).sendResponse(response.capture());
+        Assert.assertEquals(RestStatus.OK, response.getValue().status());
+        Assert.assertEquals("application/x-ndjson", response.getValue().contentType());
+
+        List<BytesReference> lines = RestRecordLinkageBulkAction.lines(response.getValue().content());
+        Assert.assertEquals(3, lines.size());
+        Assert.assertEquals("{\"record\":0,\"_id\":\"r1\",\"candidates\":[{\"_index\":null,\"_id\":\"doc1\",\"_score\":2.0}]}",
+                lines.get(0).utf8ToString());
+        Assert.assertEquals("{\"record\":1,\"error\":\"failed\"}", lines.get(1).utf8ToString());
+        Assert.assertEquals("{\"record\":2,\"_id\":\"r3\",\"candidates\":[{\"_index\":null,\"_id\":\"doc2\",\"_score\":2.0}]}",
+                lines.get(2).utf8ToString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyRecords() throws Exception {
+        Settings settings = Settings.builder().put(RestRecordLinkageBulkAction.MAX_RECORDS_SETTING.getKey(), 2).build();
+        action(settings).prepareRequest(request(PROFILE + "\n{\"name\": \"a\"}\n{\"name\": \"b\"}\n{\"name\": \"c\"}\n"), client);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() throws Exception {
+        Settings settings = Settings.builder().put(RestRecordLinkageBulkAction.MAX_BYTES_SETTING.getKey(), "100b").build();
+        action(settings).prepareRequest(request(PROFILE + "\n{\"name\": \"a\"}\n"), client);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingProfile() throws Exception {
+        action(Settings.EMPTY).prepareRequest(request("\n\n"), client);
+    }
+}
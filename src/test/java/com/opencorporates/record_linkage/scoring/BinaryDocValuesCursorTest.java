@@ -0,0 +1,100 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FilterBinaryDocValues;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.TestIndex;
+
+public class BinaryDocValuesCursorTest {
+
+    private TestIndex index;
+    private DirectoryReader reader;
+    private StrictReader leafReader;
+    private BinaryDocValuesCursor SUT;
+
+    /**
+     * Only lets doc values advance to documents after the current one, and counts the iterators pulled.
+     */
+    private static class StrictReader extends FilterLeafReader {
+        int pulls = 0;
+
+        StrictReader(LeafReader in) {
+            super(in);
+        }
+
+        @Override
+        public BinaryDocValues getBinaryDocValues(String field) throws IOException {
+            pulls++;
+            return new FilterBinaryDocValues(super.getBinaryDocValues(field)) {
+                @Override
+                public boolean advanceExact(int target) throws IOException {
+                    Assert.assertTrue("advanced to " + target + " from " + docID(), target > docID());
+                    return super.advanceExact(target);
+                }
+            };
+        }
+
+        @Override
+        public CacheHelper getCoreCacheHelper() {
+            return in.getCoreCacheHelper();
+        }
+
+        @Override
+        public CacheHelper getReaderCacheHelper() {
+            return in.getReaderCacheHelper();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        for (String value : new String[] { "greentech", null, "acme", null }) {
+            Document document = new Document();
+            if (value != null) {
+                document.add(new BinaryDocValuesField("name", new BytesRef(value)));
+            }
+            index.addDocument(document);
+        }
+        index.forceMerge();
+        reader = index.reader();
+        leafReader = new StrictReader(reader.leaves().get(0).reader());
+        SUT = new BinaryDocValuesCursor(leafReader, "name");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testReadSameDocumentTwice() throws IOException {
+        Assert.assertEquals(new BytesRef("acme"), SUT.get(2));
+        Assert.assertEquals(new BytesRef("acme"), SUT.get(2));
+        Assert.assertNull(SUT.get(3));
+        Assert.assertNull(SUT.get(3));
+        Assert.assertEquals(1, leafReader.pulls);
+    }
+
+    @Test
+    public void testReadBackwards() throws IOException {
+        Assert.assertNull(SUT.get(1));
+        Assert.assertEquals(new BytesRef("acme"), SUT.get(2));
+        Assert.assertEquals(1, leafReader.pulls);
+
+        Assert.assertNull(SUT.get(1));
+        Assert.assertEquals(new BytesRef("greentech"), SUT.get(0));
+        Assert.assertEquals(3, leafReader.pulls);
+    }
+}
@@ -0,0 +1,70 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.similarity.QGramSimilarity;
+import com.opencorporates.record_linkage.similarity.StringSimilarity;
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+public class ConfiguredSimilaritiesTest {
+    
+    private TFIDFSimilarity tfidf = new TFIDFSimilarity();
+    
+    @Before
+    public void setUp() {
+        ConfiguredSimilarities.clear();
+    }
+    
+    private static Map<String, Object> params(String query, Object queryNormExponent) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("query", query);
+        params.put("field", "name");
+        if (queryNormExponent != null) {
+            params.put("query_norm_exponent", queryNormExponent);
+        }
+        return params;
+    }
+    
+    @Test
+    public void testInterning() {
+        StringSimilarity configured = ConfiguredSimilarities.configure(tfidf, params("greentech ltd", 1));
+        Assert.assertEquals(1.0, ((TFIDFSimilarity) configured).getQueryNormExponent(), 0.);
+        // the query and field do not matter
+        Assert.assertSame(configured, ConfiguredSimilarities.configure(tfidf, params("acme corp", 1)));
+        Assert.assertSame(configured, ConfiguredSimilarities.configure(tfidf, params("acme corp", "1")));
+        
+        Assert.assertNotSame(configured, ConfiguredSimilarities.configure(tfidf, params("acme corp", 0.5)));
+        Assert.assertNotSame(configured, ConfiguredSimilarities.configure(new TFIDFSimilarity(), params("acme corp", 1)));
+        Assert.assertEquals(0.0, ((TFIDFSimilarity) ConfiguredSimilarities.configure(tfidf, params("acme corp", null)))
+                .getQueryNormExponent(), 0.);
+        Assert.assertEquals(4, ConfiguredSimilarities.size());
+    }
+    
+    @Test
+    public void testBound() {
+        for (int i = 0; i < ConfiguredSimilarities.MAX_CONFIGURATIONS + 10; i++) {
+            ConfiguredSimilarities.configure(tfidf, params("greentech ltd", i));
+        }
+        Assert.assertTrue(ConfiguredSimilarities.size() <= ConfiguredSimilarities.MAX_CONFIGURATIONS);
+    }
+    
+    @Test
+    public void testInvalidParameters() {
+        Map<String, Object> params = params("greentech ltd", null);
+        params.put("measure", "euclidean");
+        for (int i = 0; i < 2; i++) {
+            try {
+                ConfiguredSimilarities.configure(new QGramSimilarity(), params);
+                Assert.fail("invalid parameters should be rejected");
+            } catch (IllegalArgumentException e) {
+                // rejected every time, and never cached
+            }
+        }
+        Assert.assertEquals(0, ConfiguredSimilarities.size());
+    }
+}
@@ -0,0 +1,128 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.CacheHelperStub;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.LeafReaderStub;
+import com.opencorporates.record_linkage.TestIndex;
+
+public class DocFreqCacheTest {
+    
+    private DocFreqCache SUT;
+    private CacheHelperStub cacheHelper;
+    private LeafReaderStub reader;
+    
+    @Before
+    public void setUp() {
+        SUT = new DocFreqCache(10, TimeValue.MINUS_ONE);
+        cacheHelper = new CacheHelperStub();
+        reader = new LeafReaderStub() {
+            @Override
+            public CacheHelper getCoreCacheHelper() {
+                return cacheHelper;
+            }
+        };
+        reader.setDocId(4);
+    }
+    
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        Assert.assertEquals(12, SUT.docFreq(reader, "name", new BytesRef("greentech")));
+        Assert.assertEquals(12, SUT.docFreq(reader, "name", new BytesRef("greentech")));
+        Assert.assertEquals(1342, SUT.docFreq(reader, "name", new BytesRef("ltd")));
+        
+        Assert.assertEquals(1, SUT.stats().getHits());
+        Assert.assertEquals(2, SUT.stats().getMisses());
+        Assert.assertEquals(2, SUT.count());
+    }
+    
+    @Test
+    public void testInvalidationOnClose() throws IOException {
+        SUT.docFreq(reader, "name", new BytesRef("greentech"));
+        Assert.assertEquals(1, SUT.count());
+        
+        cacheHelper.close();
+        Assert.assertEquals(0, SUT.count());
+    }
+    
+    @Test
+    public void testInvalidationOnlyTouchesClosedSegment() throws IOException {
+        CacheHelperStub otherCacheHelper = new CacheHelperStub();
+        LeafReaderStub other = new LeafReaderStub() {
+            @Override
+            public CacheHelper getCoreCacheHelper() {
+                return otherCacheHelper;
+            }
+        };
+        other.setDocId(4);
+        SUT.docFreq(reader, "name", new BytesRef("greentech"));
+        SUT.docFreq(reader, "name", new BytesRef("ltd"));
+        SUT.docFreq(other, "name", new BytesRef("greentech"));
+        // the listener is registered once per segment, not on every miss
+        Assert.assertEquals(1, cacheHelper.registrations());
+        Assert.assertEquals(1, otherCacheHelper.registrations());
+        
+        cacheHelper.close();
+        Assert.assertEquals(1, SUT.count());
+        Assert.assertEquals(12, SUT.docFreq(other, "name", new BytesRef("greentech")));
+        Assert.assertEquals(1, SUT.stats().getHits());
+    }
+    
+    @Test
+    public void testEvictedKeysForgotten() throws IOException {
+        SUT = new DocFreqCache(1, TimeValue.MINUS_ONE);
+        SUT.docFreq(reader, "name", new BytesRef("greentech"));
+        // evicts the first frequency
+        SUT.docFreq(reader, "name", new BytesRef("ltd"));
+        Assert.assertEquals(1, SUT.count());
+        
+        cacheHelper.close();
+        Assert.assertEquals(0, SUT.count());
+    }
+    
+    @Test
+    public void testDisabled() throws IOException {
+        SUT = DocFreqCache.disabled();
+        Assert.assertEquals(12, SUT.docFreq(reader, "name", new BytesRef("greentech")));
+        Assert.assertEquals(0, SUT.count());
+    }
+    
+    @Test
+    public void testReaderWithoutCacheHelper() throws IOException {
+        LeafReaderStub uncached = new LeafReaderStub();
+        uncached.setDocId(4);
+        Assert.assertEquals(21, SUT.docFreq(uncached, "name", new BytesRef("distribution")));
+        Assert.assertEquals(0, SUT.count());
+    }
+    
+    @Test
+    public void testShardReaderSurvivesRefresh() throws IOException {
+        try (TestIndex index = new TestIndex()) {
+            index.addText("name", "greentech ltd");
+            index.addText("name", "acme ltd");
+            index.commit();
+            DirectoryReader reader = index.reader();
+            Assert.assertEquals(2, SUT.docFreq(reader, "name", new BytesRef("ltd")));
+            Assert.assertEquals(1, SUT.count());
+            
+            // a refresh adds a segment, and reopens the shard reader
+            index.addText("name", "greentech services ltd");
+            DirectoryReader refreshed = index.refresh();
+            Assert.assertNotSame(reader, refreshed);
+            Assert.assertEquals(2, refreshed.leaves().size());
+            
+            // the first segment is still cached, only the new one is looked up
+            Assert.assertEquals(3, SUT.docFreq(refreshed, "name", new BytesRef("ltd")));
+            Assert.assertEquals(1, SUT.stats().getHits());
+            Assert.assertEquals(2, SUT.stats().getMisses());
+            Assert.assertEquals(2, SUT.count());
+        }
+    }
+}
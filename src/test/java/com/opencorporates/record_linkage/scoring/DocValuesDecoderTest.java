@@ -0,0 +1,112 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.mapper.LinkageTextDocValuesField;
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+
+public class DocValuesDecoderTest {
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private TokenDictionary dictionary;
+    private DocValuesDecoder SUT;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        index.addDocument(document(Arrays.asList(
+                Arrays.asList("greentech", "distribution", "ltd"),
+                Arrays.asList("greentech", "ltd"))));
+        index.addDocument(new Document());
+        index.addDocument(document(Arrays.asList(
+                Collections.emptyList(),
+                Arrays.asList("acme", "acme", "corp"))));
+        index.forceMerge();
+        reader = index.reader();
+        LeafReader leaf = reader.leaves().get(0).reader();
+        dictionary = new TokenDictionary();
+        SUT = new DocValuesDecoder(leaf, "name", dictionary);
+    }
+    
+    private Document document(List<List<String>> values) {
+        List<List<BytesRef>> encoded = new ArrayList<>();
+        for (List<String> value : values) {
+            List<BytesRef> tokens = new ArrayList<>();
+            for (String token : value) {
+                tokens.add(new BytesRef(token));
+            }
+            encoded.add(tokens);
+        }
+        Document document = new Document();
+        document.add(new BinaryDocValuesField("name", LinkageTextDocValuesField.encode(encoded)));
+        return document;
+    }
+    
+    private List<List<String>> values() {
+        BytesRef scratch = new BytesRef();
+        List<List<String>> values = new ArrayList<>();
+        for (int value = 0; value < SUT.valueCount(); value++) {
+            List<String> tokens = new ArrayList<>();
+            for (int i = SUT.valueStart(value); i < SUT.valueEnd(value); i++) {
+                tokens.add(dictionary.get(SUT.tokens()[i], scratch).utf8ToString());
+            }
+            values.add(tokens);
+        }
+        return values;
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    @Test
+    public void testRead() throws IOException {
+        Assert.assertEquals(2, SUT.read(0));
+        Assert.assertEquals(Arrays.asList(
+                Arrays.asList("greentech", "distribution", "ltd"),
+                Arrays.asList("greentech", "ltd")), values());
+        Assert.assertEquals(3, dictionary.size());
+        
+        Assert.assertEquals(0, SUT.read(1));
+        
+        Assert.assertEquals(1, SUT.read(2));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("acme", "acme", "corp")), values());
+    }
+    
+    @Test
+    public void testReadBackwards() throws IOException {
+        SUT.read(2);
+        Assert.assertEquals(2, SUT.read(0));
+        Assert.assertEquals(Arrays.asList("greentech", "ltd"), values().get(1));
+    }
+    
+    @Test
+    public void testReadSameDocumentTwice() throws IOException {
+        // doc 1 has no value, so the doc values of the field are sparse
+        SUT.read(2);
+        Assert.assertEquals(1, SUT.read(2));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("acme", "acme", "corp")), values());
+        
+        Assert.assertEquals(0, SUT.read(1));
+        Assert.assertEquals(0, SUT.read(1));
+        Assert.assertEquals(2, SUT.read(0));
+        Assert.assertEquals(2, SUT.read(0));
+    }
+}
@@ -0,0 +1,64 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.similarity.LevenshteinSimilarity;
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+public class LevenshteinPrefilterTest {
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private List<BytesRef> queryTerms;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        for (String name : Arrays.asList("greentech distribution ltd", "acme corp", "north east services ltd")) {
+            index.addText("name", name);
+        }
+        index.forceMerge();
+        reader = index.reader();
+        queryTerms = Arrays.asList(new BytesRef("greentech"), new BytesRef("distribution"), new BytesRef("ltd"));
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    @Test
+    public void testMayMatch() throws IOException {
+        CandidatePrefilter prefilter = LevenshteinPrefilter.create(new LevenshteinSimilarity(1), "name", queryTerms);
+        LeafReader leaf = reader.leaves().get(0).reader();
+        CandidatePrefilter.Leaf leafPrefilter = prefilter.forLeaf(leaf);
+        
+        Assert.assertTrue(leafPrefilter.mayMatch(0));
+        Assert.assertFalse(leafPrefilter.mayMatch(1));
+        Assert.assertTrue(leafPrefilter.mayMatch(2));
+        // documents can be tested out of order
+        Assert.assertFalse(leafPrefilter.mayMatch(1));
+        Assert.assertTrue(leafPrefilter.mayMatch(0));
+    }
+    
+    @Test
+    public void testNotApplicable() {
+        Assert.assertNull(LevenshteinPrefilter.create(new LevenshteinSimilarity(2), "name", queryTerms));
+        Assert.assertNull(LevenshteinPrefilter.create(new LevenshteinSimilarity(), "name", queryTerms));
+        Assert.assertNull(LevenshteinPrefilter.create(new TFIDFSimilarity(), "name", queryTerms));
+        Assert.assertNull(LevenshteinPrefilter.create(new LevenshteinSimilarity(0), "name",
+                Collections.singletonList(new BytesRef("greentech ltd"))));
+    }
+}
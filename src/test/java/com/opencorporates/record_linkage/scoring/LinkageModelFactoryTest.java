@@ -0,0 +1,168 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.IndexAnalyzers;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.script.FieldScript;
+import org.elasticsearch.script.ScriptContext;
+import org.elasticsearch.search.lookup.DocLookup;
+import org.elasticsearch.search.lookup.LeafSearchLookup;
+import org.elasticsearch.search.lookup.SearchLookup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.opencorporates.record_linkage.TestIndex;
+
+public class LinkageModelFactoryTest {
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private CountingReader leafReader;
+    private SearchLookup lookup;
+    private RecordLinkageScorer scorer;
+    
+    /**
+     * Counts the term vectors read.
+     */
+    private static class CountingReader extends FilterLeafReader {
+        int termVectorReads = 0;
+        
+        CountingReader(LeafReaderContext context) {
+            super(context.reader());
+        }
+        
+        @Override
+        public Fields getTermVectors(int docID) throws IOException {
+            termVectorReads++;
+            return super.getTermVectors(docID);
+        }
+
+        @Override
+        public CacheHelper getCoreCacheHelper() {
+            return in.getCoreCacheHelper();
+        }
+
+        @Override
+        public CacheHelper getReaderCacheHelper() {
+            return in.getReaderCacheHelper();
+        }
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        for (String[] record : Arrays.asList(
+                new String[] { "greentech distribution ltd", "38 station approach" },
+                new String[] { "acme corp", "1 high street" },
+                new String[] { "greentech ltd", "2 station road" })) {
+            index.addWithTermVectors("name", record[0], "address", record[1]);
+        }
+        reader = index.reader();
+        leafReader = new CountingReader(reader.leaves().get(0));
+        
+        lookup = Mockito.mock(SearchLookup.class);
+        DocLookup docLookup = Mockito.mock(DocLookup.class);
+        MapperService mapperService = Mockito.mock(MapperService.class);
+        IndexAnalyzers indexAnalyzers = new IndexAnalyzers(
+                Collections.singletonMap("default", new NamedAnalyzer("default", AnalyzerScope.GLOBAL, new WhitespaceAnalyzer())),
+                Collections.emptyMap(), Collections.emptyMap());
+        Mockito.when(lookup.doc()).thenReturn(docLookup);
+        Mockito.when(docLookup.mapperService()).thenReturn(mapperService);
+        Mockito.when(mapperService.getIndexAnalyzers()).thenReturn(indexAnalyzers);
+        LeafSearchLookup leafLookup = Mockito.mock(LeafSearchLookup.class);
+        Mockito.when(leafLookup.asMap()).thenReturn(Collections.emptyMap());
+        Mockito.when(lookup.getLeafSearchLookup(Mockito.any())).thenReturn(leafLookup);
+        scorer = new RecordLinkageScorer();
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    private Map<String, Object> feature(String source, String field, String query, double weight) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("field", field);
+        params.put("query", query);
+        Map<String, Object> feature = new HashMap<>();
+        feature.put("source", source);
+        feature.put("params", params);
+        feature.put("weight", weight);
+        return feature;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private double similarity(Map<String, Object> feature, int docId) throws IOException {
+        SimilarityScriptFactory factory = scorer.newFactory(feature.get("source").toString(),
+                (Map<String, Object>) feature.get("params"), lookup);
+        SimilarityScript script = factory.similarityScript(reader.leaves().get(0));
+        script.setDocument(docId);
+        return script.execute();
+    }
+    
+    @Test
+    public void testWeightedSum() throws IOException {
+        Map<String, Object> name = feature("tfidf", "name", "greentech ltd", 1.5);
+        Map<String, Object> address = feature("tfidf", "address", "38 station approach", 0.5);
+        Map<String, Object> params = new HashMap<>();
+        params.put("features", Arrays.asList(name, address));
+        params.put("intercept", -1);
+        
+        LinkageModelFactory.LeafModel model = new LinkageModelFactory(params, lookup, scorer).leafModel(leafReader.getContext());
+        for (int docId = 0; docId < 3; docId++) {
+            model.setDocument(docId);
+            double expected = -1 + 1.5 * similarity(name, docId) + 0.5 * similarity(address, docId);
+            Assert.assertEquals(expected, model.execute(), 0.0001);
+        }
+        // the term vectors of each document are only read once for both fields
+        Assert.assertEquals(3, leafReader.termVectorReads);
+    }
+    
+    @Test
+    public void testLogisticLink() throws IOException {
+        Map<String, Object> name = feature("levenshtein", "name", "greentech ltd", 0.1);
+        Map<String, Object> params = new HashMap<>();
+        params.put("features", Collections.singletonList(name));
+        params.put("intercept", -9.5);
+        params.put("link", "logistic");
+        
+        FieldScript script = scorer.compile("model", "model", FieldScript.CONTEXT, Collections.emptyMap())
+                .newFactory(params, lookup).newInstance(leafReader.getContext());
+        script.setDocument(2);
+        // an exact match scores 100, hence a sum of 0.5
+        Assert.assertEquals(1.0 / (1.0 + Math.exp(-0.5)), (double) script.execute(), 0.0001);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingFeatures() {
+        new LinkageModelFactory(new HashMap<>(), lookup, scorer);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLink() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("features", Collections.singletonList(feature("tfidf", "name", "acme", 1.0)));
+        params.put("link", "probit");
+        new LinkageModelFactory(params, lookup, scorer);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedContext() {
+        scorer.compile("model", "model", new ScriptContext<>("test", FieldScript.Factory.class), Collections.emptyMap());
+    }
+}
@@ -0,0 +1,136 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.ingest.FrequencySnapshot;
+import com.opencorporates.record_linkage.ingest.TFIDFNormsProcessor;
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+public class PrecomputedNormsTest {
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private PrecomputedNorms SUT;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        index.addDocument(document(42L, new float[] { 3.5f, 1.25f }));
+        index.addDocument(new Document());
+        index.addDocument(document(-7L, new float[] { 7.f }));
+        index.forceMerge();
+        reader = index.reader();
+        SUT = new PrecomputedNorms(reader.leaves().get(0).reader(), "name_norms");
+    }
+    
+    /**
+     * Encodes norms as a {@code binary} field does, from the value written by the ingest processor.
+     */
+    private Document document(long version, float[] norms) throws IOException {
+        byte[] value = Base64.getDecoder().decode(TFIDFNormsProcessor.encode(version, norms));
+        ByteBuffersDataOutput output = new ByteBuffersDataOutput();
+        output.writeVInt(1);
+        output.writeVInt(value.length);
+        output.writeBytes(value, value.length);
+        Document document = new Document();
+        document.add(new BinaryDocValuesField("name_norms", new BytesRef(output.toArrayCopy())));
+        return document;
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    @Test
+    public void testRead() throws IOException {
+        Assert.assertEquals(2, SUT.read(0));
+        Assert.assertEquals(3.5f, SUT.norm(0), 0.f);
+        Assert.assertEquals(1.25f, SUT.norm(1), 0.f);
+        Assert.assertEquals(42L, SUT.version());
+        Assert.assertEquals(0, SUT.read(1));
+        Assert.assertEquals(1, SUT.read(2));
+        Assert.assertEquals(7.f, SUT.norm(0), 0.f);
+        Assert.assertEquals(-7L, SUT.version());
+    }
+    
+    @Test
+    public void testReadBackwards() throws IOException {
+        SUT.read(2);
+        Assert.assertEquals(2, SUT.read(0));
+        Assert.assertEquals(2, SUT.count());
+    }
+    
+    @Test
+    public void testReadSameDocumentTwice() throws IOException {
+        // doc 1 has no norms, so the doc values of the field are sparse
+        SUT.read(2);
+        Assert.assertEquals(1, SUT.read(2));
+        Assert.assertEquals(7.f, SUT.norm(0), 0.f);
+        Assert.assertEquals(-7L, SUT.version());
+        Assert.assertEquals(0, SUT.read(1));
+        Assert.assertEquals(0, SUT.read(1));
+        Assert.assertEquals(0L, SUT.version());
+    }
+    
+    @Test
+    public void testScoreWithSnapshot() throws IOException {
+        FrequencySnapshot snapshot = new FrequencySnapshot(10000L, 7L);
+        snapshot.add("greentech", 1L);
+        snapshot.add("services", 100L);
+        snapshot.add("ltd", 1000L);
+        List<String> fieldTokens = Arrays.asList("greentech", "services", "ltd");
+        float norm = (float) snapshot.norm(fieldTokens);
+        try (TestIndex scored = new TestIndex()) {
+            Document current = TestIndex.document(TestIndex.TEXT_WITH_TERM_VECTORS, "name", "greentech services ltd");
+            current.add(document(7L, new float[] { norm }).getField("name_norms"));
+            scored.addDocument(current);
+            // computed from another snapshot
+            Document stale = TestIndex.document(TestIndex.TEXT_WITH_TERM_VECTORS, "name", "greentech services ltd");
+            stale.add(document(8L, new float[] { 0.01f }).getField("name_norms"));
+            scored.addDocument(stale);
+            scored.forceMerge();
+            
+            List<String> queryTokens = Arrays.asList("services", "ltd");
+            SimilarityScript script = new SimilarityScript(scored.reader().leaves().get(0).reader(), "name", "services ltd",
+                    queryTokens, 1, 1234, new TFIDFSimilarity());
+            script.setPrecomputedNorms(new PrecomputedNorms(scored.reader().leaves().get(0).reader(), "name_norms"), snapshot);
+            
+            // query weights and norms both come from the snapshot
+            Map<String, Long> snapshotFreqs = new HashMap<>();
+            for (String token : fieldTokens) {
+                snapshotFreqs.put(token, snapshot.docFreq(token));
+            }
+            script.setDocument(0);
+            Assert.assertEquals(new TFIDFSimilarity().compute("services ltd", queryTokens, snapshotFreqs, fieldTokens, snapshotFreqs, 10000),
+                    script.execute(), 0.0001);
+            
+            // the stale norm is ignored, and the document is scored with the statistics of the index
+            Map<String, Long> indexFreqs = new HashMap<>();
+            for (String token : fieldTokens) {
+                indexFreqs.put(token, 2L);
+            }
+            script.setDocument(1);
+            double score = script.execute();
+            Assert.assertEquals(new TFIDFSimilarity().compute("services ltd", queryTokens, indexFreqs, fieldTokens, indexFreqs, 1234),
+                    score, 0.0001);
+            Assert.assertTrue(score <= 1.);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.analysis.AnalyzerComponents;
+import org.elasticsearch.index.analysis.AnalyzerComponentsProvider;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.CharFilterFactory;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.analysis.TokenizerFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class QueryTokenCacheTest {
+    
+    private QueryTokenCache SUT;
+    private Analyzer analyzer;
+    private int analyzed;
+    private Function<String, List<BytesRef>> analyze;
+    
+    @Before
+    public void setUp() {
+        SUT = new QueryTokenCache(10, TimeValue.MINUS_ONE);
+        analyzer = new WhitespaceAnalyzer();
+        analyzed = 0;
+        analyze = query -> {
+            analyzed++;
+            return Arrays.asList(new BytesRef(query.split(" ")[0]), new BytesRef(query.split(" ")[1]));
+        };
+    }
+    
+    @Test
+    public void testHitsAndMisses() {
+        List<BytesRef> tokens = SUT.tokens("companies", "names", analyzer, "name", "abc holdings", analyze);
+        Assert.assertEquals(Arrays.asList(new BytesRef("abc"), new BytesRef("holdings")), tokens);
+        Assert.assertSame(tokens, SUT.tokens("companies", "names", analyzer, "name", "abc holdings", analyze));
+        Assert.assertEquals(1, analyzed);
+        
+        // any change in the key analyzes the query again
+        SUT.tokens("companies", "names", analyzer, "address", "abc holdings", analyze);
+        SUT.tokens("companies", "other", analyzer, "name", "abc holdings", analyze);
+        SUT.tokens("officers", "names", analyzer, "name", "abc holdings", analyze);
+        SUT.tokens("companies", "names", new WhitespaceAnalyzer(), "name", "abc holdings", analyze);
+        Assert.assertEquals(5, analyzed);
+        Assert.assertEquals(1, SUT.stats().getHits());
+        Assert.assertEquals(5, SUT.count());
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        SUT.tokens("companies", "names", analyzer, "name", "abc holdings", analyze).clear();
+    }
+    
+    @Test
+    public void testInvalidation() {
+        SUT.tokens("companies", "names", analyzer, "name", "abc holdings", analyze);
+        SUT.tokens("officers", "names", analyzer, "name", "abc holdings", analyze);
+        
+        SUT.invalidate("companies");
+        Assert.assertEquals(1, SUT.count());
+        SUT.tokens("officers", "names", analyzer, "name", "abc holdings", analyze);
+        Assert.assertEquals(2, analyzed);
+    }
+    
+    @Test
+    public void testDisabled() {
+        SUT = QueryTokenCache.disabled();
+        SUT.tokens("companies", "names", analyzer, "name", "abc holdings", analyze);
+        SUT.tokens("companies", "names", analyzer, "name", "abc holdings", analyze);
+        Assert.assertEquals(2, analyzed);
+        Assert.assertEquals(0, SUT.count());
+    }
+    
+    @Test
+    public void testReloadedAnalyzer() throws Exception {
+        ReloadableAnalyzerStub reloadable = new ReloadableAnalyzerStub();
+        NamedAnalyzer named = new NamedAnalyzer("names", AnalyzerScope.INDEX, reloadable);
+        SUT.tokens("companies", "names", named, "name", "abc holdings", analyze);
+        SUT.tokens("companies", "names", named, "name", "abc holdings", analyze);
+        Assert.assertEquals(1, analyzed);
+        
+        // reloading search analyzers swaps the components of the same analyzer
+        reloadable.reload();
+        SUT.tokens("companies", "names", named, "name", "abc holdings", analyze);
+        Assert.assertEquals(2, analyzed);
+    }
+    
+    @Test
+    public void testFailuresNotCached() {
+        Function<String, List<BytesRef>> failing = query -> {
+            analyzed++;
+            throw new UncheckedIOException(new IOException("analysis failed"));
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                SUT.tokens("companies", "names", analyzer, "name", "abc holdings", failing);
+                Assert.fail("analysis errors must be propagated");
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(2, analyzed);
+        Assert.assertEquals(0, SUT.count());
+    }
+    
+    /**
+     * Exposes its components like the reloadable analyzers of Elasticsearch, which are replaced on reload.
+     */
+    private static class ReloadableAnalyzerStub extends AnalyzerStub implements AnalyzerComponentsProvider {
+        
+        private AnalyzerComponents components;
+        
+        ReloadableAnalyzerStub() throws Exception {
+            reload();
+        }
+        
+        void reload() throws Exception {
+            Constructor<AnalyzerComponents> constructor = AnalyzerComponents.class.getDeclaredConstructor(
+                    TokenizerFactory.class, CharFilterFactory[].class, TokenFilterFactory[].class);
+            constructor.setAccessible(true);
+            components = constructor.newInstance(Mockito.mock(TokenizerFactory.class), new CharFilterFactory[0],
+                    new TokenFilterFactory[0]);
+        }
+        
+        @Override
+        public AnalyzerComponents getComponents() {
+            return components;
+        }
+    }
+}
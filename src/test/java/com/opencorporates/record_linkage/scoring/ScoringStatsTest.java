@@ -0,0 +1,172 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.IndexAnalyzers;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.search.lookup.DocLookup;
+import org.elasticsearch.search.lookup.SearchLookup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.opencorporates.record_linkage.TestIndex;
+
+public class ScoringStatsTest {
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private SearchLookup lookup;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        for (String name : Arrays.asList("greentech distribution ltd", "acme corp", "greentech ltd")) {
+            index.addWithTermVectors("name", name);
+        }
+        reader = index.reader();
+        
+        lookup = Mockito.mock(SearchLookup.class);
+        DocLookup docLookup = Mockito.mock(DocLookup.class);
+        MapperService mapperService = Mockito.mock(MapperService.class);
+        IndexAnalyzers indexAnalyzers = new IndexAnalyzers(
+                Collections.singletonMap("default", new NamedAnalyzer("default", AnalyzerScope.GLOBAL, new WhitespaceAnalyzer())),
+                Collections.emptyMap(), Collections.emptyMap());
+        Mockito.when(lookup.doc()).thenReturn(docLookup);
+        Mockito.when(docLookup.mapperService()).thenReturn(mapperService);
+        Mockito.when(mapperService.getIndexAnalyzers()).thenReturn(indexAnalyzers);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    private Map<String, Object> params(String query) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("query", query);
+        params.put("field", "name");
+        return params;
+    }
+    
+    @Test
+    public void testScriptsRecordMetrics() throws IOException {
+        RecordLinkageScorer scorer = new RecordLinkageScorer(DocFreqCache.disabled(), new ScoringStats(true));
+        SimilarityScript script = scorer.newFactory("tfidf", params("greentech ltd"), lookup).similarityScript(reader.leaves().get(0));
+        for (int docId = 0; docId < 3; docId++) {
+            script.setDocument(docId);
+            script.execute();
+        }
+        
+        List<SimilarityStats> stats = scorer.getStats().snapshot();
+        Assert.assertEquals(1, stats.size());
+        Assert.assertEquals("tfidf", stats.get(0).similarity());
+        Assert.assertEquals("name", stats.get(0).field());
+        Assert.assertEquals(1L, stats.get(0).scripts());
+        Assert.assertEquals(3L, stats.get(0).documents());
+        Assert.assertEquals(0L, stats.get(0).prefiltered());
+        Assert.assertTrue(stats.get(0).fetchNanos() > 0L);
+        Assert.assertTrue(stats.get(0).frequencyNanos() > 0L);
+        Assert.assertTrue(stats.get(0).latencyPercentile(99) > 0L);
+    }
+    
+    @Test
+    public void testNoFrequencyPhase() throws IOException {
+        RecordLinkageScorer scorer = new RecordLinkageScorer(DocFreqCache.disabled(), new ScoringStats(true));
+        SimilarityScript script = scorer.newFactory("levenshtein", params("greentech ltd"), lookup).similarityScript(reader.leaves().get(0));
+        for (int docId = 0; docId < 3; docId++) {
+            script.setDocument(docId);
+            script.execute();
+        }
+        
+        SimilarityStats stats = scorer.getStats().snapshot().get(0);
+        Assert.assertEquals(3L, stats.documents());
+        Assert.assertEquals(0L, stats.frequencyNanos());
+    }
+    
+    @Test
+    public void testPrefilteredDocuments() throws IOException {
+        RecordLinkageScorer scorer = new RecordLinkageScorer(DocFreqCache.disabled(), new ScoringStats(true));
+        Map<String, Object> params = params("north east services ltd");
+        params.put("max_distance", 1);
+        SimilarityScript script = scorer.newFactory("levenshtein", params, lookup).similarityScript(reader.leaves().get(0));
+        // "acme corp" shares no token with the query
+        script.setDocument(1);
+        Assert.assertEquals(0., script.execute(), 0.);
+        
+        SimilarityStats stats = scorer.getStats().snapshot().get(0);
+        Assert.assertEquals(0L, stats.documents());
+        Assert.assertEquals(1L, stats.prefiltered());
+    }
+    
+    @Test
+    public void testDisabled() throws IOException {
+        RecordLinkageScorer scorer = new RecordLinkageScorer(DocFreqCache.disabled(), ScoringStats.disabled());
+        SimilarityScript script = scorer.newFactory("tfidf", params("greentech ltd"), lookup).similarityScript(reader.leaves().get(0));
+        script.setDocument(0);
+        script.execute();
+        
+        Assert.assertTrue(scorer.getStats().snapshot().isEmpty());
+    }
+    
+    @Test
+    public void testAddAndSerialize() throws IOException {
+        ScoringStats stats = new ScoringStats(true);
+        stats.metrics("tfidf", "name").record(10, 20, 30);
+        stats.metrics("tfidf", "name").record(1000, 0, 0);
+        stats.metrics("levenshtein", "name").scriptCreated();
+        
+        List<SimilarityStats> snapshot = stats.snapshot();
+        Assert.assertEquals("levenshtein", snapshot.get(0).similarity());
+        SimilarityStats tfidf = snapshot.get(1);
+        Assert.assertEquals(2L, tfidf.documents());
+        Assert.assertEquals(1010L, tfidf.fetchNanos());
+        Assert.assertEquals(20L, tfidf.frequencyNanos());
+        Assert.assertEquals(30L, tfidf.computeNanos());
+        // 60ns falls in [32, 64), 1000ns in [512, 1024)
+        Assert.assertEquals(64L, tfidf.latencyPercentile(50));
+        Assert.assertEquals(1024L, tfidf.latencyPercentile(99));
+        
+        SimilarityStats sum = tfidf.add(tfidf);
+        Assert.assertEquals(4L, sum.documents());
+        Assert.assertEquals(2020L, sum.fetchNanos());
+        Assert.assertEquals(64L, sum.latencyPercentile(50));
+        
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            sum.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                Assert.assertEquals(sum, new SimilarityStats(in));
+            }
+        }
+    }
+    
+    @Test
+    public void testMaxFields() {
+        ScoringStats stats = new ScoringStats(true, 2);
+        Assert.assertSame(stats.metrics("tfidf", "name"), stats.metrics("tfidf", "name"));
+        stats.metrics("levenshtein", "name");
+        // further fields are counted together
+        ScoringStats.Metrics other = stats.metrics("tfidf", "address");
+        Assert.assertSame(other, stats.metrics("tfidf", "previous_names"));
+        Assert.assertNotSame(other, stats.metrics("levenshtein", "address"));
+        Assert.assertSame(stats.metrics("tfidf", "name"), stats.metrics("tfidf", "name"));
+        
+        List<SimilarityStats> snapshot = stats.snapshot();
+        Assert.assertEquals(4, snapshot.size());
+        Assert.assertEquals(ScoringStats.OTHER_FIELD, snapshot.get(0).field());
+        Assert.assertEquals(ScoringStats.OTHER_FIELD, snapshot.get(2).field());
+    }
+}
@@ -0,0 +1,67 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.TestIndex;
+import com.opencorporates.record_linkage.similarity.TFIDFSimilarity;
+
+public class ShardStatisticsTest {
+    
+    private TestIndex index;
+    private DirectoryReader reader;
+    private List<BytesRef> queryTerms;
+    
+    @Before
+    public void setUp() throws IOException {
+        index = new TestIndex();
+        for (String name : Arrays.asList("greentech distribution ltd", "acme corp", "north east services ltd")) {
+            index.addText("name", name);
+            // one segment per document
+            index.commit();
+        }
+        reader = index.reader();
+        queryTerms = Arrays.asList(new BytesRef("greentech"), new BytesRef("ltd"), new BytesRef("ltd"));
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+    
+    @Test
+    public void testBuild() throws IOException {
+        Assert.assertEquals(3, reader.leaves().size());
+        for (LeafReaderContext context : reader.leaves()) {
+            ShardStatistics statistics = ShardStatistics.build(context, "name", queryTerms);
+            Assert.assertSame(reader, statistics.reader());
+            Assert.assertEquals(3, statistics.docCount());
+            Assert.assertEquals(1L, statistics.queryDocFreq(0));
+            Assert.assertEquals(2L, statistics.queryDocFreq(1));
+            Assert.assertEquals(2L, statistics.queryDocFreq(2));
+        }
+    }
+    
+    @Test
+    public void testScriptStatistics() throws IOException {
+        LeafReaderContext context = reader.leaves().get(1);
+        ShardStatistics statistics = ShardStatistics.build(context, "name", queryTerms);
+        SimilarityScript script = new SimilarityScript(context.reader(), "name", "greentech ltd ltd", queryTerms, 100,
+                new TFIDFSimilarity(), DocFreqCache.disabled(), statistics);
+        
+        Assert.assertEquals(3, script.numDocs());
+        Assert.assertEquals(1L, script.docFreq(0));
+        Assert.assertEquals(2L, script.docFreq(1));
+        // other tokens are also looked up over the whole shard
+        Assert.assertEquals(1L, script.getFrequencies(Arrays.asList("north")).get("north").longValue());
+    }
+}
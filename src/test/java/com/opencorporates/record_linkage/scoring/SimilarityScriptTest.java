@@ -13,7 +13,11 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import com.opencorporates.record_linkage.LeafReaderStub;
+import com.opencorporates.record_linkage.similarity.PreparedSimilarity;
 import com.opencorporates.record_linkage.similarity.StringSimilarity;
+import com.opencorporates.record_linkage.similarity.TokenSequence;
+import com.opencorporates.record_linkage.similarity.TokenSimilarity;
+import com.opencorporates.record_linkage.similarity.TokenStatistics;
 
 public class SimilarityScriptTest {
     
@@ -65,4 +69,85 @@ public class SimilarityScriptTest {
         Assert.assertEquals(0.5, SUT.execute(), 0.001);
     }
     
+    @Test
+    public void testValueModes() {
+        CountingSimilarity counting = new CountingSimilarity();
+        SUT = new SimilarityScript(reader, "name", "greentech distribution ltd", queryTokens, 1, 1234, counting);
+        SUT.setDocument(6);
+        
+        // the value with the highest bound matches perfectly, so the others are skipped
+        Assert.assertEquals(1.0, SUT.execute(), 0.001);
+        Assert.assertEquals(1, counting.scored);
+        
+        counting.scored = 0;
+        SUT.setValueMode(ValueMode.SUM, 3);
+        Assert.assertEquals(5. / 3., SUT.execute(), 0.001);
+        Assert.assertEquals(3, counting.scored);
+        SUT.setValueMode(ValueMode.AVG, 3);
+        Assert.assertEquals(5. / 9., SUT.execute(), 0.001);
+        SUT.setValueMode(ValueMode.TOP_K_MEAN, 2);
+        Assert.assertEquals(2. / 3., SUT.execute(), 0.001);
+        SUT.setValueMode(ValueMode.TOP_K_MEAN, 5);
+        Assert.assertEquals(5. / 9., SUT.execute(), 0.001);
+        
+        // without a perfect match, values are skipped once their bound is reached
+        SUT = new SimilarityScript(reader, "name", "greentech distribution services",
+                Arrays.asList("greentech", "distribution", "services"), 1, 1234, counting);
+        SUT.setDocument(6);
+        counting.scored = 0;
+        Assert.assertEquals(2. / 3., SUT.execute(), 0.001);
+        Assert.assertEquals(1, counting.scored);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidValueMode() {
+        ValueMode.fromString("median");
+    }
+    
+    /**
+     * The share of query tokens found in the field value, bounded by the length of the value.
+     */
+    private static class CountingSimilarity implements StringSimilarity, TokenSimilarity {
+        
+        int scored = 0;
+        
+        @Override
+        public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
+                List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public double compute(TokenSequence query, TokenSequence field, TokenStatistics statistics) {
+            return prepare(query, statistics).score(field);
+        }
+        
+        @Override
+        public PreparedSimilarity prepare(TokenSequence query, TokenStatistics statistics) {
+            return new PreparedSimilarity() {
+                @Override
+                public double score(TokenSequence field) {
+                    scored++;
+                    int matched = 0;
+                    for (int i = 0; i < query.length(); i++) {
+                        if (field.contains(query.id(i))) {
+                            matched++;
+                        }
+                    }
+                    return (double) matched / query.length();
+                }
+                
+                @Override
+                public double maxScore() {
+                    return 1.;
+                }
+                
+                @Override
+                public double upperBound(TokenSequence field) {
+                    return Math.min(1., (double) field.length() / query.length());
+                }
+            };
+        }
+    }
+    
 }
@@ -0,0 +1,69 @@
+package com.opencorporates.record_linkage.scoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.similarity.TokenDictionary;
+
+public class TermVectorDecoderTest {
+    
+    private TokenDictionary dictionary;
+    private TermVectorDecoder SUT;
+    
+    @Before
+    public void setUp() {
+        dictionary = new TokenDictionary();
+        SUT = new TermVectorDecoder(dictionary, 1);
+    }
+    
+    @Test
+    public void testMultipleValues() throws IOException {
+        List<List<String>> values = Arrays.asList(
+                Arrays.asList("greentech", "distribution"),
+                Arrays.asList("greentech", "ltd"),
+                Arrays.asList("services"));
+        Assert.assertEquals(3, SUT.decode(new TermsStub.TermsEnumStub(values, Collections.emptyMap())));
+        Assert.assertEquals(values, decoded());
+    }
+    
+    @Test
+    public void testReuseAcrossDocuments() throws IOException {
+        List<List<String>> first = Arrays.asList(
+                Arrays.asList("greentech", "distribution", "services", "ltd"),
+                Arrays.asList("greentech", "ltd"));
+        List<List<String>> second = Collections.singletonList(Arrays.asList("ltd"));
+        
+        SUT.decode(new TermsStub.TermsEnumStub(first, Collections.emptyMap()));
+        SUT.decode(new TermsStub.TermsEnumStub(second, Collections.emptyMap()));
+        Assert.assertEquals(second, decoded());
+        
+        SUT.decode(new TermsStub.TermsEnumStub(first, Collections.emptyMap()));
+        Assert.assertEquals(first, decoded());
+        Assert.assertEquals(4, dictionary.size());
+    }
+    
+    @Test
+    public void testEmpty() throws IOException {
+        Assert.assertEquals(0, SUT.decode(new TermsStub.TermsEnumStub(Collections.emptyList(), Collections.emptyMap())));
+    }
+    
+    private List<List<String>> decoded() {
+        List<List<String>> values = new ArrayList<>();
+        for(int value = 0; value < SUT.valueCount(); value++) {
+            List<String> tokens = new ArrayList<>();
+            for(int i = SUT.valueStart(value); i < SUT.valueEnd(value); i++) {
+                tokens.add(dictionary.get(SUT.tokens()[i], new BytesRef()).utf8ToString());
+            }
+            values.add(tokens);
+        }
+        return values;
+    }
+}
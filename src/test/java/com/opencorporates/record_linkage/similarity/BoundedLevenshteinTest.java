@@ -0,0 +1,88 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedLevenshteinTest {
+    
+    private BoundedLevenshtein SUT;
+    
+    @Before
+    public void setUp() {
+        SUT = new BoundedLevenshtein();
+    }
+    
+    @Test
+    public void testShortStrings() {
+        Assert.assertEquals(3, distance("kitten", "sitting", 10));
+        Assert.assertEquals(3, distance("sitting", "kitten", 3));
+        Assert.assertEquals(3, distance("kitten", "sitting", 2));
+        Assert.assertEquals(0, distance("", "", 0));
+        Assert.assertEquals(4, distance("", "abcd", 4));
+        Assert.assertEquals(1, distance("greentech", "grëentech", 5));
+    }
+    
+    @Test
+    public void testRandomStrings() {
+        Random random = new Random(1234);
+        for (int i = 0; i < 500; i++) {
+            String a = randomString(random, random.nextInt(150));
+            String b = random.nextBoolean() ? randomString(random, random.nextInt(150)) : mutate(random, a);
+            int expected = naiveDistance(a, b);
+            int bound = random.nextInt(40);
+            Assert.assertEquals(a + " / " + b, Math.min(expected, bound + 1), distance(a, b, bound));
+            Assert.assertEquals(a + " / " + b, expected, distance(a, b, 200));
+        }
+    }
+    
+    private int distance(String a, String b, int bound) {
+        return SUT.distance(a.toCharArray(), a.length(), b.toCharArray(), b.length(), bound);
+    }
+    
+    private String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append(random.nextInt(10) == 0 ? 'é' : (char) ('a' + random.nextInt(4)));
+        }
+        return builder.toString();
+    }
+    
+    private String mutate(Random random, String s) {
+        StringBuilder builder = new StringBuilder(s);
+        int edits = random.nextInt(10);
+        for (int i = 0; i < edits && builder.length() > 0; i++) {
+            int position = random.nextInt(builder.length());
+            switch(random.nextInt(3)) {
+            case 0:
+                builder.deleteCharAt(position);
+                break;
+            case 1:
+                builder.insert(position, 'x');
+                break;
+            default:
+                builder.setCharAt(position, 'y');
+            }
+        }
+        return builder.toString();
+    }
+    
+    private int naiveDistance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(d[i - 1][j - 1] + cost, Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1));
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
@@ -28,4 +28,14 @@ public class ExactTFIDFSimilarityTest extends StringSimilarityTestBase {
                 Arrays.asList("greentech", "services"));
         Assert.assertEquals(0.0, score, 0.01);
     }
+    
+    @Test
+    public void testTokenIds() {
+        Assert.assertEquals(15.41, invokeTokens("greentech services ltd",
+                Arrays.asList("greentech", "services", "ltd"),
+                Arrays.asList("greentech", "services", "ltd")), 0.01);
+        Assert.assertEquals(0.0, invokeTokens("greentech services ltd",
+                Arrays.asList("greentech", "services", "ltd"),
+                Arrays.asList("greentech", "ltd", "services")), 0.01);
+    }
 }
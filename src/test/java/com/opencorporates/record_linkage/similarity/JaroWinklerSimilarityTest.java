@@ -0,0 +1,76 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JaroWinklerSimilarityTest {
+    
+    private StringSimilarity SUT;
+    
+    @Before
+    public void setUp() {
+        SUT = new JaroWinklerSimilarity();
+    }
+    
+    private double compute(String query, String field) {
+        return SUT.compute(query, Arrays.asList(query.split(" ")), Collections.emptyMap(),
+                Arrays.asList(field.split(" ")), Collections.emptyMap(), 1234);
+    }
+    
+    @Test
+    public void testReferenceValues() {
+        // values from Winkler (1990)
+        Assert.assertEquals(0.961, compute("martha", "marhta"), 0.001);
+        Assert.assertEquals(0.840, compute("dwayne", "duane"), 0.001);
+        Assert.assertEquals(0.813, compute("dixon", "dicksonx"), 0.001);
+        Assert.assertEquals(1.0, compute("greentech ltd", "greentech ltd"), 0.);
+        Assert.assertEquals(0.0, compute("abc", "xyz"), 0.);
+    }
+    
+    @Test
+    public void testTokenIds() {
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenSequence query = sequence(dictionary, "greentech", "ltd");
+        TokenSequence field = sequence(dictionary, "greentech", "limited");
+        Assert.assertEquals(compute("greentech ltd", "greentech limited"),
+                ((TokenSimilarity)SUT).compute(query, field, null), 0.0001);
+        
+        PreparedSimilarity prepared = ((TokenSimilarity)SUT).prepare(query, null);
+        Assert.assertEquals(compute("greentech ltd", "greentech limited"), prepared.score(field), 0.0001);
+        // the buffers are reused for longer values
+        Assert.assertEquals(compute("greentech ltd", "greentech distribution services limited"),
+                prepared.score(sequence(dictionary, "greentech", "distribution", "services", "limited")), 0.0001);
+        Assert.assertEquals(1.0, prepared.score(query), 0.);
+    }
+    
+    @Test
+    public void testParameters() {
+        Assert.assertSame(SUT, SUT.withParameters(Collections.emptyMap()));
+        
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("prefix_scale", 0);
+        SUT = SUT.withParameters(parameters);
+        // the Jaro similarity, without prefix bonus
+        Assert.assertEquals(0.944, compute("martha", "marhta"), 0.001);
+        
+        parameters.put("prefix_scale", 0.5);
+        Assert.assertEquals(0.25, ((JaroWinklerSimilarity) SUT.withParameters(parameters)).getPrefixScale(), 0.);
+        
+        parameters.put("prefix_scale", 0.1);
+        parameters.put("boost_threshold", 0.95);
+        SUT = SUT.withParameters(parameters);
+        Assert.assertEquals(0.944, compute("martha", "marhta"), 0.001);
+    }
+    
+    private TokenSequence sequence(TokenDictionary dictionary, String... tokens) {
+        int[] ids = Arrays.stream(tokens).mapToInt(t -> dictionary.add(new BytesRef(t))).toArray();
+        return new TokenSequence(dictionary, ids, 0, ids.length);
+    }
+}
@@ -5,6 +5,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.lucene.util.BytesRef;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -30,8 +31,47 @@ public class LevenshteinSimilarityTest {
         Assert.assertEquals(score, 95.0, 0.01);
     }
     
+    @Test
+    public void testTokenIds() {
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenSequence query = sequence(dictionary, "is", "this", "a", "tést?");
+        TokenSequence field = sequence(dictionary, "this", "is", "a", "test");
+        // distances are computed on characters, not on UTF-8 bytes
+        Assert.assertEquals(94.0, ((TokenSimilarity)SUT).compute(query, field, null), 0.01);
+    }
+    
+    @Test
+    public void testPrepared() {
+        TokenDictionary dictionary = new TokenDictionary();
+        PreparedSimilarity prepared = ((TokenSimilarity)SUT).prepare(sequence(dictionary, "greentech", "ltd"), null);
+        Assert.assertEquals(100.0, prepared.score(sequence(dictionary, "greentech", "ltd")), 0.01);
+        Assert.assertEquals(96.0, prepared.score(sequence(dictionary, "greentech")), 0.01);
+        Assert.assertEquals(99.0, prepared.score(sequence(dictionary, "greentec", "ltd")), 0.01);
+    }
+    
+    private TokenSequence sequence(TokenDictionary dictionary, String... tokens) {
+        int[] ids = Arrays.stream(tokens).mapToInt(t -> dictionary.add(new BytesRef(t))).toArray();
+        return new TokenSequence(dictionary, ids, 0, ids.length);
+    }
+    
     @Test
     public void testParameters() {
         Assert.assertEquals(SUT, SUT.withParameters(Collections.emptyMap()));
     }
+    
+    @Test
+    public void testMaxDistance() {
+        SUT = SUT.withParameters(Collections.singletonMap("max_distance", 4));
+        double score = SUT.compute("is this a test?",
+                Arrays.asList("is", "this", "a", "test?"),
+                Collections.emptyMap(),
+                Arrays.asList("this", "is", "a", "test"),
+                frequencies, 1234);
+        Assert.assertEquals(0.0, score, 0.01);
+        
+        TokenDictionary dictionary = new TokenDictionary();
+        PreparedSimilarity prepared = ((TokenSimilarity)SUT).prepare(sequence(dictionary, "greentech", "ltd"), null);
+        Assert.assertEquals(96.0, prepared.score(sequence(dictionary, "greentech")), 0.01);
+        Assert.assertEquals(0.0, prepared.score(sequence(dictionary, "greentech", "services")), 0.01);
+    }
 }
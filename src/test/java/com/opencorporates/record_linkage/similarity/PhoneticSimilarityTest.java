@@ -0,0 +1,121 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PhoneticSimilarityTest {
+    
+    private static final int NUM_DOCS = 1000;
+    private static final Map<String, Long> FREQS = new HashMap<>();
+    static {
+        FREQS.put("john", 200L);
+        FREQS.put("jon", 20L);
+        FREQS.put("smith", 100L);
+        FREQS.put("smyth", 5L);
+        FREQS.put("schmidt", 10L);
+        FREQS.put("catherine", 30L);
+        FREQS.put("kathryn", 15L);
+    }
+    
+    private StringSimilarity SUT;
+    
+    @Before
+    public void setUp() {
+        SUT = new PhoneticSimilarity();
+    }
+    
+    private double compute(StringSimilarity similarity, String query, String field) {
+        List<String> queryTokens = Arrays.asList(query.split(" "));
+        List<String> fieldTokens = Arrays.asList(field.split(" "));
+        return similarity.compute(query, queryTokens, freqs(queryTokens), fieldTokens, freqs(fieldTokens), NUM_DOCS);
+    }
+    
+    private Map<String, Long> freqs(List<String> tokens) {
+        Map<String, Long> freqs = new HashMap<>();
+        for (String token : tokens) {
+            freqs.put(token, FREQS.getOrDefault(token, 0L));
+        }
+        return freqs;
+    }
+    
+    private StringSimilarity withEncoder(String encoder) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("encoder", encoder);
+        return SUT.withParameters(parameters);
+    }
+    
+    @Test
+    public void testSimilarity() {
+        Assert.assertEquals(1.0, compute(SUT, "john smith", "jon smyth"), 0.0001);
+        Assert.assertEquals(1.0, compute(SUT, "catherine", "kathryn"), 0.0001);
+        Assert.assertEquals(0.0, compute(SUT, "john", "catherine"), 0.);
+        
+        // the unmatched token weighs according to its frequency
+        double partial = compute(SUT, "john smith", "jon catherine");
+        Assert.assertTrue(partial > 0. && partial < 1.);
+        Assert.assertTrue(compute(SUT, "john smith", "smyth catherine") > partial);
+    }
+    
+    @Test
+    public void testEncoders() {
+        // the alternate encoding of Double Metaphone matches Smith and Schmidt
+        Assert.assertEquals(1.0, compute(SUT, "smith", "schmidt"), 0.0001);
+        Assert.assertEquals(0.0, compute(withEncoder("metaphone"), "smith", "schmidt"), 0.);
+        Assert.assertEquals(1.0, compute(withEncoder("soundex"), "smith", "smyth"), 0.0001);
+        Assert.assertEquals(1.0, compute(withEncoder("refined_soundex"), "smith", "smyth"), 0.0001);
+        Assert.assertEquals(1.0, compute(withEncoder("nysiis"), "john", "jon"), 0.0001);
+        Assert.assertEquals(1.0, compute(withEncoder("beider_morse"), "smith", "smyth"), 0.0001);
+        // digits have no code
+        Assert.assertEquals(0.0, compute(withEncoder("soundex"), "1234", "1234"), 0.);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidEncoder() {
+        withEncoder("caverphone");
+    }
+    
+    @Test
+    public void testTokenIds() {
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenStatistics statistics = statistics(dictionary);
+        PreparedSimilarity prepared = ((TokenSimilarity) SUT).prepare(sequence(dictionary, "john", "smith", "john"), statistics);
+        
+        for (String field : Arrays.asList("jon smyth", "catherine", "jon catherine", "smyth catherine", "jon smyth")) {
+            Assert.assertEquals(compute(SUT, "john smith", field),
+                    prepared.score(sequence(dictionary, field.split(" "))), 0.0001);
+        }
+        // codes are only computed once per distinct token
+        PhoneticSimilarity similarity = new PhoneticSimilarity(PhoneticSimilarity.Encoder.NYSIIS);
+        int cached = similarity.cachedCount();
+        String[] codes = similarity.codes(new BytesRef("anotherveryraretoken"));
+        Assert.assertEquals(cached + 1, similarity.cachedCount());
+        Assert.assertSame(codes, similarity.codes(new BytesRef("anotherveryraretoken")));
+    }
+    
+    private TokenStatistics statistics(TokenDictionary dictionary) {
+        BytesRef scratch = new BytesRef();
+        return new TokenStatistics() {
+            @Override
+            public long docFreq(int tokenId) {
+                return FREQS.getOrDefault(dictionary.get(tokenId, scratch).utf8ToString(), 0L);
+            }
+
+            @Override
+            public int numDocs() {
+                return NUM_DOCS;
+            }
+        };
+    }
+    
+    private TokenSequence sequence(TokenDictionary dictionary, String... tokens) {
+        int[] ids = Arrays.stream(tokens).mapToInt(t -> dictionary.add(new BytesRef(t))).toArray();
+        return new TokenSequence(dictionary, ids, 0, ids.length);
+    }
+}
@@ -0,0 +1,78 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QGramSimilarityTest {
+    
+    private StringSimilarity SUT;
+    
+    @Before
+    public void setUp() {
+        SUT = new QGramSimilarity();
+    }
+    
+    private static List<String> trigrams(String text) {
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            grams.add(text.substring(i, i + 3));
+        }
+        return grams;
+    }
+    
+    private double compute(StringSimilarity similarity, String query, String field) {
+        return similarity.compute(query, trigrams(query), Collections.emptyMap(),
+                trigrams(field), Collections.emptyMap(), 1234);
+    }
+    
+    private StringSimilarity withMeasure(String measure) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("measure", measure);
+        return SUT.withParameters(parameters);
+    }
+    
+    @Test
+    public void testMeasures() {
+        // "greentech" has 7 trigrams, "greentek" 6, and they share 5
+        Assert.assertEquals(5. / 8., compute(SUT, "greentech", "greentek"), 0.0001);
+        Assert.assertEquals(10. / 13., compute(withMeasure("dice"), "greentech", "greentek"), 0.0001);
+        Assert.assertEquals(5. / Math.sqrt(42.), compute(withMeasure("COSINE"), "greentech", "greentek"), 0.0001);
+        Assert.assertEquals(1.0, compute(SUT, "greentech", "greentech"), 0.);
+        Assert.assertEquals(0.0, compute(SUT, "greentech", "acme"), 0.);
+        // repeated q-grams are counted once
+        Assert.assertEquals(1.0, compute(SUT, "aaaa", "aaaaaa"), 0.);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMeasure() {
+        withMeasure("euclidean");
+    }
+    
+    @Test
+    public void testTokenIds() {
+        TokenDictionary dictionary = new TokenDictionary();
+        // a long query, whose q-grams span several words of the bitset
+        String query = "greentech distribution services and logistics international holdings limited";
+        PreparedSimilarity prepared = ((TokenSimilarity) SUT).prepare(sequence(dictionary, query), null);
+        
+        for (String field : Arrays.asList("greentek distribution ltd", "greentech", "acme corp", query,
+                "greentek distribution ltd", "holdings limited international")) {
+            Assert.assertEquals(compute(SUT, query, field), prepared.score(sequence(dictionary, field)), 0.0001);
+        }
+        Assert.assertEquals(0.0, prepared.score(new TokenSequence(dictionary)), 0.);
+    }
+    
+    private TokenSequence sequence(TokenDictionary dictionary, String text) {
+        int[] ids = trigrams(text).stream().mapToInt(t -> dictionary.add(new BytesRef(t))).toArray();
+        return new TokenSequence(dictionary, ids, 0, ids.length);
+    }
+}
@@ -0,0 +1,132 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SoftTFIDFSimilarityTest {
+    
+    private static final int NUM_DOCS = 1000;
+    private static final Map<String, Long> FREQS = new HashMap<>();
+    static {
+        FREQS.put("greentech", 3L);
+        FREQS.put("greentek", 1L);
+        FREQS.put("distribution", 40L);
+        FREQS.put("ltd", 600L);
+        FREQS.put("limited", 300L);
+        FREQS.put("acme", 10L);
+    }
+    
+    private StringSimilarity SUT;
+    
+    @Before
+    public void setUp() {
+        SUT = new SoftTFIDFSimilarity();
+    }
+    
+    private double compute(StringSimilarity similarity, String query, String field) {
+        List<String> queryTokens = Arrays.asList(query.split(" "));
+        List<String> fieldTokens = Arrays.asList(field.split(" "));
+        return similarity.compute(query, queryTokens, freqs(queryTokens), fieldTokens, freqs(fieldTokens), NUM_DOCS);
+    }
+    
+    private Map<String, Long> freqs(List<String> tokens) {
+        Map<String, Long> freqs = new HashMap<>();
+        for (String token : tokens) {
+            freqs.put(token, FREQS.getOrDefault(token, 0L));
+        }
+        return freqs;
+    }
+    
+    @Test
+    public void testExactMatchesLikeTFIDF() {
+        TFIDFSimilarity tfidf = new TFIDFSimilarity();
+        Assert.assertEquals(compute(tfidf, "greentech ltd", "greentech distribution ltd"),
+                compute(SUT, "greentech ltd", "greentech distribution ltd"), 0.0001);
+        Assert.assertEquals(1.0, compute(SUT, "greentech ltd", "greentech ltd"), 0.0001);
+        Assert.assertEquals(0.0, compute(SUT, "greentech ltd", "acme"), 0.);
+    }
+    
+    @Test
+    public void testTypos() {
+        // TFIDF ignores the misspelt token, SoftTFIDF does not
+        Assert.assertEquals(0.0, compute(new TFIDFSimilarity(), "greentech", "greentek ltd"), 0.);
+        double soft = compute(SUT, "greentech", "greentek ltd");
+        Assert.assertTrue(soft > 0.5);
+        Assert.assertTrue(soft < compute(SUT, "greentech", "greentech ltd"));
+        
+        // below the threshold, tokens do not match
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("threshold", 0.99);
+        Assert.assertEquals(0.0, compute(SUT.withParameters(parameters), "greentech", "greentek ltd"), 0.);
+    }
+    
+    @Test
+    public void testTokenIds() {
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenSequence query = sequence(dictionary, "greentech", "ltd");
+        TokenStatistics statistics = statistics(dictionary);
+        PreparedSimilarity prepared = ((TokenSimilarity) SUT).prepare(query, statistics);
+        
+        Assert.assertEquals(compute(SUT, "greentech ltd", "greentek limited"),
+                prepared.score(sequence(dictionary, "greentek", "limited")), 0.0001);
+        Assert.assertEquals(compute(SUT, "greentech ltd", "greentech distribution ltd"),
+                prepared.score(sequence(dictionary, "greentech", "distribution", "ltd")), 0.0001);
+        // memoized similarities give the same scores
+        Assert.assertEquals(compute(SUT, "greentech ltd", "greentek limited"),
+                prepared.score(sequence(dictionary, "greentek", "limited")), 0.0001);
+        
+        // without memo
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("max_memo_tokens", 0);
+        PreparedSimilarity unmemoized = ((TokenSimilarity) SUT.withParameters(parameters)).prepare(query, statistics);
+        Assert.assertEquals(compute(SUT, "greentech ltd", "greentek limited"),
+                unmemoized.score(sequence(dictionary, "greentek", "limited")), 0.0001);
+    }
+    
+    @Test
+    public void testMemoEviction() {
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenSequence query = sequence(dictionary, "greentech", "ltd");
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("max_memo_tokens", 2);
+        SoftTFIDFSimilarity.PreparedSoftTFIDF prepared = (SoftTFIDFSimilarity.PreparedSoftTFIDF)
+                ((TokenSimilarity) SUT.withParameters(parameters)).prepare(query, statistics(dictionary));
+        
+        Assert.assertEquals(compute(SUT, "greentech ltd", "greentek limited"),
+                prepared.score(sequence(dictionary, "greentek", "limited")), 0.0001);
+        Assert.assertEquals(2, prepared.memoizedTokens());
+        // a third field token empties the memo
+        Assert.assertEquals(compute(SUT, "greentech ltd", "acme"), prepared.score(sequence(dictionary, "acme")), 0.0001);
+        Assert.assertEquals(1, prepared.memoizedTokens());
+        Assert.assertEquals(compute(SUT, "greentech ltd", "greentek limited"),
+                prepared.score(sequence(dictionary, "greentek", "limited")), 0.0001);
+        Assert.assertEquals(2, prepared.memoizedTokens());
+    }
+    
+    private TokenStatistics statistics(TokenDictionary dictionary) {
+        BytesRef scratch = new BytesRef();
+        return new TokenStatistics() {
+            @Override
+            public long docFreq(int tokenId) {
+                return FREQS.getOrDefault(dictionary.get(tokenId, scratch).utf8ToString(), 0L);
+            }
+
+            @Override
+            public int numDocs() {
+                return NUM_DOCS;
+            }
+        };
+    }
+    
+    private TokenSequence sequence(TokenDictionary dictionary, String... tokens) {
+        int[] ids = Arrays.stream(tokens).mapToInt(t -> dictionary.add(new BytesRef(t))).toArray();
+        return new TokenSequence(dictionary, ids, 0, ids.length);
+    }
+}
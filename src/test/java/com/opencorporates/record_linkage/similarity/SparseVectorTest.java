@@ -0,0 +1,57 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseVectorTest {
+    
+    private SparseVector vector(int[] ids, double[] weights) {
+        SparseVector vector = new SparseVector(2);
+        for (int i = 0; i < ids.length; i++) {
+            vector.add(ids[i], weights[i]);
+        }
+        return vector.sort();
+    }
+    
+    @Test
+    public void testSort() {
+        SparseVector vector = vector(new int[] { 5, 2, 9, 2, 0 }, new double[] { 1., 2., 3., 4., 5. });
+        Assert.assertEquals(4, vector.size());
+        Assert.assertEquals(0, vector.id(0));
+        Assert.assertEquals(2, vector.id(1));
+        // the first occurrence of a token is kept
+        Assert.assertEquals(2., vector.weight(1), 0.);
+        Assert.assertEquals(5, vector.id(2));
+        Assert.assertEquals(9, vector.maxId());
+    }
+    
+    @Test
+    public void testDot() {
+        SparseVector a = vector(new int[] { 1, 3, 4, 8 }, new double[] { 1., 2., 3., 4. });
+        SparseVector b = vector(new int[] { 8, 0, 3, 10 }, new double[] { 0.5, 7., 2., 1. });
+        Assert.assertEquals(2. * 2. + 4. * 0.5, a.dot(b), 0.);
+        Assert.assertEquals(a.dot(b), b.dot(a), 0.);
+        Assert.assertEquals(0., a.dot(new SparseVector()), 0.);
+    }
+    
+    @Test
+    public void testNorms() {
+        SparseVector vector = vector(new int[] { 1, 2 }, new double[] { 3., 4. });
+        Assert.assertEquals(5., vector.l2Norm(), 0.);
+        Assert.assertEquals(7., vector.sum(), 0.);
+        Assert.assertEquals(25. / 5., vector.square().divide(5.).sum(), 0.);
+    }
+    
+    @Test
+    public void testReset() {
+        TokenDictionary dictionary = new TokenDictionary();
+        int[] ids = Arrays.asList("ltd", "acme", "ltd").stream().mapToInt(t -> dictionary.add(new BytesRef(t))).toArray();
+        SparseVector vector = vector(new int[] { 12 }, new double[] { 3. });
+        vector.reset(new TokenSequence(dictionary, ids, 0, ids.length));
+        Assert.assertEquals(2, vector.size());
+        Assert.assertEquals(2., vector.sum(), 0.);
+    }
+}
@@ -0,0 +1,59 @@
+package com.opencorporates.record_linkage.similarity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StringSimilarityAdapterTest extends StringSimilarityTestBase {
+    
+    private List<String> lastQuery;
+    private Map<String, Long> lastFieldFreqs;
+    
+    @Before
+    public void setUp() {
+        SUT = new StringSimilarity() {
+
+            @Override
+            public double compute(String query, List<String> queryTokens, Map<String, Long> queryFreqs,
+                    List<String> fieldTokens, Map<String, Long> fieldFreqs, int numDocs) {
+                lastQuery = queryTokens;
+                lastFieldFreqs = fieldFreqs;
+                return 0.5;
+            }
+        };
+    }
+    
+    @Test
+    public void testAdapter() {
+        double score = invokeTokens("greentech ltd", Arrays.asList("greentech", "ltd"), Arrays.asList("ltd", "services", "ltd"));
+        Assert.assertEquals(0.5, score, 0.001);
+        Assert.assertEquals(Arrays.asList("greentech", "ltd"), lastQuery);
+        Map<String, Long> expectedFreqs = new HashMap<>();
+        expectedFreqs.put("ltd", 1000L);
+        expectedFreqs.put("services", 100L);
+        Assert.assertEquals(expectedFreqs, lastFieldFreqs);
+    }
+    
+    @Test
+    public void testPrepared() {
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenSequence query = toSequence(dictionary, Arrays.asList("greentech", "ltd"));
+        PreparedSimilarity prepared = new StringSimilarityAdapter(SUT, "greentech ltd").prepare(query, statistics(dictionary));
+        query.reset(new int[0], 0, 0);
+        
+        Assert.assertEquals(0.5, prepared.score(toSequence(dictionary, Collections.emptyList())), 0.001);
+        Assert.assertEquals(Arrays.asList("greentech", "ltd"), lastQuery);
+    }
+    
+    @Test
+    public void testTokenSimilaritiesAreNotWrapped() {
+        TFIDFSimilarity similarity = new TFIDFSimilarity();
+        Assert.assertSame(similarity, StringSimilarityAdapter.adapt(similarity, "query"));
+    }
+}
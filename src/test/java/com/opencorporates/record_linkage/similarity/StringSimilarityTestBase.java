@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import org.apache.lucene.util.BytesRef;
 import org.junit.Before;
 
 public class StringSimilarityTestBase {
@@ -25,6 +26,39 @@ public class StringSimilarityTestBase {
         return SUT.compute(queryString, query, queryFreqs, field, docFreqs, 10000);
      }
     
+    /**
+     * Same as {@link #invoke(String, List, List)}, but via the {@link TokenSimilarity} interface.
+     */
+    protected double invokeTokens(String queryString, List<String> query, List<String> field) {
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenSequence querySequence = toSequence(dictionary, query);
+        TokenSequence fieldSequence = toSequence(dictionary, field);
+        return StringSimilarityAdapter.adapt(SUT, queryString).compute(querySequence, fieldSequence, statistics(dictionary));
+    }
+    
+    /**
+     * Statistics backed by the test frequencies, for tokens interned in the given dictionary.
+     */
+    protected TokenStatistics statistics(TokenDictionary dictionary) {
+        return new TokenStatistics() {
+
+            @Override
+            public long docFreq(int tokenId) {
+                return frequencies.getOrDefault(dictionary.get(tokenId, new BytesRef()).utf8ToString(), 0L);
+            }
+
+            @Override
+            public int numDocs() {
+                return 10000;
+            }
+        };
+    }
+    
+    protected TokenSequence toSequence(TokenDictionary dictionary, List<String> tokens) {
+        int[] ids = tokens.stream().mapToInt(t -> dictionary.add(new BytesRef(t))).toArray();
+        return new TokenSequence(dictionary, ids, 0, ids.length);
+    }
+    
     protected Map<String, Long> getFreqs(List<String> query) {
         return query.stream().collect(Collectors.toMap(s -> s, s -> frequencies.get(s)));
     }
@@ -2,6 +2,7 @@ package com.opencorporates.record_linkage.similarity;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Assert;
@@ -30,6 +31,15 @@ public class TFIDFSimilarityTest extends StringSimilarityTestBase {
         Assert.assertEquals(0.52, score, 0.01);
     }
     
+    @Test
+    public void testSuccessiveCalls() {
+        // the dictionary reused between calls does not carry tokens over
+        double score = invoke("greetech services", Arrays.asList("greentech", "services"), Arrays.asList("greentech", "services", "ltd"));
+        Assert.assertEquals(0., invoke("ltd", Arrays.asList("ltd"), Arrays.asList("greentech", "services")), 0.);
+        Assert.assertEquals(score,
+                invoke("greetech services", Arrays.asList("greentech", "services"), Arrays.asList("greentech", "services", "ltd")), 0.);
+    }
+    
     @Test
     public void testQueryNorms() {
         Map<String, Object> map = new HashMap<>();
@@ -42,4 +52,37 @@ public class TFIDFSimilarityTest extends StringSimilarityTestBase {
                 Arrays.asList("greentech", "services", "ltd"));
         Assert.assertEquals(2.66, score, 0.01); 
     }
+    
+    @Test
+    public void testTokenIds() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("query_norm_exponent", 0.5);
+        map.put("doc_norm_exponent", 0.2);
+        SUT = SUT.withParameters(map);
+        
+        List<String> query = Arrays.asList("services", "ltd");
+        List<String> field = Arrays.asList("greentech", "services", "ltd");
+        Assert.assertEquals(invoke("services ltd", query, field),
+                invokeTokens("services ltd", query, field), 0.0001);
+    }
+    
+    @Test
+    public void testPrecomputedNorm() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("doc_norm_exponent", 0.2);
+        SUT = SUT.withParameters(map);
+        
+        TokenDictionary dictionary = new TokenDictionary();
+        TokenSequence query = toSequence(dictionary, Arrays.asList("services", "ltd"));
+        TokenSequence field = toSequence(dictionary, Arrays.asList("greentech", "services", "ltd"));
+        double norm = 0.;
+        for (String token : Arrays.asList("greentech", "services", "ltd")) {
+            double weight = TFIDFSimilarity.idf(frequencies.get(token), 10000);
+            norm += weight * weight;
+        }
+        PreparedSimilarity prepared = ((TokenSimilarity) SUT).prepare(query, statistics(dictionary));
+        Assert.assertTrue(prepared instanceof NormalizedSimilarity);
+        Assert.assertEquals(prepared.score(field),
+                ((NormalizedSimilarity) prepared).score(field, Math.sqrt(norm)), 0.0001);
+    }
 }
@@ -0,0 +1,86 @@
+package com.opencorporates.record_linkage.stats;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodeRole;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.opencorporates.record_linkage.scoring.SimilarityStats;
+
+public class RecordLinkageStatsResponseTest {
+    
+    @BeforeClass
+    public static void setUpRoles() {
+        // normally done when the node starts
+        DiscoveryNode.setPossibleRoles(DiscoveryNodeRole.BUILT_IN_ROLES);
+    }
+    
+    private static NodeRecordLinkageStats node(String id, SimilarityStats... stats) {
+        DiscoveryNode node = new DiscoveryNode("name-" + id, id, new TransportAddress(InetAddress.getLoopbackAddress(), 9300),
+                Collections.emptyMap(), Collections.emptySet(), Version.CURRENT);
+        return new NodeRecordLinkageStats(node, Arrays.asList(stats), new Cache.CacheStats(3, 1, 0), 1);
+    }
+    
+    private static SimilarityStats stats(String similarity, String field, long documents) {
+        return new SimilarityStats(similarity, field, 1, documents, 0, 100 * documents, 10 * documents, 50 * documents, new long[] { 0, documents });
+    }
+    
+    private RecordLinkageStatsResponse response() {
+        return new RecordLinkageStatsResponse(new ClusterName("test"), Arrays.asList(
+                node("node1", stats("tfidf", "name", 5), stats("tfidf", "address", 2)),
+                node("node2", stats("tfidf", "name", 3))), Collections.emptyList());
+    }
+    
+    @Test
+    public void testTotal() {
+        List<SimilarityStats> total = response().total();
+        
+        Assert.assertEquals(2, total.size());
+        Assert.assertEquals("address", total.get(0).field());
+        Assert.assertEquals(2L, total.get(0).documents());
+        Assert.assertEquals("name", total.get(1).field());
+        Assert.assertEquals(8L, total.get(1).documents());
+        Assert.assertEquals(2L, total.get(1).scripts());
+        Assert.assertEquals(800L, total.get(1).fetchNanos());
+    }
+    
+    @Test
+    public void testSerialization() throws IOException {
+        RecordLinkageStatsResponse response = response();
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            response.writeTo(out);
+            try (StreamInput in = out.bytes().streamInput()) {
+                RecordLinkageStatsResponse read = new RecordLinkageStatsResponse(in);
+                Assert.assertEquals(2, read.getNodes().size());
+                Assert.assertEquals(response.total(), read.total());
+            }
+        }
+    }
+    
+    @Test
+    public void testToXContent() throws IOException {
+        XContentBuilder builder = JsonXContent.contentBuilder().startObject();
+        response().toXContent(builder, ToXContent.EMPTY_PARAMS);
+        String json = Strings.toString(builder.endObject());
+        
+        Assert.assertTrue(json.contains("\"total\":{\"similarities\":[{\"similarity\":\"tfidf\",\"field\":\"address\""));
+        Assert.assertTrue(json.contains("\"node1\":{\"name\":\"name-node1\",\"doc_freq_cache\":{\"count\":1,\"hits\":3,\"misses\":1,\"evictions\":0}"));
+    }
+}
@@ -0,0 +1,40 @@
+package org.apache.lucene.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cache helper which lets tests simulate the closing of a segment.
+ */
+public class CacheHelperStub implements IndexReader.CacheHelper {
+    
+    private final IndexReader.CacheKey key = new IndexReader.CacheKey();
+    private final List<IndexReader.ClosedListener> listeners = new ArrayList<>();
+    private int registrations = 0;
+
+    @Override
+    public IndexReader.CacheKey getKey() {
+        return key;
+    }
+
+    @Override
+    public void addClosedListener(IndexReader.ClosedListener listener) {
+        registrations++;
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+    
+    /**
+     * @return the number of times a listener was added, including listeners already added
+     */
+    public int registrations() {
+        return registrations;
+    }
+    
+    public void close() throws java.io.IOException {
+        for (IndexReader.ClosedListener listener : listeners) {
+            listener.onClose(key);
+        }
+    }
+}